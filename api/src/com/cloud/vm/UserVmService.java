@@ -24,6 +24,7 @@ import org.apache.cloudstack.api.command.admin.vm.AssignVMCmd;
 import org.apache.cloudstack.api.command.admin.vm.RecoverVMCmd;
 import org.apache.cloudstack.api.command.user.vm.AddNicToVMCmd;
 import org.apache.cloudstack.api.command.user.vm.DeployVMCmd;
+import org.apache.cloudstack.api.command.user.vm.DeployVMsCmd;
 import org.apache.cloudstack.api.command.user.vm.DestroyVMCmd;
 import org.apache.cloudstack.api.command.user.vm.RebootVMCmd;
 import org.apache.cloudstack.api.command.user.vm.RemoveNicFromVMCmd;
@@ -371,6 +372,41 @@ public interface UserVmService {
      */
     UserVm startVirtualMachine(DeployVMCmd cmd) throws InsufficientCapacityException, ConcurrentOperationException, ResourceUnavailableException;
 
+    /**
+     * Creates the virtual machines of a bulk deployment. The networks are
+     * resolved and the parameters and resource limits checked once for the
+     * whole batch, and the virtual machines are allocated in a single
+     * transaction so either all of them are created or none.
+     *
+     * @param cmd
+     *            Command to deploy.
+     * @param owner
+     *            The owner of the virtual machines.
+     * @param zone
+     *            The zone to deploy in.
+     * @param serviceOffering
+     *            The service offering of the virtual machines.
+     * @param template
+     *            The template or ISO the virtual machines are created from.
+     * @return the virtual machines created, in Stopped state.
+     */
+    List<UserVm> createVirtualMachines(DeployVMsCmd cmd, Account owner, DataCenter zone, ServiceOffering serviceOffering, VirtualMachineTemplate template)
+            throws InsufficientCapacityException, ConcurrentOperationException, ResourceUnavailableException, StorageUnavailableException, ResourceAllocationException;
+
+    /**
+     * Starts the virtual machines created from createVirtualMachines
+     * concurrently. The virtual machines that fail to start are put in Error
+     * state like a single deployment would.
+     *
+     * @param cmd
+     *            Command to deploy.
+     * @return all the virtual machines of the deployment.
+     * @throws InsufficientCapacityException
+     *             if none of the virtual machines could be started for lack of
+     *             capacity.
+     */
+    List<UserVm> startVirtualMachines(DeployVMsCmd cmd) throws InsufficientCapacityException, ConcurrentOperationException, ResourceUnavailableException;
+
     /**
      * Creates a vm group.
      *
@@ -41,6 +41,10 @@ public abstract class BaseListCmd extends BaseCmd {
     @Parameter(name = ApiConstants.PAGE_SIZE, type = CommandType.INTEGER)
     private Integer pageSize;
 
+    @Parameter(name = ApiConstants.PAGE_TOKEN, type = CommandType.STRING, description = "the nextpagetoken returned with the previous page, or an empty value "
+            + "for the first page. Pages requested this way are ordered by id and can't be combined with the page parameter", since = "4.5.0")
+    private String pageToken;
+
     // ///////////////////////////////////////////////////
     // ///////////////// Accessors ///////////////////////
     // ///////////////////////////////////////////////////
@@ -68,6 +72,10 @@ public abstract class BaseListCmd extends BaseCmd {
         return pageSize;
     }
 
+    public String getPageToken() {
+        return pageToken;
+    }
+
     @Override
     public void configure() {
         if (s_maxPageSize == null) {
@@ -104,7 +112,7 @@ public abstract class BaseListCmd extends BaseCmd {
 
         if (pageSizeVal == null) {
             startIndex = null;
-        } else if (page != null) {
+        } else if (page != null && pageToken == null) {
             final int pageNum = page.intValue();
             if (pageNum > 0) {
                 startIndex = Long.valueOf(pageSizeVal * (pageNum - 1));
@@ -127,7 +135,12 @@ public abstract class BaseListCmd extends BaseCmd {
             pageSize = Long.valueOf((String)pageSizeObj);
         }
 
-        if (params.get(ApiConstants.PAGE) == null && pageSize != null && !pageSize.equals(BaseListCmd.s_pageSizeUnlimited)) {
+        if (params.get(ApiConstants.PAGE_TOKEN) != null) {
+            // the token replaces the page number
+            if (params.get(ApiConstants.PAGE) != null) {
+                throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" and \"pagetoken\" parameters can't be specified together");
+            }
+        } else if (params.get(ApiConstants.PAGE) == null && pageSize != null && !pageSize.equals(BaseListCmd.s_pageSizeUnlimited)) {
             final ServerApiException ex = new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" parameter is required when \"pagesize\" is specified");
             ex.setCSErrorCode(CSExceptionErrorCode.getCSErrCode(ex.getClass().getName()));
             throw ex;
@@ -324,7 +324,7 @@ public class DeployVMCmd extends BaseAsyncCreateCustomIdCmd {
         return startVm == null ? true : startVm;
     }
 
-    private Map<Long, IpAddresses> getIpToNetworkMap() {
+    protected Map<Long, IpAddresses> getIpToNetworkMap() {
         if ((networkIds != null || ipAddress != null || getIp6Address() != null) && ipToNetworkList != null) {
             throw new InvalidParameterValueException("NetworkIds and ipAddress can't be specified along with ipToNetworkMap parameter");
         }
@@ -359,6 +359,10 @@ public class DeployVMCmd extends BaseAsyncCreateCustomIdCmd {
         return ipToNetworkMap;
     }
 
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
     public String getIp6Address() {
         if (ip6Address == null) {
             return null;
@@ -366,6 +370,10 @@ public class DeployVMCmd extends BaseAsyncCreateCustomIdCmd {
         return ip6Address.toLowerCase();
     }
 
+    public String getKeyboard() {
+        return keyboard;
+    }
+
     public List<Long> getAffinityGroupIdList() {
         if (affinityGroupNameList != null && affinityGroupIdList != null) {
             throw new InvalidParameterValueException("affinitygroupids parameter is mutually exclusive with affinitygroupnames parameter");
@@ -479,7 +487,7 @@ public class DeployVMCmd extends BaseAsyncCreateCustomIdCmd {
     // for example, minIops and maxIops should either both be specified or
     // neither be specified and,
     // if specified, minIops should be <= maxIops
-    private void verifyDetails() {
+    protected void verifyDetails() {
         Map<String, String> map = getDetails();
 
         if (map != null) {
@@ -529,57 +537,81 @@ public class DeployVMCmd extends BaseAsyncCreateCustomIdCmd {
         }
     }
 
-    @Override
-    public void create() throws ResourceAllocationException {
-        try {
-            // Verify that all objects exist before passing them to the service
-            Account owner = _accountService.getActiveAccountById(getEntityOwnerId());
+    protected DataCenter findZone() {
+        DataCenter zone = _entityMgr.findById(DataCenter.class, zoneId);
+        if (zone == null) {
+            throw new InvalidParameterValueException("Unable to find zone by id=" + zoneId);
+        }
+        return zone;
+    }
 
-            verifyDetails();
+    protected ServiceOffering findServiceOffering() {
+        ServiceOffering serviceOffering = _entityMgr.findById(ServiceOffering.class, serviceOfferingId);
+        if (serviceOffering == null) {
+            throw new InvalidParameterValueException("Unable to find service offering: " + serviceOfferingId);
+        }
+        return serviceOffering;
+    }
 
-            DataCenter zone = _entityMgr.findById(DataCenter.class, zoneId);
-            if (zone == null) {
-                throw new InvalidParameterValueException("Unable to find zone by id=" + zoneId);
-            }
+    protected VirtualMachineTemplate findTemplate() {
+        VirtualMachineTemplate template = _entityMgr.findById(VirtualMachineTemplate.class, templateId);
+        // Make sure a valid template ID was specified
+        if (template == null) {
+            throw new InvalidParameterValueException("Unable to use template " + templateId);
+        }
+        return template;
+    }
 
-            ServiceOffering serviceOffering = _entityMgr.findById(ServiceOffering.class, serviceOfferingId);
-            if (serviceOffering == null) {
-                throw new InvalidParameterValueException("Unable to find service offering: " + serviceOfferingId);
+    protected DiskOffering findDiskOffering() {
+        DiskOffering diskOffering = null;
+        if (diskOfferingId != null) {
+            diskOffering = _entityMgr.findById(DiskOffering.class, diskOfferingId);
+            if (diskOffering == null) {
+                throw new InvalidParameterValueException("Unable to find disk offering " + diskOfferingId);
             }
+        }
+        return diskOffering;
+    }
 
-            VirtualMachineTemplate template = _entityMgr.findById(VirtualMachineTemplate.class, templateId);
-            // Make sure a valid template ID was specified
-            if (template == null) {
-                throw new InvalidParameterValueException("Unable to use template " + templateId);
+    // checks that the offerings, networks and security groups requested can be used in the zone
+    protected void verifyDeployParameters(DataCenter zone, ServiceOffering serviceOffering, DiskOffering diskOffering) {
+        if (!zone.isLocalStorageEnabled()) {
+            if (serviceOffering.getUseLocalStorage()) {
+                throw new InvalidParameterValueException("Zone is not configured to use local storage but service offering " + serviceOffering.getName() + " uses it");
             }
-
-            DiskOffering diskOffering = null;
-            if (diskOfferingId != null) {
-                diskOffering = _entityMgr.findById(DiskOffering.class, diskOfferingId);
-                if (diskOffering == null) {
-                    throw new InvalidParameterValueException("Unable to find disk offering " + diskOfferingId);
-                }
+            if (diskOffering != null && diskOffering.getUseLocalStorage()) {
+                throw new InvalidParameterValueException("Zone is not configured to use local storage but disk offering " + diskOffering.getName() + " uses it");
             }
+        }
 
-            if (!zone.isLocalStorageEnabled()) {
-                if (serviceOffering.getUseLocalStorage()) {
-                    throw new InvalidParameterValueException("Zone is not configured to use local storage but service offering " + serviceOffering.getName() + " uses it");
-                }
-                if (diskOffering != null && diskOffering.getUseLocalStorage()) {
-                    throw new InvalidParameterValueException("Zone is not configured to use local storage but disk offering " + diskOffering.getName() + " uses it");
-                }
+        if (zone.getNetworkType() == NetworkType.Basic) {
+            if (getNetworkIds() != null) {
+                throw new InvalidParameterValueException("Can't specify network Ids in Basic zone");
             }
+        } else if (!zone.isSecurityGroupEnabled() && getSecurityGroupIdList() != null && !getSecurityGroupIdList().isEmpty()) {
+            throw new InvalidParameterValueException("Can't create vm with security groups; security group feature is not enabled per zone");
+        }
+    }
+
+    @Override
+    public void create() throws ResourceAllocationException {
+        try {
+            // Verify that all objects exist before passing them to the service
+            Account owner = _accountService.getActiveAccountById(getEntityOwnerId());
+
+            verifyDetails();
+
+            DataCenter zone = findZone();
+            ServiceOffering serviceOffering = findServiceOffering();
+            VirtualMachineTemplate template = findTemplate();
+            verifyDeployParameters(zone, serviceOffering, findDiskOffering());
 
             UserVm vm = null;
             IpAddresses addrs = new IpAddresses(ipAddress, getIp6Address());
             if (zone.getNetworkType() == NetworkType.Basic) {
-                if (getNetworkIds() != null) {
-                    throw new InvalidParameterValueException("Can't specify network Ids in Basic zone");
-                } else {
-                    vm = _userVmService.createBasicSecurityGroupVirtualMachine(zone, serviceOffering, template, getSecurityGroupIdList(), owner, name, displayName, diskOfferingId,
-                            size, group, getHypervisor(), getHttpMethod(), userData, sshKeyPairName, getIpToNetworkMap(), addrs, displayVm, keyboard, getAffinityGroupIdList(),
-                            getDetails(), getCustomId());
-                }
+                vm = _userVmService.createBasicSecurityGroupVirtualMachine(zone, serviceOffering, template, getSecurityGroupIdList(), owner, name, displayName, diskOfferingId,
+                        size, group, getHypervisor(), getHttpMethod(), userData, sshKeyPairName, getIpToNetworkMap(), addrs, displayVm, keyboard, getAffinityGroupIdList(),
+                        getDetails(), getCustomId());
             } else {
                 if (zone.isSecurityGroupEnabled()) {
                     vm = _userVmService.createAdvancedSecurityGroupVirtualMachine(zone, serviceOffering, template, getNetworkIds(), getSecurityGroupIdList(), owner, name,
@@ -587,9 +619,6 @@ public class DeployVMCmd extends BaseAsyncCreateCustomIdCmd {
                             getAffinityGroupIdList(), getDetails(), getCustomId());
 
                 } else {
-                    if (getSecurityGroupIdList() != null && !getSecurityGroupIdList().isEmpty()) {
-                        throw new InvalidParameterValueException("Can't create vm with security groups; security group feature is not enabled per zone");
-                    }
                     vm = _userVmService.createAdvancedVirtualMachine(zone, serviceOffering, template, getNetworkIds(), owner, name, displayName, diskOfferingId, size, group,
                             getHypervisor(), getHttpMethod(), userData, sshKeyPairName, getIpToNetworkMap(), addrs, displayVm, keyboard, getAffinityGroupIdList(), getDetails(),
                             getCustomId());
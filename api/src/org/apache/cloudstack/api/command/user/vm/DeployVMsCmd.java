@@ -0,0 +1,193 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.command.user.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.ApiErrorCode;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.ResponseObject.ResponseView;
+import org.apache.cloudstack.api.ServerApiException;
+import org.apache.cloudstack.api.response.DeployVMsResponse;
+import org.apache.cloudstack.api.response.UserVmResponse;
+import org.apache.cloudstack.context.CallContext;
+
+import com.cloud.dc.DataCenter;
+import com.cloud.exception.ConcurrentOperationException;
+import com.cloud.exception.InsufficientCapacityException;
+import com.cloud.exception.InsufficientServerCapacityException;
+import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.exception.ResourceAllocationException;
+import com.cloud.exception.ResourceUnavailableException;
+import com.cloud.offering.ServiceOffering;
+import com.cloud.template.VirtualMachineTemplate;
+import com.cloud.user.Account;
+import com.cloud.uservm.UserVm;
+import com.cloud.utils.StringUtils;
+import com.cloud.vm.VirtualMachine;
+
+@APICommand(name = "deployVirtualMachines", description = "Creates and automatically starts several identical virtual machines.", responseObject = DeployVMsResponse.class, responseView = ResponseView.Restricted, entityType = {VirtualMachine.class}, requestHasSensitiveInfo = false, responseHasSensitiveInfo = true, since = "4.5.0")
+public class DeployVMsCmd extends DeployVMCmd {
+    public static final Logger s_logger = Logger.getLogger(DeployVMsCmd.class.getName());
+
+    private static final String s_name = "deployvirtualmachinesresponse";
+
+    // ///////////////////////////////////////////////////
+    // ////////////// API parameters /////////////////////
+    // ///////////////////////////////////////////////////
+
+    @Parameter(name = ApiConstants.COUNT, type = CommandType.INTEGER, required = true, description = "the number of virtual machines to deploy. If a name is given, the virtual machines are named <name>-1 to <name>-<count>")
+    private Integer count;
+
+    // set by create(), replacing any value the caller sent, and carried to the async job with the other
+    // request parameters since the job runs execute() on a new command
+    @Parameter(name = ApiConstants.VIRTUAL_MACHINE_IDS, type = CommandType.LIST, collectionType = CommandType.LONG, includeInApiDoc = false)
+    private List<Long> entityIds = new ArrayList<Long>();
+
+    // ///////////////////////////////////////////////////
+    // ///////////////// Accessors ///////////////////////
+    // ///////////////////////////////////////////////////
+
+    public int getCount() {
+        return count;
+    }
+
+    public List<Long> getEntityIds() {
+        return entityIds;
+    }
+
+    // ///////////////////////////////////////////////////
+    // ///////////// API Implementation///////////////////
+    // ///////////////////////////////////////////////////
+
+    @Override
+    public String getCommandName() {
+        return s_name;
+    }
+
+    @Override
+    public String getCreateEventDescription() {
+        return "creating " + count + " Vms";
+    }
+
+    @Override
+    public String getEventDescription() {
+        return "starting " + entityIds.size() + " Vms";
+    }
+
+    @Override
+    public void execute() {
+        setResponseObject(createResponse(ResponseView.Restricted, deployVirtualMachines()));
+    }
+
+    protected List<UserVm> deployVirtualMachines() {
+        if (!getStartVm()) {
+            List<UserVm> vms = new ArrayList<UserVm>();
+            for (Long vmId : entityIds) {
+                vms.add(_userVmService.getUserVm(vmId));
+            }
+            return vms;
+        }
+
+        try {
+            CallContext.current().setEventDetails("Vm Ids: " + entityIds);
+            return _userVmService.startVirtualMachines(this);
+        } catch (ResourceUnavailableException ex) {
+            s_logger.warn("Exception: ", ex);
+            throw new ServerApiException(ApiErrorCode.RESOURCE_UNAVAILABLE_ERROR, ex.getMessage());
+        } catch (ConcurrentOperationException ex) {
+            s_logger.warn("Exception: ", ex);
+            throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, ex.getMessage());
+        } catch (InsufficientCapacityException ex) {
+            StringBuilder message = new StringBuilder(ex.getMessage());
+            if (ex instanceof InsufficientServerCapacityException) {
+                if (((InsufficientServerCapacityException)ex).isAffinityApplied()) {
+                    message.append(", Please check the affinity groups provided, there may not be sufficient capacity to follow them");
+                }
+            }
+            s_logger.info(ex);
+            s_logger.info(message.toString(), ex);
+            throw new ServerApiException(ApiErrorCode.INSUFFICIENT_CAPACITY_ERROR, message.toString());
+        }
+    }
+
+    protected DeployVMsResponse createResponse(ResponseView view, List<UserVm> vms) {
+        List<UserVmResponse> vmResponses = _responseGenerator.createUserVmResponse(view, "virtualmachine", vms.toArray(new UserVm[vms.size()]));
+        DeployVMsResponse response = new DeployVMsResponse();
+        response.setCount(vmResponses.size());
+        response.setVirtualMachines(vmResponses);
+        response.setResponseName(getCommandName());
+        return response;
+    }
+
+    @Override
+    public void create() throws ResourceAllocationException {
+        if (count == null || count < 1) {
+            throw new InvalidParameterValueException("The number of virtual machines to deploy must be at least 1");
+        }
+        if (getIpAddress() != null || getIp6Address() != null || getIpToNetworkMap() != null) {
+            throw new InvalidParameterValueException("Ip addresses can't be requested when deploying several virtual machines");
+        }
+        if (getCustomId() != null) {
+            throw new InvalidParameterValueException("A custom id can't be used when deploying several virtual machines");
+        }
+
+        try {
+            // Verify that all objects exist before passing them to the service
+            Account owner = _accountService.getActiveAccountById(getEntityOwnerId());
+
+            verifyDetails();
+
+            DataCenter zone = findZone();
+            ServiceOffering serviceOffering = findServiceOffering();
+            VirtualMachineTemplate template = findTemplate();
+            verifyDeployParameters(zone, serviceOffering, findDiskOffering());
+
+            List<UserVm> vms = _userVmService.createVirtualMachines(this, owner, zone, serviceOffering, template);
+            if (vms == null || vms.isEmpty()) {
+                throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, "Failed to deploy vms");
+            }
+            entityIds = new ArrayList<Long>(vms.size());
+            for (UserVm vm : vms) {
+                entityIds.add(vm.getId());
+            }
+            setEntityId(vms.get(0).getId());
+            setEntityUuid(vms.get(0).getUuid());
+            if (getFullUrlParams() != null) {
+                getFullUrlParams().put(ApiConstants.VIRTUAL_MACHINE_IDS, StringUtils.join(entityIds, ","));
+            }
+        } catch (InsufficientCapacityException ex) {
+            s_logger.info(ex);
+            s_logger.trace(ex.getMessage(), ex);
+            throw new ServerApiException(ApiErrorCode.INSUFFICIENT_CAPACITY_ERROR, ex.getMessage());
+        } catch (ResourceUnavailableException ex) {
+            s_logger.warn("Exception: ", ex);
+            throw new ServerApiException(ApiErrorCode.RESOURCE_UNAVAILABLE_ERROR, ex.getMessage());
+        } catch (ConcurrentOperationException ex) {
+            s_logger.warn("Exception: ", ex);
+            throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, ex.getMessage());
+        } catch (ResourceAllocationException ex) {
+            s_logger.warn("Exception: ", ex);
+            throw new ServerApiException(ApiErrorCode.RESOURCE_ALLOCATION_ERROR, ex.getMessage());
+        }
+    }
+}
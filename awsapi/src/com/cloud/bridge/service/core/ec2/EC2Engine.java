@@ -30,6 +30,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -75,6 +80,7 @@ import com.cloud.stack.models.CloudStackUserVm;
 import com.cloud.stack.models.CloudStackVolume;
 import com.cloud.stack.models.CloudStackZone;
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 
 /**
  * EC2Engine processes the ec2 commands and calls their cloudstack analogs
@@ -85,6 +91,8 @@ public class EC2Engine extends ManagerBase {
     protected final static Logger logger = Logger.getLogger(EC2Engine.class);
     String managementServer = null;
     String cloudAPIPort = null;
+    long cloudAPIResponseCacheTtl = 30000;
+    int cloudAPICallPoolSize = 10;
 
     @Inject
     CloudStackSvcOfferingDao scvoDao;
@@ -97,6 +105,9 @@ public class EC2Engine extends ManagerBase {
 
     private CloudStackAccount currentAccount = null;
 
+    // runs independent CloudStack calls issued while serving a single EC2 request
+    private ExecutorService _apiCallExecutor = null;
+
     public EC2Engine() throws IOException {
     }
 
@@ -109,6 +120,15 @@ public class EC2Engine extends ManagerBase {
             logger.error("EC2Engine Configuration failure", e);
             throw new ConfigurationException("EC2Engine configuration failure");
         }
+        _apiCallExecutor = Executors.newFixedThreadPool(cloudAPICallPoolSize, new NamedThreadFactory("EC2-CloudStackCall"));
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (_apiCallExecutor != null) {
+            _apiCallExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -139,6 +159,14 @@ public class EC2Engine extends ManagerBase {
             managementServer = EC2Prop.getProperty("managementServer");
             cloudAPIPort = EC2Prop.getProperty("cloudAPIPort", null);
 
+            String strCacheTtl = EC2Prop.getProperty("cloudAPIResponseCacheTtl");
+            if (strCacheTtl != null)
+                cloudAPIResponseCacheTtl = Long.parseLong(strCacheTtl.trim()) * 1000;
+
+            String strPoolSize = EC2Prop.getProperty("cloudAPICallPoolSize");
+            if (strPoolSize != null)
+                cloudAPICallPoolSize = Integer.parseInt(strPoolSize.trim());
+
             try {
                 if (ofDao.getOfferingCount() == 0) {
                     String strValue = EC2Prop.getProperty("m1.small.serviceId");
@@ -192,6 +220,7 @@ public class EC2Engine extends ManagerBase {
     private CloudStackApi getApi() {
         if (_eng == null) {
             _eng = new CloudStackApi(managementServer, cloudAPIPort, false);
+            _eng.setResponseCacheTtl(cloudAPIResponseCacheTtl);
         }
         // regardless of whether _eng is initialized, we must make sure
         // access/secret keys are current with what's in the UserCredentials
@@ -220,6 +249,7 @@ public class EC2Engine extends ManagerBase {
         // going to manage _eng
         if (_eng == null) {
             _eng = new CloudStackApi(managementServer, cloudAPIPort, false);
+            _eng.setResponseCacheTtl(cloudAPIResponseCacheTtl);
         }
 
         try {
@@ -1979,6 +2009,20 @@ public class EC2Engine extends ManagerBase {
         return instances;
     }
 
+    /**
+     * Waits for a CloudStack call submitted to the call executor and rethrows its failure as is
+     */
+    private static <T> T getResult(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception)cause;
+            throw e;
+        }
+    }
+
     /**
      * Get one or more templates depending on the templateId parameter.
      *
@@ -2001,24 +2045,25 @@ public class EC2Engine extends ManagerBase {
                     result.addAll(template);
                 }
             } else {
-                List<CloudStackTemplate> selfExecutable = getApi().listTemplates("selfexecutable", null, null, null, null, null, null, null);
-                if (selfExecutable != null) {
-                    result.addAll(selfExecutable);
-                }
-
-                List<CloudStackTemplate> featured = getApi().listTemplates("featured", null, null, null, null, null, null, null);
-                if (featured != null) {
-                    result.addAll(featured);
-                }
-
-                List<CloudStackTemplate> sharedExecutable = getApi().listTemplates("sharedexecutable", null, null, null, null, null, null, null);
-                if (sharedExecutable != null) {
-                    result.addAll(sharedExecutable);
+                // the filters are independent of each other, so issue the calls concurrently
+                // rather than paying for four round trips in a row
+                final CloudStackApi api = getApi().withCredentials(UserContext.current().getAccessKey(), UserContext.current().getSecretKey());
+                String[] templateFilters = new String[] {"selfexecutable", "featured", "sharedexecutable", "community"};
+                List<Future<List<CloudStackTemplate>>> futures = new ArrayList<Future<List<CloudStackTemplate>>>();
+                for (final String templateFilter : templateFilters) {
+                    futures.add(_apiCallExecutor.submit(new Callable<List<CloudStackTemplate>>() {
+                        @Override
+                        public List<CloudStackTemplate> call() throws Exception {
+                            return api.listTemplates(templateFilter, null, null, null, null, null, null, null);
+                        }
+                    }));
                 }
 
-                List<CloudStackTemplate> community = getApi().listTemplates("community", null, null, null, null, null, null, null);
-                if (community != null) {
-                    result.addAll(community);
+                for (Future<List<CloudStackTemplate>> future : futures) {
+                    List<CloudStackTemplate> templates = getResult(future);
+                    if (templates != null) {
+                        result.addAll(templates);
+                    }
                 }
             }
 
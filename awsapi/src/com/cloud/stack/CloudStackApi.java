@@ -85,6 +85,33 @@ public class CloudStackApi {
         secretKey = null;
     }
 
+    private CloudStackApi(CloudStackClient client, String apiKey, String secretKey) {
+        _client = client;
+        this.apiKey = apiKey;
+        this.secretKey = secretKey;
+    }
+
+    /**
+     * Returns an api object bound to the given credentials that shares this object's client,
+     * so that calls can be issued from other threads without racing on the key fields.
+     *
+     * @param apiKey
+     * @param secretKey
+     * @return
+     */
+    public CloudStackApi withCredentials(String apiKey, String secretKey) {
+        return new CloudStackApi(_client, apiKey, secretKey);
+    }
+
+    /**
+     * @param ttlMs
+     *            how long zones, offerings, OS types and templates are cached
+     *            per api key, 0 disables caching
+     */
+    public void setResponseCacheTtl(long ttlMs) {
+        _client.setResponseCacheTtl(ttlMs);
+    }
+
     /**
      * @return the apiKey
      */
@@ -601,7 +628,7 @@ public class CloudStackApi {
             if (zoneId != null)
                 cmd.setParam(ApiConstants.ZONE_ID, zoneId);
         }
-        return _client.listCall(cmd, apiKey, secretKey, ApiConstants.LIST_TEMPLATES_RESPONSE, ApiConstants.TEMPLATE, new TypeToken<List<CloudStackTemplate>>() {
+        return _client.cachedListCall(cmd, apiKey, secretKey, ApiConstants.LIST_TEMPLATES_RESPONSE, ApiConstants.TEMPLATE, new TypeToken<List<CloudStackTemplate>>() {
         }.getType());
     }
 
@@ -1610,7 +1637,7 @@ public class CloudStackApi {
             if (osCategoryId != null)
                 cmd.setParam(ApiConstants.OS_CATEGORY_ID, osCategoryId);
         }
-        return _client.listCall(cmd, apiKey, secretKey, ApiConstants.LIST_OS_TYPES_RESPONSE, ApiConstants.OS_TYPE, new TypeToken<List<CloudStackOsType>>() {
+        return _client.cachedListCall(cmd, apiKey, secretKey, ApiConstants.LIST_OS_TYPES_RESPONSE, ApiConstants.OS_TYPE, new TypeToken<List<CloudStackOsType>>() {
         }.getType());
     }
 
@@ -1667,7 +1694,7 @@ public class CloudStackApi {
             if (virtualMachineId != null)
                 cmd.setParam(ApiConstants.VIRTUAL_MACHINE_ID, virtualMachineId);
         }
-        return _client.listCall(cmd, apiKey, secretKey, ApiConstants.LIST_SERVICE_OFFERINGS_RESPONSE, ApiConstants.SERVICE_OFFERING,
+        return _client.cachedListCall(cmd, apiKey, secretKey, ApiConstants.LIST_SERVICE_OFFERINGS_RESPONSE, ApiConstants.SERVICE_OFFERING,
                 new TypeToken<List<CloudStackServiceOffering>>() {
                 }.getType());
     }
@@ -1695,7 +1722,7 @@ public class CloudStackApi {
             if (name != null)
                 cmd.setParam(ApiConstants.NAME, name);
         }
-        return _client.listCall(cmd, apiKey, secretKey, ApiConstants.LIST_DISK_OFFERINGS_RESPONSE, ApiConstants.DISK_OFFERING, new TypeToken<List<CloudStackDiskOffering>>() {
+        return _client.cachedListCall(cmd, apiKey, secretKey, ApiConstants.LIST_DISK_OFFERINGS_RESPONSE, ApiConstants.DISK_OFFERING, new TypeToken<List<CloudStackDiskOffering>>() {
         }.getType());
     }
 
@@ -2494,7 +2521,7 @@ public class CloudStackApi {
             if (keyWord != null)
                 cmd.setParam(ApiConstants.KEYWORD, keyWord);
         }
-        return _client.listCall(cmd, apiKey, secretKey, ApiConstants.LIST_ZONES_RESPONSE, ApiConstants.ZONE, new TypeToken<List<CloudStackZone>>() {
+        return _client.cachedListCall(cmd, apiKey, secretKey, ApiConstants.LIST_ZONES_RESPONSE, ApiConstants.ZONE, new TypeToken<List<CloudStackZone>>() {
         }.getType());
 
     }
@@ -25,6 +25,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.List;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 
 import com.google.gson.Gson;
@@ -43,9 +44,14 @@ public class CloudStackClient {
 
     private String _serviceUrl;
 
+    // Gson instances are thread safe, share one rather than building one per response
+    private static final Gson s_gson = new Gson();
+
     private long _pollIntervalMs = 2000; // 1 second polling interval
     private long _pollTimeoutMs = 600000; // 10 minutes polling timeout
 
+    private final CloudStackResponseCache _responseCache = new CloudStackResponseCache(30000);
+
     public CloudStackClient(String serviceRootUrl) {
         assert (serviceRootUrl != null);
 
@@ -87,11 +93,22 @@ public class CloudStackClient {
         return this;
     }
 
+    /**
+     * @param ttlMs how long results of cached list calls are kept, 0 disables the cache
+     */
+    public CloudStackClient setResponseCacheTtl(long ttlMs) {
+        _responseCache.setTtl(ttlMs);
+        return this;
+    }
+
     public <T> T call(CloudStackCommand cmd, String apiKey, String secretKey, boolean followToAsyncResult, String responseName, String responseObjName, Class<T> responseClz)
             throws Exception {
 
         assert (responseName != null);
 
+        // anything that goes through call() may change state, so drop the caller's cached lists
+        _responseCache.invalidate(apiKey);
+
         JsonAccessor json = execute(cmd, apiKey, secretKey);
         if (followToAsyncResult && json.tryEval(responseName + ".jobid") != null) {
             long startMs = System.currentTimeMillis();
@@ -117,9 +134,9 @@ public class CloudStackClient {
 
                     case 1:
                         if (responseObjName != null)
-                            return (T)(new Gson()).fromJson(queryAsyncJobResponse.eval("queryasyncjobresultresponse.jobresult." + responseObjName), responseClz);
+                            return (T)s_gson.fromJson(queryAsyncJobResponse.eval("queryasyncjobresultresponse.jobresult." + responseObjName), responseClz);
                         else
-                            return (T)(new Gson()).fromJson(queryAsyncJobResponse.eval("queryasyncjobresultresponse.jobresult"), responseClz);
+                            return (T)s_gson.fromJson(queryAsyncJobResponse.eval("queryasyncjobresultresponse.jobresult"), responseClz);
 
                     default:
                         assert (false);
@@ -133,9 +150,9 @@ public class CloudStackClient {
             throw new Exception("Operation failed - async-job query timed out");
         } else {
             if (responseObjName != null)
-                return (T)(new Gson()).fromJson(json.eval(responseName + "." + responseObjName), responseClz);
+                return (T)s_gson.fromJson(json.eval(responseName + "." + responseObjName), responseClz);
             else
-                return (T)(new Gson()).fromJson(json.eval(responseName), responseClz);
+                return (T)s_gson.fromJson(json.eval(responseName), responseClz);
         }
     }
 
@@ -148,14 +165,30 @@ public class CloudStackClient {
 
         if (responseObjName != null)
             try {
-                return (new Gson()).fromJson(json.eval(responseName + "." + responseObjName), collectionType);
+                return s_gson.fromJson(json.eval(responseName + "." + responseObjName), collectionType);
             } catch (Exception e) {
                 // this happens because responseObjName won't exist if there are
                 // no objects in the list.
                 logger.debug("CloudSatck API response doesn't contain responseObjName:" + responseObjName + " because response is empty");
                 return null;
             }
-        return (new Gson()).fromJson(json.eval(responseName), collectionType);
+        return s_gson.fromJson(json.eval(responseName), collectionType);
+    }
+
+    /**
+     * Same as listCall, but the result is served from a short lived per API key cache. Only use it
+     * for objects that change rarely (zones, offerings, OS types, templates).
+     */
+    public <T> List<T> cachedListCall(CloudStackCommand cmd, String apiKey, String secretKey, String responseName, String responseObjName, Type collectionType)
+            throws Exception {
+        String cacheKey = cmd.getCacheKey();
+        List<T> result = _responseCache.get(apiKey, cacheKey);
+        if (result != null)
+            return result;
+
+        result = listCall(cmd, apiKey, secretKey, responseName, responseObjName, collectionType);
+        _responseCache.put(apiKey, cacheKey, result);
+        return result;
     }
 
     public JsonAccessor execute(CloudStackCommand cmd, String apiKey, String secretKey) throws Exception {
@@ -167,25 +200,37 @@ public class CloudStackClient {
 
         URLConnection connect = url.openConnection();
 
-        int statusCode;
-        statusCode = ((HttpURLConnection)connect).getResponseCode();
-        if (statusCode >= 400) {
-            logger.error("Cloud API call + [" + url.toString() + "] failed with status code: " + statusCode);
-            String errorMessage = ((HttpURLConnection)connect).getResponseMessage();
-            if (errorMessage == null) {
-                errorMessage = connect.getHeaderField("X-Description");
-            }
+        // the response streams are always fully consumed and closed so that the JDK can hand the
+        // underlying socket back to its keep-alive cache and reuse it for the next call
+        InputStream inputStream = null;
+        JsonElement jsonElement;
+        try {
+            int statusCode;
+            statusCode = ((HttpURLConnection)connect).getResponseCode();
+            if (statusCode >= 400) {
+                logger.error("Cloud API call + [" + url.toString() + "] failed with status code: " + statusCode);
+                String errorMessage = ((HttpURLConnection)connect).getResponseMessage();
+                if (errorMessage == null) {
+                    errorMessage = connect.getHeaderField("X-Description");
+                }
+
+                if (errorMessage == null) {
+                    errorMessage = "CloudStack API call HTTP response error, HTTP status code: " + statusCode;
+                }
+                errorMessage = errorMessage.concat(" Error Code - " + Integer.toString(statusCode));
 
-            if (errorMessage == null) {
-                errorMessage = "CloudStack API call HTTP response error, HTTP status code: " + statusCode;
+                inputStream = ((HttpURLConnection)connect).getErrorStream();
+                drain(inputStream);
+                throw new IOException(errorMessage);
             }
-            errorMessage = errorMessage.concat(" Error Code - " + Integer.toString(statusCode));
 
-            throw new IOException(errorMessage);
+            inputStream = connect.getInputStream();
+            jsonElement = parser.parse(new InputStreamReader(inputStream));
+            drain(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
         }
 
-        InputStream inputStream = connect.getInputStream();
-        JsonElement jsonElement = parser.parse(new InputStreamReader(inputStream));
         if (jsonElement == null) {
             logger.error("Cloud API call + [" + url.toString() + "] failed: unable to parse expected JSON response");
 
@@ -196,4 +241,17 @@ public class CloudStackClient {
             logger.debug("Cloud API call + [" + url.toString() + "] returned: " + jsonElement.toString());
         return new JsonAccessor(jsonElement);
     }
+
+    private static void drain(InputStream inputStream) {
+        if (inputStream == null)
+            return;
+        try {
+            byte[] buffer = new byte[4096];
+            while (inputStream.read(buffer) >= 0) {
+                // discard trailing bytes
+            }
+        } catch (IOException e) {
+            // the connection will simply not be reused
+        }
+    }
 }
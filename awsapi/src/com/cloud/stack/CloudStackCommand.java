@@ -55,6 +55,22 @@ public class CloudStackCommand {
         return this;
     }
 
+    /**
+     * @return the command name and its parameters in a stable order, suitable for use as a cache key
+     */
+    public String getCacheKey() {
+        List<String> paramNames = new ArrayList<String>(_params.keySet());
+        Collections.sort(paramNames);
+
+        StringBuffer sb = new StringBuffer();
+        for (String name : paramNames) {
+            if (sb.length() > 0)
+                sb.append("&");
+            sb.append(name).append("=").append(_params.get(name));
+        }
+        return sb.toString();
+    }
+
     public String signCommand(String apiKey, String secretKey) throws SignatureException {
         assert (_params.get("command") != null);
 
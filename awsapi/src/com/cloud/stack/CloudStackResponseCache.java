@@ -0,0 +1,111 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.stack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CloudStackResponseCache keeps the results of slowly changing list calls (zones,
+ * offerings, OS types, templates) for a short time. Entries are kept per API key
+ * so that one caller never sees another caller's view of the cloud.
+ *
+ */
+public class CloudStackResponseCache {
+    private final ConcurrentHashMap<String, Map<String, Entry>> _entries = new ConcurrentHashMap<String, Map<String, Entry>>();
+
+    private volatile long _ttlMs;
+
+    public CloudStackResponseCache(long ttlMs) {
+        _ttlMs = ttlMs;
+    }
+
+    public long getTtl() {
+        return _ttlMs;
+    }
+
+    public void setTtl(long ttlMs) {
+        _ttlMs = ttlMs;
+        if (ttlMs <= 0)
+            _entries.clear();
+    }
+
+    public boolean isEnabled() {
+        return _ttlMs > 0;
+    }
+
+    /**
+     * @return a copy of the cached list, or null if there is no live entry
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(String apiKey, String commandKey) {
+        if (!isEnabled() || apiKey == null)
+            return null;
+
+        Map<String, Entry> perKey = _entries.get(apiKey);
+        if (perKey == null)
+            return null;
+
+        Entry entry = perKey.get(commandKey);
+        if (entry == null)
+            return null;
+
+        if (System.currentTimeMillis() > entry.expiresAt) {
+            perKey.remove(commandKey);
+            return null;
+        }
+        return entry.value == null ? null : new ArrayList<T>((List<T>)entry.value);
+    }
+
+    public void put(String apiKey, String commandKey, List<?> value) {
+        if (!isEnabled() || apiKey == null)
+            return;
+
+        Map<String, Entry> perKey = _entries.get(apiKey);
+        if (perKey == null) {
+            perKey = new ConcurrentHashMap<String, Entry>();
+            Map<String, Entry> existing = _entries.putIfAbsent(apiKey, perKey);
+            if (existing != null)
+                perKey = existing;
+        }
+        perKey.put(commandKey, new Entry(value == null ? null : new ArrayList<Object>(value), System.currentTimeMillis() + _ttlMs));
+    }
+
+    /**
+     * Drops everything cached for the API key, called whenever the caller changes state
+     */
+    public void invalidate(String apiKey) {
+        if (apiKey != null)
+            _entries.remove(apiKey);
+    }
+
+    public void invalidateAll() {
+        _entries.clear();
+    }
+
+    private static class Entry {
+        final List<?> value;
+        final long expiresAt;
+
+        Entry(List<?> value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.stack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CloudStackResponseCacheTest {
+
+    @Test
+    public void testEntriesAreKeptPerApiKey() {
+        CloudStackResponseCache cache = new CloudStackResponseCache(60000);
+        cache.put("key1", "command=listZones", Arrays.asList("zone1"));
+
+        List<String> zones = cache.get("key1", "command=listZones");
+        assertEquals(Arrays.asList("zone1"), zones);
+        assertNull(cache.get("key2", "command=listZones"));
+    }
+
+    @Test
+    public void testInvalidateDropsCallerEntries() {
+        CloudStackResponseCache cache = new CloudStackResponseCache(60000);
+        cache.put("key1", "command=listZones", Arrays.asList("zone1"));
+        cache.put("key2", "command=listZones", Arrays.asList("zone2"));
+
+        cache.invalidate("key1");
+
+        assertNull(cache.get("key1", "command=listZones"));
+        assertEquals(Arrays.asList("zone2"), cache.get("key2", "command=listZones"));
+    }
+
+    @Test
+    public void testExpiredEntriesAreNotReturned() throws InterruptedException {
+        CloudStackResponseCache cache = new CloudStackResponseCache(1);
+        cache.put("key1", "command=listZones", Arrays.asList("zone1"));
+        Thread.sleep(10);
+
+        assertNull(cache.get("key1", "command=listZones"));
+    }
+
+    @Test
+    public void testDisabledCacheStoresNothing() {
+        CloudStackResponseCache cache = new CloudStackResponseCache(0);
+        cache.put("key1", "command=listZones", Arrays.asList("zone1"));
+
+        assertNull(cache.get("key1", "command=listZones"));
+    }
+
+    @Test
+    public void testCommandCacheKeyIsOrderIndependent() {
+        CloudStackCommand first = new CloudStackCommand("listTemplates").setParam("templatefilter", "featured").setParam("zoneid", "1");
+        CloudStackCommand second = new CloudStackCommand("listTemplates").setParam("zoneid", "1").setParam("templatefilter", "featured");
+
+        assertEquals(first.getCacheKey(), second.getCacheKey());
+    }
+}
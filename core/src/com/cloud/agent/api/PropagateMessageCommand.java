@@ -0,0 +1,49 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.api;
+
+/**
+ * Asks the other management servers to publish a message bus message locally, so that listeners
+ * holding per-node caches (API credentials, domain tree) can invalidate them.
+ */
+public class PropagateMessageCommand extends Command {
+    String subject;
+    Long id;
+
+    protected PropagateMessageCommand() {
+
+    }
+
+    public PropagateMessageCommand(String subject, Long id) {
+        this.subject = subject;
+        this.id = id;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        return false;
+    }
+
+}
@@ -18,11 +18,29 @@ package com.cloud.storage.template;
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.net.SocketException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.httpclient.ChunkedInputStream;
 import org.apache.commons.httpclient.Credentials;
@@ -37,6 +55,7 @@ import org.apache.commons.httpclient.NoHttpResponseException;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
 import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.log4j.Logger;
 
@@ -48,23 +67,44 @@ import com.cloud.agent.api.storage.Proxy;
 import com.cloud.storage.StorageLayer;
 import com.cloud.utils.Pair;
 import com.cloud.utils.UriUtils;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 
 /**
  * Download a template file using HTTP
  *
+ * Large files served with range support are fetched as fixed size segments over several
+ * connections at once, straight into their place in a preallocated file. Completed segments
+ * are remembered so that a resumed download only fetches what is missing. Servers without
+ * range support get the single stream download, which also computes the MD5 checksum of the
+ * file while it is written.
  */
 public class HttpTemplateDownloader extends ManagedContextRunnable implements TemplateDownloader {
     public static final Logger s_logger = Logger.getLogger(HttpTemplateDownloader.class.getName());
     private static final MultiThreadedHttpConnectionManager s_httpClientManager = new MultiThreadedHttpConnectionManager();
 
     private static final int CHUNK_SIZE = 1024 * 1024; // 1M
+    public static final int DEFAULT_PARALLEL_STREAMS = 4;
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024L * 1024L; // 64M
+
+    // pooled connections idle for longer than this are closed before a download starts
+    private static final long IDLE_CONNECTION_TIMEOUT = 30 * 1000L;
+
+    static {
+        // the default of 2 connections per host would serialize the segments of a parallel download
+        s_httpClientManager.getParams().setDefaultMaxConnectionsPerHost(DEFAULT_PARALLEL_STREAMS * 4);
+        s_httpClientManager.getParams().setMaxTotalConnections(64);
+        // servers drop idle keep-alive connections, check a pooled connection before reusing it
+        s_httpClientManager.getParams().setStaleCheckingEnabled(true);
+    }
+
     private String downloadUrl;
     private String toFile;
-    public TemplateDownloader.Status status = TemplateDownloader.Status.NOT_STARTED;
+    // written by the segment workers and by stopDownload() while a download is running
+    public volatile TemplateDownloader.Status status = TemplateDownloader.Status.NOT_STARTED;
     public String errorString = " ";
     private long remoteSize = 0;
     public long downloadTime = 0;
-    public long totalBytes;
+    public volatile long totalBytes;
     private final HttpClient client;
     private GetMethod request;
     private boolean resume = false;
@@ -77,6 +117,15 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
     private ResourceType resourceType = ResourceType.TEMPLATE;
     private final HttpMethodRetryHandler myretryhandler;
 
+    private int parallelStreams = DEFAULT_PARALLEL_STREAMS;
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    // segments already written by a parallel download, null while downloading as a single stream
+    private boolean[] completedSegments;
+    // segment requests in flight, aborted when the download is stopped
+    private final Set<GetMethod> segmentRequests = Collections.newSetFromMap(new ConcurrentHashMap<GetMethod, Boolean>());
+    private volatile boolean rangeRequestsIgnored;
+    private String checksum;
+
     public HttpTemplateDownloader(StorageLayer storageLayer, String downloadUrl, String toDir, DownloadCompleteCallback callback, long maxTemplateSizeInBytes, String user,
             String password, Proxy proxy, ResourceType resourceType) {
         _storage = storageLayer;
@@ -96,8 +145,10 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
                     // Do not retry if over max retry count
                     return false;
                 }
-                if (exception instanceof NoHttpResponseException) {
-                    // Retry if the server dropped connection on us
+                if (exception instanceof NoHttpResponseException || exception instanceof SocketException) {
+                    // Retry if the server dropped connection on us, e.g. a
+                    // reused keep-alive connection that was reset. Downloads
+                    // only send GET and HEAD requests, so resending is safe.
                     return true;
                 }
                 if (!method.isRequestSent()) {
@@ -163,6 +214,15 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         default:
 
         }
+
+        s_httpClientManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT);
+        if (completedSegments != null || (!resume && isParallelDownloadPossible())) {
+            return downloadInParallel(callback);
+        }
+        return downloadSingleStream(resume, callback);
+    }
+
+    private long downloadSingleStream(boolean resume, DownloadCompleteCallback callback) {
         int bytes = 0;
         File file = new File(toFile);
         try {
@@ -231,7 +291,9 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
 
             InputStream in = !chunked ? new BufferedInputStream(request.getResponseBodyAsStream()) : new ChunkedInputStream(request.getResponseBodyAsStream());
 
-            RandomAccessFile out = new RandomAccessFile(file, "rwd");
+            MessageDigest digest = createDigest(file, localFileSize);
+
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
             out.seek(localFileSize);
 
             s_logger.info("Starting download from " + getDownloadUrl() + " to " + toFile + " remoteSize=" + remoteSize + " , max size=" + maxTemplateSizeInBytes);
@@ -244,8 +306,10 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             while (!done && status != Status.ABORTED && offset <= remoteSize) {
                 if ((bytes = in.read(block, 0, CHUNK_SIZE)) > -1) {
                     out.write(block, 0, bytes);
+                    if (digest != null) {
+                        digest.update(block, 0, bytes);
+                    }
                     offset += bytes;
-                    out.seek(offset);
                     totalBytes += bytes;
                     if (!verifiedFormat && (offset >= 1048576 || offset >= remoteSize)) { // let's
                         // check
@@ -257,8 +321,8 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
                         // or
                         // full
                         // file
-                        String unsupportedFormat = TemplateUtils.checkTemplateFormat(file.getAbsolutePath(), getDownloadUrl());
-                        if (unsupportedFormat == null || !unsupportedFormat.isEmpty()) {
+                        String formatError = checkFormat(file);
+                        if (formatError != null) {
                             try {
                                 request.abort();
                                 out.close();
@@ -267,10 +331,9 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
                                 s_logger.debug("Error on http connection : " + ex.getMessage());
                             }
                             status = Status.UNRECOVERABLE_ERROR;
-                            errorString = "Template content is unsupported, or mismatch between selected format and template content. Found  : " + unsupportedFormat;
+                            errorString = formatError;
                             return 0;
                         }
-                        s_logger.debug("Verified format of downloading file " + file.getAbsolutePath() + " is supported");
                         verifiedFormat = true;
                     }
                 } else {
@@ -282,6 +345,9 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             if (totalBytes >= remoteSize) {
                 status = TemplateDownloader.Status.DOWNLOAD_FINISHED;
                 downloaded = "(download complete remote=" + remoteSize + "bytes)";
+                if (digest != null) {
+                    checksum = toHex(digest.digest());
+                }
             }
             errorString = "Downloaded " + totalBytes + " bytes " + downloaded;
             downloadTime += finish.getTime() - start.getTime();
@@ -310,6 +376,315 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         return 0;
     }
 
+    /**
+     * Checks with a HEAD request whether the file is large enough to be split and the server
+     * accepts range requests for it
+     */
+    private boolean isParallelDownloadPossible() {
+        if (parallelStreams <= 1 || rangeRequestsIgnored) {
+            return false;
+        }
+
+        HeadMethod head = new HeadMethod(downloadUrl);
+        head.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, myretryhandler);
+        try {
+            if (client.executeMethod(head) != HttpStatus.SC_OK) {
+                return false;
+            }
+
+            Header acceptRanges = head.getResponseHeader("Accept-Ranges");
+            Header contentLength = head.getResponseHeader("Content-Length");
+            if (acceptRanges == null || !acceptRanges.getValue().contains("bytes") || contentLength == null) {
+                return false;
+            }
+
+            long size = Long.parseLong(contentLength.getValue().trim());
+            if (size < 2 * segmentSize || size > maxTemplateSizeInBytes) {
+                // small files are not worth splitting, too large ones are rejected by the single stream download
+                return false;
+            }
+            remoteSize = size;
+            return true;
+        } catch (IOException e) {
+            s_logger.debug("Unable to check range support of " + downloadUrl + ", downloading as a single stream: " + e.getMessage());
+            return false;
+        } catch (NumberFormatException e) {
+            return false;
+        } finally {
+            head.releaseConnection();
+        }
+    }
+
+    private long downloadInParallel(DownloadCompleteCallback callback) {
+        File file = new File(toFile);
+        boolean fallBack = false;
+        ExecutorService executor = null;
+        RandomAccessFile out = null;
+        try {
+            Date start = new Date();
+            int segmentCount = (int)((remoteSize + segmentSize - 1) / segmentSize);
+            if (completedSegments == null) {
+                completedSegments = new boolean[segmentCount];
+            }
+
+            out = new RandomAccessFile(file, "rw");
+            if (out.length() != remoteSize) {
+                out.setLength(remoteSize);
+            }
+            final FileChannel channel = out.getChannel();
+
+            long completedBytes = 0;
+            for (int i = 0; i < segmentCount; i++) {
+                if (completedSegments[i]) {
+                    completedBytes += getSegmentLength(i);
+                }
+            }
+            totalBytes = completedBytes;
+
+            s_logger.info("Starting download from " + getDownloadUrl() + " to " + toFile + " remoteSize=" + remoteSize + " in " + segmentCount + " segments over "
+                    + parallelStreams + " connections, " + completedBytes + " bytes already downloaded");
+
+            status = TemplateDownloader.Status.IN_PROGRESS;
+            final AtomicInteger nextSegment = new AtomicInteger();
+            int workerCount = Math.min(parallelStreams, segmentCount);
+            List<Callable<Void>> workers = new ArrayList<Callable<Void>>(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                workers.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        int index;
+                        while ((index = nextSegment.getAndIncrement()) < completedSegments.length && status == Status.IN_PROGRESS && !rangeRequestsIgnored) {
+                            if (!completedSegments[index]) {
+                                downloadSegment(channel, index);
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            executor = Executors.newFixedThreadPool(workerCount, new NamedThreadFactory("TemplateSegmentDownloader"));
+            for (Future<Void> result : executor.invokeAll(workers)) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (status == Status.IN_PROGRESS) {
+                        status = TemplateDownloader.Status.UNRECOVERABLE_ERROR;
+                        errorString = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                    }
+                }
+            }
+
+            Date finish = new Date();
+            downloadTime += finish.getTime() - start.getTime();
+            if (rangeRequestsIgnored && status == Status.IN_PROGRESS) {
+                s_logger.info("HTTP Server ignored range requests for " + getDownloadUrl() + ", downloading as a single stream");
+                fallBack = true;
+            } else {
+                if (status == Status.IN_PROGRESS) {
+                    status = TemplateDownloader.Status.DOWNLOAD_FINISHED;
+                    errorString = "Downloaded " + totalBytes + " bytes (download complete remote=" + remoteSize + "bytes)";
+                }
+                return totalBytes;
+            }
+        } catch (IOException ioe) {
+            status = TemplateDownloader.Status.UNRECOVERABLE_ERROR;
+            errorString = ioe.getMessage();
+        } catch (InterruptedException ie) {
+            status = TemplateDownloader.Status.UNRECOVERABLE_ERROR;
+            errorString = "Download interrupted";
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    s_logger.debug("Failed to close " + toFile + ": " + e.getMessage());
+                }
+            }
+            if (!fallBack) {
+                if (status == Status.UNRECOVERABLE_ERROR && file.exists() && !file.isDirectory()) {
+                    file.delete();
+                }
+                if (callback != null) {
+                    callback.downloadComplete(status);
+                }
+            }
+        }
+
+        if (fallBack) {
+            completedSegments = null;
+            totalBytes = 0;
+            file.delete();
+            return downloadSingleStream(false, callback);
+        }
+        return 0;
+    }
+
+    private void downloadSegment(FileChannel channel, int index) throws IOException {
+        long from = index * segmentSize;
+        long to = from + getSegmentLength(index) - 1;
+
+        GetMethod get = new GetMethod(downloadUrl);
+        get.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, myretryhandler);
+        get.addRequestHeader("Range", "bytes=" + from + "-" + to);
+        boolean complete = false;
+        segmentRequests.add(get);
+        try {
+            if (status != Status.IN_PROGRESS) {
+                // stopped while this segment was being set up, stopDownload() may have missed the request
+                return;
+            }
+            if (client.executeMethod(get) != HttpStatus.SC_PARTIAL_CONTENT) {
+                rangeRequestsIgnored = true;
+                return;
+            }
+            if (!isRequestedRange(get.getResponseHeader("Content-Range"), from, to)) {
+                s_logger.debug("HTTP Server answered the range " + from + "-" + to + " of " + getDownloadUrl() + " with " + get.getResponseHeader("Content-Range"));
+                rangeRequestsIgnored = true;
+                return;
+            }
+
+            InputStream in = get.getResponseBodyAsStream();
+            byte[] block = new byte[CHUNK_SIZE];
+            long position = from;
+            int bytes;
+            while (position <= to && status == Status.IN_PROGRESS && (bytes = in.read(block, 0, (int)Math.min(CHUNK_SIZE, to - position + 1))) > -1) {
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, bytes);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                addDownloadedBytes(bytes);
+            }
+
+            if (position <= to) {
+                if (status != Status.IN_PROGRESS) {
+                    return;
+                }
+                throw new IOException("Segment " + index + " of " + getDownloadUrl() + " ended after " + (position - from) + " bytes");
+            }
+            complete = true;
+            completedSegments[index] = true;
+
+            if (index == 0) {
+                String formatError = checkFormat(new File(toFile));
+                if (formatError != null) {
+                    status = Status.UNRECOVERABLE_ERROR;
+                    errorString = formatError;
+                }
+            }
+        } finally {
+            segmentRequests.remove(get);
+            if (!complete) {
+                get.abort();
+            }
+            get.releaseConnection();
+        }
+    }
+
+    /**
+     * @return true if a Content-Range header of the form "bytes from-to/size" covers exactly the requested bytes
+     */
+    static boolean isRequestedRange(Header contentRange, long from, long to) {
+        if (contentRange == null) {
+            return false;
+        }
+        String value = contentRange.getValue().trim();
+        if (!value.startsWith("bytes ")) {
+            return false;
+        }
+        int slash = value.indexOf('/');
+        String range = (slash < 0 ? value.substring("bytes ".length()) : value.substring("bytes ".length(), slash)).trim();
+        int dash = range.indexOf('-');
+        if (dash < 0) {
+            return false;
+        }
+        try {
+            return Long.parseLong(range.substring(0, dash).trim()) == from && Long.parseLong(range.substring(dash + 1).trim()) == to;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes all idle pooled connections, so that no connection outlives the server it was
+     * opened to.
+     */
+    static void closeIdleConnections() {
+        s_httpClientManager.closeIdleConnections(0);
+    }
+
+    private long getSegmentLength(int index) {
+        return Math.min(segmentSize, remoteSize - index * segmentSize);
+    }
+
+    private synchronized void addDownloadedBytes(long bytes) {
+        totalBytes += bytes;
+    }
+
+    /**
+     * @return null if the downloaded file has a format that matches the url, the error to report otherwise
+     */
+    protected String checkFormat(File file) {
+        String unsupportedFormat = TemplateUtils.checkTemplateFormat(file.getAbsolutePath(), getDownloadUrl());
+        if (unsupportedFormat == null || !unsupportedFormat.isEmpty()) {
+            return "Template content is unsupported, or mismatch between selected format and template content. Found  : " + unsupportedFormat;
+        }
+        s_logger.debug("Verified format of downloading file " + file.getAbsolutePath() + " is supported");
+        return null;
+    }
+
+    /**
+     * Creates the MD5 digest for a single stream download, fed with whatever a resumed download
+     * already has on disk
+     */
+    private MessageDigest createDigest(File file, long existingLength) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            if (existingLength > 0) {
+                InputStream is = new FileInputStream(file);
+                try {
+                    byte[] buffer = new byte[CHUNK_SIZE];
+                    long remaining = existingLength;
+                    int read;
+                    while (remaining > 0 && (read = is.read(buffer, 0, (int)Math.min(buffer.length, remaining))) > 0) {
+                        digest.update(buffer, 0, read);
+                        remaining -= read;
+                    }
+                } finally {
+                    is.close();
+                }
+            }
+            return digest;
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (IOException e) {
+            s_logger.debug("Unable to read already downloaded part of " + toFile + ", checksum will be computed after download: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String toHex(byte[] md5sum) {
+        return String.format("%032x", new BigInteger(1, md5sum));
+    }
+
+    /**
+     * @return MD5 checksum of the downloaded file if it was computed during the download, null otherwise
+     */
+    public String getDownloadChecksum() {
+        return status == Status.DOWNLOAD_FINISHED || status == Status.POST_DOWNLOAD_FINISHED ? checksum : null;
+    }
+
+    public void setParallelStreams(int parallelStreams) {
+        this.parallelStreams = parallelStreams;
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
     public String getDownloadUrl() {
         return downloadUrl;
     }
@@ -343,7 +718,12 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             if (request != null) {
                 request.abort();
             }
+            // set before the segment requests are aborted, so that their workers neither report
+            // the aborted requests as errors nor start new ones
             status = TemplateDownloader.Status.ABORTED;
+            for (GetMethod segmentRequest : segmentRequests) {
+                segmentRequest.abort();
+            }
             return true;
         case UNKNOWN:
         case NOT_STARTED:
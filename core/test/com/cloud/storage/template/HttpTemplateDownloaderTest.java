@@ -0,0 +1,316 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.storage.template;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.commons.httpclient.Header;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import com.cloud.storage.template.TemplateDownloader.Status;
+
+public class HttpTemplateDownloaderTest {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private final byte[] content = new byte[10 * SEGMENT_SIZE + 123];
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    // holds the segment responses of the stalled template until the test ends
+    private final CountDownLatch stall = new CountDownLatch(1);
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(content);
+        dir = Files.createTempDirectory("dnld").toFile();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ranged/", new TemplateHandler(true, false, false));
+        server.createContext("/plain/", new TemplateHandler(false, false, false));
+        server.createContext("/misranged/", new TemplateHandler(true, true, false));
+        server.createContext("/stalled/", new TemplateHandler(true, false, true));
+        // the segments of a parallel download are requested at the same time
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        stall.countDown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        // a later test server may get the same port, it must not inherit this one's connections
+        HttpTemplateDownloader.closeIdleConnections();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private HttpTemplateDownloader createDownloader(String path) {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + path;
+        HttpTemplateDownloader td = new HttpTemplateDownloader(null, url, dir.getAbsolutePath(), null, TemplateDownloader.DEFAULT_MAX_TEMPLATE_SIZE_IN_BYTES, null, null,
+                null, null) {
+            @Override
+            protected String checkFormat(File file) {
+                return null;
+            }
+        };
+        // loopback urls are refused when the downloader is created, the test server has to live there though
+        td.setStatus(Status.NOT_STARTED);
+        td.setSegmentSize(SEGMENT_SIZE);
+        return td;
+    }
+
+    @Test
+    public void testParallelDownloadOfRangedServer() throws Exception {
+        HttpTemplateDownloader td = createDownloader("/ranged/template.raw");
+
+        assertEquals(content.length, td.download(false, null));
+        assertEquals(Status.DOWNLOAD_FINISHED, td.getStatus());
+        assertEquals(11, rangeRequests.get());
+        assertArrayEquals(content, Files.readAllBytes(new File(td.getDownloadLocalPath()).toPath()));
+        // segments arrive out of order, the checksum is left to be computed from the file
+        assertNull(td.getDownloadChecksum());
+    }
+
+    @Test
+    public void testSingleStreamDownloadWithoutRangeSupport() throws Exception {
+        HttpTemplateDownloader td = createDownloader("/plain/template.raw");
+
+        assertEquals(content.length, td.download(false, null));
+        assertEquals(Status.DOWNLOAD_FINISHED, td.getStatus());
+        assertEquals(0, rangeRequests.get());
+        assertArrayEquals(content, Files.readAllBytes(new File(td.getDownloadLocalPath()).toPath()));
+        assertEquals(String.format("%032x", new BigInteger(1, MessageDigest.getInstance("MD5").digest(content))), td.getDownloadChecksum());
+    }
+
+    @Test
+    public void testSingleStreamDownloadWhenServerAnswersOtherRange() throws Exception {
+        HttpTemplateDownloader td = createDownloader("/misranged/template.raw");
+
+        assertEquals(content.length, td.download(false, null));
+        assertEquals(Status.DOWNLOAD_FINISHED, td.getStatus());
+        // the bytes of another range are never written at the requested offset
+        assertArrayEquals(content, Files.readAllBytes(new File(td.getDownloadLocalPath()).toPath()));
+        assertTrue(td.getDownloadChecksum() != null);
+    }
+
+    @Test
+    public void testRequestedRange() {
+        assertTrue(HttpTemplateDownloader.isRequestedRange(new Header("Content-Range", "bytes 65536-131071/655483"), 65536, 131071));
+        assertTrue(HttpTemplateDownloader.isRequestedRange(new Header("Content-Range", "bytes 0-65535/*"), 0, 65535));
+        assertFalse(HttpTemplateDownloader.isRequestedRange(new Header("Content-Range", "bytes 0-65535/655483"), 65536, 131071));
+        assertFalse(HttpTemplateDownloader.isRequestedRange(new Header("Content-Range", "bytes */655483"), 0, 65535));
+        assertFalse(HttpTemplateDownloader.isRequestedRange(null, 0, 65535));
+    }
+
+    @Test
+    public void testStopDownloadAbortsSegmentRequests() throws Exception {
+        final HttpTemplateDownloader td = createDownloader("/stalled/template.raw");
+        Thread downloader = new Thread() {
+            @Override
+            public void run() {
+                td.download(false, null);
+            }
+        };
+        downloader.start();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (td.getDownloadedBytes() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Status.IN_PROGRESS, td.getStatus());
+
+        assertTrue(td.stopDownload());
+        // the segment reads are blocked on the stalled server until their requests are aborted
+        downloader.join(5000);
+        assertFalse(downloader.isAlive());
+        assertEquals(Status.ABORTED, td.getStatus());
+    }
+
+    @Test
+    public void testSmallFileIsNotSplit() throws Exception {
+        HttpTemplateDownloader td = createDownloader("/ranged/template.raw");
+        td.setSegmentSize(content.length);
+
+        assertEquals(content.length, td.download(false, null));
+        assertTrue(td.getDownloadChecksum() != null);
+        assertEquals(0, rangeRequests.get());
+    }
+
+    @Test
+    public void testKeepAliveConnectionResetOnReuse() throws Exception {
+        // answers the first request of each connection, then resets the connection when it is reused
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        new Thread() {
+                            @Override
+                            public void run() {
+                                try {
+                                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                                    String requestLine = readRequest(reader);
+                                    OutputStream os = socket.getOutputStream();
+                                    os.write(("HTTP/1.1 200 OK\r\nContent-Length: " + content.length + "\r\n\r\n").getBytes("US-ASCII"));
+                                    if (requestLine != null && requestLine.startsWith("GET")) {
+                                        os.write(content);
+                                    }
+                                    os.flush();
+                                    readRequest(reader);
+                                    socket.setSoLinger(true, 0);
+                                    socket.close();
+                                } catch (IOException e) {
+                                    // the client closed the connection
+                                }
+                            }
+                        }.start();
+                    } catch (IOException e) {
+                        // closed by the test
+                    }
+                }
+            }
+        };
+        acceptor.start();
+
+        try {
+            for (int i = 0; i < 2; i++) {
+                String url = "http://127.0.0.1:" + serverSocket.getLocalPort() + "/template.raw";
+                HttpTemplateDownloader td = new HttpTemplateDownloader(null, url, dir.getAbsolutePath(), null, TemplateDownloader.DEFAULT_MAX_TEMPLATE_SIZE_IN_BYTES, null,
+                        null, null, null) {
+                    @Override
+                    protected String checkFormat(File file) {
+                        return null;
+                    }
+                };
+                td.setStatus(Status.NOT_STARTED);
+
+                assertEquals(content.length, td.download(false, null));
+                assertEquals(Status.DOWNLOAD_FINISHED, td.getStatus());
+            }
+        } finally {
+            serverSocket.close();
+            acceptor.join();
+        }
+    }
+
+    private static String readRequest(BufferedReader reader) throws IOException {
+        String requestLine = reader.readLine();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            // skip the headers
+        }
+        return requestLine;
+    }
+
+    private class TemplateHandler implements HttpHandler {
+        private final boolean supportsRanges;
+        // answers every range request with the first bytes of the file
+        private final boolean answersOtherRange;
+        private final boolean stalls;
+
+        TemplateHandler(boolean supportsRanges, boolean answersOtherRange, boolean stalls) {
+            this.supportsRanges = supportsRanges;
+            this.answersOtherRange = answersOtherRange;
+            this.stalls = stalls;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int from = 0;
+            int to = content.length - 1;
+            int code = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (supportsRanges) {
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+                if (range != null) {
+                    String[] bounds = range.substring("bytes=".length()).split("-");
+                    from = Integer.parseInt(bounds[0]);
+                    if (bounds.length > 1) {
+                        to = Integer.parseInt(bounds[1]);
+                    }
+                    if (answersOtherRange) {
+                        to -= from;
+                        from = 0;
+                    }
+                    code = 206;
+                    exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + content.length);
+                    rangeRequests.incrementAndGet();
+                }
+            }
+
+            int length = to - from + 1;
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().add("Content-Length", Integer.toString(length));
+                exchange.sendResponseHeaders(code, -1);
+            } else {
+                exchange.sendResponseHeaders(code, length);
+                OutputStream os = exchange.getResponseBody();
+                if (stalls && code == 206) {
+                    os.write(content, from, 1024);
+                    os.flush();
+                    try {
+                        stall.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        // the server is stopped
+                    }
+                    exchange.close();
+                    return;
+                }
+                os.write(content, from, length);
+                os.close();
+            }
+            exchange.close();
+        }
+    }
+}
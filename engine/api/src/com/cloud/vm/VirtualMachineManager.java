@@ -111,6 +111,19 @@ public interface VirtualMachineManager extends Manager {
     void advanceStart(String vmUuid, Map<VirtualMachineProfile.Param, Object> params, DeploymentPlan planToDeploy, DeploymentPlanner planner) throws InsufficientCapacityException,
     ResourceUnavailableException, ConcurrentOperationException, OperationTimedoutException;
 
+    /**
+     * Starts several VMs. When VM work jobs are enabled, the start jobs of all
+     * the VMs are submitted before waiting for any of them, so the VMs are
+     * placed and started concurrently, and the process status of the calling
+     * job counts the VMs done so far.
+     *
+     * @param params
+     *            the start parameters of each VM, by VM uuid
+     * @return the exception each VM that failed to start failed with, by VM uuid
+     */
+    Map<String, Throwable> advanceStart(List<String> vmUuids, Map<String, Map<VirtualMachineProfile.Param, Object>> params, DeploymentPlan planToDeploy,
+            DeploymentPlanner planner);
+
     void orchestrateStart(String vmUuid, Map<VirtualMachineProfile.Param, Object> params, DeploymentPlan planToDeploy, DeploymentPlanner planner)
             throws InsufficientCapacityException, ResourceUnavailableException, ConcurrentOperationException, OperationTimedoutException;
 
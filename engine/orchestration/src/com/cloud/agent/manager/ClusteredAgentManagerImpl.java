@@ -50,6 +50,8 @@ import com.google.gson.Gson;
 import org.apache.cloudstack.framework.config.ConfigDepot;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.managed.context.ManagedContextTimerTask;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
@@ -60,6 +62,7 @@ import com.cloud.agent.api.CancelCommand;
 import com.cloud.agent.api.ChangeAgentAnswer;
 import com.cloud.agent.api.ChangeAgentCommand;
 import com.cloud.agent.api.Command;
+import com.cloud.agent.api.PropagateMessageCommand;
 import com.cloud.agent.api.PropagateResourceEventCommand;
 import com.cloud.agent.api.ScheduleHostScanTaskCommand;
 import com.cloud.agent.api.TransferAgentCommand;
@@ -128,6 +131,8 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
     ConfigurationDao _configDao;
     @Inject
     ConfigDepot _configDepot;
+    @Inject
+    MessageBus _messageBus;
 
     protected ClusteredAgentManagerImpl() {
         super();
@@ -1341,6 +1346,17 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
                 ScheduleHostScanTaskCommand cmd = (ScheduleHostScanTaskCommand)cmds[0];
                 String response = handleScheduleHostScanTaskCommand(cmd);
                 return response;
+            } else if (cmds.length == 1 && cmds[0] instanceof PropagateMessageCommand) {
+                PropagateMessageCommand cmd = (PropagateMessageCommand)cmds[0];
+
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Intercepting command to propagate message " + cmd.getSubject() + " for id " + cmd.getId());
+                }
+                _messageBus.publish(null, cmd.getSubject(), PublishScope.LOCAL, cmd.getId());
+
+                Answer[] answers = new Answer[1];
+                answers[0] = new Answer(cmd, true, null);
+                return _gson.toJson(answers);
             }
 
             try {
@@ -797,6 +797,56 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
         }
     }
 
+    @Override
+    public Map<String, Throwable> advanceStart(List<String> vmUuids, Map<String, Map<VirtualMachineProfile.Param, Object>> params, DeploymentPlan planToDeploy,
+            DeploymentPlanner planner) {
+        Map<String, Throwable> failures = new HashMap<String, Throwable>();
+        AsyncJobExecutionContext jobContext = AsyncJobExecutionContext.getCurrentExecutionContext();
+        if (!VmJobEnabled.value() || jobContext.isJobDispatchedBy(VmWorkConstants.VM_WORK_JOB_DISPATCHER)) {
+            for (String vmUuid : vmUuids) {
+                try {
+                    advanceStart(vmUuid, params.get(vmUuid), planToDeploy, planner);
+                } catch (Exception e) {
+                    failures.put(vmUuid, e);
+                }
+            }
+            return failures;
+        }
+
+        // submit all the start jobs first so they run side by side in the VM work job queue
+        Map<String, Outcome<VirtualMachine>> outcomes = new LinkedHashMap<String, Outcome<VirtualMachine>>();
+        for (String vmUuid : vmUuids) {
+            try {
+                outcomes.put(vmUuid, startVmThroughJobQueue(vmUuid, params.get(vmUuid), planToDeploy, planner));
+            } catch (RuntimeException e) {
+                failures.put(vmUuid, e);
+            }
+        }
+
+        int done = failures.size();
+        for (Map.Entry<String, Outcome<VirtualMachine>> entry : outcomes.entrySet()) {
+            Outcome<VirtualMachine> outcome = entry.getValue();
+            try {
+                outcome.get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Operation is interrupted", e);
+            } catch (java.util.concurrent.ExecutionException e) {
+                failures.put(entry.getKey(), e);
+            }
+
+            Object jobResult = _jobMgr.unmarshallResultObject(outcome.getJob());
+            if (jobResult instanceof Throwable) {
+                failures.put(entry.getKey(), (Throwable)jobResult);
+            }
+
+            done++;
+            if (jobContext.getJob() != null) {
+                _jobMgr.updateAsyncJobStatus(jobContext.getJob().getId(), done, null);
+            }
+        }
+        return failures;
+    }
+
     @Override
     public void orchestrateStart(String vmUuid, Map<VirtualMachineProfile.Param, Object> params, DeploymentPlan planToDeploy, DeploymentPlanner planner)
             throws InsufficientCapacityException, ConcurrentOperationException, ResourceUnavailableException {
@@ -22,9 +22,12 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -44,6 +47,10 @@ import org.apache.cloudstack.engine.orchestration.service.NetworkOrchestrationSe
 import org.apache.cloudstack.engine.orchestration.service.VolumeOrchestrationService;
 import org.apache.cloudstack.framework.config.ConfigDepot;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.framework.jobs.AsyncJob;
+import org.apache.cloudstack.framework.jobs.AsyncJobExecutionContext;
+import org.apache.cloudstack.framework.jobs.AsyncJobManager;
+import org.apache.cloudstack.framework.jobs.Outcome;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
@@ -66,12 +73,14 @@ import com.cloud.agent.api.ScaleVmCommand;
 import com.cloud.agent.api.StopAnswer;
 import com.cloud.agent.api.StopCommand;
 import com.cloud.capacity.CapacityManager;
+import com.cloud.dc.DataCenter;
 import com.cloud.dc.dao.ClusterDao;
 import com.cloud.dc.dao.DataCenterDao;
 import com.cloud.dc.dao.HostPodDao;
 import com.cloud.deploy.DeployDestination;
 import com.cloud.deploy.DeploymentPlanner;
 import com.cloud.exception.ConcurrentOperationException;
+import com.cloud.exception.InsufficientServerCapacityException;
 import com.cloud.exception.ManagementServerException;
 import com.cloud.exception.OperationTimedoutException;
 import com.cloud.exception.ResourceUnavailableException;
@@ -200,6 +209,8 @@ public class VirtualMachineManagerImplTest {
     EntityManager _entityMgr;
     @Mock
     ConfigDepot _configDepot;
+    @Mock
+    AsyncJobManager _jobMgr;
 
     @Before
     public void setup() {
@@ -226,6 +237,7 @@ public class VirtualMachineManagerImplTest {
         _vmMgr._uservmDetailsDao = _vmDetailsDao;
         _vmMgr._entityMgr = _entityMgr;
         _vmMgr._configDepot = _configDepot;
+        _vmMgr._jobMgr = _jobMgr;
 
         when(_vmMock.getId()).thenReturn(314l);
         when(_vmInstance.getId()).thenReturn(1L);
@@ -505,4 +517,58 @@ public class VirtualMachineManagerImplTest {
 
         Assert.assertFalse(actual);
     }
+
+    @Test
+    public void testAdvanceStartListCollectsFailures() throws Exception {
+        AsyncJobExecutionContext jobContext = mock(AsyncJobExecutionContext.class);
+        when(jobContext.isJobDispatchedBy(VmWorkConstants.VM_WORK_JOB_DISPATCHER)).thenReturn(true);
+        AsyncJobExecutionContext.setCurrentExecutionContext(jobContext);
+        try {
+            doNothing().when(_vmMgr).advanceStart("vm-1", null, null, null);
+            doThrow(new InsufficientServerCapacityException("no capacity", DataCenter.class, 1L)).when(_vmMgr).advanceStart("vm-2", null, null, null);
+
+            Map<String, Throwable> failures = _vmMgr.advanceStart(Arrays.asList("vm-1", "vm-2"), new HashMap<String, Map<VirtualMachineProfile.Param, Object>>(), null, null);
+
+            Assert.assertEquals(1, failures.size());
+            Assert.assertTrue(failures.get("vm-2") instanceof InsufficientServerCapacityException);
+        } finally {
+            AsyncJobExecutionContext.setCurrentExecutionContext(null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAdvanceStartListThroughJobQueue() throws Exception {
+        AsyncJob job = mock(AsyncJob.class);
+        when(job.getId()).thenReturn(9L);
+        AsyncJobExecutionContext jobContext = mock(AsyncJobExecutionContext.class);
+        when(jobContext.isJobDispatchedBy(VmWorkConstants.VM_WORK_JOB_DISPATCHER)).thenReturn(false);
+        when(jobContext.getJob()).thenReturn(job);
+        AsyncJobExecutionContext.setCurrentExecutionContext(jobContext);
+        try {
+            AsyncJob startJob1 = mock(AsyncJob.class);
+            AsyncJob startJob2 = mock(AsyncJob.class);
+            Outcome<VirtualMachine> outcome1 = mock(Outcome.class);
+            Outcome<VirtualMachine> outcome2 = mock(Outcome.class);
+            when(outcome1.getJob()).thenReturn(startJob1);
+            when(outcome2.getJob()).thenReturn(startJob2);
+            when(_jobMgr.unmarshallResultObject(startJob1)).thenReturn(null);
+            when(_jobMgr.unmarshallResultObject(startJob2)).thenReturn(new CloudRuntimeException("start failed"));
+            doReturn(outcome1).when(_vmMgr).startVmThroughJobQueue("vm-1", null, null, null);
+            doReturn(outcome2).when(_vmMgr).startVmThroughJobQueue("vm-2", null, null, null);
+            doThrow(new CloudRuntimeException("cannot queue")).when(_vmMgr).startVmThroughJobQueue("vm-3", null, null, null);
+
+            Map<String, Throwable> failures = _vmMgr.advanceStart(Arrays.asList("vm-1", "vm-2", "vm-3"), new HashMap<String, Map<VirtualMachineProfile.Param, Object>>(), null, null);
+
+            Assert.assertEquals(2, failures.size());
+            Assert.assertEquals("start failed", failures.get("vm-2").getMessage());
+            Assert.assertEquals("cannot queue", failures.get("vm-3").getMessage());
+            verify(outcome1).get();
+            verify(outcome2).get();
+            verify(_jobMgr).updateAsyncJobStatus(9L, 2, null);
+            verify(_jobMgr).updateAsyncJobStatus(9L, 3, null);
+        } finally {
+            AsyncJobExecutionContext.setCurrentExecutionContext(null);
+        }
+    }
 }
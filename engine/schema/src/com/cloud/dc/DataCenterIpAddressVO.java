@@ -77,6 +77,11 @@ public class DataCenterIpAddressVO implements InternalIdentity {
         this.podId = podId;
     }
 
+    public DataCenterIpAddressVO(String ipAddress, long dataCenterId, long podId, long macAddress) {
+        this(ipAddress, dataCenterId, podId);
+        this.macAddress = macAddress;
+    }
+
     @Override
     public long getId() {
         return id;
@@ -17,7 +17,9 @@
 package com.cloud.dc.dao;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -42,6 +44,7 @@ import com.cloud.utils.net.NetUtils;
 @DB
 public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddressVO, Long> implements DataCenterIpAddressDao {
     private static final Logger s_logger = Logger.getLogger(DataCenterIpAddressDaoImpl.class);
+    private static final int ADD_IP_RANGE_BATCH_SIZE = 1000;
 
     private final SearchBuilder<DataCenterIpAddressVO> AllFieldsSearch;
     private final GenericSearchBuilder<DataCenterIpAddressVO, Integer> AllIpCount;
@@ -112,34 +115,50 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
     @Override
     @DB
     public void addIpRange(long dcId, long podId, String start, String end) {
-        TransactionLegacy txn = TransactionLegacy.currentTxn();
-        String insertSql = "INSERT INTO `cloud`.`op_dc_ip_address_alloc` (ip_address, data_center_id, pod_id, mac_address) "
-                + "VALUES (?, ?, ?, (select mac_address from `cloud`.`data_center` where id=?))";
-        String updateSql = "UPDATE `cloud`.`data_center` set mac_address = mac_address+1 where id=?";
-        PreparedStatement stmt = null;
-
         long startIP = NetUtils.ip2Long(start);
         long endIP = NetUtils.ip2Long(end);
+        long total = endIP - startIP + 1;
+
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        txn.start();
+        // take the mac addresses of the whole range from the zone's sequence at once
+        long macAddress = reserveMacAddresses(txn, dcId, total);
+
+        List<DataCenterIpAddressVO> batch = new ArrayList<DataCenterIpAddressVO>();
+        long added = 0;
+        while (startIP <= endIP) {
+            batch.add(new DataCenterIpAddressVO(NetUtils.long2Ip(startIP++), dcId, podId, macAddress++));
+            if (batch.size() == ADD_IP_RANGE_BATCH_SIZE || startIP > endIP) {
+                persist(batch, batch.size());
+                added += batch.size();
+                batch.clear();
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Added " + added + " of " + total + " ip addresses of range " + start + "-" + end + " to pod " + podId);
+                }
+            }
+        }
+        txn.commit();
+    }
 
+    private long reserveMacAddresses(TransactionLegacy txn, long dcId, long count) {
+        String selectSql = "SELECT mac_address FROM `cloud`.`data_center` WHERE id=? FOR UPDATE";
+        String updateSql = "UPDATE `cloud`.`data_center` set mac_address = mac_address+? where id=?";
         try {
-            txn.start();
-
-            while (startIP <= endIP) {
-                stmt = txn.prepareStatement(insertSql);
-                stmt.setString(1, NetUtils.long2Ip(startIP++));
-                stmt.setLong(2, dcId);
-                stmt.setLong(3, podId);
-                stmt.setLong(4, dcId);
-                stmt.executeUpdate();
-                stmt.close();
-                stmt = txn.prepareStatement(updateSql);
-                stmt.setLong(1, dcId);
-                stmt.executeUpdate();
-                stmt.close();
+            PreparedStatement stmt = txn.prepareAutoCloseStatement(selectSql);
+            stmt.setLong(1, dcId);
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next()) {
+                throw new CloudRuntimeException("Unable to find data center " + dcId);
             }
-            txn.commit();
+            long macAddress = rs.getLong(1);
+
+            stmt = txn.prepareAutoCloseStatement(updateSql);
+            stmt.setLong(1, count);
+            stmt.setLong(2, dcId);
+            stmt.executeUpdate();
+            return macAddress;
         } catch (SQLException ex) {
-            throw new CloudRuntimeException("Unable to persist ip address range ", ex);
+            throw new CloudRuntimeException("Unable to reserve mac addresses for ip address range ", ex);
         }
     }
 
@@ -16,8 +16,7 @@
 // under the License.
 package com.cloud.dc.dao;
 
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -36,7 +35,6 @@ import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.SearchCriteria.Func;
 import com.cloud.utils.db.TransactionLegacy;
-import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.NetUtils;
 
 @Component
@@ -44,6 +42,7 @@ import com.cloud.utils.net.NetUtils;
 @DB
 public class DataCenterLinkLocalIpAddressDaoImpl extends GenericDaoBase<DataCenterLinkLocalIpAddressVO, Long> implements DataCenterLinkLocalIpAddressDao {
     private static final Logger s_logger = Logger.getLogger(DataCenterLinkLocalIpAddressDaoImpl.class);
+    private static final int ADD_IP_RANGE_BATCH_SIZE = 1000;
 
     private final SearchBuilder<DataCenterLinkLocalIpAddressVO> AllFieldsSearch;
     private final GenericSearchBuilder<DataCenterLinkLocalIpAddressVO, Integer> AllIpCount;
@@ -82,27 +81,27 @@ public class DataCenterLinkLocalIpAddressDaoImpl extends GenericDaoBase<DataCent
     @Override
     @DB
     public void addIpRange(long dcId, long podId, String start, String end) {
-        String insertSql = "INSERT INTO `cloud`.`op_dc_link_local_ip_address_alloc` (ip_address, data_center_id, pod_id) VALUES (?, ?, ?)";
-        PreparedStatement stmt = null;
-
         long startIP = NetUtils.ip2Long(start);
         long endIP = NetUtils.ip2Long(end);
 
+        long total = endIP - startIP + 1;
+
         TransactionLegacy txn = TransactionLegacy.currentTxn();
-        try {
-            txn.start();
-            stmt = txn.prepareAutoCloseStatement(insertSql);
-            while (startIP <= endIP) {
-                stmt.setString(1, NetUtils.long2Ip(startIP++));
-                stmt.setLong(2, dcId);
-                stmt.setLong(3, podId);
-                stmt.addBatch();
+        txn.start();
+        List<DataCenterLinkLocalIpAddressVO> batch = new ArrayList<DataCenterLinkLocalIpAddressVO>();
+        long added = 0;
+        while (startIP <= endIP) {
+            batch.add(new DataCenterLinkLocalIpAddressVO(NetUtils.long2Ip(startIP++), dcId, podId));
+            if (batch.size() == ADD_IP_RANGE_BATCH_SIZE || startIP > endIP) {
+                persist(batch, batch.size());
+                added += batch.size();
+                batch.clear();
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Added " + added + " of " + total + " link local ip addresses of range " + start + "-" + end + " to pod " + podId);
+                }
             }
-            stmt.executeBatch();
-            txn.commit();
-        } catch (SQLException e) {
-            throw new CloudRuntimeException("Unable to insert", e);
         }
+        txn.commit();
     }
 
     @Override
@@ -40,4 +40,9 @@ public interface DomainDao extends GenericDao<DomainVO, Long> {
     Set<Long> getDomainParentIds(long domainId);
 
     List<Long> getDomainChildrenIds(String path);
+
+    /**
+     * Drops the cached domain tree, used when another management server changed the domains
+     */
+    void invalidateTreeIndex();
 }
@@ -22,6 +22,7 @@ import java.sql.SQLException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ejb.Local;
 
@@ -50,6 +51,18 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
     protected GenericSearchBuilder<DomainVO, Long> FindIdsOfAllChildrenSearch;
     protected SearchBuilder<DomainVO> AllFieldsSearch;
 
+    // domains change rarely, the index is rebuilt after local changes and at least this often to pick up other management servers
+    private static final long TREE_INDEX_MAX_AGE_MS = 60000;
+    // a lookup for an unknown domain reloads the index at most this often
+    private static final long TREE_INDEX_MISS_RELOAD_MS = 1000;
+
+    private volatile DomainTreeIndex _treeIndex;
+    private volatile long _treeIndexLoadedAt;
+    // bumped on every change so that an index loaded from older data is not kept
+    private final AtomicLong _treeIndexVersion = new AtomicLong();
+    // only one thread rebuilds the index, the others wait for its result instead of loading all domains as well
+    private final Object _treeIndexLock = new Object();
+
     public DomainDaoImpl() {
         DomainNameLikeSearch = createSearchBuilder();
         DomainNameLikeSearch.and("name", DomainNameLikeSearch.entity().getName(), SearchCriteria.Op.LIKE);
@@ -88,6 +101,47 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
 
     }
 
+    /**
+     * @param reloadOnMiss rebuild a recent index anyway, a domain may just have been created elsewhere
+     */
+    protected DomainTreeIndex getTreeIndex(boolean reloadOnMiss) {
+        DomainTreeIndex index = _treeIndex;
+        if (!isTreeIndexStale(index, reloadOnMiss)) {
+            return index;
+        }
+
+        synchronized (_treeIndexLock) {
+            // another thread may have rebuilt it while this one was waiting
+            index = _treeIndex;
+            if (!isTreeIndexStale(index, reloadOnMiss)) {
+                return index;
+            }
+
+            long version = _treeIndexVersion.get();
+            long loadedAt = System.currentTimeMillis();
+            index = new DomainTreeIndex(listAll());
+            if (version == _treeIndexVersion.get()) {
+                _treeIndex = index;
+                _treeIndexLoadedAt = loadedAt;
+            }
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Loaded domain tree index with " + index.size() + " domains");
+            }
+        }
+        return index;
+    }
+
+    private boolean isTreeIndexStale(DomainTreeIndex index, boolean reloadOnMiss) {
+        long age = System.currentTimeMillis() - _treeIndexLoadedAt;
+        return index == null || age > TREE_INDEX_MAX_AGE_MS || (reloadOnMiss && age > TREE_INDEX_MISS_RELOAD_MS);
+    }
+
+    @Override
+    public void invalidateTreeIndex() {
+        _treeIndexVersion.incrementAndGet();
+        _treeIndex = null;
+    }
+
     private static String allocPath(DomainVO parentDomain, String name) {
         String parentPath = parentDomain.getPath();
         return parentPath + name + "/";
@@ -138,6 +192,7 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
             update(parentDomain.getId(), parentDomain);
 
             txn.commit();
+            invalidateTreeIndex();
             return domain;
         } catch (Exception e) {
             s_logger.error("Unable to create domain due to " + e.getMessage(), e);
@@ -195,6 +250,7 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
             update(parentDomain.getId(), parentDomain);
             success = super.remove(id);
             txn.commit();
+            invalidateTreeIndex();
         } catch (SQLException ex) {
             success = false;
             s_logger.error("error removing domain: " + id, ex);
@@ -203,6 +259,14 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
         return success;
     }
 
+    @Override
+    public boolean update(Long id, DomainVO domain) {
+        boolean updated = super.update(id, domain);
+        // renaming a domain changes the paths of all its sub-domains
+        invalidateTreeIndex();
+        return updated;
+    }
+
     @Override
     public DomainVO findDomainByPath(String domainPath) {
         SearchCriteria<DomainVO> sc = createSearchCriteria();
@@ -238,6 +302,12 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
 
     @Override
     public List<Long> getDomainChildrenIds(String path) {
+        DomainTreeIndex index = getTreeIndex(false);
+        List<Long> childIds = index.getChildIds(path);
+        if (childIds != null) {
+            return childIds;
+        }
+
         SearchCriteria<Long> sc = FindIdsOfAllChildrenSearch.create();
         sc.setParameters("path", path + "%");
         return customSearch(sc, null);
@@ -253,6 +323,14 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
             return true;
         }
 
+        DomainTreeIndex index = getTreeIndex(false);
+        if (!index.contains(parentId) || !index.contains(childId)) {
+            index = getTreeIndex(true);
+        }
+        if (index.contains(parentId) && index.contains(childId)) {
+            return index.isChildDomain(parentId, childId);
+        }
+
         boolean result = false;
         SearchCriteria<DomainVO> sc = DomainPairSearch.create();
         sc.setParameters("id", parentId, childId);
@@ -281,6 +359,11 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
 
     @Override
     public Set<Long> getDomainParentIds(long domainId) {
+        Set<Long> parentIds = getTreeIndex(false).getParentIds(domainId);
+        if (parentIds != null) {
+            return parentIds;
+        }
+
         Set<Long> parentDomains = new HashSet<Long>();
         Domain domain = findById(domainId);
 
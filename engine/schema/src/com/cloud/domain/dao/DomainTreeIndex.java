@@ -0,0 +1,163 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.domain.dao;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cloud.domain.Domain;
+
+/**
+ * Snapshot of the domain hierarchy numbered in pre-order. Every domain covers the interval
+ * [first, last] of the positions taken by itself and its sub-domains, so checking whether one
+ * domain is below another is two integer comparisons and the sub-domains of a domain are a
+ * contiguous range of the pre-order array. A snapshot is never modified, it is replaced when
+ * domains are added, changed or removed.
+ */
+public class DomainTreeIndex {
+    private final Map<Long, Node> _nodes = new HashMap<Long, Node>();
+    private final Map<String, Long> _idsByPath = new HashMap<String, Long>();
+    private final long[] _preOrder;
+
+    private static class Node {
+        final Long parentId;
+        final int first;
+        int last;
+
+        Node(Long parentId, int first) {
+            this.parentId = parentId;
+            this.first = first;
+        }
+    }
+
+    public DomainTreeIndex(Collection<? extends Domain> domains) {
+        Map<Long, List<Domain>> children = new HashMap<Long, List<Domain>>();
+        List<Domain> roots = new ArrayList<Domain>();
+        Set<Long> ids = new HashSet<Long>();
+        for (Domain domain : domains) {
+            ids.add(domain.getId());
+        }
+        for (Domain domain : domains) {
+            if (domain.getParent() == null || !ids.contains(domain.getParent())) {
+                roots.add(domain);
+            } else {
+                List<Domain> siblings = children.get(domain.getParent());
+                if (siblings == null) {
+                    siblings = new ArrayList<Domain>();
+                    children.put(domain.getParent(), siblings);
+                }
+                siblings.add(domain);
+            }
+        }
+
+        // iterative walk, deep reseller hierarchies must not be limited by the stack size
+        _preOrder = new long[ids.size()];
+        int position = 0;
+        Deque<Domain> pending = new ArrayDeque<Domain>();
+        Deque<Node> open = new ArrayDeque<Node>();
+        for (Domain root : roots) {
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Domain domain = pending.pop();
+                // close the nodes whose sub-tree ended before this domain
+                while (!open.isEmpty() && !isOpenParentOf(open.peek(), domain)) {
+                    open.pop().last = position - 1;
+                }
+                Node node = new Node(domain.getParent(), position);
+                _nodes.put(domain.getId(), node);
+                if (domain.getPath() != null) {
+                    _idsByPath.put(domain.getPath(), domain.getId());
+                }
+                _preOrder[position++] = domain.getId();
+                open.push(node);
+
+                List<Domain> domainChildren = children.get(domain.getId());
+                if (domainChildren != null) {
+                    for (Domain child : domainChildren) {
+                        pending.push(child);
+                    }
+                }
+            }
+            while (!open.isEmpty()) {
+                open.pop().last = position - 1;
+            }
+        }
+    }
+
+    private boolean isOpenParentOf(Node node, Domain domain) {
+        return domain.getParent() != null && _nodes.get(domain.getParent()) == node;
+    }
+
+    public boolean contains(long domainId) {
+        return _nodes.containsKey(domainId);
+    }
+
+    public int size() {
+        return _nodes.size();
+    }
+
+    /**
+     * @return true if childId is parentId or one of its sub-domains, false if either is unknown
+     */
+    public boolean isChildDomain(long parentId, long childId) {
+        Node parent = _nodes.get(parentId);
+        Node child = _nodes.get(childId);
+        if (parent == null || child == null) {
+            return false;
+        }
+        return parent.first <= child.first && child.last <= parent.last;
+    }
+
+    /**
+     * @return the domain and all its ancestors, or null if the domain is unknown
+     */
+    public Set<Long> getParentIds(long domainId) {
+        if (!_nodes.containsKey(domainId)) {
+            return null;
+        }
+        Set<Long> parentIds = new HashSet<Long>();
+        Long id = domainId;
+        while (id != null && _nodes.containsKey(id)) {
+            parentIds.add(id);
+            id = _nodes.get(id).parentId;
+        }
+        return parentIds;
+    }
+
+    /**
+     * @return the domain with the given path and all its sub-domains, or null if the path is unknown
+     */
+    public List<Long> getChildIds(String path) {
+        Long domainId = _idsByPath.get(path);
+        if (domainId == null) {
+            return null;
+        }
+        Node node = _nodes.get(domainId);
+        List<Long> childIds = new ArrayList<Long>(node.last - node.first + 1);
+        for (int i = node.first; i <= node.last; i++) {
+            childIds.add(_preOrder[i]);
+        }
+        return childIds;
+    }
+}
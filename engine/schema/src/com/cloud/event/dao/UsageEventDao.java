@@ -35,4 +35,6 @@ public interface UsageEventDao extends GenericDao<UsageEventVO, Long> {
 
     void saveDetails(long eventId, Map<String, String> details);
 
+    void markEventsProcessed(List<Long> eventIds);
+
 }
\ No newline at end of file
@@ -18,6 +18,7 @@ package com.cloud.event.dao;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +58,8 @@ public class UsageEventDaoImpl extends GenericDaoBase<UsageEventVO, Long> implem
     private static final String COPY_ALL_EVENT_DETAILS = "INSERT INTO cloud_usage.usage_event_details (id, usage_event_id, name, value) "
             + "SELECT id, usage_event_id, name, value FROM cloud.usage_event_details vmevtDetails WHERE vmevtDetails.usage_event_id <= ?";
     private static final String MAX_EVENT = "select max(id) from cloud.usage_event where created <= ?";
+    private static final String MARK_EVENT_PROCESSED = "UPDATE cloud_usage.usage_event SET processed = 1 WHERE id = ?";
+    private static final int MARK_EVENT_PROCESSED_BATCH_SIZE = 1000;
     @Inject
     protected UsageEventDetailsDao usageEventDetailsDao;
 
@@ -224,4 +227,36 @@ public class UsageEventDaoImpl extends GenericDaoBase<UsageEventVO, Long> implem
         usageEventDetailsDao.persist(eventId, details);
     }
 
+    @Override
+    public void markEventsProcessed(List<Long> eventIds) {
+        if (eventIds == null || eventIds.isEmpty()) {
+            return;
+        }
+        // runs in the caller's usage transaction, so the flags commit together with the helper records
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = txn.prepareAutoCloseStatement(MARK_EVENT_PROCESSED);
+            markEventsProcessed(pstmt, eventIds, MARK_EVENT_PROCESSED_BATCH_SIZE);
+        } catch (Exception ex) {
+            s_logger.error("error marking usage events as processed", ex);
+            throw new CloudRuntimeException(ex.getMessage());
+        }
+    }
+
+    static void markEventsProcessed(PreparedStatement pstmt, List<Long> eventIds, int batchSize) throws SQLException {
+        int pending = 0;
+        for (Long eventId : eventIds) {
+            pstmt.setLong(1, eventId);
+            pstmt.addBatch();
+            if (++pending == batchSize) {
+                pstmt.executeBatch();
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            pstmt.executeBatch();
+        }
+    }
+
 }
@@ -17,6 +17,7 @@
 package com.cloud.usage.dao;
 
 import java.util.List;
+import java.util.Map;
 
 import com.cloud.usage.UsageVO;
 import com.cloud.user.AccountVO;
@@ -53,4 +54,14 @@ public interface UsageDao extends GenericDao<UsageVO, Long> {
     void saveVmDiskStats(List<VmDiskStatisticsVO> vmDiskStats);
 
     void saveUsageRecords(List<UsageVO> usageRecords);
+
+    /**
+     * @return the id of the last cloud_usage record, 0 when there is none
+     * @throws com.cloud.utils.exception.CloudRuntimeException if it cannot be read
+     */
+    long getLastUsageRecordId();
+
+    void removeUsageRecordsAfterId(long recordId);
+
+    Map<Integer, Long> countUsageRecordsByTypeAfterId(long recordId);
 }
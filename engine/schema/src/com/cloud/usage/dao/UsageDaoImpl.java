@@ -21,7 +21,9 @@ import java.sql.ResultSet;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 import javax.ejb.Local;
@@ -68,6 +70,10 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
             + "usage_type, raw_usage, vm_instance_id, vm_name, offering_id, template_id, "
             + "usage_id, type, size, network_id, start_date, end_date, virtual_size) VALUES (?,?,?,?,?,?,?,?,?, ?, ?, ?,?,?,?,?,?,?)";
 
+    private static final String GET_LAST_USAGE_RECORD = "SELECT MAX(id) FROM cloud_usage.cloud_usage";
+    private static final String DELETE_USAGE_RECORDS_AFTER_ID = "DELETE FROM cloud_usage.cloud_usage WHERE id > ?";
+    private static final String COUNT_USAGE_RECORDS_BY_TYPE_AFTER_ID = "SELECT usage_type, COUNT(*) FROM cloud_usage.cloud_usage WHERE id > ? GROUP BY usage_type";
+
     protected final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
 
     public UsageDaoImpl() {
@@ -460,4 +466,57 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
             throw new CloudRuntimeException(ex.getMessage());
         }
     }
+
+    @Override
+    public long getLastUsageRecordId() {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        String sql = GET_LAST_USAGE_RECORD;
+        try {
+            pstmt = txn.prepareAutoCloseStatement(sql);
+            ResultSet rs = pstmt.executeQuery();
+            // MAX(id) is NULL, read as 0, when there are no usage records yet
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (Exception ex) {
+            s_logger.error("error getting last usage record id", ex);
+            throw new CloudRuntimeException("error getting last usage record id", ex);
+        }
+    }
+
+    @Override
+    public void removeUsageRecordsAfterId(long recordId) {
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            pstmt = txn.prepareAutoCloseStatement(DELETE_USAGE_RECORDS_AFTER_ID);
+            pstmt.setLong(1, recordId);
+            pstmt.executeUpdate();
+            txn.commit();
+        } catch (Exception ex) {
+            txn.rollback();
+            s_logger.error("error removing usage records after id: " + recordId, ex);
+            throw new CloudRuntimeException(ex.getMessage());
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Override
+    public Map<Integer, Long> countUsageRecordsByTypeAfterId(long recordId) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        Map<Integer, Long> counts = new HashMap<Integer, Long>();
+        try {
+            pstmt = txn.prepareAutoCloseStatement(COUNT_USAGE_RECORDS_BY_TYPE_AFTER_ID);
+            pstmt.setLong(1, recordId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                counts.put(rs.getInt(1), rs.getLong(2));
+            }
+        } catch (Exception ex) {
+            s_logger.error("error counting usage records after id: " + recordId, ex);
+        }
+        return counts;
+    }
 }
@@ -0,0 +1,142 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.domain.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.cloud.domain.Domain;
+import com.cloud.domain.DomainVO;
+
+public class DomainTreeIndexTest {
+
+    private static Domain domain(long id, Long parent, String path) {
+        Domain domain = mock(Domain.class);
+        when(domain.getId()).thenReturn(id);
+        when(domain.getParent()).thenReturn(parent);
+        when(domain.getPath()).thenReturn(path);
+        return domain;
+    }
+
+    // ROOT(1) -> a(2) -> a1(4), a2(5) -> a21(6); ROOT -> b(3)
+    private static DomainTreeIndex sampleTree() {
+        return new DomainTreeIndex(Arrays.asList(domain(6, 5L, "/a/a2/a21/"), domain(1, null, "/"), domain(2, 1L, "/a/"), domain(3, 1L, "/b/"),
+                domain(4, 2L, "/a/a1/"), domain(5, 2L, "/a/a2/")));
+    }
+
+    @Test
+    public void testIsChildDomain() {
+        DomainTreeIndex index = sampleTree();
+        assertEquals(6, index.size());
+        assertTrue(index.isChildDomain(1, 6));
+        assertTrue(index.isChildDomain(2, 6));
+        assertTrue(index.isChildDomain(5, 6));
+        assertTrue(index.isChildDomain(2, 2));
+        assertFalse(index.isChildDomain(4, 6));
+        assertFalse(index.isChildDomain(3, 5));
+        assertFalse(index.isChildDomain(6, 2));
+        assertFalse(index.isChildDomain(2, 7));
+    }
+
+    @Test
+    public void testParentAndChildIds() {
+        DomainTreeIndex index = sampleTree();
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 5L, 6L)), index.getParentIds(6));
+        assertNull(index.getParentIds(7));
+        assertEquals(new HashSet<Long>(Arrays.asList(2L, 4L, 5L, 6L)), new HashSet<Long>(index.getChildIds("/a/")));
+        assertEquals(Arrays.asList(3L), index.getChildIds("/b/"));
+        assertEquals(6, index.getChildIds("/").size());
+        assertNull(index.getChildIds("/c/"));
+    }
+
+    @Test
+    public void testDeepHierarchy() {
+        List<Domain> domains = new ArrayList<Domain>();
+        domains.add(domain(1, null, "/"));
+        String path = "/";
+        for (long id = 2; id <= 5000; id++) {
+            path = path + id + "/";
+            domains.add(domain(id, id - 1, path));
+        }
+        DomainTreeIndex index = new DomainTreeIndex(domains);
+        assertTrue(index.isChildDomain(1, 5000));
+        assertTrue(index.isChildDomain(2500, 4000));
+        assertFalse(index.isChildDomain(4000, 2500));
+        assertEquals(5000, index.getParentIds(5000).size());
+    }
+
+    private static class CountingDomainDao extends DomainDaoImpl {
+        final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public List<DomainVO> listAll() {
+            loads.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ArrayList<DomainVO>();
+        }
+    }
+
+    @Test
+    public void testConcurrentReloadLoadsOnce() throws Exception {
+        final CountingDomainDao dao = new CountingDomainDao();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    dao.getTreeIndex(false);
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, dao.loads.get());
+
+        dao.getTreeIndex(false);
+        assertEquals(1, dao.loads.get());
+        dao.invalidateTreeIndex();
+        dao.getTreeIndex(false);
+        assertEquals(2, dao.loads.get());
+    }
+}
@@ -0,0 +1,97 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.event.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class UsageEventDaoImplTest {
+
+    private PreparedStatement pstmt;
+    // the ids of each executed batch
+    private final List<List<Long>> batches = new ArrayList<List<Long>>();
+    private final List<Long> currentId = new ArrayList<Long>();
+    private final List<Long> pending = new ArrayList<Long>();
+
+    @Before
+    public void setUp() throws Exception {
+        pstmt = mock(PreparedStatement.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                currentId.clear();
+                currentId.add((Long)invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(pstmt).setLong(anyInt(), anyLong());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                pending.addAll(currentId);
+                return null;
+            }
+        }).when(pstmt).addBatch();
+        doAnswer(new Answer<int[]>() {
+            @Override
+            public int[] answer(InvocationOnMock invocation) {
+                batches.add(new ArrayList<Long>(pending));
+                int[] counts = new int[pending.size()];
+                Arrays.fill(counts, 1);
+                pending.clear();
+                return counts;
+            }
+        }).when(pstmt).executeBatch();
+    }
+
+    @Test
+    public void testMarkEventsProcessedAcrossBatches() throws Exception {
+        List<Long> eventIds = Arrays.asList(11L, 12L, 15L, 16L, 20L, 21L, 22L);
+
+        UsageEventDaoImpl.markEventsProcessed(pstmt, eventIds, 3);
+
+        assertEquals(Arrays.asList(Arrays.asList(11L, 12L, 15L), Arrays.asList(16L, 20L, 21L), Arrays.asList(22L)), batches);
+        assertEquals(0, pending.size());
+    }
+
+    @Test
+    public void testMarkEventsProcessedFillingLastBatch() throws Exception {
+        UsageEventDaoImpl.markEventsProcessed(pstmt, Arrays.asList(1L, 2L, 3L, 4L), 2);
+
+        // no empty batch is sent after a full one
+        assertEquals(Arrays.asList(Arrays.asList(1L, 2L), Arrays.asList(3L, 4L)), batches);
+    }
+
+    @Test
+    public void testMarkEventsProcessedSingleBatch() throws Exception {
+        UsageEventDaoImpl.markEventsProcessed(pstmt, Arrays.asList(7L, 9L), 1000);
+
+        assertEquals(Arrays.asList(Arrays.asList(7L, 9L)), batches);
+    }
+}
@@ -227,6 +227,18 @@ public interface GenericDao<T, ID extends Serializable> {
      **/
     T persist(T entity);
 
+    /**
+     * Persist the entity beans with JDBC batches, in one transaction. The id
+     * field of each entity is updated with its new id. Only works for entity
+     * beans stored in a single table, without element collections.
+     *
+     * @param entities
+     *            the beans to persist.
+     * @param batchSize
+     *            the number of rows inserted per batch.
+     **/
+    void persist(List<T> entities, int batchSize);
+
     /**
      * remove the entity bean. This will call delete automatically if the entity
      * bean does not have a removed field.
@@ -304,5 +316,11 @@ public interface GenericDao<T, ID extends Serializable> {
      */
     Pair<List<T>, Integer> searchAndCount(SearchCriteria<T> sc, Filter filter);
 
+    /**
+     * @param sc
+     * @return the number of rows matching the search criteria
+     */
+    Integer getCount(SearchCriteria<T> sc);
+
     Map<String, Attribute> getAllAttributes();
 }
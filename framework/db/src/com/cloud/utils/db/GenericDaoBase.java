@@ -1390,6 +1390,50 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return _idField != null ? findByIdIncludingRemoved(id) : null;
     }
 
+    @Override
+    @DB()
+    public void persist(final List<T> entities, final int batchSize) {
+        if (_insertSqls.size() != 1 || (_ecAttributes != null && _ecAttributes.size() > 0)) {
+            throw new CloudRuntimeException(_entityBeanType.getSimpleName() + " is stored in more than one table, it can't be persisted in batches");
+        }
+        final String sql = _insertSqls.get(0).first();
+        final Attribute[] attrs = _insertSqls.get(0).second();
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            pstmt = txn.prepareAutoCloseStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            for (int from = 0; from < entities.size(); from += batchSize) {
+                final List<T> batch = entities.subList(from, Math.min(from + batchSize, entities.size()));
+                for (final T entity : batch) {
+                    prepareAttributes(pstmt, entity, attrs, 1);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+
+                if (_idField != null) {
+                    final ResultSet rs = pstmt.getGeneratedKeys();
+                    for (final T entity : batch) {
+                        if (rs == null || !rs.next()) {
+                            break;
+                        }
+                        _idField.set(entity, rs.getObject(1));
+                    }
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists: ", e);
+            } else {
+                throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Yikes! ", e);
+        }
+    }
+
     protected void insertElementCollection(T entity, Attribute idAttribute, ID id, Map<Attribute, Object> ecAttributes) throws SQLException {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         txn.start();
@@ -1834,6 +1878,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return builder.create();
     }
 
+    @Override
     public Integer getCount(SearchCriteria<T> sc) {
         String clause = sc != null ? sc.getWhereClause() : null;
         if (clause != null && clause.length() == 0) {
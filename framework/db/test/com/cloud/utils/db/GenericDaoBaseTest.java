@@ -16,8 +16,18 @@
 // under the License.
 package com.cloud.utils.db;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.PrimaryKeyJoinColumn;
+import javax.persistence.Table;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -26,6 +36,8 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.cloud.utils.exception.CloudRuntimeException;
+
 @RunWith(MockitoJUnitRunner.class)
 public class GenericDaoBaseTest {
     @Mock
@@ -135,4 +147,59 @@ public class GenericDaoBaseTest {
         Mockito.verify(resultSet).getByte(1);
     }
 
+    @Test
+    public void persistBatchSetsGeneratedIds() throws SQLException {
+        Connection conn = Mockito.mock(Connection.class);
+        PreparedStatement pstmt = Mockito.mock(PreparedStatement.class);
+        ResultSet firstKeys = Mockito.mock(ResultSet.class);
+        ResultSet secondKeys = Mockito.mock(ResultSet.class);
+        Mockito.when(conn.prepareStatement(Mockito.anyString(), Mockito.eq(Statement.RETURN_GENERATED_KEYS))).thenReturn(pstmt);
+        Mockito.when(pstmt.getGeneratedKeys()).thenReturn(firstKeys, secondKeys);
+        Mockito.when(firstKeys.next()).thenReturn(true, true, false);
+        Mockito.when(firstKeys.getObject(1)).thenReturn(11L, 12L);
+        Mockito.when(secondKeys.next()).thenReturn(true, false);
+        Mockito.when(secondKeys.getObject(1)).thenReturn(13L);
+
+        List<DbTestVO> entities = new ArrayList<DbTestVO>();
+        for (int i = 0; i < 3; i++) {
+            entities.add(new DbTestVO());
+        }
+
+        TransactionLegacy txn = TransactionLegacy.open("persistBatchSetsGeneratedIds");
+        try {
+            txn.transitToUserManagedConnection(conn);
+            new DbTestDao().persist(entities, 2);
+        } finally {
+            txn.close();
+        }
+
+        Mockito.verify(pstmt, Mockito.times(3)).addBatch();
+        Mockito.verify(pstmt, Mockito.times(2)).executeBatch();
+        Mockito.verify(conn).commit();
+        Assert.assertEquals(11L, entities.get(0).id);
+        Assert.assertEquals(12L, entities.get(1).id);
+        Assert.assertEquals(13L, entities.get(2).id);
+    }
+
+    @Test
+    public void persistBatchRejectsEntitiesInSeveralTables() {
+        DbTestDerivedDao dao = new DbTestDerivedDao();
+        try {
+            dao.persist(new ArrayList<DbTestDerivedVO>(), 2);
+            Assert.fail("Entities stored in two tables can't be persisted in batches");
+        } catch (CloudRuntimeException e) {
+            Assert.assertTrue(e.getMessage().contains("more than one table"));
+        }
+    }
+
+    @Entity
+    @Table(name = "test_derived")
+    @PrimaryKeyJoinColumn(name = "id")
+    public static class DbTestDerivedVO extends DbTestVO {
+        @Column(name = "fld_derived")
+        String fieldDerived;
+    }
+
+    public static class DbTestDerivedDao extends GenericDaoBase<DbTestDerivedVO, Long> {
+    }
 }
@@ -21,11 +21,17 @@ package org.apache.cloudstack.mom.rabbitmq;
 
 import java.io.IOException;
 import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ejb.Local;
 import javax.naming.ConfigurationException;
@@ -38,6 +44,7 @@ import org.apache.cloudstack.framework.events.EventTopic;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.log4j.Logger;
 
+import com.cloud.utils.Pair;
 import com.cloud.utils.Ternary;
 import com.cloud.utils.component.ManagerBase;
 import com.rabbitmq.client.AMQP;
@@ -79,6 +86,18 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
 
     private static Integer retryInterval;
 
+    // when set, events are queued (up to this many) and published by a background thread
+    // instead of on the caller's thread; when not set, publish() is synchronous
+    private static Integer publishQueueSize;
+
+    // maximum number of queued events sent to the broker before waiting for its confirms
+    private static Integer publishBatchSize;
+
+    private static final long PUBLISH_CONFIRM_TIMEOUT_MS = 30000;
+
+    // the first dropped event and then every this many are logged
+    static final long DROPPED_EVENT_LOG_INTERVAL = 1000;
+
     // hashmap to book keep the registered subscribers
     private static ConcurrentHashMap<String, Ternary<String, Channel, EventSubscriber>> s_subscribers;
 
@@ -89,6 +108,16 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
     // _autoAck is true
     private static boolean s_autoAck = true;
 
+    // channel shared by all publishers, only used while holding s_publishLock
+    private static Channel s_publisherChannel = null;
+    private static final Object s_publishLock = new Object();
+
+    // routing key and description of the events waiting for the background publisher
+    private BlockingQueue<Pair<String, String>> publishQueue;
+    private final AtomicLong publishedEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong failedPublishes = new AtomicLong();
+
     private ExecutorService executorService;
     private static DisconnectHandler disconnectHandler;
     private static final Logger s_logger = Logger.getLogger(RabbitMQEventBus.class);
@@ -127,11 +156,22 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
                 retryInterval = 10000;// default to 10s to try out reconnect
             }
 
+            if (publishQueueSize != null && publishQueueSize < 0) {
+                throw new ConfigurationException("Invalid publish queue size " + publishQueueSize);
+            }
+
+            if (publishBatchSize == null || publishBatchSize <= 0) {
+                publishBatchSize = 100;
+            }
+
         } catch (NumberFormatException e) {
             throw new ConfigurationException("Invalid port number/retry interval");
         }
 
         s_subscribers = new ConcurrentHashMap<String, Ternary<String, Channel, EventSubscriber>>();
+        if (publishQueueSize != null && publishQueueSize > 0) {
+            publishQueue = new ArrayBlockingQueue<Pair<String, String>>(publishQueueSize);
+        }
         executorService = Executors.newCachedThreadPool();
         disconnectHandler = new DisconnectHandler();
 
@@ -167,6 +207,42 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
         RabbitMQEventBus.retryInterval = retryInterval;
     }
 
+    public void setPublishQueueSize(Integer publishQueueSize) {
+        RabbitMQEventBus.publishQueueSize = publishQueueSize;
+    }
+
+    public void setPublishBatchSize(Integer publishBatchSize) {
+        RabbitMQEventBus.publishBatchSize = publishBatchSize;
+    }
+
+    /**
+     * @return number of events waiting for the background publisher
+     */
+    public int getPendingEventCount() {
+        return publishQueue == null ? 0 : publishQueue.size();
+    }
+
+    /**
+     * @return number of events handed to the broker
+     */
+    public long getPublishedEventCount() {
+        return publishedEvents.get();
+    }
+
+    /**
+     * @return number of events discarded because the publish queue was full
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @return number of failed attempts to publish an event or a batch of events
+     */
+    public long getFailedPublishCount() {
+        return failedPublishes.get();
+    }
+
     /**
      * Call to subscribe to interested set of events
      *
@@ -267,17 +343,88 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
         String routingKey = createRoutingKey(event);
         String eventDescription = event.getDescription();
 
-        try {
-            Connection connection = getConnection();
-            Channel channel = createChannel(connection);
+        if (publishQueue != null) {
+            // never block the caller on the broker, drop the event if the publisher cannot keep up
+            if (!publishQueue.offer(new Pair<String, String>(routingKey, eventDescription))) {
+                eventDropped(routingKey);
+            }
+            return;
+        }
+
+        publishEvents(Collections.singletonList(new Pair<String, String>(routingKey, eventDescription)), false);
+    }
+
+    // counts an event that did not fit in the publish queue, the log is rate limited as the
+    // queue stays full for as long as the broker is unreachable
+    private void eventDropped(String routingKey) {
+        long dropped = droppedEvents.incrementAndGet();
+        if (dropped == 1 || dropped % DROPPED_EVENT_LOG_INTERVAL == 0) {
+            s_logger.warn("Dropping event " + routingKey + " as the publish queue of " + publishQueueSize + " events is full, " + dropped + " events dropped so far");
+        } else if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Dropping event " + routingKey + " as the publish queue is full");
+        }
+    }
+
+    /**
+     * publishes the events on the shared publisher channel, optionally waiting for the broker
+     * to confirm all of them
+     */
+    private void publishEvents(List<Pair<String, String>> events, boolean waitForConfirms) throws EventBusException {
+        synchronized (s_publishLock) {
+            try {
+                Channel channel = getPublisherChannel(waitForConfirms);
+                for (Pair<String, String> event : events) {
+                    publishEventToExchange(channel, amqpExchangeName, event.first(), event.second());
+                }
+                if (waitForConfirms) {
+                    channel.waitForConfirmsOrDie(PUBLISH_CONFIRM_TIMEOUT_MS);
+                }
+                publishedEvents.addAndGet(events.size());
+            } catch (AlreadyClosedException e) {
+                failedPublishes.incrementAndGet();
+                closePublisherChannel();
+                closeConnection();
+                throw new EventBusException("Failed to publish event to message broker as connection to AMQP broker in lost");
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                failedPublishes.incrementAndGet();
+                closePublisherChannel();
+                throw new EventBusException("Failed to publish event to message broker due to " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * returns the channel used for publishing, creating it and declaring the exchange only when
+     * there is no open channel yet. Must be called while holding s_publishLock.
+     */
+    private Channel getPublisherChannel(boolean confirms) throws Exception {
+        if (s_publisherChannel == null || !s_publisherChannel.isOpen()) {
+            Channel channel = createChannel(getConnection());
             createExchange(channel, amqpExchangeName);
-            publishEventToExchange(channel, amqpExchangeName, routingKey, eventDescription);
-            channel.close();
-        } catch (AlreadyClosedException e) {
-            closeConnection();
-            throw new EventBusException("Failed to publish event to message broker as connection to AMQP broker in lost");
-        } catch (Exception e) {
-            throw new EventBusException("Failed to publish event to message broker due to " + e.getMessage());
+            if (confirms) {
+                channel.confirmSelect();
+            }
+            s_publisherChannel = channel;
+        }
+        return s_publisherChannel;
+    }
+
+    private void closePublisherChannel() {
+        synchronized (s_publishLock) {
+            if (s_publisherChannel == null) {
+                return;
+            }
+            try {
+                if (s_publisherChannel.isOpen()) {
+                    s_publisherChannel.abort();
+                }
+            } catch (Exception e) {
+                s_logger.warn("Failed to close the publisher channel due to " + e.getMessage());
+            }
+            s_publisherChannel = null;
         }
     }
 
@@ -373,7 +520,7 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
 
     private synchronized Connection createConnection() throws Exception {
         try {
-            ConnectionFactory factory = new ConnectionFactory();
+            ConnectionFactory factory = createConnectionFactory();
             factory.setUsername(username);
             factory.setPassword(password);
             factory.setHost(amqpHost);
@@ -397,6 +544,10 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
         }
     }
 
+    protected ConnectionFactory createConnectionFactory() {
+        return new ConnectionFactory();
+    }
+
     private synchronized void closeConnection() {
         try {
             if (s_connection != null) {
@@ -492,13 +643,17 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
                                                              // connection to
                                                              // AMQP server
         executorService.submit(reconnect);
+        if (publishQueue != null) {
+            executorService.submit(new PublishTask());
+        }
         return true;
     }
 
     @Override
     public boolean stop() {
+        executorService.shutdownNow();
 
-        if (s_connection.isOpen()) {
+        if (s_connection != null && s_connection.isOpen()) {
             for (String subscriberId : s_subscribers.keySet()) {
                 Ternary<String, Channel, EventSubscriber> subscriberDetails = s_subscribers.get(subscriberId);
                 Channel channel = subscriberDetails.second();
@@ -512,6 +667,7 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
             }
         }
 
+        closePublisherChannel();
         closeConnection();
         return true;
     }
@@ -625,4 +781,38 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
             return;
         }
     }
-}
\ No newline at end of file
+
+    // drains the publish queue in batches, waiting for the broker to confirm each batch
+    private class PublishTask extends ManagedContextRunnable {
+
+        @Override
+        protected void runInContext() {
+            List<Pair<String, String>> batch = new ArrayList<Pair<String, String>>(publishBatchSize);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (batch.isEmpty()) {
+                        batch.add(publishQueue.take());
+                        publishQueue.drainTo(batch, publishBatchSize - 1);
+                    }
+                    publishEvents(batch, true);
+                    batch.clear();
+                } catch (InterruptedException ie) {
+                    break;
+                } catch (EventBusException e) {
+                    // keep the batch and retry once the broker is reachable again, new events
+                    // are dropped by publish() in the meantime once the queue fills up
+                    s_logger.warn("Failed to publish " + batch.size() + " events, retrying in " + retryInterval + " ms, " + droppedEvents.get() + " events dropped so far: "
+                            + e.getMessage());
+                    try {
+                        Thread.sleep(retryInterval);
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
+                }
+            }
+            if (!batch.isEmpty() || !publishQueue.isEmpty()) {
+                s_logger.warn("Event publisher stopped with " + (batch.size() + publishQueue.size()) + " events not published");
+            }
+        }
+    }
+}
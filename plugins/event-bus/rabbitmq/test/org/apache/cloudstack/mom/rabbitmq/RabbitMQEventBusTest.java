@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cloudstack.mom.rabbitmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cloudstack.framework.events.Event;
+import org.apache.cloudstack.framework.events.EventBusException;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+public class RabbitMQEventBusTest {
+
+    private static final String EXCHANGE = "cloudstack-events";
+
+    private ConnectionFactory factory;
+    private Connection connection;
+    private Channel channel;
+    private RabbitMQEventBus bus;
+
+    @Before
+    public void setup() throws Exception {
+        factory = mock(ConnectionFactory.class);
+        connection = mock(Connection.class);
+        channel = mock(Channel.class);
+        when(factory.newConnection()).thenReturn(connection);
+        when(connection.createChannel()).thenReturn(channel);
+        when(channel.isOpen()).thenReturn(true);
+
+        // a bus that talks to the stub broker above
+        bus = new RabbitMQEventBus() {
+            @Override
+            protected ConnectionFactory createConnectionFactory() {
+                return factory;
+            }
+        };
+        bus.setServer("localhost");
+        bus.setUsername("guest");
+        bus.setPassword("guest");
+        bus.setPort(5672);
+        bus.setExchange(EXCHANGE);
+        bus.setRetryInterval(50);
+        bus.setPublishQueueSize(null);
+        bus.setPublishBatchSize(null);
+    }
+
+    @After
+    public void tearDown() {
+        bus.stop();
+    }
+
+    private Event createEvent(String resourceUuid) {
+        Event event = new Event("management-server", "ActionEvent", "VM.CREATE", "VirtualMachine", resourceUuid);
+        event.setDescription("{\"id\":\"" + resourceUuid + "\"}");
+        return event;
+    }
+
+    private void waitForPublishedEvents(long count) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bus.getPublishedEventCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, bus.getPublishedEventCount());
+        // start() also runs the reconnection task, let it connect before the test ends
+        verify(factory, timeout(5000).times(2)).newConnection();
+    }
+
+    @Test
+    public void testPublishReusesChannel() throws Exception {
+        bus.configure("test", null);
+
+        bus.publish(createEvent("1"));
+        bus.publish(createEvent("2"));
+        bus.publish(createEvent("3"));
+
+        verify(factory, times(1)).newConnection();
+        verify(connection, times(1)).createChannel();
+        verify(channel, times(1)).exchangeDeclare(EXCHANGE, "topic", true);
+        verify(channel, times(1)).basicPublish(eq(EXCHANGE), eq("management-server.ActionEvent.VM-CREATE.VirtualMachine.1"), any(AMQP.BasicProperties.class),
+                any(byte[].class));
+        verify(channel, times(3)).basicPublish(eq(EXCHANGE), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+        assertEquals(3, bus.getPublishedEventCount());
+    }
+
+    @Test
+    public void testPublishReconnectsAfterConnectionLoss() throws Exception {
+        bus.configure("test", null);
+        doThrow(new AlreadyClosedException("connection lost", connection)).doNothing().when(channel)
+                .basicPublish(eq(EXCHANGE), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+
+        try {
+            bus.publish(createEvent("1"));
+            fail("publishing on a closed connection should fail");
+        } catch (EventBusException e) {
+            // expected, the connection and the publisher channel are dropped
+        }
+        verify(channel).abort();
+        verify(connection).close();
+
+        bus.publish(createEvent("2"));
+
+        verify(factory, times(2)).newConnection();
+        verify(connection, times(2)).createChannel();
+        assertEquals(1, bus.getPublishedEventCount());
+        assertEquals(1, bus.getFailedPublishCount());
+    }
+
+    @Test
+    public void testPublishQueueSendsBatches() throws Exception {
+        bus.setPublishQueueSize(10);
+        bus.setPublishBatchSize(2);
+        bus.configure("test", null);
+
+        for (int i = 0; i < 5; i++) {
+            bus.publish(createEvent(String.valueOf(i)));
+        }
+        // nothing is sent on the caller's thread
+        verify(channel, times(0)).basicPublish(anyString(), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+        assertEquals(5, bus.getPendingEventCount());
+
+        bus.start();
+        waitForPublishedEvents(5);
+
+        // the queued events go out in batches of two, the broker confirming each batch
+        verify(channel, times(1)).confirmSelect();
+        verify(channel, times(5)).basicPublish(eq(EXCHANGE), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+        verify(channel, times(3)).waitForConfirmsOrDie(anyLong());
+        assertEquals(0, bus.getPendingEventCount());
+    }
+
+    @Test
+    public void testPublishQueueDropsEventsWhenFull() throws Exception {
+        bus.setPublishQueueSize(2);
+        bus.configure("test", null);
+
+        bus.publish(createEvent("1"));
+        bus.publish(createEvent("2"));
+        bus.publish(createEvent("3"));
+
+        assertEquals(2, bus.getPendingEventCount());
+        assertEquals(1, bus.getDroppedEventCount());
+    }
+
+    @Test
+    public void testDroppedEventsAreLoggedAtInterval() throws Exception {
+        final List<String> warnings = new ArrayList<String>();
+        AppenderSkeleton appender = new AppenderSkeleton() {
+            @Override
+            protected void append(LoggingEvent event) {
+                if (event.getLevel() == Level.WARN) {
+                    warnings.add(event.getRenderedMessage());
+                }
+            }
+
+            @Override
+            public boolean requiresLayout() {
+                return false;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger.getLogger(RabbitMQEventBus.class).addAppender(appender);
+        try {
+            bus.setPublishQueueSize(2);
+            bus.configure("test", null);
+
+            long dropped = 2 * RabbitMQEventBus.DROPPED_EVENT_LOG_INTERVAL + 1;
+            for (int i = 0; i < 2 + dropped; i++) {
+                bus.publish(createEvent(String.valueOf(i)));
+            }
+
+            assertEquals(dropped, bus.getDroppedEventCount());
+            // the first drop and then every DROPPED_EVENT_LOG_INTERVAL drops, with the count so far
+            assertEquals(3, warnings.size());
+            assertTrue(warnings.get(0).endsWith(", 1 events dropped so far"));
+            assertTrue(warnings.get(1).endsWith(", " + RabbitMQEventBus.DROPPED_EVENT_LOG_INTERVAL + " events dropped so far"));
+            assertTrue(warnings.get(2).endsWith(", " + 2 * RabbitMQEventBus.DROPPED_EVENT_LOG_INTERVAL + " events dropped so far"));
+        } finally {
+            Logger.getLogger(RabbitMQEventBus.class).removeAppender(appender);
+        }
+    }
+
+    @Test
+    public void testPublishQueueRetriesBatchAfterFailure() throws Exception {
+        bus.setPublishQueueSize(10);
+        bus.setPublishBatchSize(10);
+        bus.configure("test", null);
+        doThrow(new IOException("broker went away")).doNothing().when(channel).waitForConfirmsOrDie(anyLong());
+
+        bus.publish(createEvent("1"));
+        bus.publish(createEvent("2"));
+        bus.start();
+        waitForPublishedEvents(2);
+
+        // the failed batch is sent again on a new channel
+        assertEquals(1, bus.getFailedPublishCount());
+        verify(channel).abort();
+        verify(connection, times(2)).createChannel();
+        verify(channel, times(4)).basicPublish(eq(EXCHANGE), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+        verify(channel, times(2)).waitForConfirmsOrDie(anyLong());
+    }
+}
@@ -321,6 +321,14 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
 
     protected volatile long _cmdSequence = 1;
 
+    // key of the CLOUD_VM_INTERNAL_NAME custom field, 0 until it has been looked up
+    private volatile int _vmInternalNameFieldKey = 0;
+
+    // keys of the net.received/net.transmitted performance counters, they are fixed for a vCenter
+    private volatile boolean _networkPerfCountersResolved = false;
+    private volatile Integer _rxPerfCounterKey;
+    private volatile Integer _txPerfCounterKey;
+
     protected StorageSubsystemCommandHandler storageHandler;
     private VmwareStorageProcessor _storageProcessor;
 
@@ -4402,10 +4410,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     private HashMap<String, HostVmStateReportEntry> getHostVmStateReport() throws Exception {
         VmwareHypervisorHost hyperHost = getHyperHost(getServiceContext());
 
-        int key = ((HostMO)hyperHost).getCustomFieldKey("VirtualMachine", CustomFieldConstants.CLOUD_VM_INTERNAL_NAME);
-        if (key == 0) {
-            s_logger.warn("Custom field " + CustomFieldConstants.CLOUD_VM_INTERNAL_NAME + " is not registered ?!");
-        }
+        int key = getVmInternalNameFieldKey(hyperHost);
         String instanceNameCustomField = "value[" + key + "]";
 
         // CLOUD_VM_INTERNAL_NAME stores the internal CS generated vm name. This
@@ -4457,10 +4462,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     private HashMap<String, State> getVmStates() throws Exception {
         VmwareHypervisorHost hyperHost = getHyperHost(getServiceContext());
 
-        int key = ((HostMO)hyperHost).getCustomFieldKey("VirtualMachine", CustomFieldConstants.CLOUD_VM_INTERNAL_NAME);
-        if (key == 0) {
-            s_logger.warn("Custom field " + CustomFieldConstants.CLOUD_VM_INTERNAL_NAME + " is not registered ?!");
-        }
+        int key = getVmInternalNameFieldKey(hyperHost);
         String instanceNameCustomField = "value[" + key + "]";
 
         // CLOUD_VM_INTERNAL_NAME stores the internal CS generated vm name. This
@@ -4508,32 +4510,62 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
         return newStates;
     }
 
-    private HashMap<String, VmStatsEntry> getVmStats(List<String> vmNames) throws Exception {
-        VmwareHypervisorHost hyperHost = getHyperHost(getServiceContext());
-        HashMap<String, VmStatsEntry> vmResponseMap = new HashMap<String, VmStatsEntry>();
-        ManagedObjectReference perfMgr = getServiceContext().getServiceContent().getPerfManager();
-        VimPortType service = getServiceContext().getService();
-        PerfCounterInfo rxPerfCounterInfo = null;
-        PerfCounterInfo txPerfCounterInfo = null;
+    /**
+     * The key of a custom field can't change once the field is registered, so it is only looked up
+     * until it is found.
+     */
+    private int getVmInternalNameFieldKey(VmwareHypervisorHost hyperHost) throws Exception {
+        int key = _vmInternalNameFieldKey;
+        if (key == 0) {
+            key = ((HostMO)hyperHost).getCustomFieldKey("VirtualMachine", CustomFieldConstants.CLOUD_VM_INTERNAL_NAME);
+            if (key == 0) {
+                s_logger.warn("Custom field " + CustomFieldConstants.CLOUD_VM_INTERNAL_NAME + " is not registered ?!");
+            } else {
+                _vmInternalNameFieldKey = key;
+            }
+        }
+        return key;
+    }
+
+    private void resolveNetworkPerfCounters(VmwareContext context) throws Exception {
+        if (_networkPerfCountersResolved) {
+            return;
+        }
 
-        List<PerfCounterInfo> cInfo = getServiceContext().getVimClient().getDynamicProperty(perfMgr, "perfCounter");
+        ManagedObjectReference perfMgr = context.getServiceContent().getPerfManager();
+        List<PerfCounterInfo> cInfo = context.getVimClient().getDynamicProperty(perfMgr, "perfCounter");
         for (PerfCounterInfo info : cInfo) {
             if ("net".equalsIgnoreCase(info.getGroupInfo().getKey())) {
                 if ("transmitted".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                    txPerfCounterInfo = info;
+                    _txPerfCounterKey = info.getKey();
                 }
                 if ("received".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                    rxPerfCounterInfo = info;
+                    _rxPerfCounterKey = info.getKey();
                 }
             }
         }
+        _networkPerfCountersResolved = true;
+    }
 
-        int key = ((HostMO)hyperHost).getCustomFieldKey("VirtualMachine", CustomFieldConstants.CLOUD_VM_INTERNAL_NAME);
-        if (key == 0) {
-            s_logger.warn("Custom field " + CustomFieldConstants.CLOUD_VM_INTERNAL_NAME + " is not registered ?!");
-        }
+    private HashMap<String, VmStatsEntry> getVmStats(List<String> vmNames) throws Exception {
+        VmwareContext context = getServiceContext();
+        VmwareHypervisorHost hyperHost = getHyperHost(context);
+        HashMap<String, VmStatsEntry> vmResponseMap = new HashMap<String, VmStatsEntry>();
+        ManagedObjectReference perfMgr = context.getServiceContent().getPerfManager();
+        VimPortType service = context.getService();
+
+        resolveNetworkPerfCounters(context);
+        Integer rxPerfCounterKey = _rxPerfCounterKey;
+        Integer txPerfCounterKey = _txPerfCounterKey;
+
+        int key = getVmInternalNameFieldKey(hyperHost);
         String instanceNameCustomField = "value[" + key + "]";
 
+        // the network counters of all VMs are queried in one call, the results
+        // refer to the VMs by managed object id
+        Map<String, String> vmNamesByMor = new HashMap<String, String>();
+        List<PerfQuerySpec> qSpecs = new ArrayList<PerfQuerySpec>();
+
         ObjectContent[] ocs = hyperHost.getVmPropertiesOnHyperHost(new String[] {"name", "summary.config.numCpu", "summary.quickStats.overallCpuUsage", instanceNameCustomField});
         if (ocs != null && ocs.length > 0) {
             for (ObjectContent oc : ocs) {
@@ -4556,7 +4588,6 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                             maxCpuUsage = objProp.getVal().toString();
                         }
                     }
-                    new VirtualMachineMO(hyperHost.getContext(), oc.getObj());
                     if (vmInternalCSName != null) {
                         name = vmInternalCSName;
                     } else {
@@ -4567,87 +4598,81 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                         continue;
                     }
 
-                    ManagedObjectReference vmMor = hyperHost.findVmOnHyperHost(name).getMor();
-                    assert (vmMor != null);
-
-                    ArrayList<PerfMetricId> vmNetworkMetrics = new ArrayList<PerfMetricId>();
-                    // get all the metrics from the available sample period
-                    List<PerfMetricId> perfMetrics = service.queryAvailablePerfMetric(perfMgr, vmMor, null, null, null);
-                    if (perfMetrics != null) {
-                        for (int index = 0; index < perfMetrics.size(); ++index) {
-                            if (((rxPerfCounterInfo != null) && (perfMetrics.get(index).getCounterId() == rxPerfCounterInfo.getKey()))
-                                    || ((txPerfCounterInfo != null) && (perfMetrics.get(index).getCounterId() == txPerfCounterInfo.getKey()))) {
-                                vmNetworkMetrics.add(perfMetrics.get(index));
-                            }
-                        }
-                    }
-
-                    double networkReadKBs = 0;
-                    double networkWriteKBs = 0;
-                    long sampleDuration = 0;
+                    vmResponseMap.put(name, new VmStatsEntry(Integer.parseInt(maxCpuUsage), 0, 0, Integer.parseInt(numberCPUs), "vm"));
 
-                    if (vmNetworkMetrics.size() != 0) {
+                    if (rxPerfCounterKey != null || txPerfCounterKey != null) {
                         PerfQuerySpec qSpec = new PerfQuerySpec();
-                        qSpec.setEntity(vmMor);
-                        PerfMetricId[] availableMetricIds = vmNetworkMetrics.toArray(new PerfMetricId[0]);
-                        qSpec.getMetricId().addAll(Arrays.asList(availableMetricIds));
-                        List<PerfQuerySpec> qSpecs = new ArrayList<PerfQuerySpec>();
-                        qSpecs.add(qSpec);
-                        List<PerfEntityMetricBase> values = service.queryPerf(perfMgr, qSpecs);
-
-                        for (int i = 0; i < values.size(); ++i) {
-                            List<PerfSampleInfo> infos = ((PerfEntityMetric)values.get(i)).getSampleInfo();
-                            if (infos != null && infos.size() > 0) {
-                                int endMs = infos.get(infos.size() - 1).getTimestamp().getSecond() * 1000 + infos.get(infos.size() - 1).getTimestamp().getMillisecond();
-                                int beginMs = infos.get(0).getTimestamp().getSecond() * 1000 + infos.get(0).getTimestamp().getMillisecond();
-                                sampleDuration = (endMs - beginMs) / 1000;
-                                List<PerfMetricSeries> vals = ((PerfEntityMetric)values.get(i)).getValue();
-                                for (int vi = 0; ((vals != null) && (vi < vals.size())); ++vi) {
-                                    if (vals.get(vi) instanceof PerfMetricIntSeries) {
-                                        PerfMetricIntSeries val = (PerfMetricIntSeries)vals.get(vi);
-                                        List<Long> perfValues = val.getValue();
-                                        Long sumRate = 0L;
-                                        for (int j = 0; j < infos.size(); j++) { // Size
-                                                                                 // of
-                                                                                 // the
-                                                                                 // array
-                                                                                 // matches
-                                                                                 // the
-                                                                                 // size
-                                                                                 // as
-                                                                                 // the
-                                                                                 // PerfSampleInfo
-                                            sumRate += perfValues.get(j);
-                                        }
-                                        Long averageRate = sumRate / infos.size();
-                                        if (vals.get(vi).getId().getCounterId() == rxPerfCounterInfo.getKey()) {
-                                            networkReadKBs = sampleDuration * averageRate; // get the
-                                                                                           // average RX
-                                                                                           // rate
-                                                                                           // multiplied
-                                                                                           // by sampled
-                                                                                           // duration
-                                        }
-                                        if (vals.get(vi).getId().getCounterId() == txPerfCounterInfo.getKey()) {
-                                            networkWriteKBs = sampleDuration * averageRate;// get the
-                                                                                           // average TX
-                                                                                           // rate
-                                                                                           // multiplied
-                                                                                           // by sampled
-                                                                                           // duration
-                                        }
-                                    }
-                                }
-                            }
+                        qSpec.setEntity(oc.getObj());
+                        // "*" asks for every instance of the counter the VM has samples for
+                        if (rxPerfCounterKey != null) {
+                            qSpec.getMetricId().add(createPerfMetricId(rxPerfCounterKey));
                         }
+                        if (txPerfCounterKey != null) {
+                            qSpec.getMetricId().add(createPerfMetricId(txPerfCounterKey));
+                        }
+                        qSpecs.add(qSpec);
+                        vmNamesByMor.put(oc.getObj().getValue(), name);
+                    }
+                }
+            }
+        }
+
+        if (!qSpecs.isEmpty()) {
+            List<PerfEntityMetricBase> values = service.queryPerf(perfMgr, qSpecs);
+            if (values != null) {
+                for (PerfEntityMetricBase value : values) {
+                    if (!(value instanceof PerfEntityMetric) || value.getEntity() == null) {
+                        continue;
+                    }
+                    String name = vmNamesByMor.get(value.getEntity().getValue());
+                    VmStatsEntry statsEntry = (name != null) ? vmResponseMap.get(name) : null;
+                    if (statsEntry != null) {
+                        setNetworkStats(statsEntry, (PerfEntityMetric)value, rxPerfCounterKey, txPerfCounterKey);
                     }
-                    vmResponseMap.put(name, new VmStatsEntry(Integer.parseInt(maxCpuUsage), networkReadKBs, networkWriteKBs, Integer.parseInt(numberCPUs), "vm"));
                 }
             }
         }
         return vmResponseMap;
     }
 
+    private static PerfMetricId createPerfMetricId(int counterKey) {
+        PerfMetricId metricId = new PerfMetricId();
+        metricId.setCounterId(counterKey);
+        metricId.setInstance("*");
+        return metricId;
+    }
+
+    protected static void setNetworkStats(VmStatsEntry statsEntry, PerfEntityMetric metric, Integer rxPerfCounterKey, Integer txPerfCounterKey) {
+        List<PerfSampleInfo> infos = metric.getSampleInfo();
+        if (infos == null || infos.size() == 0) {
+            return;
+        }
+
+        int endMs = infos.get(infos.size() - 1).getTimestamp().getSecond() * 1000 + infos.get(infos.size() - 1).getTimestamp().getMillisecond();
+        int beginMs = infos.get(0).getTimestamp().getSecond() * 1000 + infos.get(0).getTimestamp().getMillisecond();
+        long sampleDuration = (endMs - beginMs) / 1000;
+        List<PerfMetricSeries> vals = metric.getValue();
+        for (int vi = 0; ((vals != null) && (vi < vals.size())); ++vi) {
+            if (vals.get(vi) instanceof PerfMetricIntSeries) {
+                PerfMetricIntSeries val = (PerfMetricIntSeries)vals.get(vi);
+                List<Long> perfValues = val.getValue();
+                Long sumRate = 0L;
+                // the number of values matches the number of PerfSampleInfo
+                for (int j = 0; j < infos.size(); j++) {
+                    sumRate += perfValues.get(j);
+                }
+                Long averageRate = sumRate / infos.size();
+                // the average rate multiplied by the sampled duration
+                if (rxPerfCounterKey != null && vals.get(vi).getId().getCounterId() == rxPerfCounterKey.intValue()) {
+                    statsEntry.setNetworkReadKBs(sampleDuration * averageRate);
+                }
+                if (txPerfCounterKey != null && vals.get(vi).getId().getCounterId() == txPerfCounterKey.intValue()) {
+                    statsEntry.setNetworkWriteKBs(sampleDuration * averageRate);
+                }
+            }
+        }
+    }
+
     // TODO vmsync }
 
     protected String networkUsage(final String privateIpAddress, final String option, final String ethName) {
@@ -4959,7 +4984,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
         VmwareContext context = null;
         if (s_serviceContext.get() != null) {
             context = s_serviceContext.get();
-            if (context.validate()) {
+            if (context.validate(VmwareContext.SESSION_VALIDATION_WINDOW_MS)) {
                 return context;
             } else {
                 s_logger.info("Validation of the context failed, dispose and use a new one");
@@ -211,7 +211,7 @@ public class VmwareSecondaryStorageResourceHandler implements SecondaryStorageRe
 
             VmwareContext context = currentContext.get();
             if (context != null) {
-                if (!context.validate()) {
+                if (!context.validate(VmwareContext.SESSION_VALIDATION_WINDOW_MS)) {
                     invalidateServiceContext(context);
                     context = null;
                 } else {
@@ -16,21 +16,29 @@
 // under the License.
 package com.cloud.hypervisor.vmware.resource;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import javax.xml.datatype.DatatypeFactory;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfSampleInfo;
 import com.vmware.vim25.VirtualMachineConfigSpec;
 
 import com.cloud.agent.api.Command;
 import com.cloud.agent.api.ScaleVmAnswer;
 import com.cloud.agent.api.ScaleVmCommand;
+import com.cloud.agent.api.VmStatsEntry;
 import com.cloud.agent.api.to.VirtualMachineTO;
 import com.cloud.hypervisor.vmware.mo.VirtualMachineMO;
 import com.cloud.hypervisor.vmware.mo.VmwareHypervisorHost;
@@ -90,4 +98,35 @@ public class VmwareResourceTest {
         verify(_resource).execute(cmd);
     }
 
+    @Test
+    public void testSetNetworkStats() throws Exception {
+        DatatypeFactory factory = DatatypeFactory.newInstance();
+        PerfEntityMetric metric = new PerfEntityMetric();
+        for (int i = 0; i < 3; i++) {
+            PerfSampleInfo info = new PerfSampleInfo();
+            info.setTimestamp(factory.newXMLGregorianCalendar(2014, 1, 1, 0, 0, i * 20, 0, 0));
+            metric.getSampleInfo().add(info);
+        }
+        metric.getValue().add(createIntSeries(143, 10L, 20L, 30L));
+        metric.getValue().add(createIntSeries(144, 5L, 5L, 5L));
+
+        VmStatsEntry statsEntry = new VmStatsEntry(10, 0, 0, 1, "vm");
+        VmwareResource.setNetworkStats(statsEntry, metric, 143, 144);
+
+        // 40 seconds sampled at an average of 20 and 5 KBps
+        assertEquals(800, statsEntry.getNetworkReadKBs(), 0);
+        assertEquals(200, statsEntry.getNetworkWriteKBs(), 0);
+    }
+
+    private static PerfMetricIntSeries createIntSeries(int counterId, Long... values) {
+        PerfMetricId metricId = new PerfMetricId();
+        metricId.setCounterId(counterId);
+        metricId.setInstance("");
+        PerfMetricIntSeries series = new PerfMetricIntSeries();
+        series.setId(metricId);
+        for (Long value : values) {
+            series.getValue().add(value);
+        }
+        return series;
+    }
 }
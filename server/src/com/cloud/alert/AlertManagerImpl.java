@@ -21,9 +21,11 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Timer;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -54,6 +56,7 @@ import org.apache.cloudstack.managed.context.ManagedContextTimerTask;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
+import com.cloud.alert.CapacityThresholdTracker.Crossing;
 import com.cloud.alert.dao.AlertDao;
 import com.cloud.api.ApiDBUtils;
 import com.cloud.capacity.Capacity;
@@ -78,14 +81,20 @@ import com.cloud.event.AlertGenerator;
 import com.cloud.event.EventTypes;
 import com.cloud.host.Host;
 import com.cloud.host.HostVO;
+import com.cloud.host.dao.HostDao;
+import com.cloud.network.Network;
 import com.cloud.network.dao.IPAddressDao;
 import com.cloud.org.Grouping.AllocationState;
 import com.cloud.resource.ResourceManager;
 import com.cloud.storage.StorageManager;
+import com.cloud.storage.Volume;
 import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.fsm.StateListener;
+import com.cloud.vm.VirtualMachine;
 
 @Local(value = {AlertManager.class})
 public class AlertManagerImpl extends ManagerBase implements AlertManager, Configurable {
@@ -117,6 +126,8 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
     @Inject
     private ClusterDao _clusterDao;
     @Inject
+    private HostDao _hostDao;
+    @Inject
     private IPAddressDao _publicIPAddressDao;
     @Inject
     private DataCenterIpAddressDao _privateIPAddressDao;
@@ -134,6 +145,8 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
     private Timer _timer = null;
     private long _capacityCheckPeriod = 60L * 60L * 1000L; // one hour by
     // default
+    private long _capacityAlertCheckInterval = 60L * 1000L;
+    private CapacityThresholdTracker _thresholdTracker = new CapacityThresholdTracker(0);
     private double _publicIPCapacityThreshold = 0.75;
     private double _privateIPCapacityThreshold = 0.75;
     private double _secondaryStorageCapacityThreshold = 0.75;
@@ -216,6 +229,10 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
                 _capacityCheckPeriod = Long.parseLong(Config.CapacityCheckPeriod.getDefaultValue());
         }
 
+        _capacityAlertCheckInterval = NumbersUtil.parseLong(configs.get(Config.CapacityAlertCheckInterval.key()), 60) * 1000L;
+        String hysteresis = configs.get(Config.CapacityAlertHysteresis.key());
+        _thresholdTracker = new CapacityThresholdTracker(hysteresis == null ? 0.05 : Double.parseDouble(hysteresis));
+
         _timer = new Timer("CapacityChecker");
 
         return true;
@@ -224,6 +241,12 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
     @Override
     public boolean start() {
         _timer.schedule(new CapacityChecker(), INITIAL_CAPACITY_CHECK_DELAY, _capacityCheckPeriod);
+        if (_capacityAlertCheckInterval > 0) {
+            VirtualMachine.State.getStateMachine().registerListener(new VmCapacityListener());
+            Volume.State.getStateMachine().registerListener(new VolumeCapacityListener());
+            Network.State.getStateMachine().registerListener(new NetworkCapacityListener());
+            _timer.schedule(new ChangedCapacityChecker(), INITIAL_CAPACITY_CHECK_DELAY + _capacityAlertCheckInterval, _capacityAlertCheckInterval);
+        }
         return true;
     }
 
@@ -300,12 +323,7 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
             // Calculate storage pool capacity
             List<StoragePoolVO> storagePools = _storagePoolDao.listAll();
             for (StoragePoolVO pool : storagePools) {
-                long disk = _capacityMgr.getAllocatedPoolCapacity(pool, null);
-                if (pool.isShared()) {
-                    _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, disk);
-                } else {
-                    _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_LOCAL_STORAGE, disk);
-                }
+                updatePoolCapacity(pool);
             }
 
             if (s_logger.isDebugEnabled()) {
@@ -315,28 +333,7 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
 
             List<DataCenterVO> datacenters = _dcDao.listAll();
             for (DataCenterVO datacenter : datacenters) {
-                long dcId = datacenter.getId();
-
-                // NOTE
-                // What happens if we have multiple vlans? Dashboard currently
-                // shows stats
-                // with no filter based on a vlan
-                // ideal way would be to remove out the vlan param, and filter
-                // only on dcId
-                // implementing the same
-
-                // Calculate new Public IP capacity for Virtual Network
-                if (datacenter.getNetworkType() == NetworkType.Advanced) {
-                    createOrUpdateIpCapacity(dcId, null, Capacity.CAPACITY_TYPE_VIRTUAL_NETWORK_PUBLIC_IP, datacenter.getAllocationState());
-                }
-
-                // Calculate new Public IP capacity for Direct Attached Network
-                createOrUpdateIpCapacity(dcId, null, Capacity.CAPACITY_TYPE_DIRECT_ATTACHED_PUBLIC_IP, datacenter.getAllocationState());
-
-                if (datacenter.getNetworkType() == NetworkType.Advanced) {
-                    // Calculate VLAN's capacity
-                    createOrUpdateVlanCapacity(dcId, datacenter.getAllocationState());
-                }
+                updateZoneCapacity(datacenter);
             }
 
             if (s_logger.isDebugEnabled()) {
@@ -347,10 +344,7 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
             // Calculate new Private IP capacity
             List<HostPodVO> pods = _podDao.listAll();
             for (HostPodVO pod : pods) {
-                long podId = pod.getId();
-                long dcId = pod.getDataCenterId();
-
-                createOrUpdateIpCapacity(dcId, podId, Capacity.CAPACITY_TYPE_PRIVATE_IP, _configMgr.findPodAllocationState(pod));
+                updatePodCapacity(pod);
             }
 
             if (s_logger.isDebugEnabled()) {
@@ -363,6 +357,44 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
         }
     }
 
+    private void updatePoolCapacity(StoragePoolVO pool) {
+        long disk = _capacityMgr.getAllocatedPoolCapacity(pool, null);
+        if (pool.isShared()) {
+            _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, disk);
+        } else {
+            _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_LOCAL_STORAGE, disk);
+        }
+    }
+
+    private void updateZoneCapacity(DataCenterVO datacenter) {
+        long dcId = datacenter.getId();
+
+        // NOTE
+        // What happens if we have multiple vlans? Dashboard currently
+        // shows stats
+        // with no filter based on a vlan
+        // ideal way would be to remove out the vlan param, and filter
+        // only on dcId
+        // implementing the same
+
+        // Calculate new Public IP capacity for Virtual Network
+        if (datacenter.getNetworkType() == NetworkType.Advanced) {
+            createOrUpdateIpCapacity(dcId, null, Capacity.CAPACITY_TYPE_VIRTUAL_NETWORK_PUBLIC_IP, datacenter.getAllocationState());
+        }
+
+        // Calculate new Public IP capacity for Direct Attached Network
+        createOrUpdateIpCapacity(dcId, null, Capacity.CAPACITY_TYPE_DIRECT_ATTACHED_PUBLIC_IP, datacenter.getAllocationState());
+
+        if (datacenter.getNetworkType() == NetworkType.Advanced) {
+            // Calculate VLAN's capacity
+            createOrUpdateVlanCapacity(dcId, datacenter.getAllocationState());
+        }
+    }
+
+    private void updatePodCapacity(HostPodVO pod) {
+        createOrUpdateIpCapacity(pod.getDataCenterId(), pod.getId(), Capacity.CAPACITY_TYPE_PRIVATE_IP, _configMgr.findPodAllocationState(pod));
+    }
+
     private void createOrUpdateVlanCapacity(long dcId, AllocationState capacityState) {
 
         SearchCriteria<CapacityVO> capacitySC = _capacityDao.createSearchCriteria();
@@ -442,7 +474,26 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
         }
     }
 
+    /**
+     * Checks the capacities that changed since the last check. CPU and memory
+     * are kept up to date by the capacity manager as VMs change state, storage
+     * and IP capacities are recalculated here for the changed pools, pods and
+     * zones only.
+     */
+    class ChangedCapacityChecker extends ManagedContextTimerTask {
+        @Override
+        protected void runInContext() {
+            try {
+                checkForChangedCapacity();
+            } catch (Throwable t) {
+                s_logger.error("Exception in ChangedCapacityChecker", t);
+            }
+        }
+    }
+
     public void checkForAlerts() {
+        // everything is recalculated and checked below, pending changes are covered
+        _thresholdTracker.drainAll();
 
         recalculateCapacity();
 
@@ -455,86 +506,247 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
         List<DataCenterVO> dataCenterList = _dcDao.listAll();
         List<ClusterVO> clusterList = _clusterDao.listAll();
         List<HostPodVO> podList = _podDao.listAll();
-        // Get capacity types at different levels
-        List<Short> dataCenterCapacityTypes = getCapacityTypesAtZoneLevel();
-        List<Short> podCapacityTypes = getCapacityTypesAtPodLevel();
-        List<Short> clusterCapacityTypes = getCapacityTypesAtClusterLevel();
 
         // Generate Alerts for Zone Level capacities
         for (DataCenterVO dc : dataCenterList) {
-            for (Short capacityType : dataCenterCapacityTypes) {
-                List<SummedCapacity> capacity = new ArrayList<SummedCapacity>();
-                capacity = _capacityDao.findCapacityBy(capacityType.intValue(), dc.getId(), null, null);
-
-                if (capacityType == Capacity.CAPACITY_TYPE_SECONDARY_STORAGE) {
-                    capacity.add(getUsedStats(capacityType, dc.getId(), null, null));
-                }
-                if (capacity == null || capacity.size() == 0) {
-                    continue;
-                }
-                double totalCapacity = capacity.get(0).getTotalCapacity();
-                double usedCapacity = capacity.get(0).getUsedCapacity();
-                if (totalCapacity != 0 && usedCapacity / totalCapacity > _capacityTypeThresholdMap.get(capacityType)) {
-                    generateEmailAlert(dc, null, null, totalCapacity, usedCapacity, capacityType);
-                }
-            }
+            checkZoneCapacity(dc);
         }
 
         // Generate Alerts for Pod Level capacities
         for (HostPodVO pod : podList) {
-            for (Short capacityType : podCapacityTypes) {
-                List<SummedCapacity> capacity = _capacityDao.findCapacityBy(capacityType.intValue(), pod.getDataCenterId(), pod.getId(), null);
-                if (capacity == null || capacity.size() == 0) {
-                    continue;
-                }
-                double totalCapacity = capacity.get(0).getTotalCapacity();
-                double usedCapacity = capacity.get(0).getUsedCapacity();
-                if (totalCapacity != 0 && usedCapacity / totalCapacity > _capacityTypeThresholdMap.get(capacityType)) {
-                    generateEmailAlert(ApiDBUtils.findZoneById(pod.getDataCenterId()), pod, null, totalCapacity, usedCapacity, capacityType);
-                }
-            }
+            checkPodCapacity(pod);
         }
 
         // Generate Alerts for Cluster Level capacities
         for (ClusterVO cluster : clusterList) {
-            for (Short capacityType : clusterCapacityTypes) {
-                List<SummedCapacity> capacity = new ArrayList<SummedCapacity>();
-                capacity = _capacityDao.findCapacityBy(capacityType.intValue(), cluster.getDataCenterId(), null, cluster.getId());
-
-                // cpu and memory allocated capacity notification threshold can
-                // be defined at cluster level, so getting the value if they are
-                // defined at cluster level
-                double threshold = 0;
-                switch (capacityType) {
-                case Capacity.CAPACITY_TYPE_STORAGE:
-                    capacity.add(getUsedStats(capacityType, cluster.getDataCenterId(), cluster.getPodId(), cluster.getId()));
-                    threshold = StorageCapacityThreshold.valueIn(cluster.getId());
-                    break;
-                case Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED:
-                    threshold = StorageAllocatedCapacityThreshold.valueIn(cluster.getId());
-                    break;
-                case Capacity.CAPACITY_TYPE_CPU:
-                    threshold = CPUCapacityThreshold.valueIn(cluster.getId());
-                    break;
-                case Capacity.CAPACITY_TYPE_MEMORY:
-                    threshold = MemoryCapacityThreshold.valueIn(cluster.getId());
-                    break;
-                default:
-                    threshold = _capacityTypeThresholdMap.get(capacityType);
-                }
-                if (capacity == null || capacity.size() == 0) {
-                    continue;
-                }
+            checkClusterCapacity(cluster);
+        }
+
+    }
+
+    public void checkForChangedCapacity() {
+        Set<Long> clusterIds = new HashSet<Long>();
+        for (Long hostId : _thresholdTracker.drainHosts()) {
+            HostVO host = _hostDao.findById(hostId);
+            if (host != null && host.getClusterId() != null) {
+                clusterIds.add(host.getClusterId());
+            }
+        }
+        for (Long poolId : _thresholdTracker.drainPools()) {
+            StoragePoolVO pool = _storagePoolDao.findById(poolId);
+            if (pool == null) {
+                continue;
+            }
+            updatePoolCapacity(pool);
+            if (pool.getClusterId() != null) {
+                clusterIds.add(pool.getClusterId());
+            }
+        }
+        Set<Long> podIds = _thresholdTracker.drainPods();
+        Set<Long> zoneIds = _thresholdTracker.drainZones();
+        if (clusterIds.isEmpty() && podIds.isEmpty() && zoneIds.isEmpty()) {
+            return;
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Checking capacity of " + clusterIds.size() + " clusters, " + podIds.size() + " pods and " + zoneIds.size() + " zones that changed");
+        }
+
+        for (Long zoneId : zoneIds) {
+            DataCenterVO dc = _dcDao.findById(zoneId);
+            if (dc != null) {
+                updateZoneCapacity(dc);
+                checkZoneCapacity(dc);
+            }
+        }
+        for (Long podId : podIds) {
+            HostPodVO pod = _podDao.findById(podId);
+            if (pod != null) {
+                updatePodCapacity(pod);
+                checkPodCapacity(pod);
+            }
+        }
+        for (Long clusterId : clusterIds) {
+            ClusterVO cluster = _clusterDao.findById(clusterId);
+            if (cluster != null) {
+                checkClusterCapacity(cluster);
+            }
+        }
+    }
+
+    private void checkZoneCapacity(DataCenterVO dc) {
+        for (Short capacityType : getCapacityTypesAtZoneLevel()) {
+            List<SummedCapacity> capacity = new ArrayList<SummedCapacity>();
+            capacity = _capacityDao.findCapacityBy(capacityType.intValue(), dc.getId(), null, null);
 
-                double totalCapacity = capacity.get(0).getTotalCapacity();
-                double usedCapacity = capacity.get(0).getUsedCapacity() + capacity.get(0).getReservedCapacity();
-                if (totalCapacity != 0 && usedCapacity / totalCapacity > threshold) {
-                    generateEmailAlert(ApiDBUtils.findZoneById(cluster.getDataCenterId()), ApiDBUtils.findPodById(cluster.getPodId()), cluster, totalCapacity, usedCapacity,
-                            capacityType);
+            if (capacityType == Capacity.CAPACITY_TYPE_SECONDARY_STORAGE) {
+                capacity.add(getUsedStats(capacityType, dc.getId(), null, null));
+            }
+            if (capacity == null || capacity.size() == 0) {
+                continue;
+            }
+            double totalCapacity = capacity.get(0).getTotalCapacity();
+            double usedCapacity = capacity.get(0).getUsedCapacity();
+            checkThreshold(dc, null, null, totalCapacity, usedCapacity, capacityType, _capacityTypeThresholdMap.get(capacityType));
+        }
+    }
+
+    private void checkPodCapacity(HostPodVO pod) {
+        for (Short capacityType : getCapacityTypesAtPodLevel()) {
+            List<SummedCapacity> capacity = _capacityDao.findCapacityBy(capacityType.intValue(), pod.getDataCenterId(), pod.getId(), null);
+            if (capacity == null || capacity.size() == 0) {
+                continue;
+            }
+            double totalCapacity = capacity.get(0).getTotalCapacity();
+            double usedCapacity = capacity.get(0).getUsedCapacity();
+            checkThreshold(ApiDBUtils.findZoneById(pod.getDataCenterId()), pod, null, totalCapacity, usedCapacity, capacityType, _capacityTypeThresholdMap.get(capacityType));
+        }
+    }
+
+    private void checkClusterCapacity(ClusterVO cluster) {
+        for (Short capacityType : getCapacityTypesAtClusterLevel()) {
+            List<SummedCapacity> capacity = new ArrayList<SummedCapacity>();
+            capacity = _capacityDao.findCapacityBy(capacityType.intValue(), cluster.getDataCenterId(), null, cluster.getId());
+
+            // cpu and memory allocated capacity notification threshold can
+            // be defined at cluster level, so getting the value if they are
+            // defined at cluster level
+            double threshold = 0;
+            switch (capacityType) {
+            case Capacity.CAPACITY_TYPE_STORAGE:
+                capacity.add(getUsedStats(capacityType, cluster.getDataCenterId(), cluster.getPodId(), cluster.getId()));
+                threshold = StorageCapacityThreshold.valueIn(cluster.getId());
+                break;
+            case Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED:
+                threshold = StorageAllocatedCapacityThreshold.valueIn(cluster.getId());
+                break;
+            case Capacity.CAPACITY_TYPE_CPU:
+                threshold = CPUCapacityThreshold.valueIn(cluster.getId());
+                break;
+            case Capacity.CAPACITY_TYPE_MEMORY:
+                threshold = MemoryCapacityThreshold.valueIn(cluster.getId());
+                break;
+            default:
+                threshold = _capacityTypeThresholdMap.get(capacityType);
+            }
+            if (capacity == null || capacity.size() == 0) {
+                continue;
+            }
+
+            double totalCapacity = capacity.get(0).getTotalCapacity();
+            double usedCapacity = capacity.get(0).getUsedCapacity() + capacity.get(0).getReservedCapacity();
+            checkThreshold(ApiDBUtils.findZoneById(cluster.getDataCenterId()), ApiDBUtils.findPodById(cluster.getPodId()), cluster, totalCapacity, usedCapacity, capacityType,
+                    threshold);
+        }
+    }
+
+    private void checkThreshold(DataCenterVO dc, HostPodVO pod, ClusterVO cluster, double totalCapacity, double usedCapacity, short capacityType, double threshold) {
+        Long podId = pod == null ? null : pod.getId();
+        Long clusterId = cluster == null ? null : cluster.getId();
+        Crossing crossing = _thresholdTracker.evaluate(capacityType, dc.getId(), podId, clusterId, usedCapacity, totalCapacity, threshold);
+        if (crossing == Crossing.Over) {
+            generateEmailAlert(dc, pod, cluster, totalCapacity, usedCapacity, capacityType);
+        } else if (crossing == Crossing.Cleared) {
+            AlertType alertType = getCapacityAlertType(capacityType);
+            if (alertType != null && _emailAlert != null) {
+                _emailAlert.clearAlert(alertType.getType(), dc.getId(), podId, clusterId);
+            }
+        }
+    }
+
+    private static AlertType getCapacityAlertType(short capacityType) {
+        switch (capacityType) {
+        case Capacity.CAPACITY_TYPE_MEMORY:
+            return AlertManager.AlertType.ALERT_TYPE_MEMORY;
+        case Capacity.CAPACITY_TYPE_CPU:
+            return AlertManager.AlertType.ALERT_TYPE_CPU;
+        case Capacity.CAPACITY_TYPE_STORAGE:
+            return AlertManager.AlertType.ALERT_TYPE_STORAGE;
+        case Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED:
+            return AlertManager.AlertType.ALERT_TYPE_STORAGE_ALLOCATED;
+        case Capacity.CAPACITY_TYPE_LOCAL_STORAGE:
+            return AlertManager.AlertType.ALERT_TYPE_LOCAL_STORAGE;
+        case Capacity.CAPACITY_TYPE_PRIVATE_IP:
+            return AlertManager.AlertType.ALERT_TYPE_PRIVATE_IP;
+        case Capacity.CAPACITY_TYPE_SECONDARY_STORAGE:
+            return AlertManager.AlertType.ALERT_TYPE_SECONDARY_STORAGE;
+        case Capacity.CAPACITY_TYPE_VIRTUAL_NETWORK_PUBLIC_IP:
+            return AlertManager.AlertType.ALERT_TYPE_VIRTUAL_NETWORK_PUBLIC_IP;
+        case Capacity.CAPACITY_TYPE_DIRECT_ATTACHED_PUBLIC_IP:
+            return AlertManager.AlertType.ALERT_TYPE_DIRECT_ATTACHED_PUBLIC_IP;
+        case Capacity.CAPACITY_TYPE_VLAN:
+            return AlertManager.AlertType.ALERT_TYPE_VLAN;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Marks the hosts a VM left or landed on, and for system VMs the pod
+     * whose private IPs they use.
+     */
+    protected class VmCapacityListener implements StateListener<VirtualMachine.State, VirtualMachine.Event, VirtualMachine> {
+        @Override
+        public boolean preStateTransitionEvent(VirtualMachine.State oldState, VirtualMachine.Event event, VirtualMachine.State newState, VirtualMachine vm, boolean status,
+                Object opaque) {
+            return true;
+        }
+
+        @Override
+        public boolean postStateTransitionEvent(VirtualMachine.State oldState, VirtualMachine.Event event, VirtualMachine.State newState, VirtualMachine vm, boolean status,
+                Object opaque) {
+            if (!status) {
+                return true;
+            }
+            _thresholdTracker.hostChanged(vm.getHostId());
+            _thresholdTracker.hostChanged(vm.getLastHostId());
+            if (opaque instanceof Pair) {
+                Object oldHostId = ((Pair<?, ?>)opaque).first();
+                if (oldHostId instanceof Long) {
+                    _thresholdTracker.hostChanged((Long)oldHostId);
                 }
             }
+            // system VMs take and give back the private and public IPs, changes to
+            // the IPs of user VMs are left to the periodic recalculation
+            if (vm.getType() != VirtualMachine.Type.User) {
+                _thresholdTracker.podChanged(vm.getPodIdToDeployIn());
+                _thresholdTracker.zoneChanged(vm.getDataCenterId());
+            }
+            return true;
+        }
+    }
+
+    protected class VolumeCapacityListener implements StateListener<Volume.State, Volume.Event, Volume> {
+        @Override
+        public boolean preStateTransitionEvent(Volume.State oldState, Volume.Event event, Volume.State newState, Volume vo, boolean status, Object opaque) {
+            return true;
+        }
+
+        @Override
+        public boolean postStateTransitionEvent(Volume.State oldState, Volume.Event event, Volume.State newState, Volume vo, boolean status, Object opaque) {
+            if (status) {
+                _thresholdTracker.poolChanged(vo.getPoolId());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Networks take VLANs and source NAT IPs when they are implemented and give
+     * them back when they are shut down.
+     */
+    protected class NetworkCapacityListener implements StateListener<Network.State, Network.Event, Network> {
+        @Override
+        public boolean preStateTransitionEvent(Network.State oldState, Network.Event event, Network.State newState, Network vo, boolean status, Object opaque) {
+            return true;
         }
 
+        @Override
+        public boolean postStateTransitionEvent(Network.State oldState, Network.Event event, Network.State newState, Network vo, boolean status, Object opaque) {
+            if (status && (newState == Network.State.Implemented || oldState == Network.State.Shutdown || newState == Network.State.Destroy)) {
+                _thresholdTracker.zoneChanged(vo.getDataCenterId());
+            }
+            return true;
+        }
     }
 
     private SummedCapacity getUsedStats(short capacityType, long zoneId, Long podId, Long clusterId) {
@@ -769,6 +981,10 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
                     && (alertType != AlertManager.AlertType.ALERT_TYPE_SSVM) && (alertType != AlertManager.AlertType.ALERT_TYPE_STORAGE_MISC)
                     && (alertType != AlertManager.AlertType.ALERT_TYPE_MANAGMENT_NODE) && (alertType != AlertManager.AlertType.ALERT_TYPE_RESOURCE_LIMIT_EXCEEDED)) {
                 alert = _alertDao.getLastAlert(alertType.getType(), dataCenterId, podId, clusterId);
+                if (alert != null && alert.getResolved() != null) {
+                    // the condition was cleared since, this is a new occurrence
+                    alert = null;
+                }
             }
 
             if (alert == null) {
@@ -831,9 +1047,13 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
         }
 
         public void clearAlert(short alertType, long dataCenterId, Long podId) {
+            clearAlert(alertType, dataCenterId, podId, null);
+        }
+
+        public void clearAlert(short alertType, long dataCenterId, Long podId, Long clusterId) {
             if (alertType != -1) {
-                AlertVO alert = _alertDao.getLastAlert(alertType, dataCenterId, podId, null);
-                if (alert != null) {
+                AlertVO alert = _alertDao.getLastAlert(alertType, dataCenterId, podId, clusterId);
+                if (alert != null && alert.getResolved() == null) {
                     AlertVO updatedAlert = _alertDao.createForUpdate();
                     updatedAlert.setResolved(new Date());
                     _alertDao.update(alert.getId(), updatedAlert);
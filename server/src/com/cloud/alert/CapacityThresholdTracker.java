@@ -0,0 +1,136 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.alert;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CapacityThresholdTracker records which hosts, storage pools, pods and
+ * zones had a capacity change since the last check, so only those are
+ * evaluated between full recalculations.
+ *
+ * It also remembers which capacities are over their threshold. A capacity
+ * that went over its threshold is cleared only once it drops below the
+ * threshold minus the hysteresis margin, so a value hovering around the
+ * threshold does not raise and clear an alert on every check.
+ */
+class CapacityThresholdTracker {
+    enum Crossing {
+        None, Over, Cleared
+    }
+
+    private final Set<Long> _hosts = newConcurrentSet();
+    private final Set<Long> _pools = newConcurrentSet();
+    private final Set<Long> _pods = newConcurrentSet();
+    private final Set<Long> _zones = newConcurrentSet();
+    private final ConcurrentHashMap<String, Boolean> _overThreshold = new ConcurrentHashMap<String, Boolean>();
+    private final double _hysteresis;
+
+    CapacityThresholdTracker(double hysteresis) {
+        _hysteresis = hysteresis;
+    }
+
+    void hostChanged(Long hostId) {
+        if (hostId != null) {
+            _hosts.add(hostId);
+        }
+    }
+
+    void poolChanged(Long poolId) {
+        if (poolId != null) {
+            _pools.add(poolId);
+        }
+    }
+
+    void podChanged(Long podId) {
+        if (podId != null) {
+            _pods.add(podId);
+        }
+    }
+
+    void zoneChanged(Long zoneId) {
+        if (zoneId != null) {
+            _zones.add(zoneId);
+        }
+    }
+
+    Set<Long> drainHosts() {
+        return drain(_hosts);
+    }
+
+    Set<Long> drainPools() {
+        return drain(_pools);
+    }
+
+    Set<Long> drainPods() {
+        return drain(_pods);
+    }
+
+    Set<Long> drainZones() {
+        return drain(_zones);
+    }
+
+    /**
+     * Forgets all pending changes, used when everything is about to be
+     * recalculated anyway.
+     */
+    void drainAll() {
+        _hosts.clear();
+        _pools.clear();
+        _pods.clear();
+        _zones.clear();
+    }
+
+    /**
+     * @return Over whenever the capacity is over the threshold, Cleared when it
+     *         went back below the threshold minus the hysteresis margin since
+     *         it was last over it (or since it was first seen), None otherwise
+     */
+    Crossing evaluate(short capacityType, long zoneId, Long podId, Long clusterId, double usedCapacity, double totalCapacity, double threshold) {
+        if (totalCapacity == 0) {
+            return Crossing.None;
+        }
+        final String key = new StringBuilder().append(capacityType).append('/').append(zoneId).append('/').append(podId).append('/').append(clusterId).toString();
+        final double used = usedCapacity / totalCapacity;
+        if (used > threshold) {
+            _overThreshold.put(key, Boolean.TRUE);
+            return Crossing.Over;
+        }
+        if (used < threshold - _hysteresis) {
+            final Boolean wasOver = _overThreshold.put(key, Boolean.FALSE);
+            return Boolean.FALSE.equals(wasOver) ? Crossing.None : Crossing.Cleared;
+        }
+        return Crossing.None;
+    }
+
+    private static Set<Long> newConcurrentSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    }
+
+    private static Set<Long> drain(Set<Long> changed) {
+        final Set<Long> ids = new HashSet<Long>();
+        for (final Iterator<Long> it = changed.iterator(); it.hasNext();) {
+            ids.add(it.next());
+            it.remove();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,194 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.cloud.user.Account;
+import com.cloud.user.User;
+
+/**
+ * Keeps the user and account behind an API key for a short time, so that signed API requests
+ * are not looked up in the database on every call. Each entry also hands out a signing Mac per
+ * thread, prepared once with the user's secret key. Entries expire after the configured time and
+ * are dropped as soon as credentials or the state of a user or account change on this
+ * management server.
+ */
+public class ApiCredentialCache {
+    private static final int MAX_ENTRIES = 10000;
+    private static final String HMAC_ALGORITHM = "HmacSHA1";
+
+    private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    private volatile long _ttlMs;
+    // bumped by invalidateAll(), so that credentials read before an invalidation are not cached after it
+    private final AtomicLong _generation = new AtomicLong();
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _verifications = new AtomicLong();
+    private final AtomicLong _verificationNanos = new AtomicLong();
+
+    public ApiCredentialCache(long ttlMs) {
+        _ttlMs = ttlMs;
+    }
+
+    public void setTtl(long ttlMs) {
+        _ttlMs = ttlMs;
+        if (ttlMs <= 0) {
+            _entries.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return _ttlMs > 0;
+    }
+
+    public Entry get(String apiKey) {
+        if (!isEnabled() || apiKey == null) {
+            return null;
+        }
+
+        Entry entry = _entries.get(apiKey);
+        if (entry != null && System.currentTimeMillis() > entry.expiresAt) {
+            _entries.remove(apiKey, entry);
+            entry = null;
+        }
+
+        if (entry == null) {
+            _misses.incrementAndGet();
+        } else {
+            _hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * @return the current generation, to be read before looking up the credentials passed to put()
+     */
+    public long getGeneration() {
+        return _generation.get();
+    }
+
+    /**
+     * @param generation the value of getGeneration() before the user and account were looked up
+     * @return the entry for the user and account, which is only kept if caching is enabled and the
+     *         cache was not invalidated since the given generation
+     */
+    public Entry put(String apiKey, User user, Account account, long generation) {
+        Entry entry = new Entry(user, account, System.currentTimeMillis() + _ttlMs);
+        if (!isEnabled() || apiKey == null || _generation.get() != generation) {
+            return entry;
+        }
+
+        if (_entries.size() >= MAX_ENTRIES) {
+            purgeExpired();
+        }
+        if (_entries.size() < MAX_ENTRIES) {
+            _entries.put(apiKey, entry);
+            // an invalidation may have cleared the cache between the check above and the put
+            if (_generation.get() != generation) {
+                _entries.remove(apiKey, entry);
+            }
+        }
+        return entry;
+    }
+
+    public void invalidateAll() {
+        _generation.incrementAndGet();
+        _entries.clear();
+    }
+
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Entry> it = _entries.values().iterator(); it.hasNext();) {
+            if (now > it.next().expiresAt) {
+                it.remove();
+            }
+        }
+    }
+
+    public void recordVerification(long nanos) {
+        _verifications.incrementAndGet();
+        _verificationNanos.addAndGet(nanos);
+    }
+
+    public long getHitCount() {
+        return _hits.get();
+    }
+
+    public long getMissCount() {
+        return _misses.get();
+    }
+
+    /**
+     * @return average time in microseconds spent verifying a signed request
+     */
+    public long getAverageVerificationMicros() {
+        long count = _verifications.get();
+        return count == 0 ? 0 : _verificationNanos.get() / count / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + getHitCount() + ", misses: " + getMissCount() + ", verifications: " + _verifications.get() + ", avg verification: "
+                + getAverageVerificationMicros() + " us";
+    }
+
+    public static class Entry {
+        private final User _user;
+        private final Account _account;
+        private final long expiresAt;
+
+        // Mac objects are not thread safe, every request thread gets its own
+        private final ThreadLocal<Mac> _mac = new ThreadLocal<Mac>();
+
+        Entry(User user, Account account, long expiresAt) {
+            _user = user;
+            _account = account;
+            this.expiresAt = expiresAt;
+        }
+
+        public User getUser() {
+            return _user;
+        }
+
+        public Account getAccount() {
+            return _account;
+        }
+
+        /**
+         * @return the signature of the request, computed with the user's secret key
+         */
+        public byte[] sign(String unsignedRequest) throws NoSuchAlgorithmException, InvalidKeyException {
+            Mac mac = _mac.get();
+            if (mac == null) {
+                mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(new SecretKeySpec(_user.getSecretKey().getBytes(), HMAC_ALGORITHM));
+                _mac.set(mac);
+            }
+            // doFinal leaves the Mac reset for the next request
+            return mac.doFinal(unsignedRequest.getBytes());
+        }
+    }
+}
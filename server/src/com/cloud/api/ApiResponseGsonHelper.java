@@ -16,6 +16,10 @@
 // under the License.
 package com.cloud.api;
 
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.apache.cloudstack.acl.RoleType;
 import org.apache.cloudstack.api.ResponseObject;
 import org.apache.cloudstack.context.CallContext;
@@ -24,6 +28,7 @@ import com.cloud.serializer.Param;
 import com.cloud.user.Account;
 import com.google.gson.ExclusionStrategy;
 import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 /**
@@ -33,18 +38,44 @@ import com.google.gson.GsonBuilder;
 public class ApiResponseGsonHelper {
     private static final GsonBuilder s_gBuilder;
 
+    // Gson instances are thread safe but expensive to create. The fields a response exposes depend
+    // on the caller's account type (see ExclStrat), so one instance is kept per account type.
+    private static final Map<Short, Gson> s_gsonByAccountType = new ConcurrentHashMap<Short, Gson>();
+
     static {
         s_gBuilder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
         s_gBuilder.setVersion(1.3);
         s_gBuilder.registerTypeAdapter(ResponseObject.class, new ResponseObjectTypeAdapter());
         s_gBuilder.registerTypeAdapter(String.class, new EncodedStringTypeAdapter());
         s_gBuilder.setExclusionStrategies(new ExclStrat());
+        s_gBuilder.excludeFieldsWithModifiers(Modifier.TRANSIENT);
+        // write characters such as < > & = ' as is, responses used to be unescaped after serialization
+        s_gBuilder.disableHtmlEscaping();
     }
 
     public static GsonBuilder getBuilder() {
         return s_gBuilder;
     }
 
+    /**
+     * @return a Gson instance for serializing responses to the current caller
+     */
+    public static Gson getGson() {
+        CallContext context = CallContext.current();
+        Account caller = (context != null) ? context.getCallingAccount() : null;
+        if (caller == null) {
+            return s_gBuilder.create();
+        }
+
+        Short accountType = Short.valueOf(caller.getType());
+        Gson gson = s_gsonByAccountType.get(accountType);
+        if (gson == null) {
+            gson = s_gBuilder.create();
+            s_gsonByAccountType.put(accountType, gson);
+        }
+        return gson;
+    }
+
     private static class ExclStrat implements ExclusionStrategy {
 
         @Override
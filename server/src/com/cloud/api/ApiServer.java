@@ -39,15 +39,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 import javax.servlet.http.HttpServletResponse;
@@ -60,13 +61,15 @@ import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpServerConnection;
 import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.DefaultHttpResponseFactory;
 import org.apache.http.impl.DefaultHttpServerConnection;
-import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.SocketHttpServerConnection;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
@@ -215,9 +218,15 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     private static final DateFormat DateFormatToUse = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
     private static Map<String, List<Class<?>>> s_apiNameCmdClassMap = new HashMap<String, List<Class<?>>>();
 
-    private static ExecutorService s_executor = new ThreadPoolExecutor(10, 150, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("ApiServer"));
+    // idle time after which a kept-alive integration API connection gives its worker thread back
+    private static final int KEEP_ALIVE_TIMEOUT_MS = 5000;
+
+    // concurrent requests allowed per command on the integration API port, 0 for no limit
+    private int _integrationApiMaxConcurrentPerCommand = 0;
+    private final ConcurrentHashMap<String, Semaphore> _integrationApiCommandPermits = new ConcurrentHashMap<String, Semaphore>();
     @Inject
     MessageBus _messageBus;
+    private final ApiCredentialCache _credentialCache = new ApiCredentialCache(0);
 
     public ApiServer() {
     }
@@ -225,9 +234,17 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
         _messageBus.subscribe(AsyncJob.Topics.JOB_EVENT_PUBLISH, MessageDispatcher.getDispatcher(this));
+        _messageBus.subscribe(AccountManager.MESSAGE_CREDENTIALS_CHANGED_EVENT, MessageDispatcher.getDispatcher(this));
         return true;
     }
 
+    @MessageHandler(topic = AccountManager.MESSAGE_CREDENTIALS_CHANGED_EVENT)
+    private void handleCredentialsChangedEvent(String subject, String senderAddress, Object args) {
+        if (s_logger.isTraceEnabled())
+            s_logger.trace("Credentials changed, dropping cached API credentials. Cache stats: " + _credentialCache);
+        _credentialCache.invalidateAll();
+    }
+
     @MessageHandler(topic = AsyncJob.Topics.JOB_EVENT_PUBLISH)
     private void handleAsyncJobPublishEvent(String subject, String senderAddress, Object args) {
         assert (args != null);
@@ -328,6 +345,9 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
         }
 
+        final int credentialCacheTtl = NumbersUtil.parseInt(configs.get(Config.ApiCredentialCacheTtl.key()), 30);
+        _credentialCache.setTtl(credentialCacheTtl * 1000L);
+
         final Set<Class<?>> cmdClasses = new HashSet<Class<?>>();
         for (final PluggableService pluggableService : _pluggableServices) {
             cmdClasses.addAll(pluggableService.getCommands());
@@ -359,7 +379,16 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         }
 
         if (apiPort != null) {
-            final ListenerThread listenerThread = new ListenerThread(this, apiPort);
+            final int maxThreads = NumbersUtil.parseInt(configs.get(Config.IntegrationAPIMaxThreads.key()), 50);
+            final int queueSize = NumbersUtil.parseInt(configs.get(Config.IntegrationAPIQueueSize.key()), 100);
+            _integrationApiMaxConcurrentPerCommand = NumbersUtil.parseInt(configs.get(Config.IntegrationAPIMaxConcurrentPerCommand.key()), 0);
+
+            // bounded, so that a burst is turned away with 503 instead of piling up behind the workers
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)),
+                    new NamedThreadFactory("ApiServer"));
+            executor.allowCoreThreadTimeOut(true);
+
+            final ListenerThread listenerThread = new ListenerThread(this, apiPort, executor);
             listenerThread.start();
         }
 
@@ -417,11 +446,13 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 responseType = BaseCmd.RESPONSE_TYPE_XML;
             }
 
+            Semaphore permits = null;
             try {
                 // always trust commands from API port, user context will always
                 // be UID_SYSTEM/ACCOUNT_ID_SYSTEM
                 CallContext.register(_accountMgr.getSystemUser(), _accountMgr.getSystemAccount());
                 sb.insert(0, "(userId=" + User.UID_SYSTEM + " accountId=" + Account.ACCOUNT_ID_SYSTEM + " sessionId=" + null + ") ");
+                permits = acquireCommandPermit(parameterMap);
                 final String responseText = handleRequest(parameterMap, responseType, sb);
                 sb.append(" 200 " + ((responseText == null) ? 0 : responseText.length()));
 
@@ -435,6 +466,10 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 // identify the source easier
                 s_logger.error("Unhandled exception, ", e);
                 throw e;
+            } finally {
+                if (permits != null) {
+                    permits.release();
+                }
             }
         } finally {
             s_accessLogger.info(sb.toString());
@@ -442,6 +477,33 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         }
     }
 
+    /**
+     * Limits how many requests of one command the integration API port runs at the same time
+     *
+     * @return the semaphore to release once the request is done, or null if there is no limit
+     */
+    @SuppressWarnings("rawtypes")
+    private Semaphore acquireCommandPermit(final Map params) {
+        final int limit = _integrationApiMaxConcurrentPerCommand;
+        final String[] command = (String[])params.get("command");
+        if (limit <= 0 || command == null || command[0] == null) {
+            return null;
+        }
+
+        Semaphore permits = _integrationApiCommandPermits.get(command[0]);
+        if (permits == null) {
+            permits = new Semaphore(limit);
+            final Semaphore existing = _integrationApiCommandPermits.putIfAbsent(command[0], permits);
+            if (existing != null) {
+                permits = existing;
+            }
+        }
+        if (!permits.tryAcquire()) {
+            throw new ServerApiException(ApiErrorCode.API_LIMIT_EXCEED, "Too many concurrent " + command[0] + " requests, the limit is " + limit);
+        }
+        return permits;
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     public void checkCharacterInkParams(final Map params) {
         final Map<String, String> stringMap = new HashMap<String, String>();
@@ -769,7 +831,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             String apiKey = null;
             String secretKey = null;
             String signature = null;
-            String unsignedRequest = null;
+            final StringBuilder unsignedRequest = new StringBuilder();
 
             final String[] command = (String[])requestParameters.get(ApiConstants.COMMAND);
             if (command == null) {
@@ -834,11 +896,10 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                         expires = paramValue;
                     }
 
-                    if (unsignedRequest == null) {
-                        unsignedRequest = paramName + "=" + URLEncoder.encode(paramValue, UTF_8).replaceAll("\\+", "%20");
-                    } else {
-                        unsignedRequest = unsignedRequest + "&" + paramName + "=" + URLEncoder.encode(paramValue, UTF_8).replaceAll("\\+", "%20");
+                    if (unsignedRequest.length() > 0) {
+                        unsignedRequest.append('&');
                     }
+                    unsignedRequest.append(paramName).append('=').append(URLEncoder.encode(paramValue, UTF_8).replaceAll("\\+", "%20"));
                 }
             }
 
@@ -874,16 +935,21 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
             final TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.CLOUD_DB);
             txn.close();
-            User user = null;
-            // verify there is a user with this api key
-            final Pair<User, Account> userAcctPair = _accountMgr.findUserByApiKey(apiKey);
-            if (userAcctPair == null) {
-                s_logger.debug("apiKey does not map to a valid user -- ignoring request, apiKey: " + apiKey);
-                return false;
+            final long verifyStart = System.nanoTime();
+            // verify there is a user with this api key, looking in the credential cache first
+            ApiCredentialCache.Entry credentials = _credentialCache.get(apiKey);
+            if (credentials == null) {
+                final long cacheGeneration = _credentialCache.getGeneration();
+                final Pair<User, Account> userAcctPair = _accountMgr.findUserByApiKey(apiKey);
+                if (userAcctPair == null) {
+                    s_logger.debug("apiKey does not map to a valid user -- ignoring request, apiKey: " + apiKey);
+                    return false;
+                }
+                credentials = _credentialCache.put(apiKey, userAcctPair.first(), userAcctPair.second(), cacheGeneration);
             }
 
-            user = userAcctPair.first();
-            final Account account = userAcctPair.second();
+            final User user = credentials.getUser();
+            final Account account = credentials.getAccount();
 
             if (user.getState() != Account.State.enabled || !account.getState().equals(Account.State.enabled)) {
                 s_logger.info("disabled or locked user accessing the api, userid = " + user.getId() + "; name = " + user.getUsername() + "; state: " + user.getState()
@@ -909,15 +975,10 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 return false;
             }
 
-            unsignedRequest = unsignedRequest.toLowerCase();
-
-            final Mac mac = Mac.getInstance("HmacSHA1");
-            final SecretKeySpec keySpec = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
-            mac.init(keySpec);
-            mac.update(unsignedRequest.getBytes());
-            final byte[] encryptedBytes = mac.doFinal();
+            final byte[] encryptedBytes = credentials.sign(unsignedRequest.toString().toLowerCase());
             final String computedSignature = Base64.encodeBase64String(encryptedBytes);
             final boolean equalSig = signature.equals(computedSignature);
+            _credentialCache.recordVerification(System.nanoTime() - verifyStart);
             if (!equalSig) {
                 s_logger.info("User signature: " + signature + " is not equaled to computed signature: " + computedSignature);
             } else {
@@ -1089,22 +1150,24 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             resp.setReasonPhrase(reasonPhrase);
 
             final BasicHttpEntity body = new BasicHttpEntity();
+            String text = responseText;
             if (BaseCmd.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
                 // JSON response
                 body.setContentType(jsonContentType);
-                if (responseText == null) {
-                    body.setContent(new ByteArrayInputStream("{ \"error\" : { \"description\" : \"Internal Server Error\" } }".getBytes(UTF_8)));
+                if (text == null) {
+                    text = "{ \"error\" : { \"description\" : \"Internal Server Error\" } }";
                 }
             } else {
                 body.setContentType("text/xml");
-                if (responseText == null) {
-                    body.setContent(new ByteArrayInputStream("<error>Internal Server Error</error>".getBytes(UTF_8)));
+                if (text == null) {
+                    text = "<error>Internal Server Error</error>";
                 }
             }
 
-            if (responseText != null) {
-                body.setContent(new ByteArrayInputStream(responseText.getBytes(UTF_8)));
-            }
+            // a known length lets the connection be kept alive for the next request
+            final byte[] content = text.getBytes(UTF_8);
+            body.setContent(new ByteArrayInputStream(content));
+            body.setContentLength(content.length);
             resp.setEntity(body);
         } catch (final Exception ex) {
             s_logger.error("error!", ex);
@@ -1121,12 +1184,16 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         private HttpService _httpService = null;
         private ServerSocket _serverSocket = null;
         private HttpParams _params = null;
+        private final ExecutorService _executor;
 
-        public ListenerThread(final ApiServer requestHandler, final int port) {
-            try {
-                _serverSocket = new ServerSocket(port);
-            } catch (final IOException ioex) {
-                s_logger.error("error initializing api server", ioex);
+        public ListenerThread(final ApiServer requestHandler, final int port, final ExecutorService executor) {
+            this(requestHandler, createServerSocket(port), executor);
+        }
+
+        ListenerThread(final ApiServer requestHandler, final ServerSocket serverSocket, final ExecutorService executor) {
+            _executor = executor;
+            _serverSocket = serverSocket;
+            if (_serverSocket == null) {
                 return;
             }
 
@@ -1147,11 +1214,20 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             reqistry.register("*", requestHandler);
 
             // Set up the HTTP service
-            _httpService = new HttpService(httpproc, new NoConnectionReuseStrategy(), new DefaultHttpResponseFactory());
+            _httpService = new HttpService(httpproc, new DefaultConnectionReuseStrategy(), new DefaultHttpResponseFactory());
             _httpService.setParams(_params);
             _httpService.setHandlerResolver(reqistry);
         }
 
+        private static ServerSocket createServerSocket(final int port) {
+            try {
+                return new ServerSocket(port);
+            } catch (final IOException ioex) {
+                s_logger.error("error initializing api server", ioex);
+                return null;
+            }
+        }
+
         @Override
         public void run() {
             s_logger.info("ApiServer listening on port " + _serverSocket.getLocalPort());
@@ -1163,7 +1239,11 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                     conn.bind(socket, _params);
 
                     // Execute a new worker task to handle the request
-                    s_executor.execute(new WorkerTask(_httpService, conn, s_workerCount++));
+                    try {
+                        _executor.execute(new WorkerTask(_httpService, conn, s_workerCount++));
+                    } catch (final RejectedExecutionException e) {
+                        rejectConnection(conn);
+                    }
                 } catch (final InterruptedIOException ex) {
                     break;
                 } catch (final IOException e) {
@@ -1171,6 +1251,30 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                     break;
                 }
             }
+            _executor.shutdown();
+        }
+
+        /**
+         * Answers a connection the workers have no room for with 503, without reading the request
+         */
+        private void rejectConnection(final DefaultHttpServerConnection conn) {
+            s_logger.warn("ApiServer: too many pending requests, rejecting connection from " + conn.getRemoteAddress());
+            try {
+                final BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_SERVICE_UNAVAILABLE, "Service Unavailable");
+                response.setHeader("Connection", "close");
+                response.setHeader("Content-Length", "0");
+                conn.sendResponseHeader(response);
+                conn.flush();
+            } catch (final Exception e) {
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("ApiServer: unable to send 503 - " + e);
+                }
+            } finally {
+                try {
+                    conn.shutdown();
+                } catch (final IOException ignore) {
+                }
+            }
         }
     }
 
@@ -1187,9 +1291,10 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         protected void runInContext() {
             final HttpContext context = new BasicHttpContext(null);
             try {
+                // HttpService closes the connection unless the client asked to keep it alive
                 while (!Thread.interrupted() && _conn.isOpen()) {
                     _httpService.handleRequest(_conn, context);
-                    _conn.close();
+                    _conn.setSocketTimeout(KEEP_ALIVE_TIMEOUT_MS);
                 }
             } catch (final ConnectionClosedException ex) {
                 if (s_logger.isTraceEnabled()) {
@@ -0,0 +1,99 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.dispatch;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cloudstack.api.ACL;
+import org.apache.cloudstack.api.BaseCmd.CommandType;
+import org.apache.cloudstack.api.EntityReference;
+import org.apache.cloudstack.api.Parameter;
+
+/**
+ * What ParamProcessWorker needs to know about one @Parameter field, resolved from the
+ * annotations once per field instead of on every request.
+ */
+class ParamBinding {
+    private static final Map<Field, ParamBinding> s_bindings = new ConcurrentHashMap<Field, ParamBinding>();
+
+    private final Field _field;
+    private final Parameter _parameter;
+    private final ACL _acl;
+    private final Class<?>[] _entities;
+    private final boolean _pre3x;
+
+    private ParamBinding(Field field) {
+        _field = field;
+        _field.setAccessible(true);
+        _parameter = field.getAnnotation(Parameter.class);
+        _acl = field.getAnnotation(ACL.class);
+
+        Class<?>[] entities = null;
+        if (_parameter.entityType() != null && _parameter.entityType().length > 0) {
+            EntityReference reference = _parameter.entityType()[0].getAnnotation(EntityReference.class);
+            if (reference != null) {
+                entities = reference.value();
+            }
+        }
+        _entities = entities;
+        _pre3x = _parameter.since().isEmpty();
+    }
+
+    static ParamBinding get(Field field) {
+        ParamBinding binding = s_bindings.get(field);
+        if (binding == null) {
+            binding = new ParamBinding(field);
+            s_bindings.put(field, binding);
+        }
+        return binding;
+    }
+
+    Field getField() {
+        return _field;
+    }
+
+    Parameter getParameter() {
+        return _parameter;
+    }
+
+    CommandType getType() {
+        return _parameter.type();
+    }
+
+    /**
+     * @return the access check declared on the field, or null
+     */
+    ACL getAcl() {
+        return _acl;
+    }
+
+    /**
+     * @return the entity interfaces the parameter refers to, or null if it is not an entity reference
+     */
+    Class<?>[] getEntities() {
+        return _entities;
+    }
+
+    /**
+     * @return true for parameters of commands that existed before 3.x, these accept internal ids as well as uuids
+     */
+    boolean isPre3x() {
+        return _pre3x;
+    }
+}
@@ -20,6 +20,7 @@ package com.cloud.api.dispatch;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -29,7 +30,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 
@@ -44,7 +47,6 @@ import org.apache.cloudstack.api.ApiErrorCode;
 import org.apache.cloudstack.api.BaseAsyncCreateCmd;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.BaseCmd.CommandType;
-import org.apache.cloudstack.api.EntityReference;
 import org.apache.cloudstack.api.InternalIdentity;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.ServerApiException;
@@ -66,6 +68,20 @@ public class ParamProcessWorker implements DispatchWorker {
 
     private static final Logger s_logger = Logger.getLogger(ParamProcessWorker.class.getName());
 
+    private static final Pattern s_uuidPattern = Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+
+    // getRemoved() of the entity VO classes, or null for classes without one
+    private static final Map<Class<?>, Method> s_removedGetters = new ConcurrentHashMap<Class<?>, Method>();
+    private static final Method NO_REMOVED_GETTER;
+
+    static {
+        try {
+            NO_REMOVED_GETTER = Object.class.getMethod("hashCode");
+        } catch (final NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     @Inject
     protected AccountManager _accountMgr;
 
@@ -91,11 +107,14 @@ public class ParamProcessWorker implements DispatchWorker {
     @SuppressWarnings({"unchecked", "rawtypes"})
     public void processParameters(final BaseCmd cmd, final Map params) {
         final Map<Object, AccessType> entitiesToAccess = new HashMap<Object, AccessType>();
+        // entities loaded while translating uuids, the access checks below reuse them
+        final Map<String, Object> resolvedEntities = new HashMap<String, Object>();
 
         final List<Field> cmdFields = cmd.getParamFields();
 
         for (final Field field : cmdFields) {
-            final Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
+            final ParamBinding binding = ParamBinding.get(field);
+            final Parameter parameterAnnotation = binding.getParameter();
             final Object paramObj = params.get(parameterAnnotation.name());
             if (paramObj == null) {
                 if (parameterAnnotation.required()) {
@@ -108,7 +127,7 @@ public class ParamProcessWorker implements DispatchWorker {
             // marshall the parameter into the correct type and set the field
             // value
             try {
-                setFieldValue(field, cmd, paramObj, parameterAnnotation);
+                setFieldValue(binding, cmd, paramObj, resolvedEntities);
             } catch (final IllegalArgumentException argEx) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Unable to execute API command " + cmd.getCommandName() + " due to invalid value " + paramObj + " for parameter " + parameterAnnotation.name());
@@ -137,8 +156,8 @@ public class ParamProcessWorker implements DispatchWorker {
 
             // check access on the resource this field points to
             try {
-                final ACL checkAccess = field.getAnnotation(ACL.class);
-                final CommandType fieldType = parameterAnnotation.type();
+                final ACL checkAccess = binding.getAcl();
+                final CommandType fieldType = binding.getType();
 
                 if (checkAccess != null) {
                     // Verify that caller can perform actions in behalf of vm
@@ -149,9 +168,8 @@ public class ParamProcessWorker implements DispatchWorker {
                     // for maps, specify access to be checkd on key or value.
                     // Find the controlled entity DBid by uuid
 
-                    if (parameterAnnotation.entityType() != null && parameterAnnotation.entityType().length > 0
-                            && parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class) != null) {
-                        final Class<?>[] entityList = parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class).value();
+                    if (binding.getEntities() != null) {
+                        final Class<?>[] entityList = binding.getEntities();
 
                         // Check if the parameter type is a single
                         // Id or list of id's/name's
@@ -164,7 +182,7 @@ public class ParamProcessWorker implements DispatchWorker {
                                 final List<Long> listParam = (List<Long>)field.get(cmd);
                                 for (final Long entityId : listParam) {
                                     for (final Class entity : entityList) {
-                                        final Object entityObj = _entityMgr.findById(entity, entityId);
+                                        final Object entityObj = findEntity(entity, entityId, resolvedEntities);
                                         if (entityObj != null) {
                                             entitiesToAccess.put(entityObj, checkAccess.accessType());
                                             break;
@@ -187,7 +205,7 @@ public class ParamProcessWorker implements DispatchWorker {
                         case LONG:
                         case UUID:
                             for (final Class entity : entityList) {
-                                final Object entityObj = _entityMgr.findById(entity, (Long)field.get(cmd));
+                                final Object entityObj = findEntity(entity, (Long)field.get(cmd), resolvedEntities);
                                 if (entityObj != null) {
                                     entitiesToAccess.put(entityObj, checkAccess.accessType());
                                     break;
@@ -213,6 +231,44 @@ public class ParamProcessWorker implements DispatchWorker {
         doAccessChecks(cmd, entitiesToAccess);
     }
 
+    private Object findEntity(final Class<?> entity, final Long id, final Map<String, Object> resolvedEntities) {
+        final Object entityObj = resolvedEntities.get(entityKey(entity, id));
+        if (entityObj != null) {
+            return entityObj;
+        }
+        return _entityMgr.findById(entity, id);
+    }
+
+    private static String entityKey(final Class<?> entity, final Long id) {
+        return entity.getName() + ":" + id;
+    }
+
+    /**
+     * The uuid translation also finds removed entities while the access checks only look at
+     * live ones, so removed entities must not be handed over to the access checks.
+     */
+    private static boolean isRemoved(final Object entityObj) {
+        final Class<?> clazz = entityObj.getClass();
+        Method getter = s_removedGetters.get(clazz);
+        if (getter == null) {
+            try {
+                getter = clazz.getMethod("getRemoved");
+            } catch (final NoSuchMethodException e) {
+                getter = NO_REMOVED_GETTER;
+            }
+            s_removedGetters.put(clazz, getter);
+        }
+        if (getter == NO_REMOVED_GETTER) {
+            return false;
+        }
+        try {
+            return getter.invoke(entityObj) != null;
+        } catch (final Exception e) {
+            // can't tell, let the access checks load the entity again
+            return true;
+        }
+    }
+
     private void doAccessChecks(BaseCmd cmd, Map<Object, AccessType> entitiesToAccess) {
         Account caller = CallContext.current().getCallingAccount();
         Account owner = _accountMgr.getActiveAccountById(cmd.getEntityOwnerId());
@@ -237,10 +293,12 @@ public class ParamProcessWorker implements DispatchWorker {
     }
 
     @SuppressWarnings({"unchecked", "rawtypes"})
-    private void setFieldValue(final Field field, final BaseCmd cmdObj, final Object paramObj, final Parameter annotation) throws IllegalArgumentException, ParseException {
+    private void setFieldValue(final ParamBinding binding, final BaseCmd cmdObj, final Object paramObj, final Map<String, Object> resolvedEntities) throws IllegalArgumentException,
+            ParseException {
+        final Field field = binding.getField();
+        final Parameter annotation = binding.getParameter();
         try {
-            field.setAccessible(true);
-            final CommandType fieldType = annotation.type();
+            final CommandType fieldType = binding.getType();
             switch (fieldType) {
             case BOOLEAN:
                 field.set(cmdObj, Boolean.valueOf(paramObj.toString()));
@@ -310,7 +368,7 @@ public class ParamProcessWorker implements DispatchWorker {
                     case UUID:
                         if (token.isEmpty())
                             break;
-                        final Long internalId = translateUuidToInternalId(token, annotation);
+                        final Long internalId = translateUuidToInternalId(token, binding, resolvedEntities);
                         listParam.add(internalId);
                         break;
                     case LONG: {
@@ -329,7 +387,7 @@ public class ParamProcessWorker implements DispatchWorker {
             case UUID:
                 if (paramObj.toString().isEmpty())
                     break;
-                final Long internalId = translateUuidToInternalId(paramObj.toString(), annotation);
+                final Long internalId = translateUuidToInternalId(paramObj.toString(), binding, resolvedEntities);
                 field.set(cmdObj, internalId);
                 break;
             case LONG:
@@ -373,7 +431,8 @@ public class ParamProcessWorker implements DispatchWorker {
         return cal.getTime();
     }
 
-    private Long translateUuidToInternalId(final String uuid, final Parameter annotation) {
+    private Long translateUuidToInternalId(final String uuid, final ParamBinding binding, final Map<String, Object> resolvedEntities) {
+        final Parameter annotation = binding.getParameter();
         if (uuid.equals("-1")) {
             // FIXME: This is to handle a lot of hardcoded special cases where
             // -1 is sent
@@ -384,9 +443,9 @@ public class ParamProcessWorker implements DispatchWorker {
         Long internalId = null;
         // If annotation's empty, the cmd existed before 3.x try conversion to
         // long
-        final boolean isPre3x = annotation.since().isEmpty();
+        final boolean isPre3x = binding.isPre3x();
         // Match against Java's UUID regex to check if input is uuid string
-        final boolean isUuid = uuid.matches("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+        final boolean isUuid = s_uuidPattern.matcher(uuid).matches();
         // Enforce that it's uuid for newly added apis from version 3.x
         if (!isPre3x && !isUuid)
             return null;
@@ -395,7 +454,10 @@ public class ParamProcessWorker implements DispatchWorker {
         // Response.class
         // UUID CommandType would expect only one entityType, so use the first
         // entityType
-        final Class<?>[] entities = annotation.entityType()[0].getAnnotation(EntityReference.class).value();
+        final Class<?>[] entities = binding.getEntities();
+        if (entities == null) {
+            throw new InvalidParameterValueException("Invalid parameter " + annotation.name() + " value=" + uuid + " due to incorrect parameter annotation for the field in api cmd class.");
+        }
 
         // Allow both uuid and internal id for pre3x apis
         if (isPre3x && !isUuid) {
@@ -435,6 +497,9 @@ public class ParamProcessWorker implements DispatchWorker {
             // Return on first non-null Id for the uuid entity
             if (internalId != null) {
                 CallContext.current().putContextParameter(entity.getName(), uuid);
+                if (!isRemoved(objVO)) {
+                    resolvedEntities.put(entityKey(entity, internalId), objVO);
+                }
                 break;
             }
         }
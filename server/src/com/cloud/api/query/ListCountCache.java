@@ -0,0 +1,141 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.lang.reflect.Field;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseListCmd;
+import org.apache.cloudstack.api.Parameter;
+
+/**
+ * Keeps the total row count of list commands paged with a page token for a short time, so
+ * that walking through a large result set counts the matching rows once instead of on
+ * every page. Counts are kept per caller and per filter.
+ */
+public class ListCountCache {
+    private static final int MAX_ENTRIES = 10000;
+
+    private final ConcurrentHashMap<String, Entry> _counts = new ConcurrentHashMap<String, Entry>();
+    private volatile long _ttlMs;
+
+    public ListCountCache(long ttlMs) {
+        _ttlMs = ttlMs;
+    }
+
+    public void setTtl(long ttlMs) {
+        _ttlMs = ttlMs;
+        if (ttlMs <= 0) {
+            _counts.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return _ttlMs > 0;
+    }
+
+    public Integer get(String key) {
+        if (!isEnabled() || key == null) {
+            return null;
+        }
+
+        Entry entry = _counts.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() > entry.expiresAt) {
+            _counts.remove(key);
+            return null;
+        }
+        return entry.count;
+    }
+
+    public void put(String key, Integer count) {
+        if (!isEnabled() || key == null || count == null) {
+            return;
+        }
+
+        if (_counts.size() >= MAX_ENTRIES) {
+            purgeExpired();
+        }
+        if (_counts.size() < MAX_ENTRIES) {
+            _counts.put(key, new Entry(count, System.currentTimeMillis() + _ttlMs));
+        }
+    }
+
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Entry> it = _counts.values().iterator(); it.hasNext();) {
+            if (now > it.next().expiresAt) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Builds the cache key from the caller and the filter parameters of the request, the paging
+     * parameters are left out so that all pages of one listing share the key.
+     *
+     * @return the key, or null if the command was not created from an API request
+     */
+    public static String getKey(long callerAccountId, BaseListCmd cmd) {
+        Map<String, String> params = cmd.getFullUrlParams();
+        if (params == null) {
+            return null;
+        }
+
+        Set<String> filterParams = new HashSet<String>();
+        for (Field field : cmd.getParamFields()) {
+            filterParams.add(field.getAnnotation(Parameter.class).name().toLowerCase());
+        }
+        filterParams.remove(ApiConstants.PAGE);
+        filterParams.remove(ApiConstants.PAGE_SIZE);
+        filterParams.remove(ApiConstants.PAGE_TOKEN);
+
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            String name = param.getKey().toLowerCase();
+            int index = name.indexOf('[');
+            if (filterParams.contains(index < 0 ? name : name.substring(0, index))) {
+                sorted.put(name, param.getValue());
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(callerAccountId).append(':').append(cmd.getClass().getName());
+        for (Map.Entry<String, String> param : sorted.entrySet()) {
+            sb.append('&').append(param.getKey()).append('=').append(param.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static class Entry {
+        final Integer count;
+        final long expiresAt;
+
+        Entry(Integer count, long expiresAt) {
+            this.count = count;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
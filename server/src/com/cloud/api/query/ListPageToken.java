@@ -0,0 +1,58 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.nio.charset.Charset;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.cloud.exception.InvalidParameterValueException;
+
+/**
+ * Encodes the position of a list command paged with pagetoken. The token carries the id of the
+ * last row returned, the next page continues with the rows of a larger id.
+ */
+public class ListPageToken {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String PREFIX = "id:";
+
+    private ListPageToken() {
+    }
+
+    public static String encode(long lastId) {
+        return Base64.encodeBase64URLSafeString((PREFIX + lastId).getBytes(UTF8));
+    }
+
+    /**
+     * @return the id of the last row of the previous page, or null for an empty token
+     */
+    public static Long decode(String token) {
+        if (token == null || token.trim().isEmpty()) {
+            return null;
+        }
+
+        String decoded = new String(Base64.decodeBase64(token.trim()), UTF8);
+        if (decoded.startsWith(PREFIX)) {
+            try {
+                return Long.valueOf(decoded.substring(PREFIX.length()));
+            } catch (NumberFormatException e) {
+                // fall through to the error below
+            }
+        }
+        throw new InvalidParameterValueException("Invalid page token " + token);
+    }
+}
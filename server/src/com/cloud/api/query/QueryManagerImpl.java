@@ -25,6 +25,7 @@ import java.util.Set;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
+import javax.naming.ConfigurationException;
 
 import org.apache.cloudstack.acl.ControlledEntity.ACLType;
 import org.apache.cloudstack.affinity.AffinityGroupDomainMapVO;
@@ -32,6 +33,7 @@ import org.apache.cloudstack.affinity.AffinityGroupResponse;
 import org.apache.cloudstack.affinity.AffinityGroupVMMapVO;
 import org.apache.cloudstack.affinity.dao.AffinityGroupDomainMapDao;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
+import org.apache.cloudstack.api.BaseListCmd;
 import org.apache.cloudstack.api.BaseListProjectAndAccountResourcesCmd;
 import org.apache.cloudstack.api.ResourceDetail;
 import org.apache.cloudstack.api.ResponseObject.ResponseView;
@@ -122,6 +124,7 @@ import com.cloud.api.query.dao.UserAccountJoinDao;
 import com.cloud.api.query.dao.UserVmJoinDao;
 import com.cloud.api.query.dao.VolumeJoinDao;
 import com.cloud.api.query.vo.AccountJoinVO;
+import com.cloud.api.query.vo.BaseViewVO;
 import com.cloud.api.query.vo.AffinityGroupJoinVO;
 import com.cloud.api.query.vo.AsyncJobJoinVO;
 import com.cloud.api.query.vo.DataCenterJoinVO;
@@ -143,6 +146,7 @@ import com.cloud.api.query.vo.TemplateJoinVO;
 import com.cloud.api.query.vo.UserAccountJoinVO;
 import com.cloud.api.query.vo.UserVmJoinVO;
 import com.cloud.api.query.vo.VolumeJoinVO;
+import com.cloud.configuration.Config;
 import com.cloud.dc.DedicatedResourceVO;
 import com.cloud.dc.dao.DataCenterDetailsDao;
 import com.cloud.dc.dao.DedicatedResourceDao;
@@ -192,10 +196,12 @@ import com.cloud.user.AccountManager;
 import com.cloud.user.DomainManager;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.utils.DateUtil;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Pair;
 import com.cloud.utils.Ternary;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.GenericDao;
 import com.cloud.utils.db.JoinBuilder;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
@@ -360,6 +366,61 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
     @Inject
     DataStoreManager dataStoreManager;
 
+    private final ListCountCache _listCountCache = new ListCountCache(30000);
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        super.configure(name, params);
+        _listCountCache.setTtl(NumbersUtil.parseLong(_configDao.getValue(Config.ListCountCacheTtl.key()), 30) * 1000);
+        return true;
+    }
+
+    /**
+     * Searches one page of a list command. Commands paged with a page token get the rows
+     * following the token in id order, and their total count comes from the count cache
+     * instead of being recounted for every page.
+     */
+    private <T extends BaseViewVO> Pair<List<T>, Integer> searchAndCount(GenericDao<T, Long> dao, SearchCriteria<T> sc, Filter searchFilter, BaseListCmd cmd) {
+        String pageToken = cmd.getPageToken();
+        if (pageToken == null) {
+            return dao.searchAndCount(sc, searchFilter);
+        }
+
+        Long lastId = ListPageToken.decode(pageToken);
+        String countKey = ListCountCache.getKey(CallContext.current().getCallingAccountId(), cmd);
+        Integer count = _listCountCache.get(countKey);
+        if (count == null) {
+            count = dao.getCount(sc);
+            _listCountCache.put(countKey, count);
+        }
+
+        // the search builder is expected to define idGT
+        if (lastId != null) {
+            sc.setParameters("idGT", lastId);
+        }
+        List<T> rows = dao.search(sc, new Filter(dao.getEntityBeanType(), "id", true, 0L, cmd.getPageSizeVal()));
+        return new Pair<List<T>, Integer>(rows, count);
+    }
+
+    private <T extends BaseViewVO> void setNextPageToken(ListResponse<?> response, BaseListCmd cmd, List<T> rows) {
+        Long pageSize = cmd.getPageSizeVal();
+        if (cmd.getPageToken() == null || pageSize == null) {
+            return;
+        }
+
+        // view rows repeat per joined entity, count the distinct ids
+        Set<Long> ids = new HashSet<Long>();
+        long lastId = 0;
+        for (T row : rows) {
+            ids.add(row.getId());
+            lastId = Math.max(lastId, row.getId());
+        }
+        // a short page is the last one
+        if (ids.size() >= pageSize) {
+            response.setNextPageToken(ListPageToken.encode(lastId));
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -478,6 +539,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         ListResponse<EventResponse> response = new ListResponse<EventResponse>();
         List<EventResponse> eventResponses = ViewResponseHelper.createEventResponse(result.first().toArray(new EventJoinVO[result.first().size()]));
         response.setResponses(eventResponses, result.second());
+        setNextPageToken(response, cmd, result.first());
         return response;
     }
 
@@ -517,6 +579,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         sb.and("createDate", sb.entity().getCreateDate(), SearchCriteria.Op.BETWEEN);
         sb.and("displayEvent", sb.entity().getDisplay(), SearchCriteria.Op.EQ);
         sb.and("archived", sb.entity().getArchived(), SearchCriteria.Op.EQ);
+        sb.and("idGT", sb.entity().getId(), SearchCriteria.Op.GT);
 
         SearchCriteria<EventJoinVO> sc = sb.create();
         // building ACL condition
@@ -582,7 +645,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
              * == null) { pendingEvents.add(event); } } return pendingEvents;
              */
         } else {
-            eventPair = _eventJoinDao.searchAndCount(sc, searchFilter);
+            eventPair = searchAndCount(_eventJoinDao, sc, searchFilter, cmd);
         }
         return eventPair;
 
@@ -724,6 +787,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
                 result.first().toArray(new UserVmJoinVO[result.first().size()]));
 
         response.setResponses(vmResponses, result.second());
+        setNextPageToken(response, cmd, result.first());
         return response;
     }
 
@@ -799,6 +863,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
         sb.and("displayName", sb.entity().getDisplayName(), SearchCriteria.Op.LIKE);
         sb.and("idIN", sb.entity().getId(), SearchCriteria.Op.IN);
+        sb.and("idGT", sb.entity().getId(), SearchCriteria.Op.GT);
         sb.and("name", sb.entity().getName(), SearchCriteria.Op.LIKE);
         sb.and("stateEQ", sb.entity().getState(), SearchCriteria.Op.EQ);
         sb.and("stateNEQ", sb.entity().getState(), SearchCriteria.Op.NEQ);
@@ -954,7 +1019,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             sc.setParameters("displayVm", 1);
         }
         // search vm details by ids
-        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = _userVmJoinDao.searchAndCount(sc, searchFilter);
+        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = searchAndCount(_userVmJoinDao, sc, searchFilter, cmd);
         Integer count = uniqueVmPair.second();
         if (count.intValue() == 0) {
             // handle empty result cases
@@ -1634,6 +1699,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             }
         }
         response.setResponses(volumeResponses, result.second());
+        setNextPageToken(response, cmd, result.first());
         return response;
     }
 
@@ -1676,6 +1742,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
         sb.and("name", sb.entity().getName(), SearchCriteria.Op.EQ);
         sb.and("id", sb.entity().getId(), SearchCriteria.Op.EQ);
+        sb.and("idGT", sb.entity().getId(), SearchCriteria.Op.GT);
         sb.and("volumeType", sb.entity().getVolumeType(), SearchCriteria.Op.LIKE);
         sb.and("instanceId", sb.entity().getVmId(), SearchCriteria.Op.EQ);
         sb.and("dataCenterId", sb.entity().getDataCenterId(), SearchCriteria.Op.EQ);
@@ -1763,7 +1830,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         sc.setParameters("state", Volume.State.Destroy);
 
         // search Volume details by ids
-        Pair<List<VolumeJoinVO>, Integer> uniqueVolPair = _volumeJoinDao.searchAndCount(sc, searchFilter);
+        Pair<List<VolumeJoinVO>, Integer> uniqueVolPair = searchAndCount(_volumeJoinDao, sc, searchFilter, cmd);
         Integer count = uniqueVolPair.second();
         if (count.intValue() == 0) {
             // empty result
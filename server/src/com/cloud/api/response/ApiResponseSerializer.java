@@ -66,17 +66,20 @@ public class ApiResponseSerializer {
     private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
 
     public static String unescape(String escaped) {
-        String str = escaped;
-        Matcher matcher = s_unicodeEscapePattern.matcher(str);
+        Matcher matcher = s_unicodeEscapePattern.matcher(escaped);
+        StringBuffer sb = new StringBuffer(escaped.length());
         while (matcher.find()) {
-            str = str.replaceAll("\\" + matcher.group(0), Character.toString((char)Integer.parseInt(matcher.group(1), 16)));
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(Character.toString((char)Integer.parseInt(matcher.group(1), 16))));
         }
-        return str;
+        matcher.appendTail(sb);
+        return sb.toString();
     }
 
     public static String toJSONSerializedString(ResponseObject result) {
         if (result != null) {
-            Gson gson = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+            // the cached Gson does not HTML-escape, so the output no longer needs an unescape pass
+            // and list elements are written straight into the response buffer
+            Gson gson = ApiResponseGsonHelper.getGson();
 
             StringBuilder sb = new StringBuilder();
 
@@ -87,20 +90,21 @@ public class ApiResponseSerializer {
                 boolean nonZeroCount = (count != null && count.longValue() != 0);
                 if (nonZeroCount) {
                     sb.append("{ \"").append(ApiConstants.COUNT).append("\":").append(count);
+                    String nextPageToken = ((ListResponse)result).getNextPageToken();
+                    if (nextPageToken != null) {
+                        sb.append(" ,\"").append(ApiConstants.NEXT_PAGE_TOKEN).append("\":\"").append(nextPageToken).append("\"");
+                    }
                 }
 
                 if ((responses != null) && !responses.isEmpty()) {
-                    String jsonStr = gson.toJson(responses.get(0));
-                    jsonStr = unescape(jsonStr);
-
                     if (nonZeroCount) {
-                        sb.append(" ,\"").append(responses.get(0).getObjectName()).append("\" : [  ").append(jsonStr);
+                        sb.append(" ,\"").append(responses.get(0).getObjectName()).append("\" : [  ");
+                        gson.toJson(responses.get(0), sb);
                     }
 
-                    for (int i = 1; i < ((ListResponse)result).getResponses().size(); i++) {
-                        jsonStr = gson.toJson(responses.get(i));
-                        jsonStr = unescape(jsonStr);
-                        sb.append(", ").append(jsonStr);
+                    for (int i = 1; i < responses.size(); i++) {
+                        sb.append(", ");
+                        gson.toJson(responses.get(i), sb);
                     }
                     sb.append(" ] }");
                 } else {
@@ -113,13 +117,10 @@ public class ApiResponseSerializer {
             } else if (result instanceof SuccessResponse) {
                 sb.append("{ \"success\" : \"").append(((SuccessResponse)result).getSuccess()).append("\"} ");
             } else if (result instanceof ExceptionResponse) {
-                String jsonErrorText = gson.toJson(result);
-                jsonErrorText = unescape(jsonErrorText);
-                sb.append(jsonErrorText);
+                gson.toJson(result, sb);
             } else {
                 String jsonStr = gson.toJson(result);
                 if ((jsonStr != null) && !"".equals(jsonStr)) {
-                    jsonStr = unescape(jsonStr);
                     if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse) {
                         sb.append(jsonStr);
                     } else {
@@ -145,6 +146,10 @@ public class ApiResponseSerializer {
 
             if (count != null && count != 0) {
                 sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
+                String nextPageToken = ((ListResponse)result).getNextPageToken();
+                if (nextPageToken != null) {
+                    sb.append("<").append(ApiConstants.NEXT_PAGE_TOKEN).append(">").append(nextPageToken).append("</").append(ApiConstants.NEXT_PAGE_TOKEN).append(">");
+                }
             }
             List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
             if ((responses != null) && !responses.isEmpty()) {
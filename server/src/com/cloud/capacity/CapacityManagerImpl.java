@@ -20,6 +20,8 @@ import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -76,6 +78,7 @@ import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.StorageManager;
 import com.cloud.storage.VMTemplateStoragePoolVO;
 import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.Volume;
 import com.cloud.storage.VolumeVO;
 import com.cloud.storage.dao.VMTemplatePoolDao;
 import com.cloud.storage.dao.VolumeDao;
@@ -154,12 +157,17 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     private static final String MESSAGE_RESERVED_CAPACITY_FREED_FLAG = "Message.ReservedCapacityFreed.Flag";
 
+    // allocated bytes per primary storage pool, dropped whenever a volume on the pool changes state
+    // and expired after pool.storage.allocated.capacity.cache.ttl to pick up changes made elsewhere
+    private final ConcurrentMap<Long, PoolAllocation> _poolAllocations = new ConcurrentHashMap<Long, PoolAllocation>();
+
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         _vmCapacityReleaseInterval = NumbersUtil.parseInt(_configDao.getValue(Config.CapacitySkipcountingHours.key()), 3600);
 
         _executor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("HostCapacity-Checker"));
         VirtualMachine.State.getStateMachine().registerListener(this);
+        Volume.State.getStateMachine().registerListener(new PoolAllocationInvalidator());
         _agentManager.registerForHostEvents(new StorageCapacityListener(_capacityDao, _storageMgr), true, false, false);
         _agentManager.registerForHostEvents(new ComputeCapacityListener(_capacityDao, this), true, false, false);
 
@@ -542,6 +550,29 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     @Override
     public long getAllocatedPoolCapacity(StoragePoolVO pool, VMTemplateVO templateForVmCreation) {
+        long ttlMs = StorageAllocatedCapacityCacheTtl.value() * 1000L;
+        if (ttlMs <= 0) {
+            return calculateAllocatedPoolCapacity(pool);
+        }
+
+        long now = System.currentTimeMillis();
+        PoolAllocation allocation = _poolAllocations.get(pool.getId());
+        if (allocation != null && now < allocation.expiresAt) {
+            return allocation.allocatedBytes;
+        }
+
+        long allocatedBytes = calculateAllocatedPoolCapacity(pool);
+        _poolAllocations.put(pool.getId(), new PoolAllocation(allocatedBytes, now + ttlMs));
+        return allocatedBytes;
+    }
+
+    protected void invalidateAllocatedPoolCapacity(Long poolId) {
+        if (poolId != null) {
+            _poolAllocations.remove(poolId);
+        }
+    }
+
+    private long calculateAllocatedPoolCapacity(StoragePoolVO pool) {
         long totalAllocatedSize = 0;
 
         // if the storage pool is managed, the used bytes can be larger than the
@@ -560,28 +591,46 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         totalAllocatedSize = totalAllocatedSize + _volumeDao.getVMSnapshotSizeByPool(pool.getId());
 
         // Iterate through all templates on this storage pool
-        boolean tmpinstalled = false;
         List<VMTemplateStoragePoolVO> templatePoolVOs;
         templatePoolVOs = _templatePoolDao.listByPoolId(pool.getId());
 
         for (VMTemplateStoragePoolVO templatePoolVO : templatePoolVOs) {
-            if ((templateForVmCreation != null) && !tmpinstalled && (templatePoolVO.getTemplateId() == templateForVmCreation.getId())) {
-                tmpinstalled = true;
-            }
             long templateSize = templatePoolVO.getTemplateSize();
             totalAllocatedSize += templateSize + _extraBytesPerVolume;
         }
 
-        // Add the size for the templateForVmCreation if its not already present
-        /*
-         * if ((templateForVmCreation != null) && !tmpinstalled) {
-         *
-         * }
-         */
-
         return totalAllocatedSize;
     }
 
+    private static class PoolAllocation {
+        final long allocatedBytes;
+        final long expiresAt;
+
+        PoolAllocation(long allocatedBytes, long expiresAt) {
+            this.allocatedBytes = allocatedBytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Creating, resizing, migrating and destroying a volume all go through volume state
+     * transitions, so dropping the cached allocation of the volume's pool on each one keeps
+     * the allocators from working with stale numbers.
+     */
+    protected class PoolAllocationInvalidator implements StateListener<Volume.State, Volume.Event, Volume> {
+        @Override
+        public boolean preStateTransitionEvent(Volume.State oldState, Volume.Event event, Volume.State newState, Volume vo, boolean status, Object opaque) {
+            invalidateAllocatedPoolCapacity(vo.getPoolId());
+            return true;
+        }
+
+        @Override
+        public boolean postStateTransitionEvent(Volume.State oldState, Volume.Event event, Volume.State newState, Volume vo, boolean status, Object opaque) {
+            invalidateAllocatedPoolCapacity(vo.getPoolId());
+            return true;
+        }
+    }
+
     @DB
     @Override
     public void updateCapacityForHost(final Host host) {
@@ -1067,6 +1116,6 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] {CpuOverprovisioningFactor, MemOverprovisioningFactor, StorageCapacityDisableThreshold, StorageOverprovisioningFactor,
-                StorageAllocatedCapacityDisableThreshold};
+                StorageAllocatedCapacityDisableThreshold, StorageAllocatedCapacityCacheTtl};
     }
 }
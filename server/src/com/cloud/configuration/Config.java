@@ -51,7 +51,12 @@ public enum Config {
             "Alert", ManagementServer.class, Integer.class, "alert.smtp.timeout", "30000", "Socket I/O timeout value in milliseconds. -1 for infinite timeout.", null), AlertSMTPUseAuth(
             "Alert", ManagementServer.class, String.class, "alert.smtp.useAuth", null, "If true, use SMTP authentication when sending emails.", null), AlertSMTPUsername("Alert",
             ManagementServer.class, String.class, "alert.smtp.username", null, "Username for SMTP authentication (applies only if alert.smtp.useAuth is true).", null), CapacityCheckPeriod(
-            "Alert", ManagementServer.class, Integer.class, "capacity.check.period", "300000", "The interval in milliseconds between capacity checks", null), PublicIpCapacityThreshold(
+            "Alert", ManagementServer.class, Integer.class, "capacity.check.period", "3600000",
+            "The interval in milliseconds between full recalculations of all capacities, changed capacities are checked every capacity.alert.check.interval.", null), CapacityAlertCheckInterval(
+            "Alert", ManagementServer.class, Integer.class, "capacity.alert.check.interval", "60",
+            "The interval in seconds between checks of the capacities that changed since the last check, 0 to only check capacity every capacity.check.period.", null), CapacityAlertHysteresis(
+            "Alert", ManagementServer.class, Float.class, "capacity.alert.hysteresis", "0.05",
+            "Capacity alerts are cleared once utilization drops this far (as a value between 0 and 1) below the notification threshold.", null), PublicIpCapacityThreshold(
             "Alert", ManagementServer.class, Float.class, "zone.virtualnetwork.publicip.capacity.notificationthreshold", "0.75",
             "Percentage (as a value between 0 and 1) of public IP address space utilization above which alerts will be sent.", null), PrivateIpCapacityThreshold("Alert",
             ManagementServer.class, Float.class, "pod.privateip.capacity.notificationthreshold", "0.75",
@@ -171,7 +176,11 @@ public enum Config {
             "snapshot.poll.interval", "300", "The time interval in seconds when the management server polls for snapshots to be scheduled.", null), SnapshotDeltaMax("Snapshots",
             SnapshotManager.class, Integer.class, "snapshot.delta.max", "16", "max delta snapshots between two full snapshots.", null), BackupSnapshotAfterTakingSnapshot(
             "Snapshots", SnapshotManager.class, Boolean.class, "snapshot.backup.rightafter", "true", "backup snapshot right after snapshot is taken", null), KVMSnapshotEnabled(
-            "Snapshots", SnapshotManager.class, Boolean.class, "kvm.snapshot.enabled", "false", "whether snapshot is enabled for KVM hosts", null),
+            "Snapshots", SnapshotManager.class, Boolean.class, "kvm.snapshot.enabled", "false", "whether snapshot is enabled for KVM hosts", null), SnapshotScheduleJitter(
+            "Snapshots", SnapshotManager.class, Integer.class, "snapshot.schedule.jitter", "0",
+            "The window in seconds over which recurring snapshots scheduled for the same time are spread, 0 to take them at their scheduled time.", null), SnapshotMaxConcurrentPerPool(
+            "Snapshots", SnapshotManager.class, Integer.class, "snapshot.max.concurrent.per.pool", "0",
+            "The maximum number of recurring snapshots a management server runs at the same time on one primary storage pool, 0 for no limit.", null),
 
     // Advanced
     JobExpireMinutes("Advanced", ManagementServer.class, String.class, "job.expire.minutes", "1440", "Time (in minutes) for async-jobs to be kept in system", null), JobCancelThresholdMinutes(
@@ -189,7 +198,12 @@ public enum Config {
             "Advanced", ManagementServer.class, Integer.class, "extract.url.expiration.interval", "14400", "The life of an extract URL after which it is deleted ", null), HostStatsInterval(
             "Advanced", ManagementServer.class, Integer.class, "host.stats.interval", "60000", "The interval (in milliseconds) when host stats are retrieved from agents.", null), HostRetry(
             "Advanced", AgentManager.class, Integer.class, "host.retry", "2", "Number of times to retry hosts for creating a volume", null), IntegrationAPIPort("Advanced",
-            ManagementServer.class, Integer.class, "integration.api.port", null, "Default API port", null), InvestigateRetryInterval("Advanced", HighAvailabilityManager.class,
+            ManagementServer.class, Integer.class, "integration.api.port", null, "Default API port", null), IntegrationAPIMaxThreads("Advanced",
+            ManagementServer.class, Integer.class, "integration.api.max.threads", "50", "Number of threads serving requests on the integration API port", null), IntegrationAPIQueueSize(
+            "Advanced", ManagementServer.class, Integer.class, "integration.api.queue.size", "100",
+            "Number of integration API connections that may wait for a thread, further connections are answered with 503", null), IntegrationAPIMaxConcurrentPerCommand(
+            "Advanced", ManagementServer.class, Integer.class, "integration.api.max.concurrent.per.command", "0",
+            "Number of requests of the same command the integration API port runs at the same time, 0 means no limit", null), InvestigateRetryInterval("Advanced", HighAvailabilityManager.class,
             Integer.class, "investigate.retry.interval", "60", "Time (in seconds) between VM pings when agent is disconnected", null), MigrateRetryInterval("Advanced",
             HighAvailabilityManager.class, Integer.class, "migrate.retry.interval", "120", "Time (in seconds) between migration retries", null), RouterCpuMHz("Advanced",
             NetworkOrchestrationService.class, Integer.class, "router.cpu.mhz", String.valueOf(VpcVirtualNetworkApplianceManager.DEFAULT_ROUTER_CPU_MHZ),
@@ -198,7 +212,11 @@ public enum Config {
             "300", "Interval (in seconds) to report router statistics.", null), ExternalNetworkStatsInterval("Advanced", NetworkOrchestrationService.class, Integer.class,
             "external.network.stats.interval", "300", "Interval (in seconds) to report external network statistics.", null), RouterCheckInterval("Advanced",
             NetworkOrchestrationService.class, Integer.class, "router.check.interval", "30", "Interval (in seconds) to report redundant router status.", null), RouterCheckPoolSize(
-            "Advanced", NetworkOrchestrationService.class, Integer.class, "router.check.poolsize", "10", "Numbers of threads using to check redundant router status.", null), RouterExtraPublicNics(
+            "Advanced", NetworkOrchestrationService.class, Integer.class, "router.check.poolsize", "10", "Numbers of threads using to check redundant router status.", null), RouterStatsPoolSize(
+            "Advanced", NetworkOrchestrationService.class, Integer.class, "router.stats.poolsize", "10",
+            "Number of threads collecting router statistics in parallel, each thread handles the routers of one host at a time.", null), RouterStatsTimeout(
+            "Advanced", NetworkOrchestrationService.class, Integer.class, "router.stats.timeout", "60",
+            "Time (in seconds) to wait for the statistics of a single router before giving up on it.", "Seconds"), RouterExtraPublicNics(
             "Advanced", NetworkOrchestrationService.class, Integer.class, "router.extra.public.nics", "2", "specify extra public nics used for virtual router(up to 5)", "0-5"), ScaleRetry(
             "Advanced", ManagementServer.class, Integer.class, "scale.retry", "2", "Number of times to retry scaling up the vm", null), StopRetryInterval("Advanced",
             HighAvailabilityManager.class, Integer.class, "stop.retry.interval", "600", "Time in seconds between retries to stop or destroy a vm", null), StorageCleanupInterval(
@@ -373,7 +391,9 @@ public enum Config {
             ManagementServer.class, Boolean.class, "enable.usage.server", "true", "Flag for enabling usage", null), DirectNetworkStatsInterval("Usage", ManagementServer.class,
             Integer.class, "direct.network.stats.interval", "86400", "Interval (in seconds) to collect stats from Traffic Monitor", null), UsageSanityCheckInterval("Usage",
             ManagementServer.class, Integer.class, "usage.sanity.check.interval", null, "Interval (in days) to check sanity of usage data", null), UsageAggregationTimezone(
-            "Usage", ManagementServer.class, String.class, "usage.aggregation.timezone", "GMT", "The timezone to use for usage stats aggregation", null), TrafficSentinelIncludeZones(
+            "Usage", ManagementServer.class, String.class, "usage.aggregation.timezone", "GMT", "The timezone to use for usage stats aggregation", null), UsageStatsJobParseThreads(
+            "Usage", ManagementServer.class, Integer.class, "usage.stats.job.parse.threads", "1",
+            "The number of threads the usage job uses to parse accounts concurrently, 1 parses all accounts in a single transaction", null), TrafficSentinelIncludeZones(
             "Usage", ManagementServer.class, Integer.class, "traffic.sentinel.include.zones", "EXTERNAL",
             "Traffic going into specified list of zones is metered. For metering all traffic leave this parameter empty", null), TrafficSentinelExcludeZones("Usage",
             ManagementServer.class, Integer.class, "traffic.sentinel.exclude.zones", "", "Traffic going into specified list of zones is not metered.", null),
@@ -392,6 +412,10 @@ public enum Config {
     RouterRamSize("Hidden", NetworkOrchestrationService.class, Integer.class, "router.ram.size", "128", "Default RAM for router VM (in MB).", null),
 
     DefaultPageSize("Advanced", ManagementServer.class, Long.class, "default.page.size", "500", "Default page size for API list* commands", null),
+    ListCountCacheTtl("Advanced", ManagementServer.class, Integer.class, "list.count.cache.ttl", "30",
+            "Time (in seconds) the total count of a list* command paged with pagetoken is reused for the same caller and filter. 0 recounts on every page.", "Seconds"),
+    ApiCredentialCacheTtl("Advanced", ManagementServer.class, Integer.class, "api.credential.cache.ttl", "30",
+            "Time (in seconds) the user and account behind an API key are reused to verify signed API requests. 0 looks them up on every request.", "Seconds"),
 
     TaskCleanupRetryInterval("Advanced", ManagementServer.class, Integer.class, "task.cleanup.retry.interval", "600",
             "Time (in seconds) to wait before retrying cleanup of tasks if the cleanup failed previously.  0 means to never retry.", "Seconds"),
@@ -0,0 +1,240 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.cloud.ha.HighAvailabilityManager.WorkType;
+import com.cloud.vm.VirtualMachine;
+
+/**
+ * HaWorkQueue hands HA work items scheduled on this management server to the
+ * workers as soon as they are scheduled, so the workers do not have to find
+ * them by polling op_ha_work.
+ *
+ * The table stays the durable record. An entry only tells a worker which row
+ * to claim. Some work never reaches this queue:
+ * - work scheduled by other management servers;
+ * - work released when a management server leaves the cluster;
+ * - work dropped because the queue was full.
+ * The workers find that work by scanning the table when the queue has nothing
+ * ready for them.
+ *
+ * Entries that are due are handed out in order of work type (restarts first),
+ * then system VMs before user VMs, then the time they became due.
+ */
+class HaWorkQueue {
+    static final int MAX_ENTRIES = 10000;
+
+    private static final Comparator<Entry> DUE_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            if (e1.timeToTry != e2.timeToTry) {
+                return e1.timeToTry < e2.timeToTry ? -1 : 1;
+            }
+            return e1.workId < e2.workId ? -1 : (e1.workId == e2.workId ? 0 : 1);
+        }
+    };
+
+    private static final Comparator<Entry> PRIORITY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int result = rank(e1.workType) - rank(e2.workType);
+            if (result == 0) {
+                result = rank(e1.vmType) - rank(e2.vmType);
+            }
+            return result != 0 ? result : DUE_ORDER.compare(e1, e2);
+        }
+    };
+
+    private final PriorityQueue<Entry> _delayed = new PriorityQueue<Entry>(11, DUE_ORDER);
+    private final PriorityQueue<Entry> _ready = new PriorityQueue<Entry>(11, PRIORITY_ORDER);
+    private final Set<Long> _queued = new HashSet<Long>();
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _changed = _lock.newCondition();
+    private long _wakeups;
+
+    static int rank(WorkType type) {
+        switch (type) {
+        case HA:
+            return 0;
+        case ForceStop:
+        case Stop:
+        case CheckStop:
+            return 1;
+        case Migration:
+            return 2;
+        default:
+            return 3;
+        }
+    }
+
+    static int rank(VirtualMachine.Type type) {
+        if (type == null) {
+            return 2;
+        }
+        switch (type) {
+        case DomainRouter:
+        case InternalLoadBalancerVm:
+            return 0;
+        case ConsoleProxy:
+        case SecondaryStorageVm:
+            return 1;
+        default:
+            return 2;
+        }
+    }
+
+    /**
+     * Queues a persisted work item, to be handed out once its time to try is
+     * reached.
+     *
+     * @return false if the item is already queued or the queue is full, in
+     *         which case the workers will find it in the table instead.
+     */
+    boolean offer(HaWorkVO work) {
+        _lock.lock();
+        try {
+            if (_queued.size() >= MAX_ENTRIES || !_queued.add(work.getId())) {
+                return false;
+            }
+            _delayed.add(new Entry(work.getId(), work.getWorkType(), work.getType(), work.getTimeToTry()));
+            _changed.signal();
+            return true;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return the most important entry that is due, or null if there is none
+     */
+    Entry poll() {
+        _lock.lock();
+        try {
+            promoteDue(currentTime());
+            Entry entry = _ready.poll();
+            if (entry != null) {
+                _queued.remove(entry.workId);
+            }
+            return entry;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until an entry is due, {@link #wakeup()} is called or the timeout
+     * passes, whichever comes first.
+     */
+    void await(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        _lock.lock();
+        try {
+            long wakeups = _wakeups;
+            while (wakeups == _wakeups) {
+                long now = System.currentTimeMillis();
+                promoteDue(now >> 10);
+                if (!_ready.isEmpty() || now >= deadline) {
+                    return;
+                }
+
+                long waitMs = deadline - now;
+                Entry next = _delayed.peek();
+                if (next != null) {
+                    waitMs = Math.min(waitMs, Math.max((next.timeToTry << 10) - now, 1));
+                }
+                _changed.await(waitMs, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Makes all waiting workers return, e.g. to scan the table after work was
+     * released by a management server that left the cluster.
+     */
+    void wakeup() {
+        _lock.lock();
+        try {
+            _wakeups++;
+            _changed.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    int size() {
+        _lock.lock();
+        try {
+            return _queued.size();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    void clear() {
+        _lock.lock();
+        try {
+            _delayed.clear();
+            _ready.clear();
+            _queued.clear();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void promoteDue(long now) {
+        while (!_delayed.isEmpty() && _delayed.peek().timeToTry <= now) {
+            _ready.add(_delayed.poll());
+        }
+    }
+
+    private static long currentTime() {
+        return System.currentTimeMillis() >> 10;
+    }
+
+    static class Entry {
+        final long workId;
+        final WorkType workType;
+        final VirtualMachine.Type vmType;
+        final long timeToTry;
+
+        Entry(long workId, WorkType workType, VirtualMachine.Type vmType, long timeToTry) {
+            this.workId = workId;
+            this.workType = workType;
+            this.vmType = vmType;
+            this.timeToTry = timeToTry;
+        }
+
+        public long getWorkId() {
+            return workId;
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder("HaWorkQueue.Entry[").append(workId).append("-").append(workType).append("-").append(vmType).append("]").toString();
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -83,7 +84,9 @@ import com.cloud.vm.dao.VMInstanceDao;
  * HighAvailabilityManagerImpl coordinates the HA process. VMs are registered
  * with the HA Manager for HA. The request is stored within a database backed
  * work queue. HAManager has a number of workers that pick up these work items
- * to perform HA on the VMs.
+ * to perform HA on the VMs. Work scheduled on this management server is also
+ * handed to the workers through an in-memory {@link HaWorkQueue}; the table is
+ * scanned when that queue has nothing ready.
  *
  * The HA process goes as follows: 1. Check with the list of Investigators to
  * determine that the VM is no longer running. If a Investigator finds the VM is
@@ -117,6 +120,10 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     WorkerThread[] _workers;
     boolean _stopped;
     long _timeToSleep;
+    final HaWorkQueue _workQueue = new HaWorkQueue();
+    private final AtomicLongArray _completedWork = new AtomicLongArray(WorkType.values().length);
+    private final AtomicLongArray _completedWorkMs = new AtomicLongArray(WorkType.values().length);
+    private final AtomicLongArray _maxCompletedWorkMs = new AtomicLongArray(WorkType.values().length);
     @Inject
     HighAvailabilityDao _haDao;
     @Inject
@@ -297,25 +304,31 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         }
 
         HaWorkVO work = new HaWorkVO(vm.getId(), vm.getType(), type, Step.Scheduled, hostId, vm.getState(), 0, vm.getUpdated());
-        _haDao.persist(work);
+        queueWork(_haDao.persist(work));
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Scheduled " + work);
         }
-        wakeupWorkers();
     }
 
-    protected void wakeupWorkers() {
-        for (WorkerThread worker : _workers) {
-            worker.wakup();
+    /**
+     * Hands newly persisted work to the workers. If it cannot be queued, the
+     * workers are woken up to find it in the table.
+     */
+    protected void queueWork(HaWorkVO work) {
+        if (work == null || !_workQueue.offer(work)) {
+            wakeupWorkers();
         }
     }
 
+    protected void wakeupWorkers() {
+        _workQueue.wakeup();
+    }
+
     @Override
     public boolean scheduleMigration(final VMInstanceVO vm) {
         if (vm.getHostId() != null) {
             final HaWorkVO work = new HaWorkVO(vm.getId(), vm.getType(), WorkType.Migration, Step.Scheduled, vm.getHostId(), vm.getState(), 0, vm.getUpdated());
-            _haDao.persist(work);
-            wakeupWorkers();
+            queueWork(_haDao.persist(work));
         }
         return true;
     }
@@ -404,14 +417,11 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
 
         HaWorkVO work = new HaWorkVO(vm.getId(), vm.getType(), WorkType.HA, investigate ? Step.Investigating : Step.Scheduled, hostId != null ? hostId : 0L, vm.getState(),
                 maxRetries + 1, vm.getUpdated());
-        _haDao.persist(work);
+        queueWork(_haDao.persist(work));
 
         if (s_logger.isInfoEnabled()) {
             s_logger.info("Schedule vm for HA:  " + vm);
         }
-
-        wakeupWorkers();
-
     }
 
     protected Long restart(HaWorkVO work) {
@@ -648,11 +658,10 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     @Override
     public void scheduleDestroy(VMInstanceVO vm, long hostId) {
         final HaWorkVO work = new HaWorkVO(vm.getId(), vm.getType(), WorkType.Destroy, Step.Scheduled, hostId, vm.getState(), 0, vm.getUpdated());
-        _haDao.persist(work);
+        queueWork(_haDao.persist(work));
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Scheduled " + work.toString());
         }
-        wakeupWorkers();
     }
 
     @Override
@@ -834,6 +843,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         _stopped = true;
 
         wakeupWorkers();
+        _workQueue.clear();
 
         _executor.shutdown();
 
@@ -850,6 +860,13 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
             } catch (Exception e) {
                 s_logger.warn("Error while cleaning up", e);
             }
+
+            for (WorkType type : WorkType.values()) {
+                if (getCompletedWorkCount(type) > 0) {
+                    s_logger.info("Completed " + getCompletedWorkCount(type) + " " + type + " work items, average " + getAverageWorkLatencyMs(type) + " ms, max "
+                            + getMaxWorkLatencyMs(type) + " ms from scheduling to completion");
+                }
+            }
         }
     }
 
@@ -875,13 +892,21 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         private void runWithContext() {
             HaWorkVO work = null;
             try {
-                s_logger.trace("Checking the database");
-                work = _haDao.take(_serverId);
+                final HaWorkQueue.Entry entry = _workQueue.poll();
+                if (entry != null) {
+                    work = _haDao.take(entry.getWorkId(), _serverId);
+                    if (work == null) {
+                        // taken by another worker, cancelled or rescheduled in the meantime
+                        s_logger.trace("Skipping " + entry);
+                        return;
+                    }
+                } else {
+                    s_logger.trace("Checking the database");
+                    work = _haDao.take(_serverId);
+                }
                 if (work == null) {
                     try {
-                        synchronized (this) {
-                            wait(_timeToSleep);
-                        }
+                        _workQueue.await(_timeToSleep);
                         return;
                     } catch (final InterruptedException e) {
                         s_logger.info("Interrupted");
@@ -892,6 +917,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
                 NDC.push("work-" + work.getId());
                 s_logger.info("Processing " + work);
 
+                boolean rescheduled = true;
                 try {
                     final WorkType wt = work.getWorkType();
                     Long nextTime = null;
@@ -911,6 +937,8 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
                     if (nextTime == null) {
                         s_logger.info("Completed " + work);
                         work.setStep(Step.Done);
+                        rescheduled = false;
+                        recordCompleted(work);
                     } else {
                         s_logger.info("Rescheduling " + work + " to try again at " + new Date(nextTime << 10));
                         work.setTimeToTry(nextTime);
@@ -936,6 +964,9 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
                     work.setPreviousState(vm.getState());
                 }
                 _haDao.update(work.getId(), work);
+                if (rescheduled) {
+                    _workQueue.offer(work);
+                }
             } catch (final Throwable th) {
                 s_logger.error("Caught this throwable, ", th);
             } finally {
@@ -944,12 +975,46 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
                 }
             }
         }
+    }
 
-        public synchronized void wakup() {
-            notifyAll();
+    private void recordCompleted(HaWorkVO work) {
+        if (work.getCreated() == null) {
+            return;
+        }
+        final int type = work.getWorkType().ordinal();
+        final long latency = System.currentTimeMillis() - work.getCreated().getTime();
+        _completedWork.incrementAndGet(type);
+        _completedWorkMs.addAndGet(type, latency);
+        long max = _maxCompletedWorkMs.get(type);
+        while (latency > max && !_maxCompletedWorkMs.compareAndSet(type, max, latency)) {
+            max = _maxCompletedWorkMs.get(type);
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug(work + " completed " + latency + " ms after it was scheduled");
         }
     }
 
+    public long getCompletedWorkCount(WorkType type) {
+        return _completedWork.get(type.ordinal());
+    }
+
+    /**
+     * @return average time from scheduling to completion of the work items of
+     *         this type completed by this management server
+     */
+    public long getAverageWorkLatencyMs(WorkType type) {
+        final long count = _completedWork.get(type.ordinal());
+        return count == 0 ? 0 : _completedWorkMs.get(type.ordinal()) / count;
+    }
+
+    public long getMaxWorkLatencyMs(WorkType type) {
+        return _maxCompletedWorkMs.get(type.ordinal());
+    }
+
+    public int getQueuedWorkCount() {
+        return _workQueue.size();
+    }
+
     @Override
     public void onManagementNodeJoined(List<? extends ManagementServerHost> nodeList, long selfNodeId) {
     }
@@ -959,6 +1024,8 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         for (ManagementServerHost node : nodeList) {
             _haDao.releaseWorkItems(node.getMsid());
         }
+        // the released items are only in the table, let the workers pick them up now
+        wakeupWorkers();
     }
 
     @Override
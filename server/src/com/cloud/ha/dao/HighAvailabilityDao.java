@@ -33,6 +33,18 @@ public interface HighAvailabilityDao extends GenericDao<HaWorkVO, Long> {
      */
     HaWorkVO take(long serverId);
 
+    /**
+     * Takes a specific HA work item if it is still available.
+     *
+     * @param workId
+     *            work item to take.
+     * @param serverId
+     *            server that is taking this.
+     * @return WorkVO if it could be taken; null if it is gone, already taken
+     *         or not due yet.
+     */
+    HaWorkVO take(long workId, long serverId);
+
     /**
      * Finds all the work items related to this instance.
      *
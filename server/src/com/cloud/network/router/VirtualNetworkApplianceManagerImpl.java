@@ -22,6 +22,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -34,11 +35,16 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -258,6 +264,7 @@ import com.cloud.utils.db.JoinBuilder;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
+import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
@@ -416,6 +423,11 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
     String _mgmtCidr;
 
     int _routerStatsInterval = 300;
+    int _routerStatsPoolSize = 10;
+    int _routerStatsTimeout = 60;
+    private static final int USER_STATS_UPDATE_BATCH_SIZE = 100;
+    private volatile long _lastNetworkUsageSweepMs;
+    private final AtomicLong _networkUsageFailures = new AtomicLong();
     int _routerCheckInterval = 30;
     int _rvrStatusUpdatePoolSize = 10;
     protected ServiceOfferingVO _offering;
@@ -437,6 +449,7 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
     ScheduledExecutorService _executor;
     ScheduledExecutorService _checkExecutor;
     ScheduledExecutorService _networkStatsUpdateExecutor;
+    ExecutorService _networkStatsCollector;
     ExecutorService _rvrStatusUpdateExecutor;
 
     Account _systemAcct;
@@ -720,6 +733,13 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
         value = configs.get("router.stats.interval");
         _routerStatsInterval = NumbersUtil.parseInt(value, 300);
 
+        value = configs.get("router.stats.poolsize");
+        _routerStatsPoolSize = NumbersUtil.parseInt(value, 10);
+        _networkStatsCollector = Executors.newFixedThreadPool(Math.max(_routerStatsPoolSize, 1), new NamedThreadFactory("RouterStatsCollector"));
+
+        value = configs.get("router.stats.timeout");
+        _routerStatsTimeout = NumbersUtil.parseInt(value, 60);
+
         value = configs.get("router.check.interval");
         _routerCheckInterval = NumbersUtil.parseInt(value, 30);
 
@@ -856,16 +876,17 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
     protected VirtualNetworkApplianceManagerImpl() {
     }
 
-    private VmDataCommand generateVmDataCommand(final VirtualRouter router, final String vmPrivateIpAddress, final String userData, final String serviceOffering,
+    private VmDataCommand generateVmDataCommand(final RouterCommandContext context, final String vmPrivateIpAddress, final String userData, final String serviceOffering,
             final String zoneName, final String guestIpAddress, final String vmName, final String vmInstanceName, final long vmId, final String vmUuid, final String publicKey,
             final long guestNetworkId) {
+        final VirtualRouter router = context.router;
         final VmDataCommand cmd = new VmDataCommand(vmPrivateIpAddress, vmName, _networkModel.getExecuteInSeqNtwkElmtCmd());
 
-        cmd.setAccessDetail(NetworkElementCommand.ROUTER_IP, getRouterControlIp(router.getId()));
-        cmd.setAccessDetail(NetworkElementCommand.ROUTER_GUEST_IP, getRouterIpInNetwork(guestNetworkId, router.getId()));
+        cmd.setAccessDetail(NetworkElementCommand.ROUTER_IP, context.getRouterControlIp());
+        cmd.setAccessDetail(NetworkElementCommand.ROUTER_GUEST_IP, context.getRouterIpInNetwork(guestNetworkId));
         cmd.setAccessDetail(NetworkElementCommand.ROUTER_NAME, router.getInstanceName());
 
-        final DataCenterVO dcVo = _dcDao.findById(router.getDataCenterId());
+        final DataCenterVO dcVo = context.dc;
         cmd.setAccessDetail(NetworkElementCommand.ZONE_NETWORK_TYPE, dcVo.getNetworkType().toString());
 
         cmd.addVmData("userdata", "user-data", userData);
@@ -890,16 +911,70 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
             setVmInstanceId(vmUuid, cmd);
         }
         cmd.addVmData("metadata", "public-keys", publicKey);
+        cmd.addVmData("metadata", "cloud-identifier", context.getCloudIdentifier());
 
-        String cloudIdentifier = _configDao.getValue("cloud.identifier");
-        if (cloudIdentifier == null) {
-            cloudIdentifier = "";
-        } else {
-            cloudIdentifier = "CloudStack-{" + cloudIdentifier + "}";
+        return cmd;
+    }
+
+    /**
+     * Values shared by the dhcp and vm data commands sent to one router. They are looked up once, so
+     * that reprogramming a router with many VMs does not repeat the same queries for every VM.
+     */
+    private class RouterCommandContext {
+        final VirtualRouter router;
+        final DataCenterVO dc;
+        private String _routerControlIp;
+        private String _cloudIdentifier;
+        private final Map<Long, String> _routerIps = new HashMap<Long, String>();
+        private final Map<String, NicVO> _dnsNics = new HashMap<String, NicVO>();
+        private final Map<Long, String> _serviceOfferings = new HashMap<Long, String>();
+
+        RouterCommandContext(final VirtualRouter router) {
+            this.router = router;
+            dc = _dcDao.findById(router.getDataCenterId());
         }
-        cmd.addVmData("metadata", "cloud-identifier", cloudIdentifier);
 
-        return cmd;
+        String getRouterControlIp() {
+            if (_routerControlIp == null) {
+                _routerControlIp = VirtualNetworkApplianceManagerImpl.this.getRouterControlIp(router.getId());
+            }
+            return _routerControlIp;
+        }
+
+        String getRouterIpInNetwork(final long networkId) {
+            if (!_routerIps.containsKey(networkId)) {
+                _routerIps.put(networkId, VirtualNetworkApplianceManagerImpl.this.getRouterIpInNetwork(networkId, router.getId()));
+            }
+            return _routerIps.get(networkId);
+        }
+
+        String getCloudIdentifier() {
+            if (_cloudIdentifier == null) {
+                final String cloudIdentifier = _configDao.getValue("cloud.identifier");
+                _cloudIdentifier = cloudIdentifier == null ? "" : "CloudStack-{" + cloudIdentifier + "}";
+            }
+            return _cloudIdentifier;
+        }
+
+        String getServiceOffering(final UserVm vm) {
+            if (!_serviceOfferings.containsKey(vm.getServiceOfferingId())) {
+                _serviceOfferings.put(vm.getServiceOfferingId(), _serviceOfferingDao.findByIdIncludingRemoved(vm.getId(), vm.getServiceOfferingId()).getDisplayText());
+            }
+            return _serviceOfferings.get(vm.getServiceOfferingId());
+        }
+
+        NicVO getDefaultDnsNic(final NicVO defaultNic) {
+            final String key = defaultNic.getNetworkId() + "/" + defaultNic.getGateway();
+            if (_dnsNics.containsKey(key)) {
+                return _dnsNics.get(key);
+            }
+            final NicVO dnsNic = findDefaultDnsIp(defaultNic);
+            // with redundant routers the VM's own default nic is returned, which is not shared with other VMs
+            if (dnsNic == null || dnsNic.getId() != defaultNic.getId()) {
+                _dnsNics.put(key, dnsNic);
+            }
+            return dnsNic;
+        }
     }
 
     private void setVmInstanceId(final String vmUuid, final VmDataCommand cmd) {
@@ -920,105 +995,245 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
         @Override
         protected void runInContext() {
             try {
+                final long sweepStart = System.currentTimeMillis();
                 final List<DomainRouterVO> routers = _routerDao.listByStateAndNetworkType(State.Running, GuestType.Isolated, mgmtSrvrId);
                 s_logger.debug("Found " + routers.size() + " running routers. ");
 
+                // one shard per host, a slow or unreachable host only delays its own routers
+                final Map<Long, List<DomainRouterVO>> routersByHost = new HashMap<Long, List<DomainRouterVO>>();
                 for (final DomainRouterVO router : routers) {
-                    final String privateIP = router.getPrivateIpAddress();
-
-                    if (privateIP != null) {
-                        final boolean forVpc = router.getVpcId() != null;
-                        final List<? extends Nic> routerNics = _nicDao.listByVmId(router.getId());
-                        for (final Nic routerNic : routerNics) {
-                            final Network network = _networkModel.getNetwork(routerNic.getNetworkId());
-                            // Send network usage command for public nic in VPC
-                            // VR
-                            // Send network usage command for isolated guest nic
-                            // of non VPC VR
-                            if ((forVpc && network.getTrafficType() == TrafficType.Public)
-                                    || (!forVpc && network.getTrafficType() == TrafficType.Guest && network.getGuestType() == Network.GuestType.Isolated)) {
-                                final NetworkUsageCommand usageCmd = new NetworkUsageCommand(privateIP, router.getHostName(), forVpc, routerNic.getIp4Address());
-                                final String routerType = router.getType().toString();
-                                final UserStatisticsVO previousStats = _userStatsDao.findBy(router.getAccountId(), router.getDataCenterId(), network.getId(),
-                                        (forVpc ? routerNic.getIp4Address() : null), router.getId(), routerType);
-                                NetworkUsageAnswer answer = null;
-                                try {
-                                    answer = (NetworkUsageAnswer)_agentMgr.easySend(router.getHostId(), usageCmd);
-                                } catch (final Exception e) {
-                                    s_logger.warn("Error while collecting network stats from router: " + router.getInstanceName() + " from host: " + router.getHostId(), e);
-                                    continue;
-                                }
+                    if (router.getPrivateIpAddress() == null || router.getHostId() == null) {
+                        continue;
+                    }
+                    List<DomainRouterVO> hostRouters = routersByHost.get(router.getHostId());
+                    if (hostRouters == null) {
+                        hostRouters = new ArrayList<DomainRouterVO>();
+                        routersByHost.put(router.getHostId(), hostRouters);
+                    }
+                    hostRouters.add(router);
+                }
 
-                                if (answer != null) {
-                                    if (!answer.getResult()) {
-                                        s_logger.warn("Error while collecting network stats from router: " + router.getInstanceName() + " from host: " + router.getHostId()
-                                                + "; details: " + answer.getDetails());
-                                        continue;
-                                    }
-                                    try {
-                                        if ((answer.getBytesReceived() == 0) && (answer.getBytesSent() == 0)) {
-                                            s_logger.debug("Recieved and Sent bytes are both 0. Not updating user_statistics");
-                                            continue;
-                                        }
-                                        final NetworkUsageAnswer answerFinal = answer;
-                                        Transaction.execute(new TransactionCallbackNoReturn() {
-                                            @Override
-                                            public void doInTransactionWithoutResult(final TransactionStatus status) {
-                                                final UserStatisticsVO stats = _userStatsDao.lock(router.getAccountId(), router.getDataCenterId(), network.getId(),
-                                                        (forVpc ? routerNic.getIp4Address() : null), router.getId(), routerType);
-                                                if (stats == null) {
-                                                    s_logger.warn("unable to find stats for account: " + router.getAccountId());
-                                                    return;
-                                                }
-
-                                                if (previousStats != null
-                                                        && ((previousStats.getCurrentBytesReceived() != stats.getCurrentBytesReceived()) || (previousStats.getCurrentBytesSent() != stats
-                                                                .getCurrentBytesSent()))) {
-                                                    s_logger.debug("Router stats changed from the time NetworkUsageCommand was sent. " + "Ignoring current answer. Router: "
-                                                            + answerFinal.getRouterName() + " Rcvd: " + answerFinal.getBytesReceived() + "Sent: " + answerFinal.getBytesSent());
-                                                    return;
-                                                }
-
-                                                if (stats.getCurrentBytesReceived() > answerFinal.getBytesReceived()) {
-                                                    if (s_logger.isDebugEnabled()) {
-                                                        s_logger.debug("Received # of bytes that's less than the last one.  "
-                                                                + "Assuming something went wrong and persisting it. Router: " + answerFinal.getRouterName() + " Reported: "
-                                                                + answerFinal.getBytesReceived() + " Stored: " + stats.getCurrentBytesReceived());
-                                                    }
-                                                    stats.setNetBytesReceived(stats.getNetBytesReceived() + stats.getCurrentBytesReceived());
-                                                }
-                                                stats.setCurrentBytesReceived(answerFinal.getBytesReceived());
-                                                if (stats.getCurrentBytesSent() > answerFinal.getBytesSent()) {
-                                                    if (s_logger.isDebugEnabled()) {
-                                                        s_logger.debug("Received # of bytes that's less than the last one.  "
-                                                                + "Assuming something went wrong and persisting it. Router: " + answerFinal.getRouterName() + " Reported: "
-                                                                + answerFinal.getBytesSent() + " Stored: " + stats.getCurrentBytesSent());
-                                                    }
-                                                    stats.setNetBytesSent(stats.getNetBytesSent() + stats.getCurrentBytesSent());
-                                                }
-                                                stats.setCurrentBytesSent(answerFinal.getBytesSent());
-                                                if (!_dailyOrHourly) {
-                                                    // update agg bytes
-                                                    stats.setAggBytesSent(stats.getNetBytesSent() + stats.getCurrentBytesSent());
-                                                    stats.setAggBytesReceived(stats.getNetBytesReceived() + stats.getCurrentBytesReceived());
-                                                }
-                                                _userStatsDao.update(stats.getId(), stats);
-                                            }
-                                        });
-
-                                    } catch (final Exception e) {
-                                        s_logger.warn("Unable to update user statistics for account: " + router.getAccountId() + " Rx: " + answer.getBytesReceived() + "; Tx: "
-                                                + answer.getBytesSent());
-                                    }
-                                }
-                            }
+                final AtomicInteger updated = new AtomicInteger();
+                final AtomicInteger failures = new AtomicInteger();
+                // a sweep must not run into the next one, shards still running at the next interval are abandoned
+                final int abandonedShards = collectNetworkUsage(routersByHost.values(), sweepStart + _routerStatsInterval * 1000L, updated, failures);
+
+                _lastNetworkUsageSweepMs = System.currentTimeMillis() - sweepStart;
+                _networkUsageFailures.addAndGet(failures.get());
+                s_logger.info("Collected network usage from " + routers.size() + " routers on " + routersByHost.size() + " hosts in " + _lastNetworkUsageSweepMs
+                        + " ms; updated " + updated.get() + " user statistics, " + failures.get() + " routers failed, " + abandonedShards + " hosts timed out");
+            } catch (final Exception e) {
+                s_logger.warn("Error while collecting network stats", e);
+            }
+        }
+    }
+
+    /**
+     * Collects the network usage of the routers on the RouterStatsCollector pool, one shard per host. Each shard
+     * writes its readings to user_statistics as soon as its routers are done, so a slow host does not hold back
+     * the readings of the others.
+     * @return number of shards still running at the deadline, they are cancelled and their readings discarded
+     */
+    protected int collectNetworkUsage(final Collection<List<DomainRouterVO>> routersByHost, final long deadline, final AtomicInteger updated, final AtomicInteger failures)
+            throws InterruptedException {
+        final List<Future<?>> shards = new ArrayList<Future<?>>();
+        for (final List<DomainRouterVO> hostRouters : routersByHost) {
+            shards.add(_networkStatsCollector.submit(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    final List<NetworkUsageReading> readings = new ArrayList<NetworkUsageReading>();
+                    for (final DomainRouterVO router : hostRouters) {
+                        if (!collectNetworkUsage(router, readings)) {
+                            failures.incrementAndGet();
                         }
                     }
+                    updated.addAndGet(updateUserStatistics(readings));
+                }
+            }));
+        }
+
+        int abandonedShards = 0;
+        for (final Future<?> shard : shards) {
+            try {
+                shard.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            } catch (final TimeoutException e) {
+                shard.cancel(true);
+                abandonedShards++;
+            } catch (final ExecutionException e) {
+                s_logger.warn("Error while collecting network stats", e.getCause());
+            }
+        }
+        return abandonedShards;
+    }
+
+    /**
+     * Answer of one router nic together with the statistics row it was read against
+     */
+    static class NetworkUsageReading {
+        final DomainRouterVO router;
+        final Network network;
+        final String nicIp;
+        final UserStatisticsVO previousStats;
+        final NetworkUsageAnswer answer;
+
+        NetworkUsageReading(final DomainRouterVO router, final Network network, final String nicIp, final UserStatisticsVO previousStats, final NetworkUsageAnswer answer) {
+            this.router = router;
+            this.network = network;
+            this.nicIp = nicIp;
+            this.previousStats = previousStats;
+            this.answer = answer;
+        }
+    }
+
+    /**
+     * Sends the network usage commands for the nics of a router
+     * @return false if any nic of the router could not be queried
+     */
+    protected boolean collectNetworkUsage(final DomainRouterVO router, final List<NetworkUsageReading> readings) {
+        final String privateIP = router.getPrivateIpAddress();
+        final boolean forVpc = router.getVpcId() != null;
+        boolean collected = true;
+        final List<? extends Nic> routerNics = _nicDao.listByVmId(router.getId());
+        for (final Nic routerNic : routerNics) {
+            final Network network = _networkModel.getNetwork(routerNic.getNetworkId());
+            // Send network usage command for public nic in VPC
+            // VR
+            // Send network usage command for isolated guest nic
+            // of non VPC VR
+            if ((forVpc && network.getTrafficType() == TrafficType.Public)
+                    || (!forVpc && network.getTrafficType() == TrafficType.Guest && network.getGuestType() == Network.GuestType.Isolated)) {
+                final NetworkUsageCommand usageCmd = new NetworkUsageCommand(privateIP, router.getHostName(), forVpc, routerNic.getIp4Address());
+                usageCmd.setWait(_routerStatsTimeout);
+                final String nicIp = forVpc ? routerNic.getIp4Address() : null;
+                final UserStatisticsVO previousStats = _userStatsDao.findBy(router.getAccountId(), router.getDataCenterId(), network.getId(), nicIp, router.getId(),
+                        router.getType().toString());
+                NetworkUsageAnswer answer = null;
+                try {
+                    answer = (NetworkUsageAnswer)_agentMgr.easySend(router.getHostId(), usageCmd);
+                } catch (final Exception e) {
+                    s_logger.warn("Error while collecting network stats from router: " + router.getInstanceName() + " from host: " + router.getHostId(), e);
+                    collected = false;
+                    continue;
+                }
+
+                if (answer != null) {
+                    if (!answer.getResult()) {
+                        s_logger.warn("Error while collecting network stats from router: " + router.getInstanceName() + " from host: " + router.getHostId() + "; details: "
+                                + answer.getDetails());
+                        collected = false;
+                        continue;
+                    }
+                    if ((answer.getBytesReceived() == 0) && (answer.getBytesSent() == 0)) {
+                        s_logger.debug("Recieved and Sent bytes are both 0. Not updating user_statistics");
+                        continue;
+                    }
+                    readings.add(new NetworkUsageReading(router, network, nicIp, previousStats, answer));
                 }
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * Applies the collected answers to user_statistics, several rows per transaction
+     * @return number of rows updated
+     */
+    protected int updateUserStatistics(final List<NetworkUsageReading> readings) {
+        int updated = 0;
+        for (int i = 0; i < readings.size(); i += USER_STATS_UPDATE_BATCH_SIZE) {
+            final List<NetworkUsageReading> batch = readings.subList(i, Math.min(i + USER_STATS_UPDATE_BATCH_SIZE, readings.size()));
+            try {
+                updated += Transaction.execute(new TransactionCallback<Integer>() {
+                    @Override
+                    public Integer doInTransaction(final TransactionStatus status) {
+                        int batchUpdated = 0;
+                        for (final NetworkUsageReading reading : batch) {
+                            if (updateUserStatistics(reading)) {
+                                batchUpdated++;
+                            }
+                        }
+                        return batchUpdated;
+                    }
+                });
             } catch (final Exception e) {
-                s_logger.warn("Error while collecting network stats", e);
+                // retry the rows one by one so that a single bad row does not lose the whole batch
+                s_logger.debug("Unable to update a batch of user statistics, updating them one at a time", e);
+                for (final NetworkUsageReading reading : batch) {
+                    try {
+                        final boolean rowUpdated = Transaction.execute(new TransactionCallback<Boolean>() {
+                            @Override
+                            public Boolean doInTransaction(final TransactionStatus status) {
+                                return updateUserStatistics(reading);
+                            }
+                        });
+                        if (rowUpdated) {
+                            updated++;
+                        }
+                    } catch (final Exception ex) {
+                        s_logger.warn("Unable to update user statistics for account: " + reading.router.getAccountId() + " Rx: " + reading.answer.getBytesReceived() + "; Tx: "
+                                + reading.answer.getBytesSent());
+                    }
+                }
             }
         }
+        return updated;
+    }
+
+    protected boolean updateUserStatistics(final NetworkUsageReading reading) {
+        final DomainRouterVO router = reading.router;
+        final NetworkUsageAnswer answerFinal = reading.answer;
+        final UserStatisticsVO previousStats = reading.previousStats;
+        final UserStatisticsVO stats = _userStatsDao.lock(router.getAccountId(), router.getDataCenterId(), reading.network.getId(), reading.nicIp, router.getId(),
+                router.getType().toString());
+        if (stats == null) {
+            s_logger.warn("unable to find stats for account: " + router.getAccountId());
+            return false;
+        }
+
+        if (previousStats != null
+                && ((previousStats.getCurrentBytesReceived() != stats.getCurrentBytesReceived()) || (previousStats.getCurrentBytesSent() != stats.getCurrentBytesSent()))) {
+            s_logger.debug("Router stats changed from the time NetworkUsageCommand was sent. " + "Ignoring current answer. Router: " + answerFinal.getRouterName() + " Rcvd: "
+                    + answerFinal.getBytesReceived() + "Sent: " + answerFinal.getBytesSent());
+            return false;
+        }
+
+        if (stats.getCurrentBytesReceived() > answerFinal.getBytesReceived()) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Received # of bytes that's less than the last one.  " + "Assuming something went wrong and persisting it. Router: "
+                        + answerFinal.getRouterName() + " Reported: " + answerFinal.getBytesReceived() + " Stored: " + stats.getCurrentBytesReceived());
+            }
+            stats.setNetBytesReceived(stats.getNetBytesReceived() + stats.getCurrentBytesReceived());
+        }
+        stats.setCurrentBytesReceived(answerFinal.getBytesReceived());
+        if (stats.getCurrentBytesSent() > answerFinal.getBytesSent()) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Received # of bytes that's less than the last one.  " + "Assuming something went wrong and persisting it. Router: "
+                        + answerFinal.getRouterName() + " Reported: " + answerFinal.getBytesSent() + " Stored: " + stats.getCurrentBytesSent());
+            }
+            stats.setNetBytesSent(stats.getNetBytesSent() + stats.getCurrentBytesSent());
+        }
+        stats.setCurrentBytesSent(answerFinal.getBytesSent());
+        if (!_dailyOrHourly) {
+            // update agg bytes
+            stats.setAggBytesSent(stats.getNetBytesSent() + stats.getCurrentBytesSent());
+            stats.setAggBytesReceived(stats.getNetBytesReceived() + stats.getCurrentBytesReceived());
+        }
+        _userStatsDao.update(stats.getId(), stats);
+        return true;
+    }
+
+    /**
+     * @return duration of the last network usage sweep over all routers, in milliseconds
+     */
+    public long getLastNetworkUsageSweepMs() {
+        return _lastNetworkUsageSweepMs;
+    }
+
+    /**
+     * @return number of routers that could not be queried for network usage since start
+     */
+    public long getNetworkUsageFailures() {
+        return _networkUsageFailures.get();
     }
 
     protected class NetworkStatsUpdateTask extends ManagedContextRunnable {
@@ -3203,8 +3418,10 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
     }
 
     private NicVO findDefaultDnsIp(final long userVmId) {
-        final NicVO defaultNic = _nicDao.findDefaultNicForVM(userVmId);
+        return findDefaultDnsIp(_nicDao.findDefaultNicForVM(userVmId));
+    }
 
+    private NicVO findDefaultDnsIp(final NicVO defaultNic) {
         // check if DNS provider is the domR
         if (!_networkModel.isProviderSupportServiceInNetwork(defaultNic.getNetworkId(), Service.Dns, Provider.VirtualRouter)) {
             return null;
@@ -3212,7 +3429,7 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
 
         final NetworkOffering offering = _networkOfferingDao.findById(_networkDao.findById(defaultNic.getNetworkId()).getNetworkOfferingId());
         if (offering.getRedundantRouter()) {
-            return findGatewayIp(userVmId);
+            return defaultNic;
         }
 
         final DataCenter dc = _dcDao.findById(_networkModel.getNetwork(defaultNic.getNetworkId()).getDataCenterId());
@@ -3634,17 +3851,23 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
     }
 
     private void createVmDataCommand(final VirtualRouter router, final UserVm vm, final NicVO nic, final String publicKey, final Commands cmds) {
-        final String serviceOffering = _serviceOfferingDao.findByIdIncludingRemoved(vm.getId(), vm.getServiceOfferingId()).getDisplayText();
-        final String zoneName = _dcDao.findById(router.getDataCenterId()).getName();
+        createVmDataCommand(new RouterCommandContext(router), vm, nic, publicKey, cmds);
+    }
+
+    private void createVmDataCommand(final RouterCommandContext context, final UserVm vm, final NicVO nic, final String publicKey, final Commands cmds) {
+        final String serviceOffering = context.getServiceOffering(vm);
+        final String zoneName = context.dc.getName();
         cmds.addCommand(
                 "vmdata",
-                generateVmDataCommand(router, nic.getIp4Address(), vm.getUserData(), serviceOffering, zoneName, nic.getIp4Address(), vm.getHostName(), vm.getInstanceName(),
+                generateVmDataCommand(context, nic.getIp4Address(), vm.getUserData(), serviceOffering, zoneName, nic.getIp4Address(), vm.getHostName(), vm.getInstanceName(),
                         vm.getId(), vm.getUuid(), publicKey, nic.getNetworkId()));
     }
 
     private void createVmDataCommandForVMs(final DomainRouterVO router, final Commands cmds, final long guestNetworkId) {
         final List<UserVmVO> vms = _userVmDao.listByNetworkIdAndStates(guestNetworkId, State.Running, State.Migrating, State.Stopping);
-        final DataCenterVO dc = _dcDao.findById(router.getDataCenterId());
+        final RouterCommandContext context = new RouterCommandContext(router);
+        final DataCenterVO dc = context.dc;
+        final Map<Long, NicVO> nics = listNicsByInstance(guestNetworkId);
         for (final UserVmVO vm : vms) {
             boolean createVmData = true;
             if (dc.getNetworkType() == NetworkType.Basic && router.getPodIdToDeployIn().longValue() != vm.getPodIdToDeployIn().longValue()) {
@@ -3652,20 +3875,25 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
             }
 
             if (createVmData) {
-                final NicVO nic = _nicDao.findByNtwkIdAndInstanceId(guestNetworkId, vm.getId());
+                final NicVO nic = nics.get(vm.getId());
                 if (nic != null) {
                     s_logger.debug("Creating user data entry for vm " + vm + " on domR " + router);
-                    createVmDataCommand(router, vm, nic, null, cmds);
+                    createVmDataCommand(context, vm, nic, null, cmds);
                 }
             }
         }
     }
 
     private void createDhcpEntryCommand(final VirtualRouter router, final UserVm vm, final NicVO nic, final Commands cmds) {
+        createDhcpEntryCommand(new RouterCommandContext(router), vm, nic, cmds);
+    }
+
+    private void createDhcpEntryCommand(final RouterCommandContext context, final UserVm vm, final NicVO nic, final Commands cmds) {
+        final VirtualRouter router = context.router;
         final DhcpEntryCommand dhcpCommand = new DhcpEntryCommand(nic.getMacAddress(), nic.getIp4Address(), vm.getHostName(), nic.getIp6Address(),
                 _networkModel.getExecuteInSeqNtwkElmtCmd());
-        final DataCenterVO dcVo = _dcDao.findById(router.getDataCenterId());
-        final Nic defaultNic = findGatewayIp(vm.getId());
+        final DataCenterVO dcVo = context.dc;
+        final NicVO defaultNic = nic.isDefaultNic() ? nic : findGatewayIp(vm.getId());
         String gatewayIp = defaultNic.getGateway();
         if (gatewayIp != null && !gatewayIp.equals(nic.getGateway())) {
             gatewayIp = "0.0.0.0";
@@ -3673,7 +3901,7 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
         dhcpCommand.setDefaultRouter(gatewayIp);
         dhcpCommand.setIp6Gateway(nic.getIp6Gateway());
         String ipaddress = null;
-        final NicVO domrDefaultNic = findDefaultDnsIp(vm.getId());
+        final NicVO domrDefaultNic = context.getDefaultDnsNic(defaultNic);
         if (domrDefaultNic != null) {
             ipaddress = domrDefaultNic.getIp4Address();
         }
@@ -3681,9 +3909,9 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
         dhcpCommand.setDuid(NetUtils.getDuidLL(nic.getMacAddress()));
         dhcpCommand.setDefault(nic.isDefaultNic());
 
-        dhcpCommand.setAccessDetail(NetworkElementCommand.ROUTER_IP, getRouterControlIp(router.getId()));
+        dhcpCommand.setAccessDetail(NetworkElementCommand.ROUTER_IP, context.getRouterControlIp());
         dhcpCommand.setAccessDetail(NetworkElementCommand.ROUTER_NAME, router.getInstanceName());
-        dhcpCommand.setAccessDetail(NetworkElementCommand.ROUTER_GUEST_IP, getRouterIpInNetwork(nic.getNetworkId(), router.getId()));
+        dhcpCommand.setAccessDetail(NetworkElementCommand.ROUTER_GUEST_IP, context.getRouterIpInNetwork(nic.getNetworkId()));
         dhcpCommand.setAccessDetail(NetworkElementCommand.ZONE_NETWORK_TYPE, dcVo.getNetworkType().toString());
 
         cmds.addCommand("dhcp", dhcpCommand);
@@ -3735,7 +3963,9 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
 
     private void createDhcpEntryCommandsForVMs(final DomainRouterVO router, final Commands cmds, final long guestNetworkId) {
         final List<UserVmVO> vms = _userVmDao.listByNetworkIdAndStates(guestNetworkId, State.Running, State.Migrating, State.Stopping);
-        final DataCenterVO dc = _dcDao.findById(router.getDataCenterId());
+        final RouterCommandContext context = new RouterCommandContext(router);
+        final DataCenterVO dc = context.dc;
+        final Map<Long, NicVO> nics = listNicsByInstance(guestNetworkId);
         for (final UserVmVO vm : vms) {
             boolean createDhcp = true;
             if (dc.getNetworkType() == NetworkType.Basic && router.getPodIdToDeployIn().longValue() != vm.getPodIdToDeployIn().longValue()
@@ -3743,15 +3973,26 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
                 createDhcp = false;
             }
             if (createDhcp) {
-                final NicVO nic = _nicDao.findByNtwkIdAndInstanceId(guestNetworkId, vm.getId());
+                final NicVO nic = nics.get(vm.getId());
                 if (nic != null) {
                     s_logger.debug("Creating dhcp entry for vm " + vm + " on domR " + router + ".");
-                    createDhcpEntryCommand(router, vm, nic, cmds);
+                    createDhcpEntryCommand(context, vm, nic, cmds);
                 }
             }
         }
     }
 
+    /**
+     * @return the nics in a network keyed by the id of the VM they belong to
+     */
+    private Map<Long, NicVO> listNicsByInstance(final long networkId) {
+        final Map<Long, NicVO> nics = new HashMap<Long, NicVO>();
+        for (final NicVO nic : _nicDao.listByNetworkId(networkId)) {
+            nics.put(nic.getInstanceId(), nic);
+        }
+        return nics;
+    }
+
     protected boolean sendCommandsToRouter(final VirtualRouter router, final Commands cmds) throws AgentUnavailableException {
         if (!checkRouterVersion(router)) {
             s_logger.debug("Router requires upgrade. Unable to send command to router:" + router.getId() + ", router template version : " + router.getTemplateVersion()
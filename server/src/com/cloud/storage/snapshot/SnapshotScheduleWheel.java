@@ -0,0 +1,181 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.storage.snapshot;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SnapshotScheduleWheel is a hierarchical timing wheel holding the snapshot
+ * schedules that are about to become due. It lets the scheduler dispatch them
+ * on time without scanning snapshot_schedule again.
+ *
+ * There are two levels of {@link #SLOTS} slots:
+ * - the inner wheel has one slot per tick;
+ * - the outer wheel has one slot per {@link #SLOTS} ticks.
+ * Schedules further ahead wait in an overflow list. Entries move down a level
+ * as the wheel turns, so adding and expiring an entry costs O(1) whatever the
+ * number of schedules.
+ *
+ * The wheel is not thread safe, callers synchronize on it.
+ */
+class SnapshotScheduleWheel {
+    static final int SLOTS = 64;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final long _tickMs;
+    private final List<List<Entry>> _inner = new ArrayList<List<Entry>>(SLOTS);
+    private final List<List<Entry>> _outer = new ArrayList<List<Entry>>(SLOTS);
+    private List<Entry> _overflow = new ArrayList<Entry>();
+    private List<Entry> _expired = new ArrayList<Entry>();
+    private final Set<Long> _scheduleIds = new HashSet<Long>();
+    private long _currentTick;
+
+    SnapshotScheduleWheel(long tickMs, long startMs) {
+        _tickMs = tickMs;
+        _currentTick = startMs / tickMs;
+        for (int i = 0; i < SLOTS; i++) {
+            _inner.add(new ArrayList<Entry>());
+            _outer.add(new ArrayList<Entry>());
+        }
+    }
+
+    /**
+     * @return false if the schedule is already in the wheel
+     */
+    boolean add(Entry entry) {
+        if (!_scheduleIds.add(entry.scheduleId)) {
+            return false;
+        }
+        place(entry);
+        return true;
+    }
+
+    boolean contains(long scheduleId) {
+        return _scheduleIds.contains(scheduleId);
+    }
+
+    int size() {
+        return _scheduleIds.size();
+    }
+
+    /**
+     * Turns the wheel up to the given time.
+     *
+     * @return the entries that became due, in the order they fell due
+     */
+    List<Entry> advance(long nowMs) {
+        final long targetTick = nowMs / _tickMs;
+        if (targetTick - _currentTick > SLOTS * SLOTS) {
+            // the clock jumped further than the wheel spans, rebuild it rather than turn it slot by slot
+            final List<Entry> entries = removeAll();
+            _currentTick = targetTick;
+            for (final Entry entry : entries) {
+                place(entry);
+            }
+        }
+
+        while (_currentTick < targetTick) {
+            _currentTick++;
+            if ((_currentTick & SLOT_MASK) == 0) {
+                if (((_currentTick >> SLOT_BITS) & SLOT_MASK) == 0) {
+                    final List<Entry> overflow = _overflow;
+                    _overflow = new ArrayList<Entry>();
+                    for (final Entry entry : overflow) {
+                        place(entry);
+                    }
+                }
+                final List<Entry> outer = _outer.get((int)((_currentTick >> SLOT_BITS) & SLOT_MASK));
+                final List<Entry> cascaded = new ArrayList<Entry>(outer);
+                outer.clear();
+                for (final Entry entry : cascaded) {
+                    place(entry);
+                }
+            }
+            final List<Entry> slot = _inner.get((int)(_currentTick & SLOT_MASK));
+            _expired.addAll(slot);
+            slot.clear();
+        }
+
+        final List<Entry> expired = _expired;
+        _expired = new ArrayList<Entry>();
+        for (final Entry entry : expired) {
+            _scheduleIds.remove(entry.scheduleId);
+        }
+        return expired;
+    }
+
+    void clear() {
+        removeAll();
+        _scheduleIds.clear();
+    }
+
+    private void place(Entry entry) {
+        final long tick = entry.dueMs / _tickMs;
+        if (tick <= _currentTick) {
+            _expired.add(entry);
+        } else if (tick - _currentTick < SLOTS) {
+            _inner.get((int)(tick & SLOT_MASK)).add(entry);
+        } else if ((tick >> SLOT_BITS) - (_currentTick >> SLOT_BITS) < SLOTS) {
+            _outer.get((int)((tick >> SLOT_BITS) & SLOT_MASK)).add(entry);
+        } else {
+            _overflow.add(entry);
+        }
+    }
+
+    private List<Entry> removeAll() {
+        final List<Entry> entries = new ArrayList<Entry>(_expired);
+        _expired.clear();
+        for (int i = 0; i < SLOTS; i++) {
+            entries.addAll(_inner.get(i));
+            _inner.get(i).clear();
+            entries.addAll(_outer.get(i));
+            _outer.get(i).clear();
+        }
+        entries.addAll(_overflow);
+        _overflow.clear();
+        return entries;
+    }
+
+    static class Entry {
+        final long scheduleId;
+        final long volumeId;
+        final long scheduledMs;
+        final long dueMs;
+
+        /**
+         * @param scheduledMs
+         *            time the schedule is due in snapshot_schedule
+         * @param dueMs
+         *            time to dispatch it, after jitter or deferral
+         */
+        Entry(long scheduleId, long volumeId, long scheduledMs, long dueMs) {
+            this.scheduleId = scheduleId;
+            this.volumeId = volumeId;
+            this.scheduledMs = scheduledMs;
+            this.dueMs = dueMs;
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder("SnapshotScheduleWheel.Entry[").append(scheduleId).append("-").append(volumeId).append("]").toString();
+        }
+    }
+}
@@ -16,12 +16,18 @@
 // under the License.
 package com.cloud.storage.snapshot;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -37,10 +43,16 @@ import org.apache.cloudstack.framework.jobs.AsyncJobDispatcher;
 import org.apache.cloudstack.framework.jobs.AsyncJobManager;
 import org.apache.cloudstack.framework.jobs.dao.AsyncJobDao;
 import org.apache.cloudstack.framework.jobs.impl.AsyncJobVO;
+import org.apache.cloudstack.jobs.JobInfo;
 import org.apache.cloudstack.managed.context.ManagedContextTimerTask;
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
 
 import com.cloud.api.ApiDispatcher;
 import com.cloud.api.ApiGsonHelper;
+import com.cloud.cluster.ManagementServerHost;
+import com.cloud.cluster.ManagementServerHostVO;
+import com.cloud.cluster.dao.ManagementServerHostDao;
+import com.cloud.configuration.Config;
 import com.cloud.event.ActionEventUtils;
 import com.cloud.event.EventTypes;
 import com.cloud.storage.Snapshot;
@@ -84,6 +96,8 @@ public class SnapshotSchedulerImpl extends ManagerBase implements SnapshotSchedu
     protected ConfigurationDao _configDao;
     @Inject
     protected ApiDispatcher _dispatcher;
+    @Inject
+    protected ManagementServerHostDao _msHostDao;
 
     protected AsyncJobDispatcher _asyncDispatcher;
 
@@ -94,6 +108,17 @@ public class SnapshotSchedulerImpl extends ManagerBase implements SnapshotSchedu
     private Date _currentTimestamp;
     private TestClock _testTimerTask;
 
+    private static final long DISPATCH_TICK_MS = 1000;
+    private final SnapshotScheduleWheel _wheel = new SnapshotScheduleWheel(DISPATCH_TICK_MS, System.currentTimeMillis());
+    private int _jitterSeconds;
+    private int _maxConcurrentPerPool;
+    // jobs dispatched by this server that may still be running, by primary storage pool
+    private final Map<Long, Set<Long>> _inFlightJobs = new HashMap<Long, Set<Long>>();
+    private final AtomicLong _dispatchedSnapshots = new AtomicLong();
+    private final AtomicLong _deferredSnapshots = new AtomicLong();
+    private final AtomicLong _totalDispatchLagMs = new AtomicLong();
+    private final AtomicLong _maxDispatchLagMs = new AtomicLong();
+
     public AsyncJobDispatcher getAsyncJobDispatcher() {
         return _asyncDispatcher;
     }
@@ -230,67 +255,226 @@ public class SnapshotSchedulerImpl extends ManagerBase implements SnapshotSchedu
         }
     }
 
+    /**
+     * Loads the schedules of this management server that are due before the
+     * next poll into the wheel, and dispatches those that are already due.
+     * The rest are dispatched by the dispatch task when they fall due.
+     */
     @DB
     protected void scheduleSnapshots() {
         String displayTime = DateUtil.displayDateInTimezone(DateUtil.GMT_TIMEZONE, _currentTimestamp);
         s_logger.debug("Snapshot scheduler.poll is being called at " + displayTime);
 
-        final List<SnapshotScheduleVO> snapshotsToBeExecuted = _snapshotScheduleDao.getSchedulesToExecute(_currentTimestamp);
-        s_logger.debug("Got " + snapshotsToBeExecuted.size() + " snapshots to be executed at " + displayTime);
+        // with the test clock nothing dispatches between polls, so only take what is due now
+        final long lookAheadMs = _testTimerTask == null ? _snapshotPollInterval * 1000L : 0;
+        final Date loadUntil = new Date(_currentTimestamp.getTime() + lookAheadMs);
+        final List<SnapshotScheduleVO> snapshotsToBeExecuted = _snapshotScheduleDao.getSchedulesToExecute(loadUntil);
 
-        for (final SnapshotScheduleVO snapshotToBeExecuted : snapshotsToBeExecuted) {
-            SnapshotScheduleVO tmpSnapshotScheduleVO = null;
-            final long snapshotScheId = snapshotToBeExecuted.getId();
-            final long policyId = snapshotToBeExecuted.getPolicyId();
-            final long volumeId = snapshotToBeExecuted.getVolumeId();
-            try {
-                final VolumeVO volume = _volsDao.findById(volumeId);
-                if (volume.getPoolId() == null) {
-                    // this volume is not attached
+        final List<Long> peers = listSchedulingPeers();
+        final int partitions = Math.max(peers.size(), 1);
+        final int partition = Math.max(peers.indexOf(ManagementServerNode.getManagementServerId()), 0);
+
+        int queued = 0;
+        synchronized (_wheel) {
+            for (final SnapshotScheduleVO snapshotToBeExecuted : snapshotsToBeExecuted) {
+                final long volumeId = snapshotToBeExecuted.getVolumeId();
+                if (volumeId % partitions != partition) {
                     continue;
                 }
-                if (_snapshotPolicyDao.findById(policyId) == null) {
-                    _snapshotScheduleDao.remove(snapshotToBeExecuted.getId());
+                final long scheduledMs = snapshotToBeExecuted.getScheduledTimestamp().getTime();
+                if (_wheel.add(new SnapshotScheduleWheel.Entry(snapshotToBeExecuted.getId(), volumeId, scheduledMs, scheduledMs + getJitterMs(volumeId)))) {
+                    queued++;
                 }
-                if (s_logger.isDebugEnabled()) {
-                    final Date scheduledTimestamp = snapshotToBeExecuted.getScheduledTimestamp();
-                    displayTime = DateUtil.displayDateInTimezone(DateUtil.GMT_TIMEZONE, scheduledTimestamp);
-                    s_logger.debug("Scheduling 1 snapshot for volume " + volumeId + " for schedule id: " + snapshotToBeExecuted.getId() + " at " + displayTime);
+            }
+        }
+        if (s_logger.isDebugEnabled()) {
+            displayTime = DateUtil.displayDateInTimezone(DateUtil.GMT_TIMEZONE, loadUntil);
+            s_logger.debug("Got " + snapshotsToBeExecuted.size() + " snapshots to be executed by " + displayTime + ", queued " + queued + " for partition " + partition + "/"
+                    + partitions + ". " + getQueuedScheduleCount() + " snapshots waiting, average dispatch lag " + getAverageDispatchLagMs() + " ms");
+        }
+
+        dispatchDueSnapshots(_currentTimestamp);
+    }
+
+    /**
+     * @return the ids of the management servers that share the schedules, in
+     *         a stable order
+     */
+    private List<Long> listSchedulingPeers() {
+        final List<Long> msids = new ArrayList<Long>();
+        for (final ManagementServerHostVO peer : _msHostDao.listBy(ManagementServerHost.State.Up)) {
+            msids.add(peer.getMsid());
+        }
+        if (!msids.contains(ManagementServerNode.getManagementServerId())) {
+            // this server is not known to be up, take on all schedules rather than risk missing some
+            msids.clear();
+        }
+        Collections.sort(msids);
+        return msids;
+    }
+
+    /**
+     * Spreads schedules that share a time over the jitter window. The offset
+     * only depends on the volume, so its snapshots stay evenly spaced.
+     */
+    private long getJitterMs(final long volumeId) {
+        return _jitterSeconds > 0 ? (volumeId % _jitterSeconds) * 1000L : 0;
+    }
+
+    protected void dispatchDueSnapshots(final Date currentTimestamp) {
+        final List<SnapshotScheduleWheel.Entry> dueSnapshots;
+        synchronized (_wheel) {
+            dueSnapshots = _wheel.advance(currentTimestamp.getTime());
+        }
+        for (final SnapshotScheduleWheel.Entry entry : dueSnapshots) {
+            if (!dispatchSnapshot(entry, currentTimestamp)) {
+                // the pool is busy, try again on the next tick
+                _deferredSnapshots.incrementAndGet();
+                synchronized (_wheel) {
+                    _wheel.add(new SnapshotScheduleWheel.Entry(entry.scheduleId, entry.volumeId, entry.scheduledMs, currentTimestamp.getTime() + DISPATCH_TICK_MS));
                 }
+            }
+        }
+    }
 
-                tmpSnapshotScheduleVO = _snapshotScheduleDao.acquireInLockTable(snapshotScheId);
-                final Long eventId = ActionEventUtils.onScheduledActionEvent(User.UID_SYSTEM, volume.getAccountId(), EventTypes.EVENT_SNAPSHOT_CREATE,
-                        "creating snapshot for volume Id:" + volumeId, true, 0);
-
-                final Map<String, String> params = new HashMap<String, String>();
-                params.put(ApiConstants.VOLUME_ID, "" + volumeId);
-                params.put(ApiConstants.POLICY_ID, "" + policyId);
-                params.put("ctxUserId", "1");
-                params.put("ctxAccountId", "" + volume.getAccountId());
-                params.put("ctxStartEventId", String.valueOf(eventId));
-
-                final CreateSnapshotCmd cmd = new CreateSnapshotCmd();
-                ComponentContext.inject(cmd);
-                _dispatcher.dispatchCreateCmd(cmd, params);
-                params.put("id", "" + cmd.getEntityId());
-                params.put("ctxStartEventId", "1");
-
-                AsyncJobVO job = new AsyncJobVO("", User.UID_SYSTEM, volume.getAccountId(), CreateSnapshotCmd.class.getName(), ApiGsonHelper.getBuilder().create().toJson(params),
-                        cmd.getEntityId(), cmd.getInstanceType() != null ? cmd.getInstanceType().toString() : null, null);
-                job.setDispatcher(_asyncDispatcher.getName());
-
-                final long jobId = _asyncMgr.submitAsyncJob(job);
-
-                tmpSnapshotScheduleVO.setAsyncJobId(jobId);
-                _snapshotScheduleDao.update(snapshotScheId, tmpSnapshotScheduleVO);
-            } catch (final Exception e) {
-                // TODO Logging this exception is enough?
-                s_logger.warn("Scheduling snapshot failed due to " + e.toString());
-            } finally {
-                if (tmpSnapshotScheduleVO != null) {
-                    _snapshotScheduleDao.releaseFromLockTable(snapshotScheId);
+    /**
+     * @return false if the snapshot has to wait because its primary storage
+     *         already has the maximum number of scheduled snapshots running
+     */
+    @DB
+    protected boolean dispatchSnapshot(final SnapshotScheduleWheel.Entry entry, final Date currentTimestamp) {
+        SnapshotScheduleVO tmpSnapshotScheduleVO = null;
+        final long snapshotScheId = entry.scheduleId;
+        final long volumeId = entry.volumeId;
+        try {
+            tmpSnapshotScheduleVO = _snapshotScheduleDao.acquireInLockTable(snapshotScheId);
+            if (tmpSnapshotScheduleVO == null || tmpSnapshotScheduleVO.getAsyncJobId() != null || tmpSnapshotScheduleVO.getScheduledTimestamp().after(currentTimestamp)) {
+                // removed, already dispatched or rescheduled since it was queued
+                return true;
+            }
+            final long policyId = tmpSnapshotScheduleVO.getPolicyId();
+
+            final VolumeVO volume = _volsDao.findById(volumeId);
+            if (volume.getPoolId() == null) {
+                // this volume is not attached
+                return true;
+            }
+            if (!hasPoolCapacity(volume.getPoolId())) {
+                return false;
+            }
+            if (_snapshotPolicyDao.findById(policyId) == null) {
+                _snapshotScheduleDao.remove(snapshotScheId);
+            }
+            if (s_logger.isDebugEnabled()) {
+                final Date scheduledTimestamp = tmpSnapshotScheduleVO.getScheduledTimestamp();
+                final String displayTime = DateUtil.displayDateInTimezone(DateUtil.GMT_TIMEZONE, scheduledTimestamp);
+                s_logger.debug("Scheduling 1 snapshot for volume " + volumeId + " for schedule id: " + snapshotScheId + " at " + displayTime);
+            }
+
+            final Long eventId = ActionEventUtils.onScheduledActionEvent(User.UID_SYSTEM, volume.getAccountId(), EventTypes.EVENT_SNAPSHOT_CREATE,
+                    "creating snapshot for volume Id:" + volumeId, true, 0);
+
+            final Map<String, String> params = new HashMap<String, String>();
+            params.put(ApiConstants.VOLUME_ID, "" + volumeId);
+            params.put(ApiConstants.POLICY_ID, "" + policyId);
+            params.put("ctxUserId", "1");
+            params.put("ctxAccountId", "" + volume.getAccountId());
+            params.put("ctxStartEventId", String.valueOf(eventId));
+
+            final CreateSnapshotCmd cmd = new CreateSnapshotCmd();
+            ComponentContext.inject(cmd);
+            _dispatcher.dispatchCreateCmd(cmd, params);
+            params.put("id", "" + cmd.getEntityId());
+            params.put("ctxStartEventId", "1");
+
+            AsyncJobVO job = new AsyncJobVO("", User.UID_SYSTEM, volume.getAccountId(), CreateSnapshotCmd.class.getName(), ApiGsonHelper.getBuilder().create().toJson(params),
+                    cmd.getEntityId(), cmd.getInstanceType() != null ? cmd.getInstanceType().toString() : null, null);
+            job.setDispatcher(_asyncDispatcher.getName());
+
+            final long jobId = _asyncMgr.submitAsyncJob(job);
+
+            tmpSnapshotScheduleVO.setAsyncJobId(jobId);
+            _snapshotScheduleDao.update(snapshotScheId, tmpSnapshotScheduleVO);
+
+            trackJob(volume.getPoolId(), jobId);
+            recordDispatchLag(currentTimestamp.getTime() - entry.scheduledMs);
+        } catch (final Exception e) {
+            // TODO Logging this exception is enough?
+            s_logger.warn("Scheduling snapshot failed due to " + e.toString());
+        } finally {
+            if (tmpSnapshotScheduleVO != null) {
+                _snapshotScheduleDao.releaseFromLockTable(snapshotScheId);
+            }
+        }
+        return true;
+    }
+
+    private boolean hasPoolCapacity(final long poolId) {
+        if (_maxConcurrentPerPool <= 0) {
+            return true;
+        }
+        synchronized (_inFlightJobs) {
+            final Set<Long> jobIds = _inFlightJobs.get(poolId);
+            if (jobIds == null || jobIds.size() < _maxConcurrentPerPool) {
+                return true;
+            }
+            for (final Iterator<Long> it = jobIds.iterator(); it.hasNext();) {
+                final AsyncJobVO job = _asyncJobDao.findById(it.next());
+                if (job == null || job.getStatus() != JobInfo.Status.IN_PROGRESS) {
+                    it.remove();
                 }
             }
+            return jobIds.size() < _maxConcurrentPerPool;
+        }
+    }
+
+    private void trackJob(final long poolId, final long jobId) {
+        if (_maxConcurrentPerPool <= 0) {
+            return;
+        }
+        synchronized (_inFlightJobs) {
+            Set<Long> jobIds = _inFlightJobs.get(poolId);
+            if (jobIds == null) {
+                jobIds = new HashSet<Long>();
+                _inFlightJobs.put(poolId, jobIds);
+            }
+            jobIds.add(jobId);
+        }
+    }
+
+    private void recordDispatchLag(final long lagMs) {
+        _dispatchedSnapshots.incrementAndGet();
+        _totalDispatchLagMs.addAndGet(lagMs);
+        long max = _maxDispatchLagMs.get();
+        while (lagMs > max && !_maxDispatchLagMs.compareAndSet(max, lagMs)) {
+            max = _maxDispatchLagMs.get();
+        }
+    }
+
+    public long getDispatchedSnapshotCount() {
+        return _dispatchedSnapshots.get();
+    }
+
+    /**
+     * @return how long after their scheduled time snapshots were dispatched
+     *         on average, including jitter and time spent waiting for a pool
+     */
+    public long getAverageDispatchLagMs() {
+        final long count = _dispatchedSnapshots.get();
+        return count == 0 ? 0 : _totalDispatchLagMs.get() / count;
+    }
+
+    public long getMaxDispatchLagMs() {
+        return _maxDispatchLagMs.get();
+    }
+
+    public long getDeferredSnapshotCount() {
+        return _deferredSnapshots.get();
+    }
+
+    public int getQueuedScheduleCount() {
+        synchronized (_wheel) {
+            return _wheel.size();
         }
     }
 
@@ -362,6 +546,8 @@ public class SnapshotSchedulerImpl extends ManagerBase implements SnapshotSchedu
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
 
         _snapshotPollInterval = NumbersUtil.parseInt(_configDao.getValue("snapshot.poll.interval"), 300);
+        _jitterSeconds = NumbersUtil.parseInt(_configDao.getValue(Config.SnapshotScheduleJitter.key()), 0);
+        _maxConcurrentPerPool = NumbersUtil.parseInt(_configDao.getValue(Config.SnapshotMaxConcurrentPerPool.key()), 0);
         final boolean snapshotsRecurringTest = Boolean.parseBoolean(_configDao.getValue("snapshot.recurring.test"));
         if (snapshotsRecurringTest) {
             // look for some test values in the configuration table so that
@@ -410,8 +596,19 @@ public class SnapshotSchedulerImpl extends ManagerBase implements SnapshotSchedu
                     }
                 }
             };
+            final TimerTask dispatchTask = new ManagedContextTimerTask() {
+                @Override
+                protected void runInContext() {
+                    try {
+                        dispatchDueSnapshots(new Date());
+                    } catch (final Throwable t) {
+                        s_logger.warn("Catch throwable in snapshot dispatcher ", t);
+                    }
+                }
+            };
             _testClockTimer = new Timer("SnapshotPollTask");
             _testClockTimer.schedule(timerTask, _snapshotPollInterval * 1000L, _snapshotPollInterval * 1000L);
+            _testClockTimer.schedule(dispatchTask, DISPATCH_TICK_MS, DISPATCH_TICK_MS);
         }
 
         return true;
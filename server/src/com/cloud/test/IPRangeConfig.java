@@ -17,6 +17,7 @@
 package com.cloud.test;
 
 import java.lang.reflect.Array;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -26,12 +27,16 @@ import java.util.List;
 import java.util.UUID;
 import java.util.Vector;
 
+import org.apache.log4j.Logger;
+
 import com.cloud.utils.component.ComponentContext;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.net.NetUtils;
 
 public class IPRangeConfig {
+    private static final Logger s_logger = Logger.getLogger(IPRangeConfig.class);
+    private static final int IP_RANGE_BATCH_SIZE = 1000;
 
     public static void main(String[] args) {
         IPRangeConfig config = ComponentContext.inject(IPRangeConfig.class);
@@ -451,70 +456,58 @@ public class IPRangeConfig {
         return problemIPs;
     }
 
-    public Vector<String> savePublicIPRange(TransactionLegacy txn, long startIP, long endIP, long zoneId, long vlanDbId, Long sourceNetworkId, long physicalNetworkId) {
-        String insertSql = "INSERT INTO `cloud`.`user_ip_address` (public_ip_address, data_center_id, vlan_db_id, mac_address, source_network_id, physical_network_id, uuid) VALUES (?, ?, ?, (select mac_address from `cloud`.`data_center` where id=?), ?, ?, ?)";
-        String updateSql = "UPDATE `cloud`.`data_center` set mac_address = mac_address+1 where id=?";
+    public Vector<String> savePublicIPRange(TransactionLegacy txn, long startIP, long endIP, final long zoneId, final long vlanDbId, final Long sourceNetworkId,
+        final long physicalNetworkId) {
+        String insertSql = "INSERT INTO `cloud`.`user_ip_address` (public_ip_address, data_center_id, vlan_db_id, mac_address, source_network_id, physical_network_id, uuid) VALUES (?, ?, ?, ?, ?, ?, ?)";
         Vector<String> problemIPs = new Vector<String>();
-        PreparedStatement stmt = null;
 
         Connection conn = null;
         try {
             conn = txn.getConnection();
         } catch (SQLException e) {
+            s_logger.warn("Unable to get a DB connection to save public ip range", e);
             return null;
         }
 
-        while (startIP <= endIP) {
-            try {
-                stmt = conn.prepareStatement(insertSql);
-                stmt.setString(1, NetUtils.long2Ip(startIP));
-                stmt.setLong(2, zoneId);
-                stmt.setLong(3, vlanDbId);
-                stmt.setLong(4, zoneId);
-                stmt.setLong(5, sourceNetworkId);
-                stmt.setLong(6, physicalNetworkId);
-                stmt.setString(7, UUID.randomUUID().toString());
-                stmt.executeUpdate();
-                stmt.close();
-                stmt = conn.prepareStatement(updateSql);
-                stmt.setLong(1, zoneId);
-                stmt.executeUpdate();
-                stmt.close();
-            } catch (Exception ex) {
-                problemIPs.add(NetUtils.long2Ip(startIP));
-            }
-            startIP++;
+        try {
+            long macAddress = reserveMacAddresses(conn, zoneId, endIP - startIP + 1);
+            insertIPRange(conn, insertSql, startIP, endIP, macAddress, new IpRowBinder() {
+                @Override
+                public void bind(PreparedStatement stmt, long ip, long macAddress) throws SQLException {
+                    stmt.setString(1, NetUtils.long2Ip(ip));
+                    stmt.setLong(2, zoneId);
+                    stmt.setLong(3, vlanDbId);
+                    stmt.setLong(4, macAddress);
+                    stmt.setLong(5, sourceNetworkId);
+                    stmt.setLong(6, physicalNetworkId);
+                    stmt.setString(7, UUID.randomUUID().toString());
+                }
+            }, problemIPs);
+        } catch (SQLException e) {
+            s_logger.warn("Unable to save public ip range " + NetUtils.long2Ip(startIP) + "-" + NetUtils.long2Ip(endIP) + " in zone " + zoneId, e);
+            return null;
         }
 
         return problemIPs;
     }
 
-    public List<String> savePrivateIPRange(TransactionLegacy txn, long startIP, long endIP, long podId, long zoneId) {
-        String insertSql = "INSERT INTO `cloud`.`op_dc_ip_address_alloc` (ip_address, data_center_id, pod_id, mac_address) VALUES (?, ?, ?, (select mac_address from `cloud`.`data_center` where id=?))";
-        String updateSql = "UPDATE `cloud`.`data_center` set mac_address = mac_address+1 where id=?";
+    public List<String> savePrivateIPRange(TransactionLegacy txn, long startIP, long endIP, final long podId, final long zoneId) {
+        String insertSql = "INSERT INTO `cloud`.`op_dc_ip_address_alloc` (ip_address, data_center_id, pod_id, mac_address) VALUES (?, ?, ?, ?)";
         Vector<String> problemIPs = new Vector<String>();
 
         try {
             Connection conn = null;
             conn = txn.getConnection();
-            while (startIP <= endIP) {
-                try {
-                    PreparedStatement stmt = conn.prepareStatement(insertSql);
-                    stmt.setString(1, NetUtils.long2Ip(startIP));
+            long macAddress = reserveMacAddresses(conn, zoneId, endIP - startIP + 1);
+            insertIPRange(conn, insertSql, startIP, endIP, macAddress, new IpRowBinder() {
+                @Override
+                public void bind(PreparedStatement stmt, long ip, long macAddress) throws SQLException {
+                    stmt.setString(1, NetUtils.long2Ip(ip));
                     stmt.setLong(2, zoneId);
                     stmt.setLong(3, podId);
-                    stmt.setLong(4, zoneId);
-                    stmt.executeUpdate();
-                    stmt.close();
-                    stmt = conn.prepareStatement(updateSql);
-                    stmt.setLong(1, zoneId);
-                    stmt.executeUpdate();
-                    stmt.close();
-                } catch (Exception e) {
-                    problemIPs.add(NetUtils.long2Ip(startIP));
+                    stmt.setLong(4, macAddress);
                 }
-                startIP++;
-            }
+            }, problemIPs);
         } catch (Exception ex) {
             System.out.print(ex.getMessage());
             ex.printStackTrace();
@@ -523,6 +516,86 @@ public class IPRangeConfig {
         return problemIPs;
     }
 
+    /**
+     * Takes count values of the zone's mac address sequence at once, the row
+     * stays locked until the transaction ends.
+     *
+     * @return the first value taken
+     */
+    private long reserveMacAddresses(Connection conn, long zoneId, long count) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("SELECT mac_address FROM `cloud`.`data_center` WHERE id=? FOR UPDATE");
+        long macAddress;
+        try {
+            stmt.setLong(1, zoneId);
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next()) {
+                throw new SQLException("Unable to find zone " + zoneId);
+            }
+            macAddress = rs.getLong(1);
+        } finally {
+            stmt.close();
+        }
+
+        stmt = conn.prepareStatement("UPDATE `cloud`.`data_center` set mac_address = mac_address+? where id=?");
+        try {
+            stmt.setLong(1, count);
+            stmt.setLong(2, zoneId);
+            stmt.executeUpdate();
+        } finally {
+            stmt.close();
+        }
+        return macAddress;
+    }
+
+    private interface IpRowBinder {
+        void bind(PreparedStatement stmt, long ip, long macAddress) throws SQLException;
+    }
+
+    /**
+     * Inserts one row per ip address from startIP to endIP, in batches. The
+     * rows of a batch that failed are inserted again one by one, so only the
+     * ip addresses that can't be inserted at all are added to problemIPs.
+     */
+    private void insertIPRange(Connection conn, String insertSql, long startIP, long endIP, long macAddress, IpRowBinder binder, List<String> problemIPs)
+        throws SQLException {
+        long total = endIP - startIP + 1;
+        PreparedStatement stmt = conn.prepareStatement(insertSql);
+        try {
+            for (long batchStartIP = startIP; batchStartIP <= endIP; batchStartIP += IP_RANGE_BATCH_SIZE) {
+                long batchEndIP = Math.min(batchStartIP + IP_RANGE_BATCH_SIZE - 1, endIP);
+                for (long ip = batchStartIP; ip <= batchEndIP; ip++) {
+                    binder.bind(stmt, ip, macAddress + ip - startIP);
+                    stmt.addBatch();
+                }
+
+                int[] updateCounts = null;
+                try {
+                    updateCounts = stmt.executeBatch();
+                } catch (BatchUpdateException e) {
+                    updateCounts = e.getUpdateCounts();
+                    stmt.clearBatch();
+                }
+                for (long ip = batchStartIP; ip <= batchEndIP; ip++) {
+                    int i = (int)(ip - batchStartIP);
+                    if (updateCounts == null || i >= updateCounts.length || updateCounts[i] == Statement.EXECUTE_FAILED) {
+                        try {
+                            binder.bind(stmt, ip, macAddress + ip - startIP);
+                            stmt.executeUpdate();
+                        } catch (SQLException e) {
+                            problemIPs.add(NetUtils.long2Ip(ip));
+                        }
+                    }
+                }
+
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Saved " + (batchEndIP - startIP + 1) + " of " + total + " ip addresses of range " + NetUtils.long2Ip(startIP) + "-" + NetUtils.long2Ip(endIP));
+                }
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
     private Vector<String> saveLinkLocalPrivateIPRange(TransactionLegacy txn, long startIP, long endIP, long podId, long zoneId) {
         String insertSql = "INSERT INTO `cloud`.`op_dc_link_local_ip_address_alloc` (ip_address, data_center_id, pod_id) VALUES (?, ?, ?)";
         Vector<String> problemIPs = new Vector<String>();
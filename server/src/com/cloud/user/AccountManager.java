@@ -201,4 +201,6 @@ public interface AccountManager extends AccountService {
     public static final String MESSAGE_ADD_ACCOUNT_EVENT = "Message.AddAccount.Event";
 
     public static final String MESSAGE_REMOVE_ACCOUNT_EVENT = "Message.RemoveAccount.Event";
+
+    public static final String MESSAGE_CREDENTIALS_CHANGED_EVENT = "Message.CredentialsChanged.Event";
 }
@@ -60,8 +60,11 @@ import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.region.gslb.GlobalLoadBalancerRuleDao;
 
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.PropagateMessageCommand;
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.query.vo.ControlledViewEntity;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Config;
 import com.cloud.configuration.ConfigurationManager;
 import com.cloud.configuration.Resource.ResourceOwnerType;
@@ -115,6 +118,7 @@ import com.cloud.projects.ProjectManager;
 import com.cloud.projects.ProjectVO;
 import com.cloud.projects.dao.ProjectAccountDao;
 import com.cloud.projects.dao.ProjectDao;
+import com.cloud.serializer.GsonHelper;
 import com.cloud.server.auth.UserAuthenticator;
 import com.cloud.server.auth.UserAuthenticator.ActionOnFailedAuthentication;
 import com.cloud.storage.VMTemplateVO;
@@ -254,6 +258,8 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
     @Inject
     MessageBus _messageBus;
+    @Inject
+    ClusterManager _clusterMgr;
 
     @Inject
     public com.cloud.region.ha.GlobalLoadBalancingRulesService _gslbService;
@@ -621,7 +627,19 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     private boolean doSetUserStatus(long userId, State state) {
         UserVO userForUpdate = _userDao.createForUpdate();
         userForUpdate.setState(state);
-        return _userDao.update(Long.valueOf(userId), userForUpdate);
+        boolean success = _userDao.update(Long.valueOf(userId), userForUpdate);
+        publishCredentialsChanged(userId);
+        return success;
+    }
+
+    /**
+     * Tells listeners such as the API credential cache that the keys or the state behind an API key may have changed,
+     * on this management server and on its peers
+     */
+    private void publishCredentialsChanged(long id) {
+        _messageBus.publish(_name, MESSAGE_CREDENTIALS_CHANGED_EVENT, PublishScope.LOCAL, id);
+        Command[] cmds = new Command[] {new PropagateMessageCommand(MESSAGE_CREDENTIALS_CHANGED_EVENT, id)};
+        _clusterMgr.broadcast(0, GsonHelper.getGson().toJson(cmds));
     }
 
     @Override
@@ -631,6 +649,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         acctForUpdate.setState(State.enabled);
         acctForUpdate.setNeedsCleanup(false);
         success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+        publishCredentialsChanged(accountId);
         return success;
     }
 
@@ -644,6 +663,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 AccountVO acctForUpdate = _accountDao.createForUpdate();
                 acctForUpdate.setState(State.locked);
                 success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+                publishCredentialsChanged(accountId);
             } else {
                 if (s_logger.isInfoEnabled()) {
                     s_logger.info("Attempting to lock a non-enabled account, current state is " + account.getState() + " (accountId: " + accountId + "), locking failed.");
@@ -668,6 +688,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Removed account " + accountId);
         }
+        publishCredentialsChanged(accountId);
 
         return cleanupAccount(account, callerUserId, caller);
     }
@@ -936,6 +957,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             AccountVO acctForUpdate = _accountDao.createForUpdate();
             acctForUpdate.setState(State.disabled);
             success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+            publishCredentialsChanged(accountId);
 
             if (success) {
                 boolean disableAccountResult = false;
@@ -1229,6 +1251,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
 
             _userDao.update(id, user);
+            publishCredentialsChanged(id);
         } catch (Throwable th) {
             s_logger.error("error updating user", th);
             throw new CloudRuntimeException("Unable to update user " + id);
@@ -1652,7 +1675,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
         checkAccess(CallContext.current().getCallingAccount(), AccessType.OperateEntry, true, account);
         CallContext.current().putContextParameter(User.class, user.getUuid());
-        return _userDao.remove(id);
+        boolean success = _userDao.remove(id);
+        publishCredentialsChanged(id);
+        return success;
     }
 
     protected class AccountCleanupTask extends ManagedContextRunnable {
@@ -2235,6 +2260,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
             updatedUser.setApiKey(encodedKey);
             _userDao.update(userId, updatedUser);
+            publishCredentialsChanged(userId);
             return encodedKey;
         } catch (NoSuchAlgorithmException ex) {
             s_logger.error("error generating secret key for user id=" + userId, ex);
@@ -2262,6 +2288,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
             updatedUser.setSecretKey(encodedKey);
             _userDao.update(userId, updatedUser);
+            publishCredentialsChanged(userId);
             return encodedKey;
         } catch (NoSuchAlgorithmException ex) {
             s_logger.error("error generating secret key for user id=" + userId, ex);
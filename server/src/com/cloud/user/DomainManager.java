@@ -50,4 +50,5 @@ public interface DomainManager extends DomainService {
 
     public static final String MESSAGE_ADD_DOMAIN_EVENT = "Message.AddDomain.Event";
     public static final String MESSAGE_REMOVE_DOMAIN_EVENT = "Message.RemoveDomain.Event";
+    public static final String MESSAGE_DOMAIN_TREE_CHANGED_EVENT = "Message.DomainTreeChanged.Event";
 }
@@ -18,11 +18,13 @@ package com.cloud.user;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
+import javax.naming.ConfigurationException;
 
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
@@ -33,9 +35,14 @@ import org.apache.cloudstack.api.command.admin.domain.UpdateDomainCmd;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.engine.orchestration.service.NetworkOrchestrationService;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageDispatcher;
+import org.apache.cloudstack.framework.messagebus.MessageHandler;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.region.RegionManager;
 
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.PropagateMessageCommand;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Resource.ResourceOwnerType;
 import com.cloud.configuration.ResourceLimit;
 import com.cloud.configuration.dao.ResourceCountDao;
@@ -55,6 +62,7 @@ import com.cloud.network.dao.NetworkDomainDao;
 import com.cloud.projects.ProjectManager;
 import com.cloud.projects.ProjectVO;
 import com.cloud.projects.dao.ProjectDao;
+import com.cloud.serializer.GsonHelper;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.DiskOfferingVO;
@@ -109,6 +117,32 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
 
     @Inject
     MessageBus _messageBus;
+    @Inject
+    ClusterManager _clusterMgr;
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        _messageBus.subscribe(MESSAGE_DOMAIN_TREE_CHANGED_EVENT, MessageDispatcher.getDispatcher(this));
+        return super.configure(name, params);
+    }
+
+    @MessageHandler(topic = MESSAGE_DOMAIN_TREE_CHANGED_EVENT)
+    private void handleDomainTreeChangedEvent(String subject, String senderAddress, Object args) {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Domain " + args + " changed on another management server, dropping the cached domain tree");
+        }
+        _domainDao.invalidateTreeIndex();
+    }
+
+    /**
+     * Domain DAOs cache the domain tree; drop it here once the change is committed and on the other management servers,
+     * which otherwise keep granting or denying access on the old tree
+     */
+    private void publishDomainTreeChanged(long domainId) {
+        _domainDao.invalidateTreeIndex();
+        Command[] cmds = new Command[] {new PropagateMessageCommand(MESSAGE_DOMAIN_TREE_CHANGED_EVENT, domainId)};
+        _clusterMgr.broadcast(0, GsonHelper.getGson().toJson(cmds));
+    }
 
     @Override
     public Domain getDomain(long domainId) {
@@ -131,17 +165,7 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
 
     @Override
     public Set<Long> getDomainChildrenIds(String parentDomainPath) {
-        Set<Long> childDomains = new HashSet<Long>();
-        SearchCriteria<DomainVO> sc = _domainDao.createSearchCriteria();
-        sc.addAnd("path", SearchCriteria.Op.LIKE, parentDomainPath + "%");
-
-        List<DomainVO> domains = _domainDao.search(sc, null);
-
-        for (DomainVO domain : domains) {
-            childDomains.add(domain.getId());
-        }
-
-        return childDomains;
+        return new HashSet<Long>(_domainDao.getDomainChildrenIds(parentDomainPath));
     }
 
     @Override
@@ -210,6 +234,7 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
 
         CallContext.current().putContextParameter(Domain.class, domain.getUuid());
 
+        publishDomainTreeChanged(domain.getId());
         _messageBus.publish(_name, MESSAGE_ADD_DOMAIN_EVENT, PublishScope.LOCAL, domain.getId());
 
         return domain;
@@ -227,7 +252,9 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
 
     @Override
     public boolean removeDomain(long domainId) {
-        return _domainDao.remove(domainId);
+        boolean removed = _domainDao.remove(domainId);
+        publishDomainTreeChanged(domainId);
+        return removed;
     }
 
     @Override
@@ -324,6 +351,8 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
                 domain.setState(Domain.State.Active);
                 _domainDao.update(domain.getId(), domain);
             }
+            // sub-domains may have been removed even when this one was not
+            publishDomainTreeChanged(domain.getId());
         }
     }
 
@@ -643,6 +672,9 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
             }
         });
 
+        if (domainName != null) {
+            publishDomainTreeChanged(domainId);
+        }
         return _domainDao.findById(domainId);
 
     }
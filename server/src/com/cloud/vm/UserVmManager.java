@@ -45,6 +45,9 @@ public interface UserVmManager extends UserVmService {
     static final ConfigKey<Boolean> EnableDynamicallyScaleVm = new ConfigKey<Boolean>("Advanced", Boolean.class, EnableDynamicallyScaleVmCK, "false",
             "Enables/Disables dynamically scaling a vm", true, ConfigKey.Scope.Zone);
 
+    static final ConfigKey<Integer> VmBulkDeployMaxCount = new ConfigKey<Integer>("Advanced", Integer.class, "vm.bulk.deploy.max.count", "100",
+            "The maximum number of virtual machines deployVirtualMachines creates at once", true);
+
     static final int MAX_USER_DATA_LENGTH_BYTES = 2048;
 
     /**
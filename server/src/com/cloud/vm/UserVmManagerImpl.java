@@ -50,6 +50,7 @@ import org.apache.cloudstack.api.command.admin.vm.AssignVMCmd;
 import org.apache.cloudstack.api.command.admin.vm.RecoverVMCmd;
 import org.apache.cloudstack.api.command.user.vm.AddNicToVMCmd;
 import org.apache.cloudstack.api.command.user.vm.DeployVMCmd;
+import org.apache.cloudstack.api.command.user.vm.DeployVMsCmd;
 import org.apache.cloudstack.api.command.user.vm.DestroyVMCmd;
 import org.apache.cloudstack.api.command.user.vm.RebootVMCmd;
 import org.apache.cloudstack.api.command.user.vm.RemoveNicFromVMCmd;
@@ -258,6 +259,7 @@ import com.cloud.utils.db.TransactionCallbackWithExceptionNoReturn;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.db.UUIDManager;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.exception.ExceptionUtil;
 import com.cloud.utils.exception.ExecutionException;
 import com.cloud.utils.fsm.NoTransitionException;
 import com.cloud.utils.net.NetUtils;
@@ -497,6 +499,13 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
         _resourceLimitMgr.checkResourceLimit(owner, ResourceType.memory, displayVm, memory);
     }
 
+    // for count virtual machines of the same offering, cpu and memory are per virtual machine
+    protected void resourceLimitCheck(Account owner, Boolean displayVm, int count, long cpu, long memory) throws ResourceAllocationException {
+        _resourceLimitMgr.checkResourceLimit(owner, ResourceType.user_vm, displayVm, count);
+        _resourceLimitMgr.checkResourceLimit(owner, ResourceType.cpu, displayVm, count * cpu);
+        _resourceLimitMgr.checkResourceLimit(owner, ResourceType.memory, displayVm, count * memory);
+    }
+
     protected void resourceCountIncrement(long accountId, Boolean displayVm, Long cpu, Long memory) {
         _resourceLimitMgr.incrementResourceCount(accountId, ResourceType.user_vm, displayVm);
         _resourceLimitMgr.incrementResourceCount(accountId, ResourceType.cpu, displayVm, cpu);
@@ -2318,11 +2327,24 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
             StorageUnavailableException, ResourceAllocationException {
 
         Account caller = CallContext.current().getCallingAccount();
-        List<NetworkVO> networkList = new ArrayList<NetworkVO>();
 
         // Verify that caller can perform actions in behalf of vm owner
         _accountMgr.checkAccess(caller, null, true, owner);
 
+        Pair<List<NetworkVO>, List<Long>> networks = getBasicSecurityGroupNetworks(zone, template, hypervisor, owner, securityGroupIdList);
+
+        return createVirtualMachine(zone, serviceOffering, template, hostName, displayName, owner, diskOfferingId, diskSize, networks.first(), networks.second(), group,
+                httpmethod, userData, sshKeyPair, hypervisor, caller, requestedIps, defaultIps, displayVm, keyboard, affinityGroupIdList, customParametes, customId);
+
+    }
+
+    /**
+     * @return the default network of the Basic zone, and the security groups of the vm with the owner's default group added if none is given
+     */
+    private Pair<List<NetworkVO>, List<Long>> getBasicSecurityGroupNetworks(DataCenter zone, VirtualMachineTemplate template, HypervisorType hypervisor, Account owner,
+            List<Long> securityGroupIdList) {
+        List<NetworkVO> networkList = new ArrayList<NetworkVO>();
+
         // Get default guest network in Basic zone
         Network defaultNetwork = _networkModel.getExclusiveGuestNetwork(zone.getId());
 
@@ -2358,9 +2380,7 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
             }
         }
 
-        return createVirtualMachine(zone, serviceOffering, template, hostName, displayName, owner, diskOfferingId, diskSize, networkList, securityGroupIdList, group, httpmethod,
-                userData, sshKeyPair, hypervisor, caller, requestedIps, defaultIps, displayVm, keyboard, affinityGroupIdList, customParametes, customId);
-
+        return new Pair<List<NetworkVO>, List<Long>>(networkList, securityGroupIdList);
     }
 
     @Override
@@ -2372,13 +2392,25 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
             ResourceUnavailableException, StorageUnavailableException, ResourceAllocationException {
 
         Account caller = CallContext.current().getCallingAccount();
-        List<NetworkVO> networkList = new ArrayList<NetworkVO>();
-        boolean isSecurityGroupEnabledNetworkUsed = false;
-        boolean isVmWare = (template.getHypervisorType() == HypervisorType.VMware || (hypervisor != null && hypervisor == HypervisorType.VMware));
 
         // Verify that caller can perform actions in behalf of vm owner
         _accountMgr.checkAccess(caller, null, true, owner);
 
+        Pair<List<NetworkVO>, List<Long>> networks = getAdvancedSecurityGroupNetworks(zone, template, hypervisor, owner, caller, networkIdList, securityGroupIdList);
+
+        return createVirtualMachine(zone, serviceOffering, template, hostName, displayName, owner, diskOfferingId, diskSize, networks.first(), networks.second(), group,
+                httpmethod, userData, sshKeyPair, hypervisor, caller, requestedIps, defaultIps, displayVm, keyboard, affinityGroupIdList, customParameters, customId);
+    }
+
+    /**
+     * @return the networks of the vm, and its security groups with the owner's default group added if a security group enabled network is used and none is given
+     */
+    private Pair<List<NetworkVO>, List<Long>> getAdvancedSecurityGroupNetworks(DataCenter zone, VirtualMachineTemplate template, HypervisorType hypervisor, Account owner,
+            Account caller, List<Long> networkIdList, List<Long> securityGroupIdList) {
+        List<NetworkVO> networkList = new ArrayList<NetworkVO>();
+        boolean isSecurityGroupEnabledNetworkUsed = false;
+        boolean isVmWare = (template.getHypervisorType() == HypervisorType.VMware || (hypervisor != null && hypervisor == HypervisorType.VMware));
+
         // If no network is specified, find system security group enabled
         // network
         if (networkIdList == null || networkIdList.isEmpty()) {
@@ -2470,8 +2502,7 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
             }
         }
 
-        return createVirtualMachine(zone, serviceOffering, template, hostName, displayName, owner, diskOfferingId, diskSize, networkList, securityGroupIdList, group, httpmethod,
-                userData, sshKeyPair, hypervisor, caller, requestedIps, defaultIps, displayVm, keyboard, affinityGroupIdList, customParameters, customId);
+        return new Pair<List<NetworkVO>, List<Long>>(networkList, securityGroupIdList);
     }
 
     @Override
@@ -2483,11 +2514,23 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
             StorageUnavailableException, ResourceAllocationException {
 
         Account caller = CallContext.current().getCallingAccount();
-        List<NetworkVO> networkList = new ArrayList<NetworkVO>();
 
         // Verify that caller can perform actions in behalf of vm owner
         _accountMgr.checkAccess(caller, null, true, owner);
 
+        List<NetworkVO> networkList = getAdvancedNetworks(zone, template, hypervisor, owner, networkIdList);
+
+        return createVirtualMachine(zone, serviceOffering, template, hostName, displayName, owner, diskOfferingId, diskSize, networkList, null, group, httpmethod, userData,
+                sshKeyPair, hypervisor, caller, requestedIps, defaultIps, displayvm, keyboard, affinityGroupIdList, customParametrs, customId);
+    }
+
+    /**
+     * @return the networks of the vm, the owner's default Isolated network, created if needed, when none is given
+     */
+    private List<NetworkVO> getAdvancedNetworks(DataCenter zone, VirtualMachineTemplate template, HypervisorType hypervisor, Account owner, List<Long> networkIdList)
+            throws InsufficientCapacityException, ResourceAllocationException {
+        List<NetworkVO> networkList = new ArrayList<NetworkVO>();
+
         List<HypervisorType> vpcSupportedHTypes = _vpcMgr.getSupportedVpcHypervisors();
         if (networkIdList == null || networkIdList.isEmpty()) {
             NetworkVO defaultNetwork = null;
@@ -2563,8 +2606,7 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
             }
         }
 
-        return createVirtualMachine(zone, serviceOffering, template, hostName, displayName, owner, diskOfferingId, diskSize, networkList, null, group, httpmethod, userData,
-                sshKeyPair, hypervisor, caller, requestedIps, defaultIps, displayvm, keyboard, affinityGroupIdList, customParametrs, customId);
+        return networkList;
     }
 
     public void checkNameForRFCCompliance(String name) {
@@ -2583,17 +2625,30 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
 
         _accountMgr.checkAccess(caller, null, true, owner);
 
-        if (owner.getState() == Account.State.disabled) {
-            throw new PermissionDeniedException("The owner of vm to deploy is disabled: " + owner);
-        }
         VMTemplateVO template = _templateDao.findById(tmplt.getId());
         if (template != null) {
             _templateDao.loadDetails(template);
         }
 
-        long accountId = owner.getId();
+        ServiceOfferingVO offering = checkVirtualMachineParameters(zone, serviceOffering, template, owner, caller, diskOfferingId, diskSize, securityGroupIdList,
+                affinityGroupIdList, httpmethod, userData, isDisplayVm, customParameters, 1);
+        String sshPublicKey = getSshPublicKey(owner, sshKeyPair);
 
-        assert !(requestedIps != null && (defaultIps.getIp4Address() != null || defaultIps.getIp6Address() != null)) : "requestedIp list and defaultNetworkIp should never be specified together";
+        return allocateVirtualMachine(zone, template, hostName, displayName, owner, diskOfferingId, diskSize, networkList, securityGroupIdList, group, userData, hypervisor,
+                caller, requestedIps, defaultIps, isDisplayVm, keyboard, affinityGroupIdList, customParameters, customId, offering, sshPublicKey);
+    }
+
+    /**
+     * Checks that the owner can deploy count virtual machines from these offerings and template, within its resource limits
+     *
+     * @return the service offering, with the custom parameters applied if it is a dynamic one
+     */
+    protected ServiceOfferingVO checkVirtualMachineParameters(DataCenter zone, ServiceOffering serviceOffering, VMTemplateVO template, Account owner, Account caller,
+            Long diskOfferingId, Long diskSize, List<Long> securityGroupIdList, List<Long> affinityGroupIdList, HTTPMethod httpmethod, String userData, Boolean isDisplayVm,
+            Map<String, String> customParameters, int count) throws StorageUnavailableException, ResourceAllocationException {
+        if (owner.getState() == Account.State.disabled) {
+            throw new PermissionDeniedException("The owner of vm to deploy is disabled: " + owner);
+        }
 
         if (Grouping.AllocationState.Disabled == zone.getAllocationState() && !_accountMgr.isRootAdmin(caller.getId())) {
             throw new PermissionDeniedException("Cannot perform this operation, Zone is currently disabled: " + zone.getId());
@@ -2621,7 +2676,7 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
         // check if account/domain is with in resource limits to create a new vm
         boolean isIso = Storage.ImageFormat.ISO == template.getFormat();
         // For baremetal, size can be null
-        Long tmp = _templateDao.findById(template.getId()).getSize();
+        Long tmp = template.getSize();
         long size = 0;
         if (tmp != null) {
             size = tmp;
@@ -2638,13 +2693,16 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
                     throw new InvalidParameterValueException("VM Creation failed. Volume size: " + diskSize + "GB is out of allowed range. Max: " + customDiskOfferingMaxSize
                             + " Min:" + customDiskOfferingMinSize);
                 }
+                // the data disk is created with the requested size, in GB
+                size += diskSize * 1024 * 1024 * 1024;
+            } else {
+                size += _diskOfferingDao.findById(diskOfferingId).getDiskSize();
             }
-            size += _diskOfferingDao.findById(diskOfferingId).getDiskSize();
         }
-        resourceLimitCheck(owner, isDisplayVm, new Long(offering.getCpu()), new Long(offering.getRamSize()));
+        resourceLimitCheck(owner, isDisplayVm, count, offering.getCpu(), offering.getRamSize());
 
-        _resourceLimitMgr.checkResourceLimit(owner, ResourceType.volume, (isIso || diskOfferingId == null ? 1 : 2));
-        _resourceLimitMgr.checkResourceLimit(owner, ResourceType.primary_storage, size);
+        _resourceLimitMgr.checkResourceLimit(owner, ResourceType.volume, (long)count * (isIso || diskOfferingId == null ? 1 : 2));
+        _resourceLimitMgr.checkResourceLimit(owner, ResourceType.primary_storage, count * size);
 
         // verify security group ids
         if (securityGroupIdList != null) {
@@ -2724,6 +2782,10 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
         // check if the user data is correct
         validateUserData(userData, httpmethod);
 
+        return offering;
+    }
+
+    private String getSshPublicKey(Account owner, String sshKeyPair) {
         // Find an SSH public key corresponding to the key pair name, if one is
         // given
         String sshPublicKey = null;
@@ -2735,6 +2797,20 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
 
             sshPublicKey = pair.getPublicKey();
         }
+        return sshPublicKey;
+    }
+
+    /**
+     * Creates a virtual machine, its volumes and nics from parameters checked by checkVirtualMachineParameters
+     */
+    private UserVm allocateVirtualMachine(DataCenter zone, VMTemplateVO template, String hostName, String displayName, Account owner, Long diskOfferingId, Long diskSize,
+            List<NetworkVO> networkList, List<Long> securityGroupIdList, String group, String userData, HypervisorType hypervisor, Account caller,
+            Map<Long, IpAddresses> requestedIps, IpAddresses defaultIps, Boolean isDisplayVm, String keyboard, List<Long> affinityGroupIdList,
+            Map<String, String> customParameters, String customId, ServiceOfferingVO offering, String sshPublicKey) throws InsufficientCapacityException {
+        long accountId = owner.getId();
+        boolean isIso = Storage.ImageFormat.ISO == template.getFormat();
+
+        assert !(requestedIps != null && (defaultIps.getIp4Address() != null || defaultIps.getIp6Address() != null)) : "requestedIp list and defaultNetworkIp should never be specified together";
 
         List<Pair<NetworkVO, NicProfile>> networks = new ArrayList<Pair<NetworkVO, NicProfile>>();
 
@@ -3133,6 +3209,153 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
         return vm;
     }
 
+    @Override
+    @ActionEvent(eventType = EventTypes.EVENT_VM_CREATE, eventDescription = "deploying Vms", create = true)
+    public List<UserVm> createVirtualMachines(final DeployVMsCmd cmd, final Account owner, final DataCenter zone, ServiceOffering serviceOffering, VirtualMachineTemplate tmplt)
+            throws InsufficientCapacityException, ConcurrentOperationException, ResourceUnavailableException, StorageUnavailableException, ResourceAllocationException {
+        final int count = cmd.getCount();
+        if (count > VmBulkDeployMaxCount.value()) {
+            throw new InvalidParameterValueException("Unable to deploy more than " + VmBulkDeployMaxCount.value() + " virtual machines at once, see "
+                    + VmBulkDeployMaxCount.key());
+        }
+
+        final Account caller = CallContext.current().getCallingAccount();
+
+        // Verify that caller can perform actions in behalf of vm owner
+        _accountMgr.checkAccess(caller, null, true, owner);
+
+        // the networks, security groups and offerings are looked up and checked once for the whole batch
+        final HypervisorType hypervisor = cmd.getHypervisor();
+        final Pair<List<NetworkVO>, List<Long>> networks;
+        if (zone.getNetworkType() == NetworkType.Basic) {
+            networks = getBasicSecurityGroupNetworks(zone, tmplt, hypervisor, owner, cmd.getSecurityGroupIdList());
+        } else if (zone.isSecurityGroupEnabled()) {
+            networks = getAdvancedSecurityGroupNetworks(zone, tmplt, hypervisor, owner, caller, cmd.getNetworkIds(), cmd.getSecurityGroupIdList());
+        } else {
+            networks = new Pair<List<NetworkVO>, List<Long>>(getAdvancedNetworks(zone, tmplt, hypervisor, owner, cmd.getNetworkIds()), null);
+        }
+
+        final VMTemplateVO template = _templateDao.findById(tmplt.getId());
+        if (template != null) {
+            _templateDao.loadDetails(template);
+        }
+
+        // fails before anything is allocated if the whole batch does not fit in the owner's limits
+        final List<Long> affinityGroupIdList = cmd.getAffinityGroupIdList();
+        final Map<String, String> customParameters = cmd.getDetails();
+        final ServiceOfferingVO offering = checkVirtualMachineParameters(zone, serviceOffering, template, owner, caller, cmd.getDiskOfferingId(), cmd.getSize(),
+                networks.second(), affinityGroupIdList, cmd.getHttpMethod(), cmd.getUserData(), cmd.getDisplayVm(), customParameters, count);
+        final String sshPublicKey = getSshPublicKey(owner, cmd.getSSHKeyPairName());
+
+        return Transaction.execute(new TransactionCallbackWithException<List<UserVm>, InsufficientCapacityException>() {
+            @Override
+            public List<UserVm> doInTransaction(TransactionStatus status) throws InsufficientCapacityException {
+                IpAddresses addrs = new IpAddresses(null, null);
+                List<UserVm> vms = new ArrayList<UserVm>(count);
+                for (int i = 1; i <= count; i++) {
+                    String name = cmd.getName() == null ? null : cmd.getName() + "-" + i;
+                    String displayName = cmd.getDisplayName() == null ? null : cmd.getDisplayName() + "-" + i;
+                    vms.add(allocateVirtualMachine(zone, template, name, displayName, owner, cmd.getDiskOfferingId(), cmd.getSize(), networks.first(), networks.second(),
+                            cmd.getGroup(), cmd.getUserData(), hypervisor, caller, null, addrs, cmd.getDisplayVm(), cmd.getKeyboard(), affinityGroupIdList, customParameters,
+                            null, offering, sshPublicKey));
+                }
+                return vms;
+            }
+        });
+    }
+
+    @Override
+    @ActionEvent(eventType = EventTypes.EVENT_VM_CREATE, eventDescription = "starting Vms", async = true)
+    public List<UserVm> startVirtualMachines(DeployVMsCmd cmd) throws InsufficientCapacityException, ConcurrentOperationException, ResourceUnavailableException {
+        Account caller = CallContext.current().getCallingAccount();
+        Long hostId = cmd.getHostId();
+
+        List<UserVmVO> vms = new ArrayList<UserVmVO>();
+        for (Long vmId : cmd.getEntityIds()) {
+            UserVmVO vm = _vmDao.findById(vmId);
+            if (vm == null) {
+                throw new InvalidParameterValueException("unable to find a virtual machine with id " + vmId);
+            }
+            vms.add(vm);
+        }
+        if (vms.isEmpty()) {
+            return new ArrayList<UserVm>();
+        }
+        _accountMgr.checkAccess(caller, null, true, vms.toArray(new UserVmVO[vms.size()]));
+
+        // the virtual machines of a batch share their owner, zone and template
+        UserVmVO first = vms.get(0);
+        Account owner = _accountDao.findById(first.getAccountId());
+        if (owner == null) {
+            throw new InvalidParameterValueException("The owner of " + first + " does not exist: " + first.getAccountId());
+        }
+        if (owner.getState() == Account.State.disabled) {
+            throw new PermissionDeniedException("The owner of " + first + " is disabled: " + first.getAccountId());
+        }
+
+        DataCenterDeployment plan = null;
+        if (hostId != null) {
+            if (!_accountService.isRootAdmin(caller.getId())) {
+                throw new PermissionDeniedException("Parameter hostid can only be specified by a Root Admin, permission denied");
+            }
+            Host destinationHost = _hostDao.findById(hostId);
+            if (destinationHost == null) {
+                throw new InvalidParameterValueException("Unable to find the host to deploy the VM, host id=" + hostId);
+            }
+            plan = new DataCenterDeployment(first.getDataCenterId(), destinationHost.getPodId(), destinationHost.getClusterId(), destinationHost.getId(), null, null);
+        }
+
+        DeploymentPlanner planner = null;
+        if (cmd.getDeploymentPlanner() != null) {
+            planner = _planningMgr.getDeploymentPlannerByName(cmd.getDeploymentPlanner());
+            if (planner == null) {
+                throw new InvalidParameterValueException("Can't find a planner by name " + cmd.getDeploymentPlanner());
+            }
+        }
+
+        VMTemplateVO template = _templateDao.findByIdIncludingRemoved(first.getTemplateId());
+        List<String> vmUuids = new ArrayList<String>(vms.size());
+        Map<String, Map<VirtualMachineProfile.Param, Object>> params = new HashMap<String, Map<VirtualMachineProfile.Param, Object>>();
+        for (UserVmVO vm : vms) {
+            addDefaultSecurityGroupIfMissing(vm);
+            if (vm.isUpdateParameters()) {
+                params.put(vm.getUuid(), createStartParams(vm, template, null));
+            }
+            vmUuids.add(vm.getUuid());
+        }
+
+        Map<String, Throwable> failures = _itMgr.advanceStart(vmUuids, params, plan, planner);
+
+        List<UserVm> result = new ArrayList<UserVm>(vms.size());
+        Throwable failure = null;
+        for (UserVmVO vm : vms) {
+            Throwable vmFailure = failures.get(vm.getUuid());
+            if (vmFailure != null) {
+                s_logger.warn("Failed to start " + vm + " of a bulk deployment", vmFailure);
+                updateVmStateForFailedVmCreation(vm.getId(), hostId);
+                failure = vmFailure;
+            }
+
+            UserVmVO startedVm = _vmDao.findById(vm.getId());
+            if (vmFailure == null && vm.isUpdateParameters() && template.getEnablePassword()) {
+                // this value is not being sent to the backend; need only for api
+                // display purposes
+                startedVm.setPassword((String)params.get(vm.getUuid()).get(VirtualMachineProfile.Param.VmPassword));
+                startedVm.setUpdateParameters(false);
+                _vmDao.update(startedVm.getId(), startedVm);
+            }
+            result.add(startedVm);
+        }
+
+        if (failures.size() == vms.size()) {
+            ExceptionUtil.rethrowRuntime(failure);
+            ExceptionUtil.rethrow(failure, InsufficientCapacityException.class);
+            ExceptionUtil.rethrow(failure, ResourceUnavailableException.class);
+            throw new CloudRuntimeException("Failed to start any of the " + vms.size() + " virtual machines", failure);
+        }
+        return result;
+    }
+
     @Override
     public boolean finalizeVirtualMachineProfile(VirtualMachineProfile profile, DeployDestination dest, ReservationContext context) {
         UserVmVO vm = _vmDao.findById(profile.getId());
@@ -3404,21 +3627,7 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
             }
         }
 
-        // check if vm is security group enabled
-        if (_securityGroupMgr.isVmSecurityGroupEnabled(vmId) && _securityGroupMgr.getSecurityGroupsForVm(vmId).isEmpty()
-                && !_securityGroupMgr.isVmMappedToDefaultSecurityGroup(vmId) && _networkModel.canAddDefaultSecurityGroup()) {
-            // if vm is not mapped to security group, create a mapping
-            if (s_logger.isDebugEnabled()) {
-                s_logger.debug("Vm " + vm + " is security group enabled, but not mapped to default security group; creating the mapping automatically");
-            }
-
-            SecurityGroup defaultSecurityGroup = _securityGroupMgr.getDefaultSecurityGroup(vm.getAccountId());
-            if (defaultSecurityGroup != null) {
-                List<Long> groupList = new ArrayList<Long>();
-                groupList.add(defaultSecurityGroup.getId());
-                _securityGroupMgr.addInstanceToGroups(vmId, groupList);
-            }
-        }
+        addDefaultSecurityGroupIfMissing(vm);
 
         DataCenterDeployment plan = null;
         if (destinationHost != null) {
@@ -3430,28 +3639,8 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
         Map<VirtualMachineProfile.Param, Object> params = null;
         VMTemplateVO template = null;
         if (vm.isUpdateParameters()) {
-            _vmDao.loadDetails(vm);
-            // Check that the password was passed in and is valid
             template = _templateDao.findByIdIncludingRemoved(vm.getTemplateId());
-
-            String password = "saved_password";
-            if (template.getEnablePassword()) {
-                password = generateRandomPassword();
-            }
-
-            if (!validPassword(password)) {
-                throw new InvalidParameterValueException("A valid password for this virtual machine was not provided.");
-            }
-
-            // Check if an SSH key pair was selected for the instance and if so
-            // use it to encrypt & save the vm password
-            encryptAndStorePassword(vm, password);
-
-            params = new HashMap<VirtualMachineProfile.Param, Object>();
-            if (additionalParams != null) {
-                params.putAll(additionalParams);
-            }
-            params.put(VirtualMachineProfile.Param.VmPassword, password);
+            params = createStartParams(vm, template, additionalParams);
         }
 
         VirtualMachineEntity vmEntity = _orchSrvc.getVirtualMachine(vm.getUuid());
@@ -3484,6 +3673,49 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
         return vmParamPair;
     }
 
+    private void addDefaultSecurityGroupIfMissing(UserVmVO vm) {
+        long vmId = vm.getId();
+        // check if vm is security group enabled
+        if (_securityGroupMgr.isVmSecurityGroupEnabled(vmId) && _securityGroupMgr.getSecurityGroupsForVm(vmId).isEmpty()
+                && !_securityGroupMgr.isVmMappedToDefaultSecurityGroup(vmId) && _networkModel.canAddDefaultSecurityGroup()) {
+            // if vm is not mapped to security group, create a mapping
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Vm " + vm + " is security group enabled, but not mapped to default security group; creating the mapping automatically");
+            }
+
+            SecurityGroup defaultSecurityGroup = _securityGroupMgr.getDefaultSecurityGroup(vm.getAccountId());
+            if (defaultSecurityGroup != null) {
+                List<Long> groupList = new ArrayList<Long>();
+                groupList.add(defaultSecurityGroup.getId());
+                _securityGroupMgr.addInstanceToGroups(vmId, groupList);
+            }
+        }
+    }
+
+    private Map<VirtualMachineProfile.Param, Object> createStartParams(UserVmVO vm, VMTemplateVO template, Map<VirtualMachineProfile.Param, Object> additionalParams) {
+        _vmDao.loadDetails(vm);
+        // Check that the password was passed in and is valid
+        String password = "saved_password";
+        if (template.getEnablePassword()) {
+            password = generateRandomPassword();
+        }
+
+        if (!validPassword(password)) {
+            throw new InvalidParameterValueException("A valid password for this virtual machine was not provided.");
+        }
+
+        // Check if an SSH key pair was selected for the instance and if so
+        // use it to encrypt & save the vm password
+        encryptAndStorePassword(vm, password);
+
+        Map<VirtualMachineProfile.Param, Object> params = new HashMap<VirtualMachineProfile.Param, Object>();
+        if (additionalParams != null) {
+            params.putAll(additionalParams);
+        }
+        params.put(VirtualMachineProfile.Param.VmPassword, password);
+        return params;
+    }
+
     @Override
     public UserVm destroyVm(long vmId) throws ResourceUnavailableException, ConcurrentOperationException {
         // Account caller = CallContext.current().getCallingAccount();
@@ -4865,7 +5097,7 @@ public class UserVmManagerImpl extends ManagerBase implements UserVmManager, Vir
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {EnableDynamicallyScaleVm};
+        return new ConfigKey<?>[] {EnableDynamicallyScaleVm, VmBulkDeployMaxCount};
     }
 
     @Override
@@ -0,0 +1,72 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.alert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.cloud.alert.CapacityThresholdTracker.Crossing;
+import com.cloud.capacity.Capacity;
+
+public class CapacityThresholdTrackerTest {
+    private static final short CPU = Capacity.CAPACITY_TYPE_CPU;
+
+    @Test
+    public void testHysteresis() {
+        CapacityThresholdTracker tracker = new CapacityThresholdTracker(0.05);
+        assertEquals(Crossing.Over, tracker.evaluate(CPU, 1, 2L, 3L, 80, 100, 0.75));
+        assertEquals(Crossing.Over, tracker.evaluate(CPU, 1, 2L, 3L, 76, 100, 0.75));
+        assertEquals(Crossing.None, tracker.evaluate(CPU, 1, 2L, 3L, 72, 100, 0.75));
+        assertEquals(Crossing.Over, tracker.evaluate(CPU, 1, 2L, 3L, 76, 100, 0.75));
+        assertEquals(Crossing.Cleared, tracker.evaluate(CPU, 1, 2L, 3L, 60, 100, 0.75));
+        assertEquals(Crossing.None, tracker.evaluate(CPU, 1, 2L, 3L, 60, 100, 0.75));
+    }
+
+    @Test
+    public void testCapacitiesAreTrackedSeparately() {
+        CapacityThresholdTracker tracker = new CapacityThresholdTracker(0.05);
+        assertEquals(Crossing.Over, tracker.evaluate(CPU, 1, 2L, 3L, 80, 100, 0.75));
+        assertEquals(Crossing.Cleared, tracker.evaluate(CPU, 1, 2L, 4L, 10, 100, 0.75));
+        assertEquals(Crossing.Cleared, tracker.evaluate(Capacity.CAPACITY_TYPE_MEMORY, 1, 2L, 3L, 10, 100, 0.75));
+        assertEquals(Crossing.Cleared, tracker.evaluate(CPU, 1, 2L, 3L, 10, 100, 0.75));
+        assertEquals(Crossing.None, tracker.evaluate(CPU, 1, null, null, 0, 0, 0.75));
+    }
+
+    @Test
+    public void testDrain() {
+        CapacityThresholdTracker tracker = new CapacityThresholdTracker(0.05);
+        tracker.hostChanged(1L);
+        tracker.hostChanged(1L);
+        tracker.hostChanged(null);
+        tracker.poolChanged(2L);
+        tracker.zoneChanged(3L);
+
+        Set<Long> hosts = tracker.drainHosts();
+        assertEquals(1, hosts.size());
+        assertTrue(hosts.contains(1L));
+        assertTrue(tracker.drainHosts().isEmpty());
+
+        tracker.drainAll();
+        assertTrue(tracker.drainPools().isEmpty());
+        assertTrue(tracker.drainZones().isEmpty());
+        assertTrue(tracker.drainPods().isEmpty());
+    }
+}
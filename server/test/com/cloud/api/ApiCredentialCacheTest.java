@@ -0,0 +1,99 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.user.Account;
+import com.cloud.user.User;
+
+public class ApiCredentialCacheTest {
+
+    private User mockUser(String secretKey) {
+        User user = mock(User.class);
+        when(user.getSecretKey()).thenReturn(secretKey);
+        return user;
+    }
+
+    @Test
+    public void testGetAndPut() {
+        ApiCredentialCache cache = new ApiCredentialCache(60000);
+        User user = mockUser("secret");
+        Account account = mock(Account.class);
+        Assert.assertNull(cache.get("key"));
+        cache.put("key", user, account, cache.getGeneration());
+        ApiCredentialCache.Entry entry = cache.get("key");
+        Assert.assertNotNull(entry);
+        Assert.assertSame(user, entry.getUser());
+        Assert.assertSame(account, entry.getAccount());
+        Assert.assertNull(cache.get("other"));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+
+        cache.invalidateAll();
+        Assert.assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void testPutAfterInvalidationIsNotCached() {
+        ApiCredentialCache cache = new ApiCredentialCache(60000);
+        // the credentials are looked up, then changed and the cache invalidated before they are put
+        long generation = cache.getGeneration();
+        cache.invalidateAll();
+        ApiCredentialCache.Entry entry = cache.put("key", mockUser("secret"), mock(Account.class), generation);
+
+        // the caller can still use what it looked up, but the next request reads the new credentials
+        Assert.assertNotNull(entry);
+        Assert.assertNull(cache.get("key"));
+
+        cache.put("key", mockUser("secret"), mock(Account.class), cache.getGeneration());
+        Assert.assertNotNull(cache.get("key"));
+    }
+
+    @Test
+    public void testDisabledCache() throws InterruptedException {
+        ApiCredentialCache cache = new ApiCredentialCache(0);
+        Assert.assertNotNull(cache.put("key", mockUser("secret"), mock(Account.class), cache.getGeneration()));
+        Assert.assertNull(cache.get("key"));
+
+        cache.setTtl(1);
+        cache.put("key", mockUser("secret"), mock(Account.class), cache.getGeneration());
+        Thread.sleep(10);
+        Assert.assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void testSignMatchesFreshMac() throws Exception {
+        ApiCredentialCache cache = new ApiCredentialCache(60000);
+        ApiCredentialCache.Entry entry = cache.put("key", mockUser("secret"), mock(Account.class), cache.getGeneration());
+
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec("secret".getBytes(), "HmacSHA1"));
+        byte[] expected = mac.doFinal("apikey=key&command=listzones".getBytes());
+
+        // signing twice on the same thread reuses the Mac and must give the same result
+        Assert.assertArrayEquals(expected, entry.sign("apikey=key&command=listzones"));
+        Assert.assertArrayEquals(expected, entry.sign("apikey=key&command=listzones"));
+    }
+}
@@ -0,0 +1,188 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.HttpContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+/**
+ * Runs the integration API listener against a stub request handler, with a worker pool of one thread and a queue of one connection
+ */
+public class ApiServerListenerTest {
+
+    private ApiServer _handler;
+    private ServerSocket _serverSocket;
+    private ThreadPoolExecutor _executor;
+    private ApiServer.ListenerThread _listener;
+    // requests containing "block" wait for this latch
+    private final CountDownLatch _unblock = new CountDownLatch(1);
+    private final CountDownLatch _blocked = new CountDownLatch(1);
+
+    @Before
+    public void setup() throws Exception {
+        _handler = mock(ApiServer.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                final HttpRequest request = (HttpRequest)invocation.getArguments()[0];
+                final HttpResponse response = (HttpResponse)invocation.getArguments()[1];
+                if (request.getRequestLine().getUri().contains("block")) {
+                    _blocked.countDown();
+                    _unblock.await(10, TimeUnit.SECONDS);
+                }
+                response.setStatusCode(HttpStatus.SC_OK);
+                response.setEntity(new StringEntity("ok"));
+                return null;
+            }
+        }).when(_handler).handle(any(HttpRequest.class), any(HttpResponse.class), any(HttpContext.class));
+
+        _serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        _executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1), new NamedThreadFactory("ApiServer"));
+        _listener = new ApiServer.ListenerThread(_handler, _serverSocket, _executor);
+        _listener.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _unblock.countDown();
+        _serverSocket.close();
+        _listener.join(5000);
+        _executor.shutdownNow();
+    }
+
+    private Socket connect() throws IOException {
+        final Socket socket = new Socket(_serverSocket.getInetAddress(), _serverSocket.getLocalPort());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    private void sendRequest(final Socket socket, final String path) throws IOException {
+        final OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return b == -1 && line.size() == 0 ? null : line.toString("US-ASCII");
+    }
+
+    /**
+     * @return the status line of the response, after reading its body
+     */
+    private static String readResponse(final InputStream in) throws IOException {
+        final String statusLine = readLine(in);
+        int contentLength = 0;
+        String header;
+        while ((header = readLine(in)) != null && !header.isEmpty()) {
+            if (header.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+            }
+        }
+        for (int i = 0; i < contentLength; i++) {
+            Assert.assertTrue(in.read() != -1);
+        }
+        return statusLine;
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        final Socket socket = connect();
+        try {
+            final InputStream in = socket.getInputStream();
+            sendRequest(socket, "/client/api?command=listZones");
+            Assert.assertEquals("HTTP/1.1 200 OK", readResponse(in));
+            sendRequest(socket, "/client/api?command=listHosts");
+            Assert.assertEquals("HTTP/1.1 200 OK", readResponse(in));
+        } finally {
+            socket.close();
+        }
+
+        verify(_handler, times(2)).handle(any(HttpRequest.class), any(HttpResponse.class), any(HttpContext.class));
+        // both requests were served by the worker that took the connection
+        Assert.assertEquals(1, _executor.getTaskCount());
+    }
+
+    @Test
+    public void testSaturatedPoolRejectsConnection() throws Exception {
+        // the only worker is busy with the first connection, the second one waits in the queue
+        final Socket busy = connect();
+        sendRequest(busy, "/client/api?command=block");
+        Assert.assertTrue(_blocked.await(10, TimeUnit.SECONDS));
+        final Socket queued = connect();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (_executor.getQueue().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, _executor.getQueue().size());
+
+        // no room for a third one, it is answered right away and closed
+        final Socket rejected = connect();
+        try {
+            final InputStream in = rejected.getInputStream();
+            Assert.assertEquals("HTTP/1.1 503 Service Unavailable", readResponse(in));
+            Assert.assertEquals(-1, in.read());
+        } finally {
+            rejected.close();
+        }
+
+        // the rejected connection took no worker, the other two are still served
+        _unblock.countDown();
+        Assert.assertEquals("HTTP/1.1 200 OK", readResponse(busy.getInputStream()));
+        busy.close();
+        sendRequest(queued, "/client/api?command=listZones");
+        Assert.assertEquals("HTTP/1.1 200 OK", readResponse(queued.getInputStream()));
+        queued.close();
+        verify(_handler, timeout(5000).times(2)).handle(any(HttpRequest.class), any(HttpResponse.class), any(HttpContext.class));
+    }
+}
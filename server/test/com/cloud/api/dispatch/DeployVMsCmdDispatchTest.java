@@ -0,0 +1,170 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.dispatch;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.ResponseGenerator;
+import org.apache.cloudstack.api.ResponseObject.ResponseView;
+import org.apache.cloudstack.api.command.user.vm.DeployVMsCmd;
+import org.apache.cloudstack.api.response.UserVmResponse;
+import org.apache.cloudstack.context.CallContext;
+
+import com.cloud.api.ApiGsonHelper;
+import com.cloud.dc.DataCenter;
+import com.cloud.offering.ServiceOffering;
+import com.cloud.template.VirtualMachineTemplate;
+import com.cloud.user.Account;
+import com.cloud.user.AccountManager;
+import com.cloud.user.AccountService;
+import com.cloud.user.User;
+import com.cloud.uservm.UserVm;
+import com.cloud.utils.db.EntityManager;
+import com.cloud.vm.UserVmService;
+
+/**
+ * deployVirtualMachines allocates its virtual machines in create() and starts them in execute(), which the async job runs
+ * on a new command built from the request parameters; the ids of the allocated virtual machines have to survive that.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DeployVMsCmdDispatchTest {
+
+    private static final String ZONE_UUID = "a7d1b0a2-36a1-4b5a-8a57-1c8a0a8b2f01";
+    private static final String OFFERING_UUID = "b4e9e4c6-4f0c-4f5e-9d0b-2a1c6c7d8e02";
+    private static final String TEMPLATE_UUID = "c2f6a3d8-5b7e-4c1d-8e9f-3b2d7e8f9a03";
+
+    @Mock
+    protected AccountManager accountManager;
+
+    @Mock
+    protected AccountService accountService;
+
+    @Mock
+    protected EntityManager entityManager;
+
+    @Mock
+    protected UserVmService userVmService;
+
+    @Mock
+    protected ResponseGenerator responseGenerator;
+
+    @Mock
+    protected DataCenter zone;
+
+    @Mock
+    protected ServiceOffering serviceOffering;
+
+    @Mock
+    protected VirtualMachineTemplate template;
+
+    protected ParamProcessWorker paramProcessWorker;
+
+    @Before
+    public void setup() {
+        CallContext.register(Mockito.mock(User.class), Mockito.mock(Account.class));
+        paramProcessWorker = new ParamProcessWorker();
+        paramProcessWorker._accountMgr = accountManager;
+        paramProcessWorker._entityMgr = entityManager;
+
+        Mockito.when(zone.getId()).thenReturn(1L);
+        Mockito.when(serviceOffering.getId()).thenReturn(2L);
+        Mockito.when(template.getId()).thenReturn(3L);
+        Mockito.when(entityManager.findByUuidIncludingRemoved(DataCenter.class, ZONE_UUID)).thenReturn(zone);
+        Mockito.when(entityManager.findByUuidIncludingRemoved(ServiceOffering.class, OFFERING_UUID)).thenReturn(serviceOffering);
+        Mockito.when(entityManager.findByUuidIncludingRemoved(VirtualMachineTemplate.class, TEMPLATE_UUID)).thenReturn(template);
+        Mockito.when(entityManager.findById(DataCenter.class, 1L)).thenReturn(zone);
+        Mockito.when(entityManager.findById(ServiceOffering.class, 2L)).thenReturn(serviceOffering);
+        Mockito.when(entityManager.findById(VirtualMachineTemplate.class, 3L)).thenReturn(template);
+    }
+
+    @After
+    public void cleanup() {
+        CallContext.unregister();
+    }
+
+    protected DeployVMsCmd newCmd(final Map<String, String> params) {
+        final DeployVMsCmd cmd = new DeployVMsCmd();
+        cmd._accountService = accountService;
+        cmd._entityMgr = entityManager;
+        cmd._userVmService = userVmService;
+        cmd._responseGenerator = responseGenerator;
+        cmd.setFullUrlParams(params);
+        paramProcessWorker.processParameters(cmd, params);
+        return cmd;
+    }
+
+    protected UserVm mockVm(final long id) {
+        final UserVm vm = Mockito.mock(UserVm.class);
+        Mockito.when(vm.getId()).thenReturn(id);
+        Mockito.when(vm.getUuid()).thenReturn("vm-" + id);
+        return vm;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void createAndExecuteOnSeparateCommands() throws Exception {
+        final Map<String, String> params = new HashMap<String, String>();
+        params.put(ApiConstants.ZONE_ID, ZONE_UUID);
+        params.put(ApiConstants.SERVICE_OFFERING_ID, OFFERING_UUID);
+        params.put(ApiConstants.TEMPLATE_ID, TEMPLATE_UUID);
+        params.put(ApiConstants.COUNT, "3");
+
+        final List<UserVm> vms = Arrays.asList(mockVm(5L), mockVm(6L), mockVm(7L));
+        Mockito.when(userVmService.createVirtualMachines(Mockito.any(DeployVMsCmd.class), Mockito.any(Account.class), Mockito.eq(zone), Mockito.eq(serviceOffering),
+                Mockito.eq(template))).thenReturn(vms);
+        Mockito.when(userVmService.startVirtualMachines(Mockito.any(DeployVMsCmd.class))).thenReturn(vms);
+        Mockito.when(responseGenerator.createUserVmResponse(Mockito.any(ResponseView.class), Mockito.anyString(), Mockito.<UserVm>anyVararg())).thenReturn(
+                new ArrayList<UserVmResponse>());
+
+        final DeployVMsCmd createCmd = newCmd(params);
+        createCmd.create();
+        Assert.assertEquals(Long.valueOf(5L), createCmd.getEntityId());
+
+        // the async job gets the request parameters serialized, and dispatches them to a new command
+        final Gson gson = ApiGsonHelper.getBuilder().create();
+        final Type mapType = new TypeToken<Map<String, String>>() {
+        }.getType();
+        final Map<String, String> jobParams = gson.fromJson(gson.toJson(params), mapType);
+
+        final DeployVMsCmd executeCmd = newCmd(jobParams);
+        executeCmd.execute();
+
+        final ArgumentCaptor<DeployVMsCmd> started = ArgumentCaptor.forClass(DeployVMsCmd.class);
+        Mockito.verify(userVmService).startVirtualMachines(started.capture());
+        Assert.assertSame(executeCmd, started.getValue());
+        Assert.assertEquals(Arrays.asList(5L, 6L, 7L), started.getValue().getEntityIds());
+    }
+}
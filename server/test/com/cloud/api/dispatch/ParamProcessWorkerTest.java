@@ -29,9 +29,12 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import org.apache.cloudstack.acl.SecurityChecker.AccessType;
+import org.apache.cloudstack.api.ACL;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.ServerApiException;
+import org.apache.cloudstack.api.response.UserVmResponse;
 import org.apache.cloudstack.context.CallContext;
 
 import com.cloud.exception.ConcurrentOperationException;
@@ -42,6 +45,8 @@ import com.cloud.exception.ResourceUnavailableException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.user.User;
+import com.cloud.utils.db.EntityManager;
+import com.cloud.vm.VirtualMachine;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ParamProcessWorkerTest {
@@ -49,6 +54,9 @@ public class ParamProcessWorkerTest {
     @Mock
     protected AccountManager accountManager;
 
+    @Mock
+    protected EntityManager entityManager;
+
     protected ParamProcessWorker paramProcessWorker;
 
     public static class TestCmd extends BaseCmd {
@@ -62,6 +70,10 @@ public class ParamProcessWorkerTest {
         @Parameter(name = "boolparam1", type = CommandType.BOOLEAN)
         boolean boolparam1;
 
+        @ACL(accessType = AccessType.OperateEntry)
+        @Parameter(name = "vmid", type = CommandType.UUID, entityType = UserVmResponse.class, since = "4.5.0")
+        Long vmId;
+
         @Override
         public void execute() throws ResourceUnavailableException, InsufficientCapacityException, ServerApiException, ConcurrentOperationException, ResourceAllocationException,
                 NetworkRuleConflictException {
@@ -85,6 +97,7 @@ public class ParamProcessWorkerTest {
         CallContext.register(Mockito.mock(User.class), Mockito.mock(Account.class));
         paramProcessWorker = new ParamProcessWorker();
         paramProcessWorker._accountMgr = accountManager;
+        paramProcessWorker._entityMgr = entityManager;
     }
 
     @After
@@ -104,4 +117,21 @@ public class ParamProcessWorkerTest {
         Assert.assertEquals(100, cmd.intparam1);
     }
 
+    @Test
+    public void processEntityParameterLoadsTheEntityOnce() {
+        final String uuid = "0b0aa3a0-7c3a-4d7e-9b2b-4d6a4d3b0f11";
+        final VirtualMachine vm = Mockito.mock(VirtualMachine.class);
+        Mockito.when(vm.getId()).thenReturn(10L);
+        Mockito.when(entityManager.findByUuidIncludingRemoved(VirtualMachine.class, uuid)).thenReturn(vm);
+
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("vmid", uuid);
+        final TestCmd cmd = new TestCmd();
+        paramProcessWorker.processParameters(cmd, params);
+
+        Assert.assertEquals(Long.valueOf(10L), cmd.vmId);
+        Mockito.verify(entityManager, Mockito.never()).findById(Mockito.any(Class.class), Mockito.anyLong());
+        Mockito.verify(accountManager).checkAccess(Mockito.any(Account.class), Mockito.eq(AccessType.OperateEntry), Mockito.eq(true), Mockito.eq(vm));
+    }
+
 }
@@ -0,0 +1,52 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ListCountCacheTest {
+
+    @Test
+    public void testGetAndPut() {
+        ListCountCache cache = new ListCountCache(60000);
+        Assert.assertNull(cache.get("1:ListVMsCmd"));
+        cache.put("1:ListVMsCmd", 42);
+        Assert.assertEquals(Integer.valueOf(42), cache.get("1:ListVMsCmd"));
+        Assert.assertNull(cache.get("2:ListVMsCmd"));
+        Assert.assertNull(cache.get(null));
+    }
+
+    @Test
+    public void testExpiredEntry() throws InterruptedException {
+        ListCountCache cache = new ListCountCache(1);
+        cache.put("1:ListVMsCmd", 42);
+        Thread.sleep(10);
+        Assert.assertNull(cache.get("1:ListVMsCmd"));
+    }
+
+    @Test
+    public void testDisabled() {
+        ListCountCache cache = new ListCountCache(60000);
+        cache.put("1:ListVMsCmd", 42);
+        cache.setTtl(0);
+        Assert.assertFalse(cache.isEnabled());
+        Assert.assertNull(cache.get("1:ListVMsCmd"));
+        cache.put("1:ListVMsCmd", 42);
+        Assert.assertNull(cache.get("1:ListVMsCmd"));
+    }
+}
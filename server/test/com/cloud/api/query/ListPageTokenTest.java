@@ -0,0 +1,42 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.exception.InvalidParameterValueException;
+
+public class ListPageTokenTest {
+
+    @Test
+    public void testRoundTrip() {
+        String token = ListPageToken.encode(123456789L);
+        Assert.assertEquals(Long.valueOf(123456789L), ListPageToken.decode(token));
+    }
+
+    @Test
+    public void testEmptyTokenStartsAtTheFirstPage() {
+        Assert.assertNull(ListPageToken.decode(""));
+        Assert.assertNull(ListPageToken.decode(null));
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testInvalidToken() {
+        ListPageToken.decode("bm90IGEgdG9rZW4");
+    }
+}
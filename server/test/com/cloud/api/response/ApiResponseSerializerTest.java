@@ -0,0 +1,74 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.util.UUID;
+
+import org.apache.cloudstack.api.response.ExceptionResponse;
+import org.apache.cloudstack.context.CallContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.user.Account;
+import com.cloud.user.AccountVO;
+import com.cloud.user.UserVO;
+
+public class ApiResponseSerializerTest {
+
+    @Before
+    public void setUp() {
+        Account account = new AccountVO("testaccount", 1, "networkdomain", (short)0, UUID.randomUUID().toString());
+        UserVO user = new UserVO(1, "testuser", "password", "firstname", "lastName", "email", "timezone", UUID.randomUUID().toString());
+        CallContext.register(user, account);
+    }
+
+    @After
+    public void tearDown() {
+        CallContext.unregister();
+    }
+
+    @Test
+    public void testUnescape() {
+        Assert.assertEquals("a<b>c='d'", ApiResponseSerializer.unescape("a\\u003cb\\u003ec\\u003d\\u0027d\\u0027"));
+        Assert.assertEquals("no escapes", ApiResponseSerializer.unescape("no escapes"));
+        Assert.assertEquals("$1\\", ApiResponseSerializer.unescape("\\u00241\\u005c"));
+    }
+
+    @Test
+    public void testUnescapeManyEscapes() {
+        StringBuilder escaped = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            escaped.append("\\u00e9x");
+            expected.append("éx");
+        }
+        Assert.assertEquals(expected.toString(), ApiResponseSerializer.unescape(escaped.toString()));
+    }
+
+    @Test
+    public void testErrorTextIsNotHtmlEscaped() {
+        ExceptionResponse response = new ExceptionResponse();
+        response.setErrorCode(431);
+        response.setErrorText("value <b>&'x'=é");
+        response.setResponseName("errorresponse");
+
+        String json = ApiResponseSerializer.toSerializedString(response, "json");
+        Assert.assertTrue(json, json.contains("value <b>&'x'=é"));
+    }
+}
@@ -21,16 +21,27 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
+
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.dc.ClusterDetailsDao;
 import com.cloud.dc.ClusterDetailsVO;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
+import com.cloud.storage.VMTemplateStoragePoolVO;
+import com.cloud.storage.Volume;
+import com.cloud.storage.dao.VMTemplatePoolDao;
+import com.cloud.storage.dao.VolumeDao;
+import com.cloud.utils.Pair;
 import com.cloud.vm.VirtualMachine;
 
 public class CapacityManagerTest {
@@ -76,4 +87,31 @@ public class CapacityManagerTest {
         Assert.assertTrue(hasCapacity);
 
     }
+
+    @Test
+    public void allocatedPoolCapacityIsCachedUntilAVolumeOnThePoolChanges() {
+        capMgr = setUp();
+        VolumeDao volumeDao = mock(VolumeDao.class);
+        VMTemplatePoolDao templatePoolDao = mock(VMTemplatePoolDao.class);
+        capMgr._volumeDao = volumeDao;
+        capMgr._templatePoolDao = templatePoolDao;
+
+        StoragePoolVO pool = mock(StoragePoolVO.class);
+        when(pool.getId()).thenReturn(5L);
+        when(volumeDao.getNonDestroyedCountAndTotalByPool(5L)).thenReturn(new Pair<Long, Long>(2L, 1000L));
+        when(volumeDao.getVMSnapshotSizeByPool(5L)).thenReturn(24L);
+        when(templatePoolDao.listByPoolId(5L)).thenReturn(new ArrayList<VMTemplateStoragePoolVO>());
+
+        Assert.assertEquals(1024L, capMgr.getAllocatedPoolCapacity(pool, null));
+        Assert.assertEquals(1024L, capMgr.getAllocatedPoolCapacity(pool, null));
+        verify(volumeDao, times(1)).getNonDestroyedCountAndTotalByPool(5L);
+
+        Volume volume = mock(Volume.class);
+        when(volume.getPoolId()).thenReturn(5L);
+        when(volumeDao.getNonDestroyedCountAndTotalByPool(5L)).thenReturn(new Pair<Long, Long>(3L, 3000L));
+        capMgr.new PoolAllocationInvalidator().postStateTransitionEvent(Volume.State.Creating, Volume.Event.OperationSucceeded, Volume.State.Ready, volume, true, null);
+
+        Assert.assertEquals(3024L, capMgr.getAllocatedPoolCapacity(pool, null));
+        verify(volumeDao, times(2)).getNonDestroyedCountAndTotalByPool(5L);
+    }
 }
@@ -0,0 +1,122 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.ha.HighAvailabilityManager.WorkType;
+import com.cloud.vm.VirtualMachine;
+
+public class HaWorkQueueTest {
+
+    private HaWorkVO mockWork(long id, WorkType workType, VirtualMachine.Type vmType, long timeToTry) {
+        HaWorkVO work = Mockito.mock(HaWorkVO.class);
+        Mockito.when(work.getId()).thenReturn(id);
+        Mockito.when(work.getWorkType()).thenReturn(workType);
+        Mockito.when(work.getType()).thenReturn(vmType);
+        Mockito.when(work.getTimeToTry()).thenReturn(timeToTry);
+        return work;
+    }
+
+    @Test
+    public void testPriorityOrder() {
+        HaWorkQueue queue = new HaWorkQueue();
+        long now = System.currentTimeMillis() >> 10;
+        queue.offer(mockWork(1, WorkType.Migration, VirtualMachine.Type.User, now - 10));
+        queue.offer(mockWork(2, WorkType.HA, VirtualMachine.Type.User, now - 5));
+        queue.offer(mockWork(3, WorkType.HA, VirtualMachine.Type.DomainRouter, now));
+        queue.offer(mockWork(4, WorkType.HA, VirtualMachine.Type.User, now - 8));
+        queue.offer(mockWork(5, WorkType.Stop, VirtualMachine.Type.User, now));
+
+        assertEquals(3, queue.poll().getWorkId());
+        assertEquals(4, queue.poll().getWorkId());
+        assertEquals(2, queue.poll().getWorkId());
+        assertEquals(5, queue.poll().getWorkId());
+        assertEquals(1, queue.poll().getWorkId());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testFutureWorkIsNotHandedOut() {
+        HaWorkQueue queue = new HaWorkQueue();
+        long now = System.currentTimeMillis() >> 10;
+        queue.offer(mockWork(1, WorkType.HA, VirtualMachine.Type.User, now + 600));
+        queue.offer(mockWork(2, WorkType.Destroy, VirtualMachine.Type.User, now));
+
+        assertEquals(2, queue.poll().getWorkId());
+        assertNull(queue.poll());
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testDuplicateOffer() {
+        HaWorkQueue queue = new HaWorkQueue();
+        HaWorkVO work = mockWork(1, WorkType.HA, VirtualMachine.Type.User, 0);
+        assertTrue(queue.offer(work));
+        assertFalse(queue.offer(work));
+        assertEquals(1, queue.poll().getWorkId());
+        assertTrue(queue.offer(work));
+    }
+
+    @Test(timeout = 5000)
+    public void testAwaitReturnsWhenWorkIsOffered() throws Exception {
+        final HaWorkQueue queue = new HaWorkQueue();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.offer(mockWork(1, WorkType.HA, VirtualMachine.Type.User, 0));
+            }
+        };
+        producer.start();
+
+        long start = System.currentTimeMillis();
+        queue.await(60000);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, queue.poll().getWorkId());
+    }
+
+    @Test(timeout = 5000)
+    public void testAwaitReturnsOnWakeup() throws Exception {
+        final HaWorkQueue queue = new HaWorkQueue();
+        Thread waker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.wakeup();
+            }
+        };
+        waker.start();
+
+        queue.await(60000);
+        assertNull(queue.poll());
+    }
+}
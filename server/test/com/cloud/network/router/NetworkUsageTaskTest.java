@@ -0,0 +1,162 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network.router;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.agent.api.NetworkUsageAnswer;
+import com.cloud.network.Network;
+import com.cloud.network.router.VirtualNetworkApplianceManagerImpl.NetworkUsageReading;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.vm.DomainRouterVO;
+
+public class NetworkUsageTaskTest {
+
+    VirtualNetworkApplianceManagerImpl _routerMgr;
+
+    @Before
+    public void setup() {
+        _routerMgr = spy(new VirtualNetworkApplianceManagerImpl());
+        _routerMgr._networkStatsCollector = Executors.newFixedThreadPool(2, new NamedThreadFactory("RouterStatsCollector"));
+    }
+
+    @After
+    public void tearDown() {
+        _routerMgr._networkStatsCollector.shutdownNow();
+    }
+
+    private DomainRouterVO mockRouter(final long id) {
+        final DomainRouterVO router = mock(DomainRouterVO.class);
+        when(router.getId()).thenReturn(id);
+        when(router.getAccountId()).thenReturn(2L);
+        return router;
+    }
+
+    private NetworkUsageReading mockReading(final DomainRouterVO router) {
+        return new NetworkUsageReading(router, mock(Network.class), null, null, mock(NetworkUsageAnswer.class));
+    }
+
+    @Test
+    public void testShardTimeout() throws Exception {
+        final DomainRouterVO fastRouter = mockRouter(1L);
+        final DomainRouterVO slowRouter = mockRouter(2L);
+        final List<List<NetworkUsageReading>> written = Collections.synchronizedList(new ArrayList<List<NetworkUsageReading>>());
+        doAnswer(new Answer<Boolean>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                final DomainRouterVO router = (DomainRouterVO)invocation.getArguments()[0];
+                if (router == slowRouter) {
+                    Thread.sleep(10000);
+                }
+                ((List<NetworkUsageReading>)invocation.getArguments()[1]).add(mockReading(router));
+                return true;
+            }
+        }).when(_routerMgr).collectNetworkUsage(any(DomainRouterVO.class), anyListOf(NetworkUsageReading.class));
+        doAnswer(new Answer<Integer>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Integer answer(final InvocationOnMock invocation) throws Throwable {
+                final List<NetworkUsageReading> readings = (List<NetworkUsageReading>)invocation.getArguments()[0];
+                written.add(readings);
+                return readings.size();
+            }
+        }).when(_routerMgr).updateUserStatistics(anyListOf(NetworkUsageReading.class));
+
+        final AtomicInteger updated = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final long start = System.currentTimeMillis();
+        final int abandoned = _routerMgr.collectNetworkUsage(Arrays.asList(Arrays.asList(slowRouter), Arrays.asList(fastRouter)), start + 500, updated, failures);
+
+        Assert.assertEquals(1, abandoned);
+        Assert.assertTrue("the sweep must not wait for the slow host", System.currentTimeMillis() - start < 5000);
+        // the readings of the host that answered are written even though the other one timed out
+        Assert.assertEquals(1, updated.get());
+        Assert.assertEquals(1, written.size());
+        Assert.assertSame(fastRouter, written.get(0).get(0).router);
+        Assert.assertEquals(0, failures.get());
+    }
+
+    @Test
+    public void testShardCountsFailedRouters() throws Exception {
+        final DomainRouterVO router1 = mockRouter(1L);
+        final DomainRouterVO router2 = mockRouter(2L);
+        doReturn(false).when(_routerMgr).collectNetworkUsage(any(DomainRouterVO.class), anyListOf(NetworkUsageReading.class));
+        doReturn(0).when(_routerMgr).updateUserStatistics(anyListOf(NetworkUsageReading.class));
+
+        final AtomicInteger updated = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final int abandoned = _routerMgr.collectNetworkUsage(Arrays.asList(Arrays.asList(router1, router2)), System.currentTimeMillis() + 5000, updated, failures);
+
+        Assert.assertEquals(0, abandoned);
+        Assert.assertEquals(2, failures.get());
+    }
+
+    @Test
+    public void testBatchFallbackUpdatesRowByRow() throws Exception {
+        final NetworkUsageReading reading1 = mockReading(mockRouter(1L));
+        final NetworkUsageReading reading2 = mockReading(mockRouter(2L));
+        final NetworkUsageReading reading3 = mockReading(mockRouter(3L));
+        doReturn(true).when(_routerMgr).updateUserStatistics(reading1);
+        doThrow(new CloudRuntimeException("bad row")).when(_routerMgr).updateUserStatistics(reading2);
+        doReturn(true).when(_routerMgr).updateUserStatistics(reading3);
+
+        final int updated = _routerMgr.updateUserStatistics(Arrays.asList(reading1, reading2, reading3));
+
+        // the batch failed on the second row, the rows are then retried one at a time
+        Assert.assertEquals(2, updated);
+        verify(_routerMgr, times(2)).updateUserStatistics(reading1);
+        verify(_routerMgr, times(2)).updateUserStatistics(reading2);
+        verify(_routerMgr, times(1)).updateUserStatistics(reading3);
+    }
+
+    @Test
+    public void testBatchUpdate() throws Exception {
+        final NetworkUsageReading reading1 = mockReading(mockRouter(1L));
+        final NetworkUsageReading reading2 = mockReading(mockRouter(2L));
+        doReturn(true).when(_routerMgr).updateUserStatistics(reading1);
+        doReturn(false).when(_routerMgr).updateUserStatistics(reading2);
+
+        Assert.assertEquals(1, _routerMgr.updateUserStatistics(Arrays.asList(reading1, reading2)));
+        verify(_routerMgr, times(1)).updateUserStatistics(reading1);
+        verify(_routerMgr, times(1)).updateUserStatistics(reading2);
+    }
+}
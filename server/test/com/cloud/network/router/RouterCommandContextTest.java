@@ -0,0 +1,240 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network.router;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.routing.DhcpEntryCommand;
+import com.cloud.agent.api.routing.NetworkElementCommand;
+import com.cloud.agent.api.routing.VmDataCommand;
+import com.cloud.agent.manager.Commands;
+import com.cloud.dc.DataCenter.NetworkType;
+import com.cloud.dc.DataCenterVO;
+import com.cloud.dc.dao.DataCenterDao;
+import com.cloud.network.Network;
+import com.cloud.network.Network.Provider;
+import com.cloud.network.Network.Service;
+import com.cloud.network.NetworkModel;
+import com.cloud.network.Networks.TrafficType;
+import com.cloud.network.dao.NetworkDao;
+import com.cloud.network.dao.NetworkVO;
+import com.cloud.offerings.NetworkOfferingVO;
+import com.cloud.offerings.dao.NetworkOfferingDao;
+import com.cloud.service.ServiceOfferingVO;
+import com.cloud.service.dao.ServiceOfferingDao;
+import com.cloud.vm.DomainRouterVO;
+import com.cloud.vm.NicVO;
+import com.cloud.vm.UserVmVO;
+import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.VirtualMachine.State;
+import com.cloud.vm.dao.NicDao;
+import com.cloud.vm.dao.UserVmDao;
+
+/**
+ * Reprograms the dhcp entries and vm data of three VMs in an advanced zone guest network on router 10
+ */
+public class RouterCommandContextTest {
+
+    private static final long ROUTER_ID = 10L;
+    private static final long GUEST_NETWORK_ID = 200L;
+    private static final long CONTROL_NETWORK_ID = 300L;
+
+    VirtualNetworkApplianceManagerImpl _routerMgr;
+    DomainRouterVO _router;
+
+    @Before
+    public void setup() {
+        _routerMgr = new VirtualNetworkApplianceManagerImpl();
+        _routerMgr._dcDao = mock(DataCenterDao.class);
+        _routerMgr._nicDao = mock(NicDao.class);
+        _routerMgr._userVmDao = mock(UserVmDao.class);
+        _routerMgr._networkModel = mock(NetworkModel.class);
+        _routerMgr._networkDao = mock(NetworkDao.class);
+        _routerMgr._networkOfferingDao = mock(NetworkOfferingDao.class);
+        _routerMgr._serviceOfferingDao = mock(ServiceOfferingDao.class);
+        _routerMgr._configDao = mock(ConfigurationDao.class);
+
+        _router = mock(DomainRouterVO.class);
+        when(_router.getId()).thenReturn(ROUTER_ID);
+        when(_router.getDataCenterId()).thenReturn(1L);
+        when(_router.getInstanceName()).thenReturn("r-10-VM");
+        when(_router.getPublicIpAddress()).thenReturn("203.0.113.5");
+
+        final DataCenterVO dc = mock(DataCenterVO.class);
+        when(dc.getNetworkType()).thenReturn(NetworkType.Advanced);
+        when(dc.getName()).thenReturn("zone1");
+        when(_routerMgr._dcDao.findById(1L)).thenReturn(dc);
+
+        // the router's control nic, looked up for its control ip
+        final NicVO controlNic = mockNic(ROUTER_ID, CONTROL_NETWORK_ID, "169.254.0.10", null);
+        when(_routerMgr._nicDao.listByVmId(ROUTER_ID)).thenReturn(Arrays.asList(controlNic));
+        final NetworkVO controlNetwork = mock(NetworkVO.class);
+        when(controlNetwork.getTrafficType()).thenReturn(TrafficType.Control);
+        when(_routerMgr._networkDao.findById(CONTROL_NETWORK_ID)).thenReturn(controlNetwork);
+        when(_routerMgr._nicDao.getIpAddress(GUEST_NETWORK_ID, ROUTER_ID)).thenReturn("10.1.1.1");
+
+        // the router serves DNS in the guest network from its guest nic
+        final NetworkVO guestNetwork = mock(NetworkVO.class);
+        when(guestNetwork.getNetworkOfferingId()).thenReturn(30L);
+        when(guestNetwork.getDataCenterId()).thenReturn(1L);
+        when(_routerMgr._networkDao.findById(GUEST_NETWORK_ID)).thenReturn(guestNetwork);
+        when(_routerMgr._networkModel.getNetwork(GUEST_NETWORK_ID)).thenReturn((Network)guestNetwork);
+        when(_routerMgr._networkModel.isProviderSupportServiceInNetwork(GUEST_NETWORK_ID, Service.Dns, Provider.VirtualRouter)).thenReturn(true);
+        when(_routerMgr._networkOfferingDao.findById(30L)).thenReturn(mock(NetworkOfferingVO.class));
+        final NicVO routerGuestNic = mockNic(ROUTER_ID, GUEST_NETWORK_ID, "10.1.1.1", null);
+        when(_routerMgr._nicDao.findByNetworkIdAndType(GUEST_NETWORK_ID, VirtualMachine.Type.DomainRouter)).thenReturn(routerGuestNic);
+
+        final ServiceOfferingVO serviceOffering = mock(ServiceOfferingVO.class);
+        when(serviceOffering.getDisplayText()).thenReturn("Small Instance");
+        when(_routerMgr._serviceOfferingDao.findByIdIncludingRemoved(anyLong(), eq(40L))).thenReturn(serviceOffering);
+        when(_routerMgr._configDao.getValue("cloud.identifier")).thenReturn("abc");
+
+        // VM 4 has no nic in the guest network any more and gets no entry
+        final List<UserVmVO> vms = new ArrayList<UserVmVO>();
+        final List<NicVO> guestNics = new ArrayList<NicVO>();
+        guestNics.add(routerGuestNic);
+        for (long vmId = 1; vmId <= 4; vmId++) {
+            vms.add(mockVm(vmId));
+            if (vmId < 4) {
+                guestNics.add(mockNic(vmId, GUEST_NETWORK_ID, "10.1.1." + (100 + vmId), "02:00:00:00:00:0" + vmId));
+            }
+        }
+        when(_routerMgr._userVmDao.listByNetworkIdAndStates(eq(GUEST_NETWORK_ID), (State[])anyVararg())).thenReturn(vms);
+        when(_routerMgr._nicDao.listByNetworkId(GUEST_NETWORK_ID)).thenReturn(guestNics);
+    }
+
+    private static NicVO mockNic(final long instanceId, final long networkId, final String ip, final String mac) {
+        final NicVO nic = mock(NicVO.class);
+        when(nic.getId()).thenReturn(1000 + instanceId * 10 + networkId);
+        when(nic.getInstanceId()).thenReturn(instanceId);
+        when(nic.getNetworkId()).thenReturn(networkId);
+        when(nic.getIp4Address()).thenReturn(ip);
+        when(nic.getMacAddress()).thenReturn(mac);
+        when(nic.getGateway()).thenReturn("10.1.1.1");
+        when(nic.isDefaultNic()).thenReturn(true);
+        return nic;
+    }
+
+    private static UserVmVO mockVm(final long id) {
+        final UserVmVO vm = mock(UserVmVO.class);
+        when(vm.getId()).thenReturn(id);
+        when(vm.getHostName()).thenReturn("vm" + id);
+        when(vm.getInstanceName()).thenReturn("i-2-" + id + "-VM");
+        when(vm.getUuid()).thenReturn("uuid-" + id);
+        when(vm.getUserData()).thenReturn("data" + id);
+        when(vm.getServiceOfferingId()).thenReturn(40L);
+        return vm;
+    }
+
+    private static String getVmData(final VmDataCommand cmd, final String folder, final String file) {
+        for (final String[] data : cmd.getVmData()) {
+            if (data[0].equals(folder) && data[1].equals(file)) {
+                return data[2];
+            }
+        }
+        return null;
+    }
+
+    private static void assertRouterAccessDetails(final NetworkElementCommand cmd) {
+        Assert.assertEquals("169.254.0.10", cmd.getAccessDetail(NetworkElementCommand.ROUTER_IP));
+        Assert.assertEquals("10.1.1.1", cmd.getAccessDetail(NetworkElementCommand.ROUTER_GUEST_IP));
+        Assert.assertEquals("r-10-VM", cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME));
+        Assert.assertEquals("Advanced", cmd.getAccessDetail(NetworkElementCommand.ZONE_NETWORK_TYPE));
+    }
+
+    @Test
+    public void testDhcpEntriesLookUpRouterStateOnce() {
+        when(_routerMgr._networkModel.isProviderSupportServiceInNetwork(GUEST_NETWORK_ID, Service.Dhcp, Provider.VirtualRouter)).thenReturn(true);
+        final Commands cmds = new Commands(Command.OnError.Continue);
+
+        _routerMgr.finalizeUserDataAndDhcpOnStart(cmds, _router, Provider.VirtualRouter, GUEST_NETWORK_ID);
+
+        Assert.assertEquals(3, cmds.size());
+        long vmId = 1;
+        for (final Command command : cmds) {
+            final DhcpEntryCommand cmd = (DhcpEntryCommand)command;
+            Assert.assertEquals("02:00:00:00:00:0" + vmId, cmd.getVmMac());
+            Assert.assertEquals("10.1.1." + (100 + vmId), cmd.getVmIpAddress());
+            Assert.assertEquals("vm" + vmId, cmd.getVmName());
+            Assert.assertEquals("10.1.1.1", cmd.getDefaultRouter());
+            Assert.assertEquals("10.1.1.1", cmd.getDefaultDns());
+            Assert.assertTrue(cmd.isDefault());
+            assertRouterAccessDetails(cmd);
+            vmId++;
+        }
+
+        verify(_routerMgr._nicDao, times(1)).listByNetworkId(GUEST_NETWORK_ID);
+        verify(_routerMgr._nicDao, never()).findByNtwkIdAndInstanceId(anyLong(), anyLong());
+        verify(_routerMgr._nicDao, never()).findDefaultNicForVM(anyLong());
+        verify(_routerMgr._nicDao, times(1)).listByVmId(ROUTER_ID);
+        verify(_routerMgr._nicDao, times(1)).getIpAddress(GUEST_NETWORK_ID, ROUTER_ID);
+        verify(_routerMgr._nicDao, times(1)).findByNetworkIdAndType(GUEST_NETWORK_ID, VirtualMachine.Type.DomainRouter);
+        verify(_routerMgr._networkOfferingDao, times(1)).findById(30L);
+        // once for the router's zone, once when finding the DNS nic
+        verify(_routerMgr._dcDao, times(2)).findById(1L);
+    }
+
+    @Test
+    public void testVmDataLooksUpRouterStateOnce() {
+        when(_routerMgr._networkModel.isProviderSupportServiceInNetwork(GUEST_NETWORK_ID, Service.UserData, Provider.VirtualRouter)).thenReturn(true);
+        final Commands cmds = new Commands(Command.OnError.Continue);
+
+        _routerMgr.finalizeUserDataAndDhcpOnStart(cmds, _router, Provider.VirtualRouter, GUEST_NETWORK_ID);
+
+        Assert.assertEquals(3, cmds.size());
+        long vmId = 1;
+        for (final Command command : cmds) {
+            final VmDataCommand cmd = (VmDataCommand)command;
+            Assert.assertEquals("10.1.1." + (100 + vmId), cmd.getVmIpAddress());
+            Assert.assertEquals("vm" + vmId, cmd.getVmName());
+            Assert.assertEquals("data" + vmId, getVmData(cmd, "userdata", "user-data"));
+            Assert.assertEquals("Small Instance", getVmData(cmd, "metadata", "service-offering"));
+            Assert.assertEquals("zone1", getVmData(cmd, "metadata", "availability-zone"));
+            Assert.assertEquals("203.0.113.5", getVmData(cmd, "metadata", "public-ipv4"));
+            Assert.assertEquals("uuid-" + vmId, getVmData(cmd, "metadata", "instance-id"));
+            Assert.assertEquals("CloudStack-{abc}", getVmData(cmd, "metadata", "cloud-identifier"));
+            assertRouterAccessDetails(cmd);
+            vmId++;
+        }
+
+        verify(_routerMgr._nicDao, times(1)).listByNetworkId(GUEST_NETWORK_ID);
+        verify(_routerMgr._nicDao, never()).findByNtwkIdAndInstanceId(anyLong(), anyLong());
+        verify(_routerMgr._nicDao, times(1)).listByVmId(ROUTER_ID);
+        verify(_routerMgr._nicDao, times(1)).getIpAddress(GUEST_NETWORK_ID, ROUTER_ID);
+        verify(_routerMgr._dcDao, times(1)).findById(1L);
+        verify(_routerMgr._serviceOfferingDao, times(1)).findByIdIncludingRemoved(anyLong(), anyLong());
+        verify(_routerMgr._configDao, times(1)).getValue("cloud.identifier");
+    }
+}
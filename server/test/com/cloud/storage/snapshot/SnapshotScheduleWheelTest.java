@@ -0,0 +1,103 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.storage.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class SnapshotScheduleWheelTest {
+    private static final long TICK = 1000;
+    private static final long START = 1000000 * TICK;
+
+    private SnapshotScheduleWheel.Entry entry(long scheduleId, long dueMs) {
+        return new SnapshotScheduleWheel.Entry(scheduleId, scheduleId, dueMs, dueMs);
+    }
+
+    private void assertExpiresAt(SnapshotScheduleWheel wheel, long scheduleId, long dueMs) {
+        assertTrue(wheel.advance(dueMs - TICK).isEmpty());
+        List<SnapshotScheduleWheel.Entry> expired = wheel.advance(dueMs);
+        assertEquals(1, expired.size());
+        assertEquals(scheduleId, expired.get(0).scheduleId);
+    }
+
+    @Test
+    public void testInnerWheel() {
+        SnapshotScheduleWheel wheel = new SnapshotScheduleWheel(TICK, START);
+        wheel.add(entry(1, START + 10 * TICK));
+        assertExpiresAt(wheel, 1, START + 10 * TICK);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testOuterWheel() {
+        SnapshotScheduleWheel wheel = new SnapshotScheduleWheel(TICK, START);
+        wheel.add(entry(1, START + 3600 * TICK));
+        assertExpiresAt(wheel, 1, START + 3600 * TICK);
+    }
+
+    @Test
+    public void testOverflow() {
+        SnapshotScheduleWheel wheel = new SnapshotScheduleWheel(TICK, START);
+        wheel.add(entry(1, START + 86400 * TICK));
+        wheel.add(entry(2, START + 7 * 86400 * TICK));
+        for (long now = START; now < START + 86400 * TICK; now += 600 * TICK) {
+            assertTrue(wheel.advance(now).isEmpty());
+        }
+        assertExpiresAt(wheel, 1, START + 86400 * TICK);
+        assertEquals(1, wheel.size());
+        assertExpiresAt(wheel, 2, START + 7 * 86400 * TICK);
+    }
+
+    @Test
+    public void testOrderAndPastEntries() {
+        SnapshotScheduleWheel wheel = new SnapshotScheduleWheel(TICK, START);
+        wheel.add(entry(1, START + 5 * TICK));
+        wheel.add(entry(2, START + 2 * TICK));
+        wheel.add(entry(3, START - 60 * TICK));
+
+        List<SnapshotScheduleWheel.Entry> expired = wheel.advance(START + 10 * TICK);
+        assertEquals(3, expired.size());
+        assertEquals(3, expired.get(0).scheduleId);
+        assertEquals(2, expired.get(1).scheduleId);
+        assertEquals(1, expired.get(2).scheduleId);
+    }
+
+    @Test
+    public void testDuplicates() {
+        SnapshotScheduleWheel wheel = new SnapshotScheduleWheel(TICK, START);
+        assertTrue(wheel.add(entry(1, START + 5 * TICK)));
+        assertFalse(wheel.add(entry(1, START + 50 * TICK)));
+        assertTrue(wheel.contains(1));
+        assertEquals(1, wheel.advance(START + 100 * TICK).size());
+        assertFalse(wheel.contains(1));
+        assertTrue(wheel.add(entry(1, START + 200 * TICK)));
+    }
+
+    @Test
+    public void testClockJump() {
+        SnapshotScheduleWheel wheel = new SnapshotScheduleWheel(TICK, START);
+        wheel.add(entry(1, START + 365L * 86400 * TICK));
+        wheel.add(entry(2, START + 400L * 86400 * TICK));
+        assertEquals(1, wheel.advance(START + 366L * 86400 * TICK).size());
+        assertExpiresAt(wheel, 2, START + 400L * 86400 * TICK);
+    }
+}
@@ -40,6 +40,7 @@ import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.region.gslb.GlobalLoadBalancerRuleDao;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.ConfigurationManager;
 import com.cloud.configuration.dao.ResourceCountDao;
 import com.cloud.configuration.dao.ResourceLimitDao;
@@ -176,6 +177,8 @@ public class AccountManagerImplTest {
     GlobalLoadBalancerRuleDao _gslbRuleDao;
     @Mock
     MessageBus _messageBus;
+    @Mock
+    ClusterManager _clusterMgr;
 
     @Mock
     User callingUser;
@@ -234,6 +237,7 @@ public class AccountManagerImplTest {
         Mockito.when(_vmDao.listByAccountId(42l)).thenReturn(Arrays.asList(Mockito.mock(VMInstanceVO.class)));
         Assert.assertTrue(accountManager.disableAccount(42));
         Mockito.verify(_accountDao, Mockito.atLeastOnce()).update(Matchers.eq(42l), Matchers.any(AccountVO.class));
+        Mockito.verify(_clusterMgr).broadcast(Matchers.eq(0l), Matchers.contains(AccountManager.MESSAGE_CREDENTIALS_CHANGED_EVENT));
     }
 
     @Test
@@ -27,15 +27,22 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import com.cloud.storage.Storage;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -44,8 +51,10 @@ import org.mockito.Spy;
 
 import org.apache.cloudstack.acl.ControlledEntity;
 import org.apache.cloudstack.acl.SecurityChecker.AccessType;
+import org.apache.cloudstack.api.BaseCmd.HTTPMethod;
 import org.apache.cloudstack.api.ServerApiException;
 import org.apache.cloudstack.api.command.admin.vm.AssignVMCmd;
+import org.apache.cloudstack.api.command.user.vm.DeployVMsCmd;
 import org.apache.cloudstack.api.command.user.vm.RestoreVMCmd;
 import org.apache.cloudstack.api.command.user.vm.ScaleVMCmd;
 import org.apache.cloudstack.context.CallContext;
@@ -54,24 +63,37 @@ import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
+import com.cloud.alert.AlertManager;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.configuration.ConfigurationManager;
+import com.cloud.configuration.Resource.ResourceType;
+import com.cloud.dc.DataCenter;
+import com.cloud.dc.dao.DedicatedResourceDao;
+import com.cloud.deploy.DeploymentPlan;
+import com.cloud.deploy.DeploymentPlanner;
 import com.cloud.exception.ConcurrentOperationException;
 import com.cloud.exception.InsufficientCapacityException;
+import com.cloud.exception.InsufficientServerCapacityException;
 import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.exception.ResourceAllocationException;
 import com.cloud.exception.ResourceUnavailableException;
 import com.cloud.hypervisor.Hypervisor;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.network.security.SecurityGroupManager;
 import com.cloud.offering.ServiceOffering;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
+import com.cloud.storage.DiskOfferingVO;
 import com.cloud.storage.Storage.ImageFormat;
+import com.cloud.storage.Storage.TemplateType;
 import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.VMTemplateZoneVO;
 import com.cloud.storage.Volume;
 import com.cloud.storage.VolumeVO;
+import com.cloud.storage.dao.DiskOfferingDao;
 import com.cloud.storage.dao.VMTemplateDao;
+import com.cloud.storage.dao.VMTemplateZoneDao;
 import com.cloud.storage.dao.VolumeDao;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
@@ -81,6 +103,7 @@ import com.cloud.user.ResourceLimitService;
 import com.cloud.user.UserVO;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserDao;
+import com.cloud.uservm.UserVm;
 import com.cloud.utils.db.EntityManager;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.vm.dao.UserVmDao;
@@ -146,6 +169,18 @@ public class UserVmManagerTest {
     ResourceLimitService _resourceLimitMgr;
     @Mock
     PrimaryDataStoreDao _storagePoolDao;
+    @Mock
+    SecurityGroupManager _securityGroupMgr;
+    @Mock
+    AlertManager _alertMgr;
+    @Mock
+    ServiceOfferingDao _serviceOfferingDao;
+    @Mock
+    DiskOfferingDao _diskOfferingDao;
+    @Mock
+    DedicatedResourceDao _dedicatedDao;
+    @Mock
+    VMTemplateZoneDao _templateZoneDao;
 
     @Before
     public void setup() {
@@ -168,6 +203,12 @@ public class UserVmManagerTest {
         _userVmMgr._scaleRetry = 2;
         _userVmMgr._entityMgr = _entityMgr;
         _userVmMgr._storagePoolDao = _storagePoolDao;
+        _userVmMgr._securityGroupMgr = _securityGroupMgr;
+        _userVmMgr._alertMgr = _alertMgr;
+        _userVmMgr._serviceOfferingDao = _serviceOfferingDao;
+        _userVmMgr._diskOfferingDao = _diskOfferingDao;
+        _userVmMgr._dedicatedDao = _dedicatedDao;
+        _userVmMgr._templateZoneDao = _templateZoneDao;
 
         doReturn(3L).when(_account).getId();
         doReturn(8L).when(_vmMock).getAccountId();
@@ -622,4 +663,99 @@ public class UserVmManagerTest {
         }
     }
 
+    private UserVmVO mockBulkVm(long id, String uuid) {
+        UserVmVO vm = mock(UserVmVO.class);
+        when(vm.getId()).thenReturn(id);
+        when(vm.getUuid()).thenReturn(uuid);
+        when(vm.getAccountId()).thenReturn(8L);
+        when(vm.getServiceOfferingId()).thenReturn(2L);
+        when(vm.getState()).thenReturn(VirtualMachine.State.Stopped);
+        when(_vmDao.findById(id)).thenReturn(vm);
+        return vm;
+    }
+
+    private DeployVMsCmd mockDeployVMsCmd(Long... vmIds) {
+        DeployVMsCmd cmd = mock(DeployVMsCmd.class);
+        when(cmd.getEntityIds()).thenReturn(Arrays.asList(vmIds));
+        when(cmd.getHostId()).thenReturn(null);
+        when(_templateDao.findByIdIncludingRemoved(anyLong())).thenReturn(_templateMock);
+        when(_serviceOfferingDao.findById(anyLong(), anyLong())).thenReturn(_offeringVo);
+        when(_offeringVo.getCpu()).thenReturn(1);
+        when(_offeringVo.getRamSize()).thenReturn(512);
+        return cmd;
+    }
+
+    // Test startVirtualMachines when some of the virtual machines of a batch fail to start
+    @Test
+    public void testStartVirtualMachinesPartialFailure() throws Exception {
+        UserVmVO vm1 = mockBulkVm(11L, "vm-1");
+        UserVmVO vm2 = mockBulkVm(12L, "vm-2");
+        DeployVMsCmd cmd = mockDeployVMsCmd(11L, 12L);
+
+        Map<String, Throwable> failures = new HashMap<String, Throwable>();
+        failures.put("vm-2", new InsufficientServerCapacityException("no capacity", DataCenter.class, 1L));
+        when(_itMgr.advanceStart(eq(Arrays.asList("vm-1", "vm-2")), any(Map.class), any(DeploymentPlan.class), any(DeploymentPlanner.class))).thenReturn(failures);
+
+        Account account = new AccountVO("testaccount", 1L, "networkdomain", (short)0, "uuid");
+        UserVO user = new UserVO(1, "testuser", "password", "firstname", "lastName", "email", "timezone", UUID.randomUUID().toString());
+        CallContext.register(user, account);
+        try {
+            List<UserVm> vms = _userVmMgr.startVirtualMachines(cmd);
+
+            Assert.assertEquals(2, vms.size());
+            verify(_itMgr, never()).stateTransitTo(vm1, VirtualMachine.Event.OperationFailedToError, null);
+            verify(_itMgr).stateTransitTo(vm2, VirtualMachine.Event.OperationFailedToError, null);
+            verify(_resourceLimitMgr).decrementResourceCount(8L, ResourceType.user_vm, false);
+        } finally {
+            CallContext.unregister();
+        }
+    }
+
+    // Test startVirtualMachines when none of the virtual machines of a batch start
+    @Test(expected = InsufficientCapacityException.class)
+    public void testStartVirtualMachinesAllFail() throws Exception {
+        mockBulkVm(11L, "vm-1");
+        mockBulkVm(12L, "vm-2");
+        DeployVMsCmd cmd = mockDeployVMsCmd(11L, 12L);
+
+        Map<String, Throwable> failures = new HashMap<String, Throwable>();
+        failures.put("vm-1", new InsufficientServerCapacityException("no capacity", DataCenter.class, 1L));
+        failures.put("vm-2", new InsufficientServerCapacityException("no capacity", DataCenter.class, 1L));
+        when(_itMgr.advanceStart(eq(Arrays.asList("vm-1", "vm-2")), any(Map.class), any(DeploymentPlan.class), any(DeploymentPlanner.class))).thenReturn(failures);
+
+        Account account = new AccountVO("testaccount", 1L, "networkdomain", (short)0, "uuid");
+        UserVO user = new UserVO(1, "testuser", "password", "firstname", "lastName", "email", "timezone", UUID.randomUUID().toString());
+        CallContext.register(user, account);
+        try {
+            _userVmMgr.startVirtualMachines(cmd);
+        } finally {
+            CallContext.unregister();
+        }
+    }
+
+    // Test that the primary storage limit of a batch includes the custom size of its data disks
+    @Test
+    public void testCheckVirtualMachineParametersCustomDiskSize() throws Exception {
+        DataCenter zone = mock(DataCenter.class);
+        when(zone.getId()).thenReturn(1L);
+        ServiceOffering serviceOffering = mock(ServiceOffering.class);
+        when(serviceOffering.getId()).thenReturn(2L);
+        when(_serviceOfferingDao.findById(2L)).thenReturn(_offeringVo);
+        when(_offeringVo.getCpu()).thenReturn(1);
+        when(_offeringVo.getRamSize()).thenReturn(512);
+        DiskOfferingVO diskOffering = mock(DiskOfferingVO.class);
+        when(diskOffering.isCustomized()).thenReturn(true);
+        when(_diskOfferingDao.findById(4L)).thenReturn(diskOffering);
+        when(_templateMock.getFormat()).thenReturn(ImageFormat.QCOW2);
+        when(_templateMock.getSize()).thenReturn(10L * 1024 * 1024 * 1024);
+        when(_templateMock.getTemplateType()).thenReturn(TemplateType.USER);
+        when(_templateMock.isPublicTemplate()).thenReturn(true);
+        when(_templateZoneDao.listByZoneTemplate(eq(1L), anyLong())).thenReturn(Collections.singletonList(mock(VMTemplateZoneVO.class)));
+
+        _userVmMgr.checkVirtualMachineParameters(zone, serviceOffering, _templateMock, _account, _account, 4L, 20L, null, null, HTTPMethod.GET, null, true,
+                new HashMap<String, String>(), 3);
+
+        verify(_resourceLimitMgr).checkResourceLimit(_account, ResourceType.volume, 6L);
+        verify(_resourceLimitMgr).checkResourceLimit(_account, ResourceType.primary_storage, 3L * 30 * 1024 * 1024 * 1024);
+    }
 }
@@ -29,7 +29,7 @@ import org.apache.cloudstack.acl.PermissionScope;
 import org.apache.cloudstack.acl.SecurityChecker;
 import org.apache.cloudstack.acl.SecurityChecker.AccessType;
 import org.apache.cloudstack.api.InternalIdentity;
-import org.apache.cloudstack.iam.api.IAMGroup;
+import org.apache.cloudstack.iam.api.IAMAccountPolicySet;
 import org.apache.cloudstack.iam.api.IAMPolicy;
 import org.apache.cloudstack.iam.api.IAMPolicyPermission;
 import org.apache.cloudstack.iam.api.IAMService;
@@ -60,25 +60,6 @@ public class RoleBasedEntityAccessChecker extends DomainChecker implements Secur
         return checkAccess(caller, entity, accessType, null);
     }
 
-    private String buildAccessCacheKey(Account caller, ControlledEntity entity, AccessType accessType, String action) {
-        StringBuffer key = new StringBuffer();
-        key.append(caller.getAccountId());
-        key.append("-");
-        String entityType = null;
-        if (entity != null && entity.getEntityType() != null) {
-            entityType = entity.getEntityType().getSimpleName();
-            if (entity instanceof InternalIdentity) {
-                entityType += ((InternalIdentity)entity).getId();
-            }
-        }
-        key.append(entityType != null ? entityType : "null");
-        key.append("-");
-        key.append(accessType != null ? accessType.toString() : "null");
-        key.append("-");
-        key.append(action != null ? action : "null");
-        return key.toString();
-    }
-
     @Override
     public boolean checkAccess(Account caller, ControlledEntity entity, AccessType accessType, String action)
             throws PermissionDeniedException {
@@ -91,33 +72,15 @@ public class RoleBasedEntityAccessChecker extends DomainChecker implements Secur
             throw new InvalidParameterValueException("Entity and action cannot be both NULL in checkAccess!");
         }
 
-        // check IAM cache first
-        String accessKey = buildAccessCacheKey(caller, entity, accessType, action);
-        CheckAccessResult allowDeny = (CheckAccessResult)_iamSrv.getFromIAMCache(accessKey);
-        if (allowDeny != null) {
-            s_logger.debug("IAM access check for " + accessKey + " from cache: " + allowDeny.isAllow());
-            if (allowDeny.isAllow()) {
-                return true;
-            } else {
-                if (allowDeny.getDenyMsg() != null) {
-                    throw new PermissionDeniedException(allowDeny.getDenyMsg());
-                } else {
-                    return false;
-                }
-            }
-        }
+        // policies and permissions of the caller are compiled once and kept until they change
+        IAMAccountPolicySet policySet = _iamSrv.getAccountPolicySet(caller.getAccountId());
 
         if (entity == null && action != null) {
             // check if caller can do this action
-            List<IAMPolicy> policies = _iamSrv.listIAMPolicies(caller.getAccountId());
-
-            boolean isAllowed = _iamSrv.isActionAllowedForPolicies(action, policies);
-            if (!isAllowed) {
+            if (!policySet.isActionAllowed(action)) {
                 String msg = "The action '" + action + "' not allowed for account " + caller;
-                _iamSrv.addToIAMCache(accessKey, new CheckAccessResult(msg));
                 throw new PermissionDeniedException(msg);
             }
-            _iamSrv.addToIAMCache(accessKey, new CheckAccessResult(true));
             return true;
         }
 
@@ -125,7 +88,6 @@ public class RoleBasedEntityAccessChecker extends DomainChecker implements Secur
         // if a Project entity, skip
         Account entityAccount = _accountService.getAccount(entity.getAccountId());
         if (entityAccount != null && entityAccount.getType() == Account.ACCOUNT_TYPE_PROJECT) {
-            _iamSrv.addToIAMCache(accessKey, new CheckAccessResult(false));
             return false;
         }
 
@@ -139,31 +101,19 @@ public class RoleBasedEntityAccessChecker extends DomainChecker implements Secur
         }
 
         // get all Policies of this caller by considering recursive domain group policy
-        List<IAMPolicy> policies = getEffectivePolicies(caller);
+        List<IAMPolicy> policies = policySet.getPolicies();
         HashMap<IAMPolicy, Boolean> policyPermissionMap = new HashMap<IAMPolicy, Boolean>();
 
         for (IAMPolicy policy : policies) {
             List<IAMPolicyPermission> permissions = new ArrayList<IAMPolicyPermission>();
 
             if (action != null) {
-                permissions = _iamSrv.listPolicyPermissionByActionAndEntity(policy.getId(), action, entityType);
-                if (permissions.isEmpty()) {
-                    if (accessType != null) {
-                        for (AccessType type : AccessType.values()) {
-                            if (type.ordinal() >= accessType.ordinal()) {
-                                permissions.addAll(_iamSrv.listPolicyPermissionByAccessAndEntity(policy.getId(),
-                                        type.toString(), entityType));
-                            }
-                        }
-                    }
-                }
-            } else {
-                if (accessType != null) {
-                    for (AccessType type : AccessType.values()) {
-                        if (type.ordinal() >= accessType.ordinal()) {
-                            permissions.addAll(_iamSrv.listPolicyPermissionByAccessAndEntity(policy.getId(),
-                                    type.toString(), entityType));
-                        }
+                permissions.addAll(policySet.getPermissionsByAction(policy.getId(), action, entityType));
+            }
+            if (permissions.isEmpty()) {
+                for (AccessType type : AccessType.values()) {
+                    if (type.ordinal() >= accessType.ordinal()) {
+                        permissions.addAll(policySet.getPermissionsByAccess(policy.getId(), type.toString(), entityType));
                     }
                 }
             }
@@ -178,7 +128,6 @@ public class RoleBasedEntityAccessChecker extends DomainChecker implements Secur
                 }
             }
             if (policyPermissionMap.containsKey(policy) && policyPermissionMap.get(policy)) {
-                _iamSrv.addToIAMCache(accessKey, new CheckAccessResult(true));
                 return true;
             }
         }
@@ -191,11 +140,9 @@ public class RoleBasedEntityAccessChecker extends DomainChecker implements Secur
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug(msg);
             }
-            _iamSrv.addToIAMCache(accessKey, new CheckAccessResult(msg));
             throw new PermissionDeniedException(msg);
         }
 
-        _iamSrv.addToIAMCache(accessKey, new CheckAccessResult(false));
         return false;
     }
 
@@ -274,56 +221,4 @@ public class RoleBasedEntityAccessChecker extends DomainChecker implements Secur
         }
         return false;
     }
-
-    private List<IAMPolicy> getEffectivePolicies(Account caller) {
-
-        List<IAMPolicy> policies = _iamSrv.listIAMPolicies(caller.getId());
-
-        List<IAMGroup> groups = _iamSrv.listIAMGroups(caller.getId());
-        for (IAMGroup group : groups) {
-            // for each group find the grand parent groups.
-            List<IAMGroup> parentGroups = _iamSrv.listParentIAMGroups(group.getId());
-            for (IAMGroup parentGroup : parentGroups) {
-                policies.addAll(_iamSrv.listRecursiveIAMPoliciesByGroup(parentGroup.getId()));
-            }
-        }
-
-        return policies;
-    }
-
-    private class CheckAccessResult {
-        boolean allow;
-        String denyMsg;
-
-        public CheckAccessResult(boolean aw) {
-            this(aw, null);
-        }
-
-        public CheckAccessResult(String msg) {
-            this(false, msg);
-        }
-
-        public CheckAccessResult(boolean aw, String msg) {
-            allow = aw;
-            denyMsg = msg;
-        }
-
-        public boolean isAllow() {
-            return allow;
-        }
-
-        public void setAllow(boolean aw) {
-            allow = aw;
-        }
-
-
-        public String getDenyMsg() {
-            return denyMsg;
-        }
-
-        public void setDenyMsg(String denyMsg) {
-            this.denyMsg = denyMsg;
-        }
-
-    }
 }
@@ -0,0 +1,132 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.iam;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.cloudstack.acl.ControlledEntity;
+import org.apache.cloudstack.acl.SecurityChecker.AccessType;
+import org.apache.cloudstack.iam.api.IAMAccountPolicySet;
+import org.apache.cloudstack.iam.api.IAMPolicy;
+import org.apache.cloudstack.iam.api.IAMPolicyPermission;
+import org.apache.cloudstack.iam.api.IAMPolicyPermission.Permission;
+import org.apache.cloudstack.iam.api.IAMService;
+
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.exception.PermissionDeniedException;
+import com.cloud.user.Account;
+import com.cloud.user.AccountService;
+import com.cloud.vm.VirtualMachine;
+
+public class RoleBasedEntityAccessCheckerTest {
+    private static final Logger s_logger = Logger.getLogger(RoleBasedEntityAccessCheckerTest.class);
+
+    private RoleBasedEntityAccessChecker _checker;
+    private IAMService _iamSrv;
+    private Account _caller;
+
+    @Before
+    public void setUp() {
+        _checker = new RoleBasedEntityAccessChecker();
+        _iamSrv = mock(IAMService.class);
+        _checker._iamSrv = _iamSrv;
+        _checker._accountService = mock(AccountService.class);
+        _checker._domainDao = mock(DomainDao.class);
+
+        _caller = mock(Account.class);
+        when(_caller.getId()).thenReturn(10L);
+        when(_caller.getAccountId()).thenReturn(10L);
+
+        IAMPolicy policy = mock(IAMPolicy.class);
+        when(policy.getId()).thenReturn(1L);
+        IAMPolicyPermission permission = mockPermission("listVirtualMachines", "VirtualMachine", "ListEntry", "ACCOUNT");
+
+        Map<Long, List<IAMPolicyPermission>> permissions = new HashMap<Long, List<IAMPolicyPermission>>();
+        permissions.put(1L, Arrays.asList(permission));
+        IAMAccountPolicySet policySet = new IAMAccountPolicySet(10L, Arrays.asList(policy), Arrays.asList(policy), permissions,
+                Collections.<Long> emptySet(), System.currentTimeMillis() + 60000);
+        when(_iamSrv.getAccountPolicySet(10L)).thenReturn(policySet);
+    }
+
+    private IAMPolicyPermission mockPermission(String action, String entityType, String accessType, String scope) {
+        IAMPolicyPermission permission = mock(IAMPolicyPermission.class);
+        when(permission.getAction()).thenReturn(action);
+        when(permission.getEntityType()).thenReturn(entityType);
+        when(permission.getAccessType()).thenReturn(accessType);
+        when(permission.getScope()).thenReturn(scope);
+        when(permission.getScopeId()).thenReturn(null);
+        when(permission.getPermission()).thenReturn(Permission.Allow);
+        return permission;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ControlledEntity mockVm(long accountId) {
+        ControlledEntity entity = mock(ControlledEntity.class);
+        when(entity.getAccountId()).thenReturn(accountId);
+        when(entity.getEntityType()).thenReturn((Class)VirtualMachine.class);
+        return entity;
+    }
+
+    @Test
+    public void testActionCheck() {
+        assertTrue(_checker.checkAccess(_caller, null, null, "listVirtualMachines"));
+    }
+
+    @Test(expected = PermissionDeniedException.class)
+    public void testActionDenied() {
+        _checker.checkAccess(_caller, null, null, "destroyVirtualMachine");
+    }
+
+    @Test(expected = PermissionDeniedException.class)
+    public void testOtherAccountDenied() {
+        _checker.checkAccess(_caller, mockVm(11L), AccessType.ListEntry, "listVirtualMachines");
+    }
+
+    @Test
+    public void testCheckAccessOnEntityList() {
+        ControlledEntity[] entities = new ControlledEntity[1000];
+        for (int i = 0; i < entities.length; i++) {
+            entities[i] = mockVm(10L);
+        }
+
+        // warm up, then time the checks against the compiled policy set
+        _checker.checkAccess(_caller, AccessType.ListEntry, "listVirtualMachines", entities);
+        long start = System.nanoTime();
+        assertTrue(_checker.checkAccess(_caller, AccessType.ListEntry, "listVirtualMachines", entities));
+        s_logger.info("checkAccess on " + entities.length + " entities took " + (System.nanoTime() - start) / 1000 + " us");
+
+        // nothing is looked up from the IAM tables while checking
+        verify(_iamSrv, never()).listIAMPolicies(anyLong());
+        verify(_iamSrv, never()).listPolicyPermissionByAccessAndEntity(anyLong(), anyString(), anyString());
+    }
+}
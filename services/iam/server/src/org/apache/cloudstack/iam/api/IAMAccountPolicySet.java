@@ -0,0 +1,143 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.iam.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The effective IAM policies of one account together with their permissions, indexed by action and
+ * by access type per entity type so that access checks can be evaluated without going to the
+ * database. A policy set is immutable; it is rebuilt when a group or policy it depends on changes.
+ */
+public class IAMAccountPolicySet {
+    private final long _accountId;
+    private final List<IAMPolicy> _policies;
+    private final Set<String> _allowedActions = new HashSet<String>();
+    private final Map<Long, Map<String, List<IAMPolicyPermission>>> _permissionsByAction = new HashMap<Long, Map<String, List<IAMPolicyPermission>>>();
+    private final Map<Long, Map<String, List<IAMPolicyPermission>>> _permissionsByAccess = new HashMap<Long, Map<String, List<IAMPolicyPermission>>>();
+    private final Set<Long> _policyIds = new HashSet<Long>();
+    private final Set<Long> _groupIds;
+    private final long _expiresAt;
+
+    /**
+     * @param policies effective policies of the account, in evaluation order
+     * @param actionPolicies policies whose actions the account may invoke, i.e. the policies of the
+     *        account and of the groups it belongs to directly
+     * @param permissions all permissions of the policies above, keyed by policy id
+     * @param groupIds groups the account belongs to, including their parent groups
+     */
+    public IAMAccountPolicySet(long accountId, List<IAMPolicy> policies, Collection<IAMPolicy> actionPolicies, Map<Long, List<IAMPolicyPermission>> permissions,
+            Set<Long> groupIds, long expiresAt) {
+        _accountId = accountId;
+        _policies = Collections.unmodifiableList(new ArrayList<IAMPolicy>(policies));
+        _groupIds = new HashSet<Long>(groupIds);
+        _expiresAt = expiresAt;
+
+        for (IAMPolicy policy : policies) {
+            _policyIds.add(policy.getId());
+        }
+        for (IAMPolicy policy : actionPolicies) {
+            _policyIds.add(policy.getId());
+            List<IAMPolicyPermission> policyPermissions = permissions.get(policy.getId());
+            if (policyPermissions != null) {
+                for (IAMPolicyPermission permission : policyPermissions) {
+                    if (permission.getAction() != null) {
+                        _allowedActions.add(permission.getAction());
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<Long, List<IAMPolicyPermission>> entry : permissions.entrySet()) {
+            for (IAMPolicyPermission permission : entry.getValue()) {
+                // permissions without an entity type never match, like the equivalent database lookups
+                if (permission.getEntityType() == null) {
+                    continue;
+                }
+                if (permission.getAction() != null) {
+                    index(_permissionsByAction, entry.getKey(), permission.getAction(), permission);
+                }
+                if (permission.getAccessType() != null) {
+                    index(_permissionsByAccess, entry.getKey(), permission.getAccessType(), permission);
+                }
+            }
+        }
+    }
+
+    private static void index(Map<Long, Map<String, List<IAMPolicyPermission>>> index, Long policyId, String key, IAMPolicyPermission permission) {
+        Map<String, List<IAMPolicyPermission>> perPolicy = index.get(policyId);
+        if (perPolicy == null) {
+            perPolicy = new HashMap<String, List<IAMPolicyPermission>>();
+            index.put(policyId, perPolicy);
+        }
+        String indexKey = key + "|" + permission.getEntityType();
+        List<IAMPolicyPermission> list = perPolicy.get(indexKey);
+        if (list == null) {
+            list = new ArrayList<IAMPolicyPermission>();
+            perPolicy.put(indexKey, list);
+        }
+        list.add(permission);
+    }
+
+    private static List<IAMPolicyPermission> lookup(Map<Long, Map<String, List<IAMPolicyPermission>>> index, long policyId, String key, String entityType) {
+        Map<String, List<IAMPolicyPermission>> perPolicy = index.get(policyId);
+        if (perPolicy == null || key == null || entityType == null) {
+            return Collections.emptyList();
+        }
+        List<IAMPolicyPermission> list = perPolicy.get(key + "|" + entityType);
+        return list == null ? Collections.<IAMPolicyPermission> emptyList() : list;
+    }
+
+    public long getAccountId() {
+        return _accountId;
+    }
+
+    public List<IAMPolicy> getPolicies() {
+        return _policies;
+    }
+
+    public boolean isActionAllowed(String action) {
+        return _allowedActions.contains(action);
+    }
+
+    public List<IAMPolicyPermission> getPermissionsByAction(long policyId, String action, String entityType) {
+        return lookup(_permissionsByAction, policyId, action, entityType);
+    }
+
+    public List<IAMPolicyPermission> getPermissionsByAccess(long policyId, String accessType, String entityType) {
+        return lookup(_permissionsByAccess, policyId, accessType, entityType);
+    }
+
+    public boolean dependsOnPolicy(long policyId) {
+        return _policyIds.contains(policyId);
+    }
+
+    public boolean dependsOnGroup(long groupId) {
+        return _groupIds.contains(groupId);
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() > _expiresAt;
+    }
+}
@@ -89,11 +89,7 @@ public interface IAMService {
 
     List<IAMPolicy> listRecursiveIAMPoliciesByGroup(long groupId);
 
-    /* Interface used for cache IAM checkAccess result */
-    void addToIAMCache(Object accessKey, Object allowDeny);
-
-    Object getFromIAMCache(Object accessKey);
-
-    void invalidateIAMCache();
+    /* Compiled policies of an account, used to evaluate access checks without database lookups */
+    IAMAccountPolicySet getAccountPolicySet(long accountId);
 
 }
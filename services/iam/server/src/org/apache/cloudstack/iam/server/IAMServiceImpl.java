@@ -17,20 +17,28 @@
 package org.apache.cloudstack.iam.server;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
-
 import org.apache.log4j.Logger;
 
 import org.apache.cloudstack.acl.PermissionScope;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageDispatcher;
+import org.apache.cloudstack.framework.messagebus.MessageHandler;
+import org.apache.cloudstack.iam.api.IAMAccountPolicySet;
 import org.apache.cloudstack.iam.api.IAMGroup;
 import org.apache.cloudstack.iam.api.IAMPolicy;
 import org.apache.cloudstack.iam.api.IAMPolicyPermission;
@@ -43,7 +51,11 @@ import org.apache.cloudstack.iam.server.dao.IAMGroupPolicyMapDao;
 import org.apache.cloudstack.iam.server.dao.IAMPolicyDao;
 import org.apache.cloudstack.iam.server.dao.IAMPolicyPermissionDao;
 
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.PropagateMessageCommand;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.serializer.GsonHelper;
 import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.Manager;
@@ -66,6 +78,10 @@ import com.cloud.utils.db.TransactionStatus;
 public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
 
     public static final Logger s_logger = Logger.getLogger(IAMServiceImpl.class);
+
+    static final String MESSAGE_IAM_ACCOUNT_CHANGED_EVENT = "Message.IAMAccountChanged.Event";
+    static final String MESSAGE_IAM_GROUP_CHANGED_EVENT = "Message.IAMGroupChanged.Event";
+    static final String MESSAGE_IAM_POLICY_CHANGED_EVENT = "Message.IAMPolicyChanged.Event";
     private String _name;
 
     @Inject
@@ -89,59 +105,154 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
     @Inject
     IAMPolicyPermissionDao _policyPermissionDao;
 
-    private Cache _iamCache;
+    @Inject
+    MessageBus _messageBus;
+
+    @Inject
+    ClusterManager _clusterMgr;
+
+    // compiled policy sets per account id, dropped only for the accounts affected by a change
+    private final ConcurrentHashMap<Long, IAMAccountPolicySet> _policySets = new ConcurrentHashMap<Long, IAMAccountPolicySet>();
+    // bumped on every invalidation so that a policy set compiled from older data is not cached
+    private final AtomicLong _policySetVersion = new AtomicLong();
+    private long _policySetTtlMs = 300000;
 
-    private void createIAMCache(final Map<String, ? extends Object> params) {
-        final String value = (String)params.get("cache.size");
+    @Override
+    public IAMAccountPolicySet getAccountPolicySet(long accountId) {
+        IAMAccountPolicySet policySet = _policySets.get(accountId);
+        if (policySet != null && !policySet.isExpired()) {
+            return policySet;
+        }
 
-        if (value != null) {
-            final CacheManager cm = CacheManager.create();
-            final int maxElements = NumbersUtil.parseInt(value, 0);
-            final int live = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
-            final int idle = NumbersUtil.parseInt((String)params.get("cache.time.to.idle"), 300);
-            _iamCache = new Cache(getName(), maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
-            cm.addCache(_iamCache);
-            s_logger.info("IAM Cache created: " + _iamCache.toString());
-        } else {
-            _iamCache = null;
+        long version = _policySetVersion.get();
+        policySet = compileAccountPolicySet(accountId);
+        if (version == _policySetVersion.get()) {
+            _policySets.put(accountId, policySet);
         }
+        return policySet;
     }
 
-    @Override
-    public void addToIAMCache(Object accessKey, Object allowDeny) {
-        if (_iamCache != null) {
-            try {
-                s_logger.debug("Put IAM access check for " + accessKey + " in cache");
-                _iamCache.put(new Element(accessKey, allowDeny));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put " + accessKey + " to IAM cache", e);
+    private IAMAccountPolicySet compileAccountPolicySet(long accountId) {
+        List<IAMPolicy> accountPolicies = listIAMPolicies(accountId);
+        List<IAMPolicy> policies = new ArrayList<IAMPolicy>(accountPolicies);
+        Set<Long> groupIds = new HashSet<Long>();
+
+        // policies with recursive permissions are inherited from the parent groups
+        for (IAMGroup group : listIAMGroups(accountId)) {
+            groupIds.add(group.getId());
+            for (IAMGroup parentGroup : listParentIAMGroups(group.getId())) {
+                groupIds.add(parentGroup.getId());
+                policies.addAll(listRecursiveIAMPoliciesByGroup(parentGroup.getId()));
             }
         }
+
+        Map<Long, List<IAMPolicyPermission>> permissions = new HashMap<Long, List<IAMPolicyPermission>>();
+        for (IAMPolicy policy : policies) {
+            if (!permissions.containsKey(policy.getId())) {
+                permissions.put(policy.getId(), listPolicyPermissions(policy.getId()));
+            }
+        }
+
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Compiled " + policies.size() + " IAM policies in " + groupIds.size() + " groups for account " + accountId);
+        }
+        return new IAMAccountPolicySet(accountId, policies, accountPolicies, permissions, groupIds, System.currentTimeMillis() + _policySetTtlMs);
     }
 
-    @Override
-    public void invalidateIAMCache() {
-        //This may need to use event bus to publish to other MS, but event bus now is missing this functionality to handle PublishScope.GLOBAL
-        if (_iamCache != null) {
-            s_logger.debug("Invalidate IAM cache");
-            _iamCache.removeAll();
+    private void invalidatePolicySetsForAccounts(Collection<Long> accountIds) {
+        evictPolicySetsForAccounts(accountIds);
+        for (Long accountId : accountIds) {
+            broadcastPolicySetsChanged(MESSAGE_IAM_ACCOUNT_CHANGED_EVENT, accountId);
         }
     }
 
-    @Override
-    public Object getFromIAMCache(Object accessKey) {
-        if (_iamCache != null) {
-            final Element element = _iamCache.get(accessKey);
-            return element == null ? null : element.getObjectValue();
+    private void invalidatePolicySetsForGroup(long groupId) {
+        evictPolicySetsForGroup(groupId);
+        broadcastPolicySetsChanged(MESSAGE_IAM_GROUP_CHANGED_EVENT, groupId);
+    }
+
+    private void invalidatePolicySetsForPolicy(long policyId) {
+        evictPolicySetsForPolicy(policyId);
+        broadcastPolicySetsChanged(MESSAGE_IAM_POLICY_CHANGED_EVENT, policyId);
+    }
+
+    /**
+     * The policy sets of the other management servers are compiled from the same tables, have them drop the affected ones
+     */
+    private void broadcastPolicySetsChanged(String subject, long id) {
+        Command[] cmds = new Command[] {new PropagateMessageCommand(subject, id)};
+        _clusterMgr.broadcast(0, GsonHelper.getGson().toJson(cmds));
+    }
+
+    @MessageHandler(topic = MESSAGE_IAM_ACCOUNT_CHANGED_EVENT)
+    private void handleAccountChangedEvent(String subject, String senderAddress, Object args) {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("IAM account " + args + " changed on another management server, dropping its policy set");
+        }
+        evictPolicySetsForAccounts(Collections.singletonList((Long)args));
+    }
+
+    @MessageHandler(topic = MESSAGE_IAM_GROUP_CHANGED_EVENT)
+    private void handleGroupChangedEvent(String subject, String senderAddress, Object args) {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("IAM group " + args + " changed on another management server, dropping the policy sets of its accounts");
+        }
+        evictPolicySetsForGroup((Long)args);
+    }
+
+    @MessageHandler(topic = MESSAGE_IAM_POLICY_CHANGED_EVENT)
+    private void handlePolicyChangedEvent(String subject, String senderAddress, Object args) {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("IAM policy " + args + " changed on another management server, dropping the policy sets holding it");
+        }
+        evictPolicySetsForPolicy((Long)args);
+    }
+
+    private void evictPolicySetsForAccounts(Collection<Long> accountIds) {
+        _policySetVersion.incrementAndGet();
+        for (Long accountId : accountIds) {
+            _policySets.remove(accountId);
+        }
+    }
+
+    private void evictPolicySetsForGroup(long groupId) {
+        _policySetVersion.incrementAndGet();
+        for (Iterator<IAMAccountPolicySet> it = _policySets.values().iterator(); it.hasNext();) {
+            if (it.next().dependsOnGroup(groupId)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void evictPolicySetsForPolicy(long policyId) {
+        // a policy attached to a parent group only becomes effective once it has a recursive permission,
+        // so the members of every group holding it are affected as well
+        Set<Long> groupIds = new HashSet<Long>();
+        for (IAMGroupPolicyMapVO groupPolicy : _aclGroupPolicyMapDao.listByPolicyId(policyId)) {
+            groupIds.add(groupPolicy.getAclGroupId());
+        }
+
+        _policySetVersion.incrementAndGet();
+        for (Iterator<IAMAccountPolicySet> it = _policySets.values().iterator(); it.hasNext();) {
+            IAMAccountPolicySet policySet = it.next();
+            boolean affected = policySet.dependsOnPolicy(policyId);
+            for (Iterator<Long> groupIt = groupIds.iterator(); !affected && groupIt.hasNext();) {
+                affected = policySet.dependsOnGroup(groupIt.next());
+            }
+            if (affected) {
+                it.remove();
+            }
         }
-        return null;
     }
 
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
         boolean result = super.configure(name, params);
-        // create IAM cache
-        createIAMCache(params);
+        _messageBus.subscribe(MESSAGE_IAM_ACCOUNT_CHANGED_EVENT, MessageDispatcher.getDispatcher(this));
+        _messageBus.subscribe(MESSAGE_IAM_GROUP_CHANGED_EVENT, MessageDispatcher.getDispatcher(this));
+        _messageBus.subscribe(MESSAGE_IAM_POLICY_CHANGED_EVENT, MessageDispatcher.getDispatcher(this));
+        final int policySetTtl = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
+        _policySetTtlMs = policySetTtl == -1 ? Long.MAX_VALUE / 2 : policySetTtl * 1000L;
         return result;
     }
 
@@ -195,7 +306,7 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
             }
         });
 
-        invalidateIAMCache();
+        invalidatePolicySetsForGroup(iamGroupId);
         return true;
     }
 
@@ -249,7 +360,7 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
             }
         });
 
-        invalidateIAMCache();
+        invalidatePolicySetsForAccounts(acctIds);
         return group;
     }
 
@@ -277,7 +388,7 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
             }
         });
 
-        invalidateIAMCache();
+        invalidatePolicySetsForAccounts(acctIds);
         return group;
     }
 
@@ -442,7 +553,7 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
             }
         });
 
-        invalidateIAMCache();
+        invalidatePolicySetsForPolicy(iamPolicyId);
 
         return true;
     }
@@ -606,7 +717,7 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
             }
         });
 
-        invalidateIAMCache();
+        invalidatePolicySetsForGroup(groupId);
         return group;
     }
 
@@ -640,7 +751,7 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
             }
         });
 
-        invalidateIAMCache();
+        invalidatePolicySetsForGroup(groupId);
         return group;
     }
 
@@ -668,7 +779,7 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
             }
         });
 
-        invalidateIAMCache();
+        invalidatePolicySetsForAccounts(acctIds);
     }
 
     @Override
@@ -693,7 +804,7 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
             }
         });
 
-        invalidateIAMCache();
+        invalidatePolicySetsForAccounts(acctIds);
     }
 
     @DB
@@ -717,7 +828,7 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
             _policyPermissionDao.persist(permit);
         }
 
-        invalidateIAMCache();
+        invalidatePolicySetsForPolicy(iamPolicyId);
         return policy;
 
     }
@@ -740,13 +851,14 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
             _policyPermissionDao.remove(permit.getId());
         }
 
-        invalidateIAMCache();
+        invalidatePolicySetsForPolicy(iamPolicyId);
         return policy;
     }
 
     @DB
     @Override
     public void removeIAMPermissionForEntity(final String entityType, final Long entityId) {
+        final Set<Long> policyIds = new HashSet<Long>();
         Transaction.execute(new TransactionCallbackNoReturn() {
             @Override
             public void doInTransactionWithoutResult(TransactionStatus status) {
@@ -754,6 +866,7 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
                 List<IAMPolicyPermissionVO> permitList = _policyPermissionDao.listByEntity(entityType, entityId);
                 for (IAMPolicyPermissionVO permit : permitList) {
                     long policyId = permit.getAclPolicyId();
+                    policyIds.add(policyId);
                     _policyPermissionDao.remove(permit.getId());
 
                     // remove the policy if there are no other permissions
@@ -764,7 +877,9 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
             }
         });
 
-        invalidateIAMCache();
+        for (Long policyId : policyIds) {
+            invalidatePolicySetsForPolicy(policyId);
+        }
     }
 
     @DB
@@ -785,7 +900,7 @@ public class IAMServiceImpl extends ManagerBase implements IAMService, Manager {
         permissionSC.setParameters("policyId", iamPolicyId);
         _policyPermissionDao.expunge(permissionSC);
 
-        invalidateIAMCache();
+        invalidatePolicySetsForPolicy(iamPolicyId);
         return policy;
     }
 
@@ -0,0 +1,82 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.iam;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.apache.cloudstack.iam.api.IAMAccountPolicySet;
+import org.apache.cloudstack.iam.api.IAMPolicy;
+import org.apache.cloudstack.iam.api.IAMPolicyPermission;
+import org.apache.cloudstack.iam.api.IAMPolicyPermission.Permission;
+import org.apache.cloudstack.iam.server.IAMPolicyPermissionVO;
+
+public class IAMAccountPolicySetTest {
+
+    private IAMPolicy mockPolicy(long id) {
+        IAMPolicy policy = mock(IAMPolicy.class);
+        when(policy.getId()).thenReturn(id);
+        return policy;
+    }
+
+    @Test
+    public void testPermissionLookups() {
+        IAMPolicy accountPolicy = mockPolicy(1L);
+        IAMPolicy inheritedPolicy = mockPolicy(2L);
+
+        Map<Long, List<IAMPolicyPermission>> permissions = new HashMap<Long, List<IAMPolicyPermission>>();
+        permissions.put(1L, Arrays.<IAMPolicyPermission> asList(
+                new IAMPolicyPermissionVO(1L, "listVirtualMachines", "VirtualMachine", "ListEntry", "ACCOUNT", null, Permission.Allow, false),
+                new IAMPolicyPermissionVO(1L, "deployVirtualMachine", null, null, "ACCOUNT", null, Permission.Allow, false)));
+        permissions.put(2L, Arrays.<IAMPolicyPermission> asList(
+                new IAMPolicyPermissionVO(2L, null, "Volume", "UseEntry", "DOMAIN", null, Permission.Allow, true)));
+
+        IAMAccountPolicySet policySet = new IAMAccountPolicySet(10L, Arrays.asList(accountPolicy, inheritedPolicy), Collections.singletonList(accountPolicy),
+                permissions, new HashSet<Long>(Arrays.asList(5L, 6L)), System.currentTimeMillis() + 60000);
+
+        assertEquals(2, policySet.getPolicies().size());
+        assertTrue(policySet.isActionAllowed("listVirtualMachines"));
+        assertTrue(policySet.isActionAllowed("deployVirtualMachine"));
+        assertFalse(policySet.isActionAllowed("destroyVirtualMachine"));
+
+        assertEquals(1, policySet.getPermissionsByAction(1L, "listVirtualMachines", "VirtualMachine").size());
+        assertTrue(policySet.getPermissionsByAction(1L, "listVirtualMachines", "Volume").isEmpty());
+        assertTrue(policySet.getPermissionsByAction(1L, "deployVirtualMachine", null).isEmpty());
+        assertEquals(1, policySet.getPermissionsByAccess(1L, "ListEntry", "VirtualMachine").size());
+        assertEquals(1, policySet.getPermissionsByAccess(2L, "UseEntry", "Volume").size());
+        assertTrue(policySet.getPermissionsByAccess(3L, "UseEntry", "Volume").isEmpty());
+
+        assertTrue(policySet.dependsOnPolicy(1L));
+        assertTrue(policySet.dependsOnPolicy(2L));
+        assertFalse(policySet.dependsOnPolicy(3L));
+        assertTrue(policySet.dependsOnGroup(6L));
+        assertFalse(policySet.dependsOnGroup(7L));
+        assertFalse(policySet.isExpired());
+    }
+}
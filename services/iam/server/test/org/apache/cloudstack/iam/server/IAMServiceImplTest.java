@@ -0,0 +1,136 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.iam.server;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+import org.apache.cloudstack.iam.api.IAMGroup;
+import org.apache.cloudstack.iam.api.IAMPolicy;
+import org.apache.cloudstack.iam.server.dao.IAMGroupAccountMapDao;
+import org.apache.cloudstack.iam.server.dao.IAMGroupDao;
+import org.apache.cloudstack.iam.server.dao.IAMGroupPolicyMapDao;
+
+import com.cloud.cluster.ClusterManager;
+
+public class IAMServiceImplTest {
+
+    IAMServiceImpl _iamService;
+    MessageBus _messageBus;
+    ClusterManager _clusterMgr;
+
+    @Before
+    public void setup() throws Exception {
+        _iamService = spy(new IAMServiceImpl());
+        _messageBus = mock(MessageBus.class);
+        _clusterMgr = mock(ClusterManager.class);
+        _iamService._messageBus = _messageBus;
+        _iamService._clusterMgr = _clusterMgr;
+        _iamService._aclGroupDao = mock(IAMGroupDao.class);
+        _iamService._aclGroupAccountMapDao = mock(IAMGroupAccountMapDao.class);
+        _iamService._aclGroupPolicyMapDao = mock(IAMGroupPolicyMapDao.class);
+
+        // account 100 is in group 5, which has no parent groups
+        IAMGroup group = mock(IAMGroup.class);
+        when(group.getId()).thenReturn(5L);
+        doReturn(new ArrayList<IAMPolicy>()).when(_iamService).listIAMPolicies(anyLong());
+        doReturn(Arrays.asList(group)).when(_iamService).listIAMGroups(100L);
+        doReturn(new ArrayList<IAMGroup>()).when(_iamService).listParentIAMGroups(5L);
+        when(_iamService._aclGroupDao.findById(5L)).thenReturn(new IAMGroupVO("group5", "group 5"));
+
+        _iamService.configure("IAMService", new HashMap<String, Object>());
+    }
+
+    /**
+     * Delivers a message the way the cluster dispatcher does when it receives a PropagateMessageCommand from a peer
+     */
+    private void receiveFromPeer(String subject, long id) {
+        ArgumentCaptor<MessageSubscriber> subscriber = ArgumentCaptor.forClass(MessageSubscriber.class);
+        verify(_messageBus).subscribe(eq(subject), subscriber.capture());
+        subscriber.getValue().onPublishMessage(null, subject, id);
+    }
+
+    @Test
+    public void testRemoteAccountChangeEvictsPolicySet() {
+        _iamService.getAccountPolicySet(100L);
+        _iamService.getAccountPolicySet(100L);
+        verify(_iamService, times(1)).listIAMPolicies(100L);
+
+        receiveFromPeer(IAMServiceImpl.MESSAGE_IAM_ACCOUNT_CHANGED_EVENT, 100L);
+        _iamService.getAccountPolicySet(100L);
+
+        verify(_iamService, times(2)).listIAMPolicies(100L);
+        // the peer already told the other servers, the change is not sent back
+        verify(_clusterMgr, never()).broadcast(anyLong(), anyString());
+    }
+
+    @Test
+    public void testRemoteGroupChangeEvictsPolicySetsOfMembers() {
+        _iamService.getAccountPolicySet(100L);
+
+        receiveFromPeer(IAMServiceImpl.MESSAGE_IAM_GROUP_CHANGED_EVENT, 6L);
+        _iamService.getAccountPolicySet(100L);
+        verify(_iamService, times(1)).listIAMPolicies(100L);
+
+        receiveFromPeer(IAMServiceImpl.MESSAGE_IAM_GROUP_CHANGED_EVENT, 5L);
+        _iamService.getAccountPolicySet(100L);
+        verify(_iamService, times(2)).listIAMPolicies(100L);
+    }
+
+    @Test
+    public void testRemotePolicyChangeEvictsPolicySetsOfItsGroups() {
+        List<IAMGroupPolicyMapVO> groupPolicies = Arrays.asList(new IAMGroupPolicyMapVO(5L, 7L));
+        when(_iamService._aclGroupPolicyMapDao.listByPolicyId(7L)).thenReturn(groupPolicies);
+        _iamService.getAccountPolicySet(100L);
+
+        receiveFromPeer(IAMServiceImpl.MESSAGE_IAM_POLICY_CHANGED_EVENT, 7L);
+        _iamService.getAccountPolicySet(100L);
+
+        verify(_iamService, times(2)).listIAMPolicies(100L);
+    }
+
+    @Test
+    public void testLocalChangeIsBroadcast() {
+        _iamService.addAccountsToGroup(Arrays.asList(100L, 101L), 5L);
+
+        ArgumentCaptor<String> cmds = ArgumentCaptor.forClass(String.class);
+        verify(_clusterMgr, times(2)).broadcast(eq(0L), cmds.capture());
+        Assert.assertTrue(cmds.getAllValues().get(0).contains(IAMServiceImpl.MESSAGE_IAM_ACCOUNT_CHANGED_EVENT));
+        Assert.assertTrue(cmds.getAllValues().get(0).contains("100"));
+        Assert.assertTrue(cmds.getAllValues().get(1).contains("101"));
+    }
+}
@@ -1907,6 +1907,9 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
         String value = (String)params.get("scripts.timeout");
         _timeout = NumbersUtil.parseInt(value, 1440) * 1000;
 
+        S3Utils.setTransferOptions(NumbersUtil.parseInt((String)params.get("s3.transfer.threads"), S3Utils.DEFAULT_TRANSFER_THREADS),
+                NumbersUtil.parseLong((String)params.get("s3.transfer.part.size"), S3Utils.DEFAULT_PART_SIZE));
+
         _storage = (StorageLayer)params.get(StorageLayer.InstanceConfigKey);
         configureStorageLayerClass(params);
 
@@ -220,6 +220,8 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
     private ExecutorService threadPool;
 
     private final Map<String, DownloadJob> jobs = new ConcurrentHashMap<String, DownloadJob>();
+    // one content index per secondary storage mount, keyed by the mount point
+    private final ConcurrentHashMap<String, TemplateContentStore> _contentStores = new ConcurrentHashMap<String, TemplateContentStore>();
     private String listTmpltScr;
     private String listVolScr;
     private int installTimeoutPerGig = 180 * 60 * 1000;
@@ -351,7 +353,11 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         ResourceType resourceType = dnld.getResourceType();
 
         File originalTemplate = new File(td.getDownloadLocalPath());
-        String checkSum = computeCheckSum(originalTemplate);
+        // single stream HTTP downloads compute the checksum while writing the file
+        String checkSum = td instanceof HttpTemplateDownloader ? ((HttpTemplateDownloader)td).getDownloadChecksum() : null;
+        if (checkSum == null) {
+            checkSum = computeCheckSum(originalTemplate);
+        }
         if (checkSum == null) {
             s_logger.warn("Something wrong happened when try to calculate the checksum of downloaded template!");
         }
@@ -405,6 +411,12 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         File downloadedTemplate = new File(resourcePath + "/" + templateFilename);
         _storage.setWorldReadableAndWriteable(downloadedTemplate);
 
+        if (resourceType == ResourceType.TEMPLATE && resourcePath.endsWith(finalResourcePath)) {
+            TemplateContentStore contentStore = getContentStore(resourcePath.substring(0, resourcePath.length() - finalResourcePath.length()));
+            contentStore.purgeUnreferenced();
+            contentStore.deduplicate(downloadedTemplate, checkSum);
+        }
+
         // Set permissions for template/volume.properties
         String propertiesFile = resourcePath;
         if (resourceType == ResourceType.TEMPLATE) {
@@ -451,6 +463,18 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         return null;
     }
 
+    private TemplateContentStore getContentStore(String storeRoot) {
+        TemplateContentStore store = _contentStores.get(storeRoot);
+        if (store == null) {
+            store = new TemplateContentStore(new File(storeRoot));
+            TemplateContentStore existing = _contentStores.putIfAbsent(storeRoot, store);
+            if (existing != null) {
+                store = existing;
+            }
+        }
+        return store;
+    }
+
     @Override
     public Status getDownloadStatus(String jobId) {
         DownloadJob job = jobs.get(jobId);
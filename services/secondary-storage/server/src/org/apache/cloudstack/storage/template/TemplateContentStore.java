@@ -0,0 +1,175 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.storage.template;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps one copy of identical template files on a secondary storage. Installed templates are
+ * indexed by checksum and size in a hidden directory on the same file system; a template whose
+ * content is already indexed is replaced by a hard link to the indexed file. Every template keeps
+ * its own path, so deleting one only drops a link. Content is compared byte by byte before
+ * linking, the checksum only serves to find a candidate.
+ */
+public class TemplateContentStore {
+    private static final Logger s_logger = Logger.getLogger(TemplateContentStore.class);
+
+    public static final String INDEX_DIR = "template" + File.separator + ".content";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final File _indexDir;
+
+    private final AtomicLong _bytesIngested = new AtomicLong();
+    private final AtomicLong _bytesSaved = new AtomicLong();
+
+    public TemplateContentStore(File storeRoot) {
+        _indexDir = new File(storeRoot, INDEX_DIR);
+    }
+
+    /**
+     * @return true if the file was replaced by a link to identical content already on the store
+     */
+    public boolean deduplicate(File file, String checksum) {
+        if (checksum == null || checksum.isEmpty() || !file.isFile()) {
+            return false;
+        }
+
+        long length = file.length();
+        _bytesIngested.addAndGet(length);
+        File entry = new File(_indexDir, checksum + "-" + length);
+        try {
+            if (!_indexDir.exists() && !_indexDir.mkdirs() && !_indexDir.isDirectory()) {
+                s_logger.debug("Unable to create template content index " + _indexDir);
+                return false;
+            }
+
+            if (!entry.exists()) {
+                try {
+                    Files.createLink(entry.toPath(), file.toPath());
+                    return false;
+                } catch (FileAlreadyExistsException e) {
+                    // indexed concurrently by another download, compare against that one
+                }
+            }
+
+            if (Files.isSameFile(entry.toPath(), file.toPath()) || entry.length() != length || !contentEquals(entry, file)) {
+                return false;
+            }
+
+            Path link = new File(file.getParentFile(), "." + file.getName() + ".link").toPath();
+            Files.deleteIfExists(link);
+            Files.createLink(link, entry.toPath());
+            Files.move(link, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            long saved = _bytesSaved.addAndGet(length);
+            s_logger.info("Template " + file.getAbsolutePath() + " has the same content as " + entry.getName() + ", stored as a link. Saved " + saved + " of "
+                    + _bytesIngested.get() + " bytes ingested on " + _indexDir.getParent());
+            return true;
+        } catch (IOException e) {
+            // e.g. a file system without hard links, the template just keeps its own copy
+            s_logger.debug("Unable to deduplicate " + file.getAbsolutePath() + ": " + e.getMessage());
+            return false;
+        } catch (UnsupportedOperationException e) {
+            s_logger.debug("Hard links are not supported for " + file.getAbsolutePath());
+            return false;
+        }
+    }
+
+    /**
+     * Removes index entries that no template links to anymore
+     */
+    public void purgeUnreferenced() {
+        File[] entries = _indexDir.listFiles();
+        if (entries == null) {
+            return;
+        }
+
+        for (File entry : entries) {
+            try {
+                Object links = Files.getAttribute(entry.toPath(), "unix:nlink");
+                if (links instanceof Integer && (Integer)links <= 1) {
+                    Files.deleteIfExists(entry.toPath());
+                }
+            } catch (IOException e) {
+                s_logger.debug("Unable to check links of " + entry.getAbsolutePath() + ": " + e.getMessage());
+            } catch (UnsupportedOperationException e) {
+                return;
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+        }
+    }
+
+    public long getBytesIngested() {
+        return _bytesIngested.get();
+    }
+
+    public long getBytesSaved() {
+        return _bytesSaved.get();
+    }
+
+    private static boolean contentEquals(File a, File b) throws IOException {
+        InputStream inA = new BufferedInputStream(new FileInputStream(a), BUFFER_SIZE);
+        try {
+            InputStream inB = new BufferedInputStream(new FileInputStream(b), BUFFER_SIZE);
+            try {
+                byte[] bufA = new byte[BUFFER_SIZE];
+                byte[] bufB = new byte[BUFFER_SIZE];
+                while (true) {
+                    int readA = readFully(inA, bufA);
+                    int readB = readFully(inB, bufB);
+                    if (readA != readB) {
+                        return false;
+                    }
+                    if (readA <= 0) {
+                        return true;
+                    }
+                    for (int i = 0; i < readA; i++) {
+                        if (bufA[i] != bufB[i]) {
+                            return false;
+                        }
+                    }
+                }
+            } finally {
+                inB.close();
+            }
+        } finally {
+            inA.close();
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        int read;
+        while (total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) > 0) {
+            total += read;
+        }
+        return total;
+    }
+}
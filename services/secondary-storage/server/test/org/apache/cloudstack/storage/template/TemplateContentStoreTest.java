@@ -0,0 +1,95 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.storage.template;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TemplateContentStoreTest {
+    private File root;
+    private TemplateContentStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("secondary").toFile();
+        store = new TemplateContentStore(root);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    private File template(String path, byte[] content) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    @Test
+    public void testIdenticalTemplatesShareContent() throws IOException {
+        byte[] content = "same image content".getBytes();
+        File first = template("template/tmpl/2/201/a.qcow2", content);
+        File second = template("template/tmpl/3/202/b.qcow2", content);
+
+        assertFalse(store.deduplicate(first, "abc"));
+        assertTrue(store.deduplicate(second, "abc"));
+
+        assertTrue(Files.isSameFile(first.toPath(), second.toPath()));
+        assertArrayEquals(content, Files.readAllBytes(second.toPath()));
+        assertEquals(content.length, store.getBytesSaved());
+    }
+
+    @Test
+    public void testChecksumMatchWithDifferentContentIsNotLinked() throws IOException {
+        File first = template("template/tmpl/2/201/a.qcow2", "image one".getBytes());
+        File second = template("template/tmpl/3/202/b.qcow2", "image two".getBytes());
+
+        store.deduplicate(first, "abc");
+        assertFalse(store.deduplicate(second, "abc"));
+
+        assertFalse(Files.isSameFile(first.toPath(), second.toPath()));
+        assertArrayEquals("image two".getBytes(), Files.readAllBytes(second.toPath()));
+    }
+
+    @Test
+    public void testDeletedTemplatesAreDroppedFromTheIndex() throws IOException {
+        File first = template("template/tmpl/2/201/a.qcow2", "image".getBytes());
+        store.deduplicate(first, "abc");
+        File[] entries = new File(root, TemplateContentStore.INDEX_DIR).listFiles();
+        assertEquals(1, entries.length);
+
+        store.purgeUnreferenced();
+        assertTrue(entries[0].exists());
+
+        first.delete();
+        store.purgeUnreferenced();
+        assertFalse(entries[0].exists());
+    }
+}
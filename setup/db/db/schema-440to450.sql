@@ -225,4 +225,13 @@ CREATE VIEW `cloud`.`volume_view` AS
             and async_job.job_status = 0;
 
 /* As part of the separation of Xen and XenServer, update the column for the network labels */
-ALTER TABLE `cloud`.`physical_network_traffic_types` CHANGE `xen_network_label` `xenserver_network_label` varchar(255) COMMENT 'The network name label of the physical device dedicated to this traffic on a XenServer host'
\ No newline at end of file
+ALTER TABLE `cloud`.`physical_network_traffic_types` CHANGE `xen_network_label` `xenserver_network_label` varchar(255) COMMENT 'The network name label of the physical device dedicated to this traffic on a XenServer host';
+
+/* listUsageRecords filters cloud_usage by account, usage type and date range and pages by start_date */
+ALTER TABLE `cloud_usage`.`cloud_usage` ADD INDEX `i_cloud_usage__account_id__usage_type__start_date`(`account_id`, `usage_type`, `start_date`);
+
+/* Domain and domain admin callers of listUsageRecords filter cloud_usage by domain instead of account */
+ALTER TABLE `cloud_usage`.`cloud_usage` ADD INDEX `i_cloud_usage__domain_id__start_date`(`domain_id`, `start_date`);
+
+/* Changed capacities are checked every capacity.alert.check.interval, the full recalculation only reconciles */
+UPDATE `cloud`.`configuration` SET value='3600000' WHERE name='capacity.check.period' AND value='300000';
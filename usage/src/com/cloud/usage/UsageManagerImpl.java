@@ -25,6 +25,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -149,12 +153,18 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private final Calendar _jobExecTime = Calendar.getInstance();
     private int _aggregationDuration = 0;
     private int _sanityCheckInterval = 0;
+    private int _parseThreads = 1;
     String _hostname = null;
     int _pid = 0;
     TimeZone _usageTimezone = TimeZone.getTimeZone("GMT");;
     private final GlobalLock _heartbeatLock = GlobalLock.getInternLock("usage.job.heartbeat.check");
     private final List<UsageNetworkVO> usageNetworks = new ArrayList<UsageNetworkVO>();
     private final List<UsageVmDiskVO> usageVmDisks = new ArrayList<UsageVmDiskVO>();
+    private final Map<String, HelperEventType> _helperEventTypes = new ConcurrentHashMap<String, HelperEventType>();
+
+    enum HelperEventType {
+        VM, IP, VOLUME, TEMPLATE, ISO, SNAPSHOT, LOAD_BALANCER, PORT_FORWARDING, NETWORK_OFFERING, VPN_USER, SECURITY_GROUP, VM_SNAPSHOT, NONE
+    }
 
     private final ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-Job"));
     private final ScheduledExecutorService _heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-HB"));
@@ -162,6 +172,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private Future _scheduledFuture = null;
     private Future _heartbeat = null;
     private Future _sanity = null;
+    // only created when usage.stats.job.parse.threads is greater than 1
+    ExecutorService _parserExecutor = null;
 
     public UsageManagerImpl() {
     }
@@ -206,6 +218,14 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (sanityCheckInterval != null) {
             _sanityCheckInterval = Integer.parseInt(sanityCheckInterval);
         }
+        String parseThreads = configs.get("usage.stats.job.parse.threads");
+        if (parseThreads != null) {
+            _parseThreads = Integer.parseInt(parseThreads);
+        }
+        if (_parseThreads > 1) {
+            _parserExecutor = Executors.newFixedThreadPool(_parseThreads, new NamedThreadFactory("Usage-Parser"));
+        }
+        s_logger.debug("Usage stats job parse threads: " + _parseThreads);
 
         if (aggreagationTimeZone != null && !aggreagationTimeZone.isEmpty()) {
             _usageTimezone = TimeZone.getTimeZone(aggreagationTimeZone);
@@ -316,6 +336,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (_sanity != null) {
             _sanity.cancel(true);
         }
+        if (_parserExecutor != null) {
+            _parserExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -605,6 +628,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             List<UsageEventVO> events = _usageEventDao.getRecentEvents(new Date(endDateMillis));
 
             TransactionLegacy usageTxn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+            long parseStartRecordId = -1;
             try {
                 usageTxn.start();
 
@@ -621,11 +645,13 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     // - loop over the list of events and create entries in the
                     // helper tables
                     // - create the usage records using the parse methods below
+                    List<Long> processedEventIds = new ArrayList<Long>(events.size());
                     for (UsageEventVO event : events) {
-                        event.setProcessed(true);
-                        _usageEventDao.update(event.getId(), event);
                         createHelperRecord(event);
+                        processedEventIds.add(event.getId());
                     }
+                    // flag the events in the same transaction as the helper records they produced
+                    _usageEventDao.markEventsProcessed(processedEventIds);
                 }
 
                 // TODO: Fetch a maximum number of user stats and process them
@@ -742,6 +768,13 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 boolean parsed = false;
                 numAcctsProcessed = 0;
 
+                // remember where this run starts in cloud_usage; accounts parsed concurrently are
+                // committed by their own worker transactions, so a failed run removes them by id.
+                // If the id cannot be read the run is aborted here and parseStartRecordId stays -1,
+                // so nothing is removed
+                parseStartRecordId = _usageDao.getLastUsageRecordId();
+                UsageParserStats parserStats = new UsageParserStats();
+
                 Date currentStartDate = startDate;
                 Date currentEndDate = endDate;
                 Date tempDate = endDate;
@@ -763,9 +796,14 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                         Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
                         accounts = _accountDao.listAll(filter);
                         if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                numAcctsProcessed++;
+                            if (_parserExecutor != null) {
+                                parsed = parseHelperTablesConcurrently(accounts, currentStartDate, currentEndDate, parserStats);
+                                numAcctsProcessed += accounts.size();
+                            } else {
+                                for (AccountVO account : accounts) {
+                                    parsed = parseHelperTables(account, currentStartDate, currentEndDate, parserStats);
+                                    numAcctsProcessed++;
+                                }
                             }
                         }
                         offset = new Long(offset.longValue() + limit.longValue());
@@ -786,7 +824,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
 
                         if ((accounts != null) && !accounts.isEmpty()) {
                             for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
+                                parsed = parseHelperTables(account, currentStartDate, currentEndDate, parserStats);
                                 List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
                                 for (Long templateId : publicTemplates) {
                                     // mark public templates owned by deleted
@@ -820,18 +858,25 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
                 }
 
+                if (s_logger.isInfoEnabled()) {
+                    s_logger.info("usage parser times: " + parserStats);
+                    s_logger.info("usage records created by type: " + _usageDao.countUsageRecordsByTypeAfterId(parseStartRecordId));
+                }
+
                 // FIXME: we don't break the above loop if something fails to
                 // parse, so it gets reset every account,
                 // do we want to break out of processing accounts and rollback
                 // if there are errors?
                 if (!parsed) {
                     usageTxn.rollback();
+                    removeConcurrentlyParsedRecords(parseStartRecordId);
                 } else {
                     success = true;
                 }
             } catch (Exception ex) {
                 s_logger.error("Exception in usage manager", ex);
                 usageTxn.rollback();
+                removeConcurrentlyParsedRecords(parseStartRecordId);
             } finally {
                 // everything seemed to work...set endDate as the last success
                 // date
@@ -860,85 +905,110 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
-    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
+    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate, UsageParserStats stats) {
         boolean parsed = false;
+        long parseStart;
 
+        parseStart = System.currentTimeMillis();
         parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("VMInstanceUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("vm usage instances successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parseStart = System.currentTimeMillis();
         parsed = NetworkUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("NetworkUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("network usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parseStart = System.currentTimeMillis();
         parsed = VmDiskUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("VmDiskUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("vm disk usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parseStart = System.currentTimeMillis();
         parsed = VolumeUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("VolumeUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("volume usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parseStart = System.currentTimeMillis();
         parsed = StorageUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("StorageUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("storage usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parseStart = System.currentTimeMillis();
         parsed = SecurityGroupUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("SecurityGroupUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("Security Group usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parseStart = System.currentTimeMillis();
         parsed = LoadBalancerUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("LoadBalancerUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("load balancer usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parseStart = System.currentTimeMillis();
         parsed = PortForwardingUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("PortForwardingUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("port forwarding usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parseStart = System.currentTimeMillis();
         parsed = NetworkOfferingUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("NetworkOfferingUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("network offering usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
 
+        parseStart = System.currentTimeMillis();
         parsed = IPAddressUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("IPAddressUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("IPAddress usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
+        parseStart = System.currentTimeMillis();
         parsed = VPNUserUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("VPNUserUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("VPN user usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
             }
         }
+        parseStart = System.currentTimeMillis();
         parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
+        stats.record("VMSnapshotUsageParser", parseStart);
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("VM Snapshot usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
@@ -947,33 +1017,146 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         return parsed;
     }
 
+    /**
+     * Parses a page of accounts on the parser pool. Each account is parsed in its own
+     * USAGE_DB transaction on a worker thread; the first failure is rethrown once the page is done.
+     */
+    private boolean parseHelperTablesConcurrently(List<AccountVO> accounts, final Date currentStartDate, final Date currentEndDate, final UsageParserStats stats)
+            throws Exception {
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(accounts.size());
+        for (final AccountVO account : accounts) {
+            results.add(_parserExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+                    try {
+                        txn.start();
+                        boolean parsed = parseHelperTables(account, currentStartDate, currentEndDate, stats);
+                        txn.commit();
+                        return parsed;
+                    } catch (Exception e) {
+                        txn.rollback();
+                        throw e;
+                    } finally {
+                        txn.close();
+                    }
+                }
+            }));
+        }
+
+        // wait for the whole page even after a failure, so no worker commits after the caller cleans up
+        boolean parsed = false;
+        Exception failure = null;
+        for (Future<Boolean> result : results) {
+            try {
+                parsed = result.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    failure = (cause instanceof Exception) ? (Exception)cause : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return parsed;
+    }
+
+    private void removeConcurrentlyParsedRecords(long parseStartRecordId) {
+        if (_parserExecutor == null || parseStartRecordId < 0) {
+            return;
+        }
+        s_logger.warn("Removing usage records created after id " + parseStartRecordId + " by the failed usage job");
+        _usageDao.removeUsageRecordsAfterId(parseStartRecordId);
+    }
+
     private void createHelperRecord(UsageEventVO event) {
-        String eventType = event.getType();
-        if (isVMEvent(eventType)) {
+        switch (getHelperEventType(event.getType())) {
+        case VM:
             createVMHelperEvent(event);
-        } else if (isIPEvent(eventType)) {
+            break;
+        case IP:
             createIPHelperEvent(event);
-        } else if (isVolumeEvent(eventType)) {
+            break;
+        case VOLUME:
             createVolumeHelperEvent(event);
-        } else if (isTemplateEvent(eventType)) {
+            break;
+        case TEMPLATE:
             createTemplateHelperEvent(event);
-        } else if (isISOEvent(eventType)) {
+            break;
+        case ISO:
             createISOHelperEvent(event);
-        } else if (isSnapshotEvent(eventType)) {
+            break;
+        case SNAPSHOT:
             createSnapshotHelperEvent(event);
-        } else if (isLoadBalancerEvent(eventType)) {
+            break;
+        case LOAD_BALANCER:
             createLoadBalancerHelperEvent(event);
-        } else if (isPortForwardingEvent(eventType)) {
+            break;
+        case PORT_FORWARDING:
             createPortForwardingHelperEvent(event);
-        } else if (isNetworkOfferingEvent(eventType)) {
+            break;
+        case NETWORK_OFFERING:
             createNetworkOfferingEvent(event);
-        } else if (isVPNUserEvent(eventType)) {
+            break;
+        case VPN_USER:
             createVPNUserEvent(event);
-        } else if (isSecurityGroupEvent(eventType)) {
+            break;
+        case SECURITY_GROUP:
             createSecurityGroupEvent(event);
-        } else if (isVmSnapshotEvent(eventType)) {
+            break;
+        case VM_SNAPSHOT:
             createVMSnapshotEvent(event);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Event types form a small, fixed set, so each one is classified once and then looked up
+     * instead of being run through the whole chain of string comparisons for every event.
+     */
+    HelperEventType getHelperEventType(String eventType) {
+        if (eventType == null) {
+            return HelperEventType.NONE;
+        }
+        HelperEventType helperEventType = _helperEventTypes.get(eventType);
+        if (helperEventType == null) {
+            helperEventType = classifyEvent(eventType);
+            _helperEventTypes.put(eventType, helperEventType);
+        }
+        return helperEventType;
+    }
+
+    private HelperEventType classifyEvent(String eventType) {
+        if (isVMEvent(eventType)) {
+            return HelperEventType.VM;
+        } else if (isIPEvent(eventType)) {
+            return HelperEventType.IP;
+        } else if (isVolumeEvent(eventType)) {
+            return HelperEventType.VOLUME;
+        } else if (isTemplateEvent(eventType)) {
+            return HelperEventType.TEMPLATE;
+        } else if (isISOEvent(eventType)) {
+            return HelperEventType.ISO;
+        } else if (isSnapshotEvent(eventType)) {
+            return HelperEventType.SNAPSHOT;
+        } else if (isLoadBalancerEvent(eventType)) {
+            return HelperEventType.LOAD_BALANCER;
+        } else if (isPortForwardingEvent(eventType)) {
+            return HelperEventType.PORT_FORWARDING;
+        } else if (isNetworkOfferingEvent(eventType)) {
+            return HelperEventType.NETWORK_OFFERING;
+        } else if (isVPNUserEvent(eventType)) {
+            return HelperEventType.VPN_USER;
+        } else if (isSecurityGroupEvent(eventType)) {
+            return HelperEventType.SECURITY_GROUP;
+        } else if (isVmSnapshotEvent(eventType)) {
+            return HelperEventType.VM_SNAPSHOT;
         }
+        return HelperEventType.NONE;
     }
 
     private boolean isVMEvent(String eventType) {
@@ -0,0 +1,71 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates the time spent in each usage parser during one usage job run. Parsers may
+ * run on several threads at once, so all counters are updated atomically.
+ */
+class UsageParserStats {
+    private final ConcurrentMap<String, AtomicLong> _parseTimeMillis = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> _invocations = new ConcurrentHashMap<String, AtomicLong>();
+
+    void record(String parser, long startMillis) {
+        counter(_parseTimeMillis, parser).addAndGet(System.currentTimeMillis() - startMillis);
+        counter(_invocations, parser).incrementAndGet();
+    }
+
+    long getParseTimeMillis(String parser) {
+        AtomicLong value = _parseTimeMillis.get(parser);
+        return value == null ? 0 : value.get();
+    }
+
+    long getInvocations(String parser) {
+        AtomicLong value = _invocations.get(parser);
+        return value == null ? 0 : value.get();
+    }
+
+    private static AtomicLong counter(ConcurrentMap<String, AtomicLong> counters, String parser) {
+        AtomicLong value = counters.get(parser);
+        if (value == null) {
+            value = new AtomicLong();
+            AtomicLong existing = counters.putIfAbsent(parser, value);
+            if (existing != null) {
+                value = existing;
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(_parseTimeMillis).entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(entry.getKey()).append(": ").append(entry.getValue().get()).append(" ms/").append(getInvocations(entry.getKey())).append(" accts");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,172 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.cloud.alert.AlertManager;
+import com.cloud.event.EventTypes;
+import com.cloud.event.dao.UsageEventDao;
+import com.cloud.usage.UsageManagerImpl.HelperEventType;
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.usage.dao.UsageJobDao;
+import com.cloud.usage.dao.UsageNetworkDao;
+import com.cloud.usage.dao.UsageVmDiskDao;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.user.dao.UserStatisticsDao;
+import com.cloud.user.dao.VmDiskStatisticsDao;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UsageManagerImplTest {
+
+    @Mock(answer = Answers.RETURNS_MOCKS)
+    AccountDao _accountDao;
+    @Mock(answer = Answers.RETURNS_MOCKS)
+    UserStatisticsDao _userStatsDao;
+    @Mock(answer = Answers.RETURNS_MOCKS)
+    VmDiskStatisticsDao _vmDiskStatsDao;
+    @Mock(answer = Answers.RETURNS_MOCKS)
+    UsageDao _usageDao;
+    @Mock(answer = Answers.RETURNS_MOCKS)
+    UsageJobDao _usageJobDao;
+    @Mock(answer = Answers.RETURNS_MOCKS)
+    UsageNetworkDao _usageNetworkDao;
+    @Mock(answer = Answers.RETURNS_MOCKS)
+    UsageVmDiskDao _usageVmDiskDao;
+    @Mock(answer = Answers.RETURNS_MOCKS)
+    UsageEventDao _usageEventDao;
+    @Mock
+    AlertManager _alertMgr;
+
+    @InjectMocks
+    UsageManagerImpl _usageMgr = new UsageManagerImpl();
+
+    UsageJobVO _job = new UsageJobVO();
+    long _endDateMillis;
+    long _startDateMillis;
+
+    @Before
+    public void setup() {
+        // parse the accounts concurrently, the run then records where it starts in cloud_usage
+        _usageMgr._parserExecutor = Executors.newSingleThreadExecutor();
+        _job.setId(1L);
+        _endDateMillis = System.currentTimeMillis();
+        _startDateMillis = _endDateMillis - 30000;
+    }
+
+    @After
+    public void tearDown() {
+        _usageMgr._parserExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testFailedParseRemovesRecordsAfterStart() {
+        when(_usageDao.getLastUsageRecordId()).thenReturn(42L);
+        when(_accountDao.listAll(any(Filter.class))).thenThrow(new CloudRuntimeException("lost the database"));
+
+        _usageMgr.parse(_job, _startDateMillis, _endDateMillis);
+
+        verify(_usageDao).removeUsageRecordsAfterId(42L);
+        verify(_usageJobDao).updateJobSuccess(anyLong(), anyLong(), anyLong(), anyLong(), eq(false));
+    }
+
+    @Test
+    public void testUnreadableStartRemovesNothing() {
+        when(_usageDao.getLastUsageRecordId()).thenThrow(new CloudRuntimeException("error getting last usage record id"));
+
+        _usageMgr.parse(_job, _startDateMillis, _endDateMillis);
+
+        // without a start id the run is aborted before any account is parsed, and no record may be removed
+        verify(_accountDao, never()).listAll(any(Filter.class));
+        verify(_usageDao, never()).removeUsageRecordsAfterId(anyLong());
+        verify(_usageJobDao).updateJobSuccess(anyLong(), anyLong(), anyLong(), anyLong(), eq(false));
+    }
+
+    /**
+     * The chain of checks createHelperRecord() went through before the event types were classified once
+     */
+    private static HelperEventType classifyLikeIfChain(String eventType) {
+        if (eventType.startsWith("VM.")) {
+            return HelperEventType.VM;
+        } else if (eventType.startsWith("NET.IP")) {
+            return HelperEventType.IP;
+        } else if (eventType.equals(EventTypes.EVENT_VOLUME_CREATE) || eventType.equals(EventTypes.EVENT_VOLUME_DELETE) || eventType.equals(EventTypes.EVENT_VOLUME_RESIZE)) {
+            return HelperEventType.VOLUME;
+        } else if (eventType.equals(EventTypes.EVENT_TEMPLATE_CREATE) || eventType.equals(EventTypes.EVENT_TEMPLATE_COPY) || eventType.equals(EventTypes.EVENT_TEMPLATE_DELETE)) {
+            return HelperEventType.TEMPLATE;
+        } else if (eventType.equals(EventTypes.EVENT_ISO_CREATE) || eventType.equals(EventTypes.EVENT_ISO_COPY) || eventType.equals(EventTypes.EVENT_ISO_DELETE)) {
+            return HelperEventType.ISO;
+        } else if (eventType.equals(EventTypes.EVENT_SNAPSHOT_CREATE) || eventType.equals(EventTypes.EVENT_SNAPSHOT_DELETE)) {
+            return HelperEventType.SNAPSHOT;
+        } else if (eventType.startsWith("LB.")) {
+            return HelperEventType.LOAD_BALANCER;
+        } else if (eventType.startsWith("NET.RULE")) {
+            return HelperEventType.PORT_FORWARDING;
+        } else if (eventType.equals(EventTypes.EVENT_NETWORK_OFFERING_CREATE) || eventType.equals(EventTypes.EVENT_NETWORK_OFFERING_DELETE)
+                || eventType.equals(EventTypes.EVENT_NETWORK_OFFERING_ASSIGN) || eventType.equals(EventTypes.EVENT_NETWORK_OFFERING_REMOVE)) {
+            return HelperEventType.NETWORK_OFFERING;
+        } else if (eventType.startsWith("VPN.USER")) {
+            return HelperEventType.VPN_USER;
+        } else if (eventType.equals(EventTypes.EVENT_SECURITY_GROUP_ASSIGN) || eventType.equals(EventTypes.EVENT_SECURITY_GROUP_REMOVE)) {
+            return HelperEventType.SECURITY_GROUP;
+        } else if (eventType.equals(EventTypes.EVENT_VM_SNAPSHOT_CREATE) || eventType.equals(EventTypes.EVENT_VM_SNAPSHOT_DELETE)) {
+            return HelperEventType.VM_SNAPSHOT;
+        }
+        return HelperEventType.NONE;
+    }
+
+    @Test
+    public void testHelperEventTypeOfEveryEventType() throws Exception {
+        int eventTypes = 0;
+        for (Field field : EventTypes.class.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) || field.getType() != String.class || !field.getName().startsWith("EVENT_")) {
+                continue;
+            }
+            String eventType = (String)field.get(null);
+            HelperEventType expected = classifyLikeIfChain(eventType);
+            assertEquals(field.getName(), expected, _usageMgr.getHelperEventType(eventType));
+            // the second lookup is answered from the memoized classification
+            assertEquals(field.getName(), expected, _usageMgr.getHelperEventType(eventType));
+            eventTypes++;
+        }
+        assertTrue(eventTypes > 100);
+        assertEquals(HelperEventType.NONE, _usageMgr.getHelperEventType(null));
+        assertEquals(HelperEventType.NONE, _usageMgr.getHelperEventType("UNKNOWN.EVENT"));
+    }
+}
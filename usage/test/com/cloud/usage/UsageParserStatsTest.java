@@ -0,0 +1,65 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class UsageParserStatsTest extends TestCase {
+
+    @Test
+    public void testRecordAccumulatesPerParser() {
+        UsageParserStats stats = new UsageParserStats();
+        long start = System.currentTimeMillis() - 5;
+
+        stats.record("VolumeUsageParser", start);
+        stats.record("VolumeUsageParser", start);
+        stats.record("StorageUsageParser", start);
+
+        assertEquals(2, stats.getInvocations("VolumeUsageParser"));
+        assertEquals(1, stats.getInvocations("StorageUsageParser"));
+        assertEquals(0, stats.getInvocations("VMInstanceUsageParser"));
+        assertTrue(stats.getParseTimeMillis("VolumeUsageParser") >= 10);
+    }
+
+    @Test
+    public void testRecordFromSeveralThreads() throws InterruptedException {
+        final UsageParserStats stats = new UsageParserStats();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        stats.record("VMInstanceUsageParser", System.currentTimeMillis());
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(4000, stats.getInvocations("VMInstanceUsageParser"));
+    }
+}
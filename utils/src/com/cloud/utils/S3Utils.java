@@ -38,11 +38,23 @@ import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
@@ -62,8 +74,10 @@ import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
 import com.amazonaws.services.s3.transfer.Upload;
 
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.exception.CloudRuntimeException;
 
 public final class S3Utils {
@@ -75,12 +89,110 @@ public final class S3Utils {
     private static final int MIN_BUCKET_NAME_LENGTH = 3;
     private static final int MAX_BUCKET_NAME_LENGTH = 63;
 
+    public static final int DEFAULT_TRANSFER_THREADS = 10;
+    public static final long DEFAULT_PART_SIZE = 16L * 1024L * 1024L; // 16M
+
+    private static final int BLOCK_SIZE = 1024 * 1024; // 1M
+
+    // S3 clients and transfer managers keep connection pools and threads, they are shared by
+    // every transfer to the same endpoint with the same credentials instead of being created per call
+    private static final ConcurrentMap<String, AmazonS3> s_clients = new ConcurrentHashMap<String, AmazonS3>();
+    private static final ConcurrentMap<String, TransferManager> s_transferManagers = new ConcurrentHashMap<String, TransferManager>();
+
+    private static volatile int s_transferThreads = DEFAULT_TRANSFER_THREADS;
+    private static volatile long s_partSize = DEFAULT_PART_SIZE;
+    private static volatile ThreadPoolExecutor s_rangeExecutor;
+
+    private static final AtomicLong s_bytesUploaded = new AtomicLong();
+    private static final AtomicLong s_bytesDownloaded = new AtomicLong();
+
     private S3Utils() {
         super();
     }
 
+    /**
+     * Sets the number of parallel part transfers per endpoint and the size of the parts used for
+     * multipart uploads and ranged downloads. Only transfer managers created afterwards pick up the
+     * new values.
+     */
+    public static void setTransferOptions(final int transferThreads, final long partSize) {
+        if (transferThreads > 0) {
+            s_transferThreads = transferThreads;
+        }
+        if (partSize > 0) {
+            s_partSize = partSize;
+        }
+    }
+
+    public static long getBytesUploaded() {
+        return s_bytesUploaded.get();
+    }
+
+    public static long getBytesDownloaded() {
+        return s_bytesDownloaded.get();
+    }
+
     public static AmazonS3 acquireClient(final ClientOptions clientOptions) {
 
+        final String key = composeClientKey(clientOptions);
+        AmazonS3 client = s_clients.get(key);
+        if (client == null) {
+            client = createClient(clientOptions);
+            final AmazonS3 existing = s_clients.putIfAbsent(key, client);
+            if (existing != null) {
+                client = existing;
+            }
+        }
+        return client;
+
+    }
+
+    static String composeClientKey(final ClientOptions clientOptions) {
+        return join("|", clientOptions.getAccessKey(), clientOptions.getSecretKey(), clientOptions.getEndPoint(), clientOptions.isHttps(),
+                clientOptions.getConnectionTimeout(), clientOptions.getMaxErrorRetry(), clientOptions.getSocketTimeout());
+    }
+
+    private static TransferManager acquireTransferManager(final ClientOptions clientOptions) {
+
+        final String key = composeClientKey(clientOptions);
+        TransferManager tm = s_transferManagers.get(key);
+        if (tm == null) {
+            synchronized (s_transferManagers) {
+                tm = s_transferManagers.get(key);
+                if (tm == null) {
+                    tm = new TransferManager(acquireClient(clientOptions), createTransferExecutor("S3Transfer"));
+                    final TransferManagerConfiguration configuration = new TransferManagerConfiguration();
+                    configuration.setMinimumUploadPartSize(s_partSize);
+                    configuration.setMultipartUploadThreshold((int)Math.min(Integer.MAX_VALUE, s_partSize));
+                    tm.setConfiguration(configuration);
+                    s_transferManagers.put(key, tm);
+                }
+            }
+        }
+        return tm;
+
+    }
+
+    private static ThreadPoolExecutor createTransferExecutor(final String name) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(s_transferThreads, s_transferThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadPoolExecutor getRangeExecutor() {
+        if (s_rangeExecutor == null) {
+            synchronized (S3Utils.class) {
+                if (s_rangeExecutor == null) {
+                    s_rangeExecutor = createTransferExecutor("S3RangeDownload");
+                }
+            }
+        }
+        return s_rangeExecutor;
+    }
+
+    private static AmazonS3 createClient(final ClientOptions clientOptions) {
+
         final AWSCredentials credentials = new BasicAWSCredentials(clientOptions.getAccessKey(), clientOptions.getSecretKey());
 
         final ClientConfiguration configuration = new ClientConfiguration();
@@ -173,9 +285,12 @@ public final class S3Utils {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug(format("Multipart sending file %1$s as S3 object %2$s in " + "bucket %3$s", sourceFile.getName(), key, bucketName));
         }
-        TransferManager tm = new TransferManager(S3Utils.acquireClient(clientOptions));
-        Upload upload = tm.upload(bucketName, key, sourceFile);
+        final long startTime = currentTimeMillis();
+        final TransferManager tm = acquireTransferManager(clientOptions);
+        final Upload upload = tm.upload(bucketName, key, sourceFile);
         upload.waitForCompletion();
+        logTransfer("Uploaded", key, sourceFile.length(), startTime);
+        s_bytesUploaded.addAndGet(sourceFile.length());
     }
 
     // multi-part upload object
@@ -189,9 +304,13 @@ public final class S3Utils {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug(format("Multipart sending stream as S3 object %1$s in " + "bucket %2$s", key, bucketName));
         }
-        TransferManager tm = new TransferManager(S3Utils.acquireClient(clientOptions));
-        Upload upload = tm.upload(bucketName, key, sourceStream, null);
+        final long startTime = currentTimeMillis();
+        final TransferManager tm = acquireTransferManager(clientOptions);
+        final Upload upload = tm.upload(bucketName, key, sourceStream, null);
         upload.waitForCompletion();
+        final long bytes = upload.getProgress().getBytesTransfered();
+        logTransfer("Uploaded", key, bytes, startTime);
+        s_bytesUploaded.addAndGet(bytes);
     }
 
     // multi-part upload object
@@ -203,9 +322,13 @@ public final class S3Utils {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Multipart sending object to S3 using PutObjectRequest");
         }
-        TransferManager tm = new TransferManager(S3Utils.acquireClient(clientOptions));
-        Upload upload = tm.upload(req);
+        final long startTime = currentTimeMillis();
+        final TransferManager tm = acquireTransferManager(clientOptions);
+        final Upload upload = tm.upload(req);
         upload.waitForCompletion();
+        final long bytes = upload.getProgress().getBytesTransfered();
+        logTransfer("Uploaded", req.getKey(), bytes, startTime);
+        s_bytesUploaded.addAndGet(bytes);
 
     }
 
@@ -265,16 +388,22 @@ public final class S3Utils {
                 LOGGER.debug(format("Downloading object %1$s from bucket %2$s to temp file %3$s", key, bucketName, tempFile.getName()));
             }
 
-            try {
-                connection.getObject(new GetObjectRequest(bucketName, key), tempFile);
-            } catch (AmazonClientException ex) {
-                // hack to handle different ETAG format generated from RiakCS
-                // for multi-part uploaded object
-                String msg = ex.getMessage();
-                if (!msg.contains("verify integrity")) {
-                    throw ex;
+            final long startTime = currentTimeMillis();
+            final long length = connection.getObjectMetadata(bucketName, key).getContentLength();
+            if (length < 2 * s_partSize || !getRanges(connection, bucketName, key, tempFile, length)) {
+                try {
+                    connection.getObject(new GetObjectRequest(bucketName, key), tempFile);
+                } catch (AmazonClientException ex) {
+                    // hack to handle different ETAG format generated from RiakCS
+                    // for multi-part uploaded object
+                    String msg = ex.getMessage();
+                    if (!msg.contains("verify integrity")) {
+                        throw ex;
+                    }
                 }
             }
+            logTransfer("Downloaded", key, length, startTime);
+            s_bytesDownloaded.addAndGet(length);
 
             final File targetFile = new File(targetDirectory, namingStrategy.determineFileName(key));
             tempFile.renameTo(targetFile);
@@ -300,6 +429,92 @@ public final class S3Utils {
 
     }
 
+    /**
+     * Downloads the object in part sized ranges on the shared range download threads, each range
+     * written straight to its place in the file.
+     *
+     * @return false if the server ignored the ranges, the caller then downloads the object in one piece
+     */
+    private static boolean getRanges(final AmazonS3 connection, final String bucketName, final String key, final File file, final long length) throws IOException {
+
+        final long partSize = s_partSize;
+        final RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(length);
+            final FileChannel channel = out.getChannel();
+
+            final List<Callable<Boolean>> ranges = new ArrayList<Callable<Boolean>>();
+            for (long offset = 0; offset < length; offset += partSize) {
+                final long from = offset;
+                final long to = Math.min(offset + partSize, length) - 1;
+                ranges.add(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        return getRange(connection, bucketName, key, channel, from, to);
+                    }
+                });
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(format("Downloading object %1$s from bucket %2$s in %3$s ranges", key, bucketName, ranges.size()));
+            }
+
+            boolean rangesHonoured = true;
+            for (final Future<Boolean> result : getRangeExecutor().invokeAll(ranges)) {
+                rangesHonoured &= result.get();
+            }
+            return rangesHonoured;
+
+        } catch (InterruptedException e) {
+            throw new CloudRuntimeException(format("Interrupted while downloading object %1$s from bucket %2$s", key, bucketName), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AmazonClientException) {
+                throw (AmazonClientException)e.getCause();
+            }
+            throw new CloudRuntimeException(format("Failed to download object %1$s from bucket %2$s", key, bucketName), e.getCause());
+        } finally {
+            out.close();
+        }
+
+    }
+
+    private static boolean getRange(final AmazonS3 connection, final String bucketName, final String key, final FileChannel channel, final long from, final long to)
+            throws IOException {
+
+        final S3Object object = connection.getObject(new GetObjectRequest(bucketName, key).withRange(from, to));
+        final InputStream in = object.getObjectContent();
+        try {
+            if (object.getObjectMetadata().getContentLength() != to - from + 1) {
+                return false;
+            }
+
+            final byte[] block = new byte[BLOCK_SIZE];
+            long position = from;
+            int read;
+            while (position <= to && (read = in.read(block, 0, (int)Math.min(block.length, to - position + 1))) > 0) {
+                final ByteBuffer buffer = ByteBuffer.wrap(block, 0, read);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+
+            if (position <= to) {
+                throw new IOException(format("Range %1$s-%2$s of object %3$s ended after %4$s bytes", from, to, key, position - from));
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+
+    }
+
+    private static void logTransfer(final String action, final String key, final long bytes, final long startTime) {
+        if (LOGGER.isDebugEnabled()) {
+            final long elapsed = Math.max(1, currentTimeMillis() - startTime);
+            LOGGER.debug(format("%1$s %2$s bytes of S3 object %3$s in %4$s ms (%5$.1f MB/s)", action, bytes, key, elapsed, bytes * 1000.0 / elapsed / (1024 * 1024)));
+        }
+    }
+
     public static List<File> getDirectory(final ClientOptions clientOptions, final String bucketName, final String sourcePath, final File targetDirectory,
             final FileNamingStrategy namingStrategy) {
 
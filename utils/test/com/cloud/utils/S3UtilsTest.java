@@ -0,0 +1,204 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.utils.S3Utils.ClientOptions;
+import com.cloud.utils.S3Utils.FileNamingStrategy;
+
+public class S3UtilsTest {
+    private static final int PART_SIZE = 64 * 1024;
+
+    private final byte[] content = new byte[5 * PART_SIZE + 17];
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final ExecutorService serverThreads = Executors.newCachedThreadPool();
+    private ServerSocket server;
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(7).nextBytes(content);
+        dir = Files.createTempDirectory("s3").toFile();
+
+        // a minimal S3 stand-in serving a single object with range support; written on plain sockets
+        // because the JDK http server rewrites the ETag header name, which the S3 client then misses
+        final String etag = String.format("%032x", new BigInteger(1, MessageDigest.getInstance("MD5").digest(content)));
+        server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        serverThreads.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        final Socket socket = server.accept();
+                        serverThreads.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket, etag);
+                            }
+                        });
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        });
+
+        S3Utils.setTransferOptions(S3Utils.DEFAULT_TRANSFER_THREADS, PART_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        S3Utils.setTransferOptions(S3Utils.DEFAULT_TRANSFER_THREADS, S3Utils.DEFAULT_PART_SIZE);
+        server.close();
+        serverThreads.shutdownNow();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static ClientOptions options(final String endPoint) {
+        return new ClientOptions() {
+            @Override
+            public String getAccessKey() {
+                return "access";
+            }
+
+            @Override
+            public String getSecretKey() {
+                return "secret";
+            }
+
+            @Override
+            public String getEndPoint() {
+                return endPoint;
+            }
+
+            @Override
+            public Boolean isHttps() {
+                return false;
+            }
+
+            @Override
+            public Integer getConnectionTimeout() {
+                return null;
+            }
+
+            @Override
+            public Integer getMaxErrorRetry() {
+                return 0;
+            }
+
+            @Override
+            public Integer getSocketTimeout() {
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void testClientIsSharedPerEndpoint() {
+        assertSame(S3Utils.acquireClient(options("s3.example.com")), S3Utils.acquireClient(options("s3.example.com")));
+        assertNotSame(S3Utils.acquireClient(options("s3.example.com")), S3Utils.acquireClient(options("s3.example.org")));
+    }
+
+    @Test
+    public void testLargeObjectIsDownloadedInRanges() throws IOException {
+        long downloaded = S3Utils.getBytesDownloaded();
+
+        File file = S3Utils.getFile(options("127.0.0.1:" + server.getLocalPort()), "bucket", "template.qcow2", dir, new FileNamingStrategy() {
+            @Override
+            public String determineFileName(String key) {
+                return key;
+            }
+        });
+
+        assertEquals(6, rangeRequests.get());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(content.length, S3Utils.getBytesDownloaded() - downloaded);
+    }
+
+    private void serve(Socket socket, String etag) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            String method = reader.readLine().split(" ")[0];
+            String range = null;
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                if (line.toLowerCase().startsWith("range:")) {
+                    range = line.substring("range:".length()).trim();
+                }
+            }
+
+            int from = 0;
+            int to = content.length - 1;
+            String status = "200 OK";
+            if (range != null) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                from = Integer.parseInt(bounds[0]);
+                to = Integer.parseInt(bounds[1]);
+                status = "206 Partial Content";
+                rangeRequests.incrementAndGet();
+            }
+
+            int length = to - from + 1;
+            OutputStream os = socket.getOutputStream();
+            os.write(("HTTP/1.1 " + status + "\r\nETag: \"" + etag + "\"\r\nAccept-Ranges: bytes\r\nContent-Length: " + length + "\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            if (!"HEAD".equals(method)) {
+                os.write(content, from, length);
+            }
+            os.flush();
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
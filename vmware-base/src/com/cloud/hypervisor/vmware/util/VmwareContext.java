@@ -34,6 +34,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -64,6 +65,9 @@ public class VmwareContext {
 
     private static final int ChunkSize = 1 * 1024 * 1024; // 1M
 
+    // a session validated this recently is reused without another validation round trip
+    public static final long SESSION_VALIDATION_WINDOW_MS = 30000;
+
     private final VmwareClient _vimClient;
     private final String _serverAddress;
 
@@ -72,7 +76,10 @@ public class VmwareContext {
     private VmwareContextPool _pool;
     private String _poolKey;
 
-    private static volatile int s_outstandingCount = 0;
+    // time of the last successful session validation, a freshly logged in session counts as validated
+    private volatile long _lastValidatedMs = System.currentTimeMillis();
+
+    private static final AtomicInteger s_outstandingCount = new AtomicInteger();
 
     static {
         try {
@@ -107,7 +114,24 @@ public class VmwareContext {
     }
 
     public boolean validate() {
-        return _vimClient.validate();
+        if (_vimClient.validate()) {
+            _lastValidatedMs = System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Validates the session only if it has not been successfully validated within the given time
+     */
+    public boolean validate(long maxValidationAgeMs) {
+        if (System.currentTimeMillis() - _lastValidatedMs < maxValidationAgeMs)
+            return true;
+        return validate();
+    }
+
+    public long getLastValidatedTime() {
+        return _lastValidatedMs;
     }
 
     public void registerStockObject(String name, Object obj) {
@@ -177,15 +201,15 @@ public class VmwareContext {
     }
 
     public static int getOutstandingContextCount() {
-        return s_outstandingCount;
+        return s_outstandingCount.get();
     }
 
     public static void registerOutstandingContext() {
-        s_outstandingCount++;
+        s_outstandingCount.incrementAndGet();
     }
 
     public static void unregisterOutstandingContext() {
-        s_outstandingCount--;
+        s_outstandingCount.decrementAndGet();
     }
 
     public ManagedObjectReference getHostMorByPath(String inventoryPath) throws Exception {
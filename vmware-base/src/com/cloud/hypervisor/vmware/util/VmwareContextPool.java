@@ -17,29 +17,49 @@
 package com.cloud.hypervisor.vmware.util;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 import org.apache.cloudstack.managed.context.ManagedContextTimerTask;
 
+/**
+ * Keeps idle vCenter sessions per vCenter/user so that commands do not have to log in again.
+ * Each pool key has its own lock-free idle queue, so borrowing a session for one vCenter never
+ * waits on traffic to another. Idle sessions are handed out most-recently-used first and are
+ * revalidated in the background, which lets callers skip the expensive validation round trip
+ * for sessions that were known to be good a moment ago.
+ */
 public class VmwareContextPool {
     private static final Logger s_logger = Logger.getLogger(VmwareContextPool.class);
 
     private static final long DEFAULT_CHECK_INTERVAL = 10000;
     private static final int DEFAULT_IDLE_QUEUE_LENGTH = 128;
 
-    private List<VmwareContext> _outstandingRegistry = new ArrayList<VmwareContext>();
+    // idle sessions not validated for this long are revalidated by the keep-alive task
+    private static final long DEFAULT_IDLE_VALIDATION_INTERVAL = 300000;
 
-    private Map<String, List<VmwareContext>> _pool;
+    private final Set<VmwareContext> _outstandingRegistry = Collections.newSetFromMap(new ConcurrentHashMap<VmwareContext, Boolean>());
+
+    private final ConcurrentMap<String, Deque<VmwareContext>> _pool = new ConcurrentHashMap<String, Deque<VmwareContext>>();
     private int _maxIdleQueueLength = DEFAULT_IDLE_QUEUE_LENGTH;
     private long _idleCheckIntervalMs = DEFAULT_CHECK_INTERVAL;
 
-    private Timer _timer = new Timer();
+    private final AtomicLong _reusedCount = new AtomicLong();
+    private final AtomicLong _missedCount = new AtomicLong();
+    private final AtomicLong _discardedCount = new AtomicLong();
+
+    private Timer _timer = new Timer("VmwareContextPool-KeepAlive", true);
 
     public VmwareContextPool() {
         this(DEFAULT_IDLE_QUEUE_LENGTH, DEFAULT_CHECK_INTERVAL);
@@ -50,8 +70,6 @@ public class VmwareContextPool {
     }
 
     public VmwareContextPool(int maxIdleQueueLength, long idleCheckIntervalMs) {
-        _pool = new HashMap<String, List<VmwareContext>>();
-
         _maxIdleQueueLength = maxIdleQueueLength;
         _idleCheckIntervalMs = idleCheckIntervalMs;
 
@@ -60,64 +78,86 @@ public class VmwareContextPool {
 
     public void registerOutstandingContext(VmwareContext context) {
         assert (context != null);
-        synchronized (this) {
-            _outstandingRegistry.add(context);
-        }
+        _outstandingRegistry.add(context);
     }
 
     public void unregisterOutstandingContext(VmwareContext context) {
         assert (context != null);
-        synchronized (this) {
-            _outstandingRegistry.remove(context);
-        }
+        _outstandingRegistry.remove(context);
     }
 
     public VmwareContext getContext(String vCenterAddress, String vCenterUserName) {
         String poolKey = composePoolKey(vCenterAddress, vCenterUserName);
-        synchronized (this) {
-            List<VmwareContext> l = _pool.get(poolKey);
-            if (l == null)
-                return null;
-
-            if (l.size() > 0) {
-                VmwareContext context = l.remove(0);
-                context.setPoolInfo(this, poolKey);
-
-                if (s_logger.isTraceEnabled())
-                    s_logger.trace("Return a VmwareContext from the idle pool: " + poolKey + ". current pool size: " + l.size() + ", outstanding count: "
-                            + VmwareContext.getOutstandingContextCount());
-                return context;
-            }
-
+        Deque<VmwareContext> l = _pool.get(poolKey);
+        VmwareContext context = l != null ? l.pollFirst() : null;
+        if (context == null) {
+            _missedCount.incrementAndGet();
             // TODO, we need to control the maximum number of outstanding
             // VmwareContext object in the future
             return null;
         }
+
+        context.setPoolInfo(this, poolKey);
+        _reusedCount.incrementAndGet();
+
+        if (s_logger.isTraceEnabled())
+            s_logger.trace("Return a VmwareContext from the idle pool: " + poolKey + ". current pool size: " + l.size() + ", outstanding count: "
+                    + VmwareContext.getOutstandingContextCount());
+        return context;
     }
 
     public void returnContext(VmwareContext context) {
         assert (context.getPool() == this);
         assert (context.getPoolKey() != null);
-        synchronized (this) {
-            List<VmwareContext> l = _pool.get(context.getPoolKey());
-            if (l == null) {
-                l = new ArrayList<VmwareContext>();
-                _pool.put(context.getPoolKey(), l);
-            }
+        Deque<VmwareContext> l = getIdleQueue(context.getPoolKey());
+
+        // the size check is racy, the queue may briefly go a few entries over the limit
+        // under concurrent returns, which is harmless
+        if (l.size() < _maxIdleQueueLength) {
+            context.clearStockObjects();
+            l.offerFirst(context);
+
+            if (s_logger.isTraceEnabled())
+                s_logger.trace("Recycle VmwareContext into idle pool: " + context.getPoolKey() + ", current idle pool size: " + l.size() + ", outstanding count: "
+                        + VmwareContext.getOutstandingContextCount());
+        } else {
+            if (s_logger.isTraceEnabled())
+                s_logger.trace("VmwareContextPool queue exceeds limits, queue size: " + l.size());
+            _discardedCount.incrementAndGet();
+            context.close();
+        }
+    }
 
-            if (l.size() < _maxIdleQueueLength) {
-                context.clearStockObjects();
-                l.add(context);
+    public int getIdleContextCount(String vCenterAddress, String vCenterUserName) {
+        Deque<VmwareContext> l = _pool.get(composePoolKey(vCenterAddress, vCenterUserName));
+        return l != null ? l.size() : 0;
+    }
 
-                if (s_logger.isTraceEnabled())
-                    s_logger.trace("Recycle VmwareContext into idle pool: " + context.getPoolKey() + ", current idle pool size: " + l.size() + ", outstanding count: "
-                            + VmwareContext.getOutstandingContextCount());
-            } else {
-                if (s_logger.isTraceEnabled())
-                    s_logger.trace("VmwareContextPool queue exceeds limits, queue size: " + l.size());
-                context.close();
-            }
+    public int getOutstandingContextCount() {
+        return _outstandingRegistry.size();
+    }
+
+    public long getReusedCount() {
+        return _reusedCount.get();
+    }
+
+    public long getMissedCount() {
+        return _missedCount.get();
+    }
+
+    public long getDiscardedCount() {
+        return _discardedCount.get();
+    }
+
+    private Deque<VmwareContext> getIdleQueue(String poolKey) {
+        Deque<VmwareContext> l = _pool.get(poolKey);
+        if (l == null) {
+            l = new ConcurrentLinkedDeque<VmwareContext>();
+            Deque<VmwareContext> existing = _pool.putIfAbsent(poolKey, l);
+            if (existing != null)
+                l = existing;
         }
+        return l;
     }
 
     private TimerTask getTimerTask() {
@@ -136,14 +176,16 @@ public class VmwareContextPool {
     }
 
     private void getKeepAliveCheckContexts(List<VmwareContext> l, int batchSize) {
-        synchronized (this) {
-            int size = Math.min(_outstandingRegistry.size(), batchSize);
-            while (size > 0) {
-                VmwareContext context = _outstandingRegistry.remove(0);
-                l.add(context);
-
-                _outstandingRegistry.add(context);
-                size--;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Deque<VmwareContext>> entry : _pool.entrySet()) {
+            for (VmwareContext context : entry.getValue()) {
+                if (l.size() >= batchSize)
+                    return;
+
+                // take the context out of the idle queue while it is checked so that it can't be
+                // borrowed at the same time; if it is gone it has been borrowed already
+                if (now - context.getLastValidatedTime() >= DEFAULT_IDLE_VALIDATION_INTERVAL && entry.getValue().remove(context))
+                    l.add(context);
             }
         }
     }
@@ -156,13 +198,24 @@ public class VmwareContextPool {
         getKeepAliveCheckContexts(l, batchSize);
 
         for (VmwareContext context : l) {
+            boolean valid = false;
             try {
-                context.idleCheck();
+                valid = context.validate();
             } catch (Throwable e) {
                 s_logger.warn("Exception caught during VmwareContext idle check, close and discard the context", e);
+            }
+
+            if (valid) {
+                getIdleQueue(context.getPoolKey()).offerLast(context);
+            } else {
+                _discardedCount.incrementAndGet();
                 context.close();
             }
         }
+
+        if (s_logger.isDebugEnabled() && !l.isEmpty())
+            s_logger.debug("VmwareContextPool keep-alive checked " + l.size() + " idle contexts, reused: " + _reusedCount.get() + ", missed: " + _missedCount.get()
+                    + ", discarded: " + _discardedCount.get() + ", outstanding: " + getOutstandingContextCount());
     }
 
     public static String composePoolKey(String vCenterAddress, String vCenterUserName) {
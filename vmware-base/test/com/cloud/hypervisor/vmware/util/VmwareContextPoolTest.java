@@ -0,0 +1,84 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.vmware.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class VmwareContextPoolTest {
+    private VmwareContextPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new VmwareContextPool(2, 60000);
+    }
+
+    private VmwareContext mockContext(String address, String user) {
+        VmwareContext context = mock(VmwareContext.class);
+        when(context.getPool()).thenReturn(pool);
+        when(context.getPoolKey()).thenReturn(VmwareContextPool.composePoolKey(address, user));
+        return context;
+    }
+
+    @Test
+    public void testGetContextFromEmptyPool() {
+        assertNull(pool.getContext("vc1", "admin"));
+        assertEquals(1, pool.getMissedCount());
+    }
+
+    @Test
+    public void testMostRecentlyReturnedContextIsReusedFirst() {
+        VmwareContext first = mockContext("vc1", "admin");
+        VmwareContext second = mockContext("vc1", "admin");
+        pool.returnContext(first);
+        pool.returnContext(second);
+
+        assertSame(second, pool.getContext("vc1", "admin"));
+        assertSame(first, pool.getContext("vc1", "admin"));
+        assertNull(pool.getContext("vc1", "admin"));
+        assertEquals(2, pool.getReusedCount());
+    }
+
+    @Test
+    public void testPoolsAreKeptPerVCenter() {
+        VmwareContext context = mockContext("vc1", "admin");
+        pool.returnContext(context);
+
+        assertNull(pool.getContext("vc2", "admin"));
+        assertEquals(1, pool.getIdleContextCount("vc1", "admin"));
+        assertSame(context, pool.getContext("vc1", "admin"));
+    }
+
+    @Test
+    public void testContextBeyondIdleLimitIsClosed() {
+        VmwareContext extra = mockContext("vc1", "admin");
+        pool.returnContext(mockContext("vc1", "admin"));
+        pool.returnContext(mockContext("vc1", "admin"));
+        pool.returnContext(extra);
+
+        verify(extra).close();
+        assertEquals(2, pool.getIdleContextCount("vc1", "admin"));
+        assertEquals(1, pool.getDiscardedCount());
+    }
+}